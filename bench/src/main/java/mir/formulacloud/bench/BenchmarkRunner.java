@@ -0,0 +1,31 @@
+package mir.formulacloud.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the usual JMH command line options (e.g., a regex of the benchmarks,
+ * <code>-p vocabulary=100000</code> or <code>-f 3</code>). In addition to the throughput, every run
+ * reports the allocation rates of the GC profiler and writes the results to jmh-result.json
+ * unless <code>-rff</code> specifies another file.
+ *
+ * @author Andre Greiner-Petter
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(cli)
+                .addProfiler(GCProfiler.class);
+        if ( !cli.getResult().hasValue() ){
+            options.resultFormat(ResultFormatType.JSON).result("jmh-result.json");
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,63 @@
+package mir.formulacloud.bench;
+
+import mir.formulacloud.beans.InverseDocumentFrequencies;
+import mir.formulacloud.beans.MathDocument;
+import mir.formulacloud.beans.TFIDFMathElement;
+import mir.formulacloud.beans.TFIDFOptions;
+import mir.formulacloud.beans.TermFrequencies;
+import mir.formulacloud.searcher.QueryContext;
+import mir.formulacloud.util.IntObjectHashMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scores the math of a single document by {@link MathDocument#getDocumentTFIDF(int, QueryContext)}
+ * for every combination of {@link TermFrequencies} and {@link InverseDocumentFrequencies}.
+ *
+ * @author Andre Greiner-Petter
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-Dlog4j.configurationFile=log4j2-bench.xml"})
+public class DocumentTFIDFBenchmark {
+    @Param({"BINARY", "RAW", "RELATIVE", "LOG", "NORM", "BM25"})
+    public TermFrequencies tf;
+
+    @Param({"BINARY", "IDF", "PROP_IDF", "BM25_IDF"})
+    public InverseDocumentFrequencies idf;
+
+    private QueryContext context;
+
+    private MathDocument document;
+
+    private int totalDocs;
+
+    @Setup(Level.Trial)
+    public void setup(SyntheticCollection collection){
+        context = collection.getContext().toBuilder()
+                .setOptions(new TFIDFOptions(tf, idf))
+                .build();
+        document = collection.getDocuments().get(0);
+        totalDocs = collection.getTotalDocuments();
+    }
+
+    @Benchmark
+    public IntObjectHashMap<TFIDFMathElement> documentTFIDF(){
+        return document.getDocumentTFIDF(totalDocs, context);
+    }
+}
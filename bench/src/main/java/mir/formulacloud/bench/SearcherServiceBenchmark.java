@@ -0,0 +1,75 @@
+package mir.formulacloud.bench;
+
+import mir.formulacloud.beans.MathElementAccumulator;
+import mir.formulacloud.beans.MathMergeFunctions;
+import mir.formulacloud.beans.TFIDFMathElement;
+import mir.formulacloud.searcher.QueryContext;
+import mir.formulacloud.searcher.SearcherConfig;
+import mir.formulacloud.searcher.SearcherService;
+import mir.formulacloud.util.IntObjectHashMap;
+import mir.formulacloud.util.TopKSelector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scores all hits of a search by {@link SearcherService#mapMathDocsToTFIDFElements(List, int, QueryContext)}
+ * and merges the scores by {@link SearcherService#groupTFIDFElements(IntObjectHashMap, MathMergeFunctions)}
+ * (and the top-K selection the searcher uses instead) for every {@link MathMergeFunctions}.
+ * The service is not initialized, these stages neither use Elasticsearch nor BaseX.
+ *
+ * @author Andre Greiner-Petter
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-Dlog4j.configurationFile=log4j2-bench.xml"})
+public class SearcherServiceBenchmark {
+    @Param({"AVG", "MAX", "MIN"})
+    public MathMergeFunctions mergeFunction;
+
+    @Param({"50"})
+    public int topK;
+
+    private SearcherService service;
+
+    private QueryContext context;
+
+    private IntObjectHashMap<MathElementAccumulator> elements;
+
+    @Setup(Level.Trial)
+    public void setup(SyntheticCollection collection){
+        service = new SearcherService(new SearcherConfig());
+        context = collection.getContext();
+        elements = service.mapMathDocsToTFIDFElements(collection.getDocuments(), collection.getTotalDocuments(), context);
+    }
+
+    @Benchmark
+    public IntObjectHashMap<MathElementAccumulator> mapMathDocsToTFIDFElements(SyntheticCollection collection){
+        return service.mapMathDocsToTFIDFElements(collection.getDocuments(), collection.getTotalDocuments(), context);
+    }
+
+    @Benchmark
+    public List<TFIDFMathElement> groupTFIDFElements(){
+        return service.groupTFIDFElements(elements, mergeFunction);
+    }
+
+    @Benchmark
+    public TopKSelector<TFIDFMathElement> selectTopTFIDFElements(){
+        return service.selectTopTFIDFElements(elements, mergeFunction, 1, topK);
+    }
+}
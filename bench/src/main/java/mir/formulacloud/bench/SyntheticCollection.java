@@ -0,0 +1,211 @@
+package mir.formulacloud.bench;
+
+import mir.formulacloud.beans.CollectionStatistics;
+import mir.formulacloud.beans.MathDocument;
+import mir.formulacloud.beans.MathElement;
+import mir.formulacloud.beans.MathVector;
+import mir.formulacloud.searcher.QueryContext;
+import mir.formulacloud.searcher.SearcherConfig;
+import mir.formulacloud.tfidf.BinaryDictionaryBuilder;
+import mir.formulacloud.util.MathVectorCache;
+import mir.formulacloud.util.TFIDFLoader;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * A synthetic collection for the benchmarks: TF-IDF tables of {@link #vocabulary} expressions and
+ * {@link #documents} search hits with {@link #elementsPerDocument} distinct expressions each.
+ *
+ * The expressions of the documents follow a Zipf distribution, i.e., a few expressions (like <code>mi:x</code>)
+ * appear in almost every document while most expressions appear only once. Hence, the hits share many
+ * expressions as the real search results do. The document frequencies of the tables follow the same
+ * distribution over the number of arXiv documents. Everything is generated from a fixed seed.
+ *
+ * The math of the documents is put into the {@link MathVectorCache}, so the documents load their math
+ * without BaseX. The TF-IDF tables are loaded by the {@link TFIDFLoader} as in the searcher.
+ *
+ * @author Andre Greiner-Petter
+ */
+@State(Scope.Benchmark)
+public class SyntheticCollection {
+    public static final String DATABASE = "basex-bench";
+
+    private static final long SEED = 42;
+
+    private static final int MAX_DEPTH = 8;
+
+    /**
+     * Number of expressions in the TF-IDF tables.
+     */
+    @Param({"1000000"})
+    public int vocabulary;
+
+    /**
+     * Number of search hits, i.e., documents of a single search.
+     */
+    @Param({"100"})
+    public int documents;
+
+    /**
+     * Number of distinct expressions per document.
+     */
+    @Param({"1000"})
+    public int elementsPerDocument;
+
+    /**
+     * HEAP loads the tables into the heap, BINARY maps a binary dictionary of the tables.
+     */
+    @Param({"HEAP"})
+    public String store;
+
+    private Path root;
+
+    private double[] cumulativeZipf;
+
+    private List<MathDocument> mathDocuments;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        root = Files.createTempDirectory("formulacloud-bench");
+        Random random = new Random(SEED);
+        cumulativeZipf = zipf(vocabulary);
+
+        Path tables = writeTables(root.resolve("tables"));
+        Path path = tables;
+        if ( "BINARY".equals(store) ){
+            path = root.resolve("tables.bin");
+            new BinaryDictionaryBuilder(tables, path).build();
+        }
+
+        if ( TFIDFLoader.getLoaderInstance() == null ) TFIDFLoader.initTFIDFLoader(path);
+        else TFIDFLoader.reloadTFIDFLoader(path).get(10, TimeUnit.MINUTES);
+
+        MathVectorCache.initMathVectorCache(documents, null);
+        MathVectorCache cache = MathVectorCache.getInstance();
+        QueryContext context = getContext();
+
+        mathDocuments = new ArrayList<>(documents);
+        for ( int i = 0; i < documents; i++ ){
+            String docID = "bench-" + i;
+            cache.put(docID, DATABASE, context.getMinTermFrequency(), nextVector(random));
+            MathDocument doc = new MathDocument(docID, DATABASE, 1 - i / (double) documents);
+            doc.requestMathFromBasex(context);
+            mathDocuments.add(doc);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if ( root == null ) return;
+        try ( Stream<Path> walk = Files.walk(root) ){
+            for ( Path p : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator )
+                Files.deleteIfExists(p);
+        }
+    }
+
+    /**
+     * @return the context of a search with the default settings of the searcher
+     */
+    public QueryContext getContext(){
+        return QueryContext.builder(new SearcherConfig()).build();
+    }
+
+    public List<MathDocument> getDocuments(){
+        return mathDocuments;
+    }
+
+    /**
+     * @return the number of documents in the collection, i.e., the number of arXiv documents
+     */
+    public int getTotalDocuments(){
+        return CollectionStatistics.ARXIV_DOCS;
+    }
+
+    /**
+     * @param id ID of the expression in the tables
+     * @return the expression, a nested row of {@link #getDepth(int)}
+     */
+    public static String getExpression(int id){
+        int depth = getDepth(id);
+        StringBuilder sb = new StringBuilder();
+        for ( int d = 1; d < depth; d++ ) sb.append("mrow(mi:x").append(d).append(",mo:+,");
+        sb.append("mn:").append(id);
+        for ( int d = 1; d < depth; d++ ) sb.append(")");
+        return sb.toString();
+    }
+
+    public static short getDepth(int id){
+        return (short) (1 + id % MAX_DEPTH);
+    }
+
+    /**
+     * @param random random number generator
+     * @return the ID of an expression of the tables, small IDs are the frequent ones
+     */
+    public int nextExpressionID(Random random){
+        int idx = Arrays.binarySearch(cumulativeZipf, random.nextDouble());
+        return Math.min(vocabulary - 1, idx < 0 ? -idx - 1 : idx);
+    }
+
+    private MathVector nextVector(Random random){
+        LinkedHashSet<Integer> ids = new LinkedHashSet<>();
+        while ( ids.size() < Math.min(elementsPerDocument, vocabulary) )
+            ids.add(nextExpressionID(random));
+
+        String[] expressions = new String[ids.size()];
+        short[] depths = new short[ids.size()];
+        int[] frequencies = new int[ids.size()];
+        int i = 0;
+        for ( int id : ids ){
+            expressions[i] = getExpression(id);
+            depths[i] = getDepth(id);
+            // most expressions appear once or twice in a document
+            frequencies[i] = 1 + (int) (-Math.log(1 - random.nextDouble()) * 2);
+            i++;
+        }
+        return new MathVector(expressions, depths, frequencies);
+    }
+
+    private Path writeTables(Path tables) throws IOException {
+        Files.createDirectories(tables);
+        int totalDocs = getTotalDocuments();
+        try ( BufferedWriter writer = Files.newBufferedWriter(tables.resolve("1"), StandardCharsets.UTF_8) ){
+            for ( int id = 0; id < vocabulary; id++ ){
+                int df = Math.max(1, (int) (totalDocs / Math.pow(id + 1, 0.8)));
+                MathElement element = new MathElement(getExpression(id), getDepth(id), 3 * df, df, id);
+                writer.write(element.toString());
+                writer.newLine();
+            }
+        }
+        return tables;
+    }
+
+    private static double[] zipf(int n){
+        double[] cumulative = new double[n];
+        double sum = 0;
+        for ( int i = 0; i < n; i++ ){
+            sum += 1.0 / (i + 1);
+            cumulative[i] = sum;
+        }
+        for ( int i = 0; i < n; i++ ) cumulative[i] /= sum;
+        return cumulative;
+    }
+}
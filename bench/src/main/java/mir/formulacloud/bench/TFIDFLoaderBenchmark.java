@@ -0,0 +1,78 @@
+package mir.formulacloud.bench;
+
+import mir.formulacloud.beans.MathElement;
+import mir.formulacloud.util.TFIDFLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups of the {@link TFIDFLoader} by expression (known and unknown expressions) and by global ID.
+ * The known expressions and IDs follow the distribution of the expressions in documents.
+ * Run it with <code>-p store=HEAP,BINARY</code> to compare the heap tables with a binary dictionary.
+ *
+ * @author Andre Greiner-Petter
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-Dlog4j.configurationFile=log4j2-bench.xml"})
+public class TFIDFLoaderBenchmark {
+    private static final int LOOKUPS = 1024;
+
+    private TFIDFLoader loader;
+
+    private String[] known;
+    private String[] unknown;
+    private int[] ids;
+
+    @Setup(Level.Trial)
+    public void setup(SyntheticCollection collection){
+        loader = TFIDFLoader.getLoaderInstance();
+        Random random = new Random(7);
+        known = new String[LOOKUPS];
+        unknown = new String[LOOKUPS];
+        ids = new int[LOOKUPS];
+        for ( int i = 0; i < LOOKUPS; i++ ){
+            ids[i] = collection.nextExpressionID(random);
+            known[i] = SyntheticCollection.getExpression(ids[i]);
+            unknown[i] = SyntheticCollection.getExpression(collection.vocabulary + ids[i]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void lookupKnownExpression(Blackhole bh){
+        for ( String expression : known ) bh.consume(loader.getMathElement(expression));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void lookupUnknownExpression(Blackhole bh){
+        for ( String expression : unknown ) bh.consume(loader.getMathElement(expression));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void lookupID(Blackhole bh){
+        for ( int id : ids ){
+            MathElement element = loader.getMathElement(id);
+            bh.consume(element);
+        }
+    }
+}
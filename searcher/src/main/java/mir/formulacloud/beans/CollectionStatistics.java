@@ -0,0 +1,58 @@
+package mir.formulacloud.beans;
+
+/**
+ * Statistics of a collection that are needed to calculate BM25, i.e., the average document length
+ * (number of math expressions per document) and the average complexity (depth) of the math.
+ *
+ * @author Andre Greiner-Petter
+ */
+public final class CollectionStatistics {
+    public static final int ARXIV_DOCS   =   841_008;
+    public static final int ZBMATH_DOCS  = 1_349_297;
+
+    private static final int ARXIV_MATH  = 2_080_634_554;
+    private static final int ZBMATH_MATH =    61_355_307;
+
+    public static final CollectionStatistics ARXIV = new CollectionStatistics(
+            "arxiv", ARXIV_MATH / (double) ARXIV_DOCS, 4.59
+    );
+
+    public static final CollectionStatistics ZBMATH = new CollectionStatistics(
+            "zbmath", ZBMATH_MATH / (double) ZBMATH_DOCS, 4.89
+    );
+
+    private final String name;
+    private final double avgDL;
+    private final double avgC;
+
+    public CollectionStatistics(String name, double averageDocumentLength, double averageComplexity){
+        this.name = name;
+        this.avgDL = averageDocumentLength;
+        this.avgC = averageComplexity;
+    }
+
+    /**
+     * @param index the Elasticsearch index
+     * @return the statistics of zbMATH for the zbmath index and of arXiv otherwise
+     */
+    public static CollectionStatistics forIndex(String index){
+        return ZBMATH.name.equals(index) ? ZBMATH : ARXIV;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getAverageDocumentLength() {
+        return avgDL;
+    }
+
+    public double getAverageComplexity() {
+        return avgC;
+    }
+
+    @Override
+    public String toString(){
+        return name + " [avgDL: " + avgDL + ", avgC: " + avgC + "]";
+    }
+}
@@ -4,5 +4,5 @@ package mir.formulacloud.beans;
  * @author Andre Greiner-Petter
  */
 public interface ITermFrequencyCalculator {
-    double calculate(long raw, long total);
+    double calculate(long raw, long total, CollectionStatistics statistics);
 }
@@ -1,10 +1,12 @@
 package mir.formulacloud.beans;
 
 import com.formulasearchengine.mathosphere.basex.BaseXClient;
-import mir.formulacloud.searcher.SearcherConfig;
+import mir.formulacloud.searcher.QueryContext;
 import mir.formulacloud.tfidf.BaseXController;
 import mir.formulacloud.tfidf.BaseXRequestMapper;
-import mir.formulacloud.util.Constants;
+import mir.formulacloud.util.ForwardIndex;
+import mir.formulacloud.util.IntObjectHashMap;
+import mir.formulacloud.util.MathVectorCache;
 import mir.formulacloud.util.TFIDFLoader;
 import mir.formulacloud.util.XQueryLoader;
 import org.apache.logging.log4j.LogManager;
@@ -12,15 +14,18 @@ import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
-import java.util.regex.Matcher;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 /**
  * @author Andre Greiner-Petter
  */
 public class MathDocument {
-    public static int counter = 0;
+    // number of documents that requested math from BaseX, documents request their math concurrently
+    private static final AtomicInteger counter = new AtomicInteger();
 
     private static final Logger LOG = LogManager.getLogger(MathDocument.class.getName());
 
@@ -32,11 +37,23 @@ public class MathDocument {
     private String basexDB;
     private String arxivURL;
 
-    private String xQuery;
+    // the zbMATH collection of this document or null, see getXQuery
+    private String collection;
+
+    // true if the whole collection is requested at once
+    private boolean wholeCollection = false;
+
+    // true if the default term extraction script is used for this document
+    private boolean batchable = false;
 
     private int documentLength = 0;
 
-    private HashMap<String, MathElement> mathElements;
+    // math elements of this document by their global IDs
+    private IntObjectHashMap<MathElement> mathElements;
+
+    // max and sum of the frequencies of all math elements with the minimum depth
+    private int maxFrequency = 0;
+    private int sumOfFrequencies = 0;
 
     private ArrayList<Integer> maxCountPerDepthTable;
     private int maxComplexity = 0;
@@ -44,27 +61,12 @@ public class MathDocument {
 
     private double esSearchPrecision;
 
-    public static final int ARXIV_DOCS   =   841_008;
-    public static final int ZBMATH_DOCS  = 1_349_297;
-
-    private static final int ARXIV_MATH  = 2_080_634_554;
-    private static final int ZBMATH_MATH =    61_355_307;
-
-    public static final double ARXIV_AVGC  = 4.59;
-    public static final double ZBMATH_AVGC = 4.89;
-
-    public static final double ARXIV_AVGDL  = ARXIV_MATH / (double) ARXIV_DOCS;
-    public static final double ZBMATH_AVGDL = ZBMATH_MATH / (double) ZBMATH_DOCS;
-
-    private static double AVGDL = ARXIV_AVGDL;
-    private static double AVGC  = ARXIV_AVGC;
-
     public MathDocument(String docID, String basexDB, double elasticsearchPrecision){
         this.docID = docID;
         this.basexDB = basexDB;
         this.esSearchPrecision = elasticsearchPrecision;
-        this.mathElements = new HashMap<>();
-        this.xQuery = "XQUERY " + XQueryLoader.getScript(docID);
+        this.mathElements = new IntObjectHashMap<>();
+        this.batchable = true;
         this.maxCountPerDepthTable = new ArrayList<>();
     }
 
@@ -72,8 +74,9 @@ public class MathDocument {
         this.docID = collection;
         this.basexDB = basexDB;
         this.esSearchPrecision = 0;
-        this.mathElements = new HashMap<>();
-        this.xQuery = "XQUERY " + XQueryLoader.getZBScript(collection);
+        this.mathElements = new IntObjectHashMap<>();
+        this.collection = collection;
+        this.wholeCollection = true;
         this.maxCountPerDepthTable = new ArrayList<>();
     }
 
@@ -81,27 +84,26 @@ public class MathDocument {
         this.docID = docID;
         this.basexDB = basexDB;
         this.esSearchPrecision = 0;
-        this.mathElements = new HashMap<>();
-        this.xQuery = "XQuery " + XQueryLoader.getZBScriptForSingleDoc(collection, docID);
+        this.mathElements = new IntObjectHashMap<>();
+        this.collection = collection;
         this.maxCountPerDepthTable = new ArrayList<>();
     }
 
-    public static void setArxivMode(){
-        AVGDL = ARXIV_AVGDL;
-        AVGC  = ARXIV_AVGC;
+    /**
+     * @return number of documents that requested their math from BaseX so far
+     */
+    public static int getNumberOfRequestedDocuments(){
+        return counter.get();
     }
 
-    public static void setZBMATHMode(){
-        AVGDL = ZBMATH_AVGDL;
-        AVGC  = ZBMATH_AVGC;
-    }
-
-    public static double getCurrentAVGDL(){
-        return AVGDL;
-    }
-
-    public static double getCurrentAVGC() {
-        return AVGC;
+    /**
+     * @param minTermFrequency minimum frequency of an expression in this document
+     * @return the query that extracts the math of this document
+     */
+    private String getXQuery(int minTermFrequency){
+        if ( batchable ) return "XQUERY " + XQueryLoader.getScript(docID, minTermFrequency);
+        if ( wholeCollection ) return "XQUERY " + XQueryLoader.getZBScript(collection, minTermFrequency);
+        return "XQuery " + XQueryLoader.getZBScriptForSingleDoc(collection, docID, minTermFrequency);
     }
 
     public String getDocID() {
@@ -124,22 +126,26 @@ public class MathDocument {
         return esSearchPrecision;
     }
 
-    public void requestMathFromBasex(SearcherConfig config){
-        this.mathElements = new HashMap<>();
-
+    public void requestMathFromBasex(QueryContext context){
         if (basexDB == null || basexDB.isEmpty()){
             // this document dont have math... only text
+            reset();
             LOG.debug("Cannot receive math for document " + docID + " because it doesn't have math.");
-            counter++;
+            counter.incrementAndGet();
 //            System.out.print("\r"+counter);
             return;
         }
 
+        if (loadFromCache(context)) return;
+        requestSingleFromBasex(context);
+    }
+
+    private void requestSingleFromBasex(QueryContext context){
         BaseXClient client = BaseXController.getBaseXClientByDatabase(basexDB);
 
         long start = System.currentTimeMillis(); // measure time elapsed
         try {
-            String results = client.execute(xQuery);
+            String results = client.execute(getXQuery(context.getMinTermFrequency()));
 
             long stop = System.currentTimeMillis() - start;
             LOG.debug("Received results from BaseX [" + docID + "]. Time Elapsed: " + stop + "ms");
@@ -148,87 +154,208 @@ public class MathDocument {
             // don't use client anymore!
             client = null;
 
-            int minD = config.getMinDepth();
-            Matcher matcher = Constants.BASEX_ELEMENT_PATTERN.matcher(results);
+            parseBasexResults(results, context);
+        } catch (IOException e) {
+            reset();
+            LOG.error("Not able to receive math from BaseX for Document " + docID, e);
+            // other requests wait for this client
+            if ( client != null ) BaseXController.returnBaseXClientByDatabase(basexDB, client);
+            counter.incrementAndGet();
+//            System.out.print("\r"+counter);
+        }
+    }
 
-            while(matcher.find()){
-                MathElement element = new MathElement(
-                        matcher.group(Constants.BX_IDX_EXPR),
-                        Short.parseShort(matcher.group(Constants.BX_IDX_DEPTH)),
-                        Integer.parseInt(matcher.group(Constants.BX_IDX_FREQ)),
-                        1
-                );
+    /**
+     * @return true if the math of this document can be requested together with other
+     * documents of the same database by {@link #requestMathFromBasex(List, QueryContext)}
+     */
+    public boolean isBatchable() {
+        return batchable && basexDB != null && !basexDB.isEmpty();
+    }
 
-                this.documentLength += element.getTotalFrequency();
-                this.avgComplexity += element.getDepth();
+    /**
+     * Requests the math of all given documents by a single query. All documents must be
+     * batchable (see {@link #isBatchable()}) and belong to the same database.
+     * @param documents documents of the same database
+     * @param context the settings of the search
+     */
+    public static void requestMathFromBasex(List<MathDocument> documents, QueryContext context){
+        documents = documents.stream()
+                .filter( doc -> !doc.loadFromCache(context) )
+                .collect(Collectors.toList());
+        if (documents.isEmpty()) return;
+        if (documents.size() == 1){
+            documents.get(0).requestSingleFromBasex(context);
+            return;
+        }
 
-                if ( element.getDepth() >= minD ){
-                    int d = element.getDepth();
-                    while ( maxCountPerDepthTable.size() < d ){
-                        maxCountPerDepthTable.add(0);
-                    }
+        String db = documents.get(0).basexDB;
+        List<String> ids = documents.stream().map(MathDocument::getDocID).collect(Collectors.toList());
+        BaseXClient client = BaseXController.getBaseXClientByDatabase(db);
 
-                    if ( maxComplexity < d ){
-                        maxComplexity = d;
-                    }
+        long start = System.currentTimeMillis(); // measure time elapsed
+        try {
+            String results = client.execute("XQUERY " + XQueryLoader.getBatchScript(ids, context.getMinTermFrequency()));
 
-//                    maxCountPerDepthTable.set(
-//                            d-1,
-//                            maxCountPerDepthTable.get(d-1) + element.getTotalFrequency()
-//                    );
+            long stop = System.currentTimeMillis() - start;
+            LOG.debug("Received results from BaseX [" + documents.size() + " documents in " + db + "]. Time Elapsed: " + stop + "ms");
 
-                    if ( maxCountPerDepthTable.get(d-1) < element.getTotalFrequency() ){
-                        maxCountPerDepthTable.set(d-1, (int)element.getTotalFrequency());
-                    }
+            BaseXController.returnBaseXClientByDatabase(db, client);
+            // don't use client anymore!
+            client = null;
 
-                    this.mathElements.put(element.getExpression(), element);
+            LinkedHashMap<String, String> resultsPerDoc = XQueryLoader.splitBatchResult(results);
+            for (MathDocument doc : documents){
+                String docResults = resultsPerDoc.get(doc.docID);
+                if (docResults == null){
+                    // no empty math vector in the cache, the document might be added to the database later
+                    LOG.warn("BaseX database " + db + " does not contain document " + doc.docID);
+                    doc.reset();
+                    counter.incrementAndGet();
+                    continue;
                 }
+                doc.parseBasexResults(docResults, context);
             }
+        } catch (IOException e) {
+            LOG.error("Not able to receive math from BaseX for Documents " + ids, e);
+            // other requests wait for this client
+            if ( client != null ) BaseXController.returnBaseXClientByDatabase(db, client);
+            for (MathDocument doc : documents){
+                doc.reset();
+                counter.incrementAndGet();
+            }
+        }
+    }
 
-            this.avgComplexity = this.avgComplexity / (double)this.documentLength;
+    private void reset(){
+        this.mathElements = new IntObjectHashMap<>();
+        this.maxFrequency = 0;
+        this.sumOfFrequencies = 0;
+        this.documentLength = 0;
+        this.avgComplexity = 0;
+        this.maxComplexity = 0;
+        this.maxCountPerDepthTable = new ArrayList<>();
+    }
 
-            LOG.info("Finished requests for document " + docID + " [math elements: " + mathElements.size() + "]");
-            counter++;
-//            System.out.print("\r"+counter);
-        } catch (IOException e) {
-            LOG.error("Not able to receive math from BaseX for Document " + docID, e);
-            counter++;
-//            System.out.print("\r"+counter);
+    /**
+     * @return true if the math of this document was found in the {@link ForwardIndex} or {@link MathVectorCache}
+     */
+    private boolean loadFromCache(QueryContext context){
+        if (!isBatchable()) return false;
+
+        // the index contains the math of a single minimum term frequency, other requests use the cache or BaseX.
+        // Document IDs are unique per database only, hence the database must match too.
+        ForwardIndex index = ForwardIndex.getInstance();
+        MathVector vector = index == null || index.getMinTermFrequency() != context.getMinTermFrequency() ||
+                !basexDB.equals(index.getDatabase(docID)) ? null : index.getMathVector(docID);
+        if (vector != null){
+            LOG.debug("Found math of document " + docID + " in forward index.");
+            setMathVector(vector, context);
+            return true;
         }
+
+        MathVectorCache cache = MathVectorCache.getInstance();
+        vector = cache == null ? null : cache.get(docID, basexDB, context.getMinTermFrequency());
+        if (vector == null) return false;
+
+        LOG.debug("Found math of document " + docID + " in cache.");
+        setMathVector(vector, context);
+        return true;
     }
 
-    public HashMap<String, TFIDFMathElement> getDocumentTFIDF(int totalDocs, int minDocFrq, int maxDocFrq, SearcherConfig config){
-        return getDocumentTFIDF(totalDocs, minDocFrq, maxDocFrq, TFIDFOptions.getDefaultTFIDFOption(), config);
+    private void parseBasexResults(String results, QueryContext context){
+        MathVector vector = MathVector.parse(results);
+        MathVectorCache cache = MathVectorCache.getInstance();
+        // other scripts extract different math for the same document
+        if (cache != null && isBatchable())
+            cache.put(docID, basexDB, context.getMinTermFrequency(), vector);
+        setMathVector(vector, context);
+    }
+
+    private void setMathVector(MathVector vector, QueryContext context){
+        reset();
+        int minD = context.getMinDepth();
+        TFIDFLoader tfidfReg = context.getLoader();
+
+        // the maximum frequencies per depth are part of the vector, only depths below the minimum are ignored
+        this.documentLength = vector.getDocumentLength();
+        int[] maxPerDepth = vector.getMaxFrequencyPerDepth();
+        if ( maxPerDepth.length >= minD ){
+            for ( int d = 1; d <= maxPerDepth.length; d++ ){
+                int max = d < minD ? 0 : maxPerDepth[d-1];
+                maxCountPerDepthTable.add(max);
+                if ( maxFrequency < max ) maxFrequency = max;
+            }
+            maxComplexity = maxPerDepth.length;
+        }
+
+        for (int i = 0; i < vector.size(); i++){
+            this.avgComplexity += vector.getDepth(i);
+            if ( vector.getDepth(i) < minD ) continue;
+
+            sumOfFrequencies += vector.getFrequency(i);
+
+            // the only lookup by expression (its hash), afterwards the element is identified by its global ID
+            MathElement tfidfReference = tfidfReg.getMathElement(vector.getHash(i), vector.getExpression(i));
+            if ( tfidfReference == null ){
+//                LOG.warn("Not able to find frequencies value for " + vector.getExpression(i));
+                continue;
+            }
+
+            MathElement element = new MathElement(
+                    vector.getExpression(i),
+                    vector.getDepth(i),
+                    vector.getFrequency(i),
+                    1,
+                    tfidfReference.getId()
+            );
+            this.mathElements.put(element.getId(), element);
+        }
+
+        this.avgComplexity = this.avgComplexity / (double)this.documentLength;
+
+        LOG.info("Finished requests for document " + docID + " [math elements: " + mathElements.size() + "]");
+        counter.incrementAndGet();
+//        System.out.print("\r"+counter);
     }
 
-    public HashMap<String, TFIDFMathElement> getDocumentTFIDF(int totalDocs, int minDocFrq, int maxDocFrq, TFIDFOptions options, SearcherConfig config){
+    /**
+     * Calculates the TF-IDF values of the math of this document with the DF limits, TF-IDF options
+     * and collection statistics of the given context.
+     * @param totalDocs number of documents in the collection
+     * @param context the settings of the search
+     * @return the TF-IDF values by the global IDs of the math elements
+     */
+    public IntObjectHashMap<TFIDFMathElement> getDocumentTFIDF(int totalDocs, QueryContext context){
         if (mathElements == null){
             LOG.warn("Requested document TF-IDF values but did not request math from BaseX yet. Invoke requestMathFromBasex() first.");
-            requestMathFromBasex(config);
+            requestMathFromBasex(context);
         }
 
         if (mathElements.isEmpty()){
             // might be an empty document... so just return 0
-            return new HashMap<>();
+            return new IntObjectHashMap<>();
         }
 
-        TFIDFLoader tfidfReg = TFIDFLoader.getLoaderInstance();
+        TFIDFLoader tfidfReg = context.getLoader();
+        TFIDFOptions options = context.getOptions();
+        CollectionStatistics statistics = context.getCollectionStatistics();
+        int minDocFrq = context.getMinDocumentFrequency();
+        int maxDocFrq = context.getMaxDocumentFrequency();
         TermFrequencies tfSetting = options.getTfOption();
         InverseDocumentFrequencies idfSetting = options.getIdfOption();
 
         // the total number of math elements in this document or max number of math of one type
-        int total = tfSetting.equals(TermFrequencies.NORM) ?
-                (int)getMaxFrequency(mathElements).getTotalFrequency() :
-                getSumOfFrequencies(mathElements);
+        int total = tfSetting.equals(TermFrequencies.NORM) ? maxFrequency : sumOfFrequencies;
 
         boolean bm25 = false;
         if ( tfSetting.equals(TermFrequencies.BM25) ){
             bm25 = true;
         }
 
-        HashMap<String, TFIDFMathElement> tfidfElements = new HashMap<>();
+        IntObjectHashMap<TFIDFMathElement> tfidfElements = new IntObjectHashMap<>(mathElements.size());
         for ( MathElement docMathElement : mathElements.values() ){
-            MathElement tfidfReference = tfidfReg.getMathElement(docMathElement.getExpression());
+            MathElement tfidfReference = tfidfReg.getMathElement(docMathElement.getId());
 
             if ( tfidfReference == null ){
 //                LOG.warn("Not able to find frequencies value for " + docMathElement.getExpression());
@@ -247,7 +374,7 @@ public class MathDocument {
 //                totalPerDepth = maxCountPerDepthTable.get(docMathElement.getDepth()-1);
 //            } catch (Exception e){}
 
-            double tf = tfSetting.calculate(docMathElement.getTotalFrequency(), total);
+            double tf = tfSetting.calculate(docMathElement.getTotalFrequency(), total, statistics);
 
 //            if ( bm25 ) {
 //                total = documentLength;
@@ -259,8 +386,8 @@ public class MathDocument {
                 double b = options.getB();
 
                 total = maxCountPerDepthTable.get(docMathElement.getDepth()-1);
-                tf = (docMathElement.getTotalFrequency() * (k + 1)) / (total + k*(1-b+b*((AVGDL)/(this.documentLength*this.avgComplexity))));
-//                tf = (docMathElement.getTotalFrequency() * (k + 1)) / (total + k*(1-b+b*(AVGDL/this.documentLength)));
+                tf = (docMathElement.getTotalFrequency() * (k + 1)) / (total + k*(1-b+b*((statistics.getAverageDocumentLength())/(this.documentLength*this.avgComplexity))));
+//                tf = (docMathElement.getTotalFrequency() * (k + 1)) / (total + k*(1-b+b*(statistics.getAverageDocumentLength()/this.documentLength)));
 
                 double innerIDF = idfSetting.calculate(docMathElement.getTotalFrequency(), this.documentLength);
                 tf *= innerIDF;
@@ -272,27 +399,18 @@ public class MathDocument {
             TFIDFMathElement e = new TFIDFMathElement(
                     docMathElement, tf*idf
             );
-            tfidfElements.put(e.getExpression(), e);
+            tfidfElements.put(e.getId(), e);
         }
 
         return tfidfElements;
     }
 
-    public static MathElement getMaxFrequency(HashMap<String, MathElement> elements){
-        MathElement max = null;
-        for ( MathElement e : elements.values() ){
-            if ( max == null || max.getTotalFrequency() < e.getTotalFrequency() ){
-                max = e;
-            }
-        }
-        return max;
+    public int getMaxFrequency(){
+        return maxFrequency;
     }
 
-    public static int getSumOfFrequencies(HashMap<String, MathElement> elements){
-        int sum = 0;
-        for ( MathElement e : elements.values() )
-            sum += e.getTotalFrequency();
-        return sum;
+    public int getSumOfFrequencies(){
+        return sumOfFrequencies;
     }
 
     @Override
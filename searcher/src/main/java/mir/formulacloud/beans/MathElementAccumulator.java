@@ -0,0 +1,114 @@
+package mir.formulacloud.beans;
+
+/**
+ * Folds the TF-IDF scores of one math element over all hits (documents) into running statistics,
+ * i.e., max, min, sum and number of hits of the scores and the total frequency over all hits.
+ * Hence, the merged score ({@link MathMergeFunctions}) is available without keeping every single hit.
+ *
+ * Accumulators of parallel workers are combined via {@link #merge(MathElementAccumulator)}.
+ * An accumulator is not thread-safe.
+ *
+ * @author Andre Greiner-Petter
+ */
+public class MathElementAccumulator {
+    // the element of the first hit (in order of the documents) represents the merged element
+    private TFIDFMathElement reference;
+    private int referenceDocument;
+
+    private double max = Double.NEGATIVE_INFINITY;
+    private double min = Double.POSITIVE_INFINITY;
+    private double sum = 0;
+    private int hits = 0;
+    private int totalFrequency = 0;
+
+    public MathElementAccumulator(){}
+
+    /**
+     * @param element the element of a hit
+     * @param document position of the document in the list of hits
+     * @return this accumulator
+     */
+    public MathElementAccumulator add(TFIDFMathElement element, int document){
+        if ( reference == null || document < referenceDocument ){
+            reference = element;
+            referenceDocument = document;
+        }
+
+        double score = element.getScore();
+        if ( score > max ) max = score;
+        if ( score < min ) min = score;
+        sum += score;
+        hits++;
+        totalFrequency += element.getTotalFrequency();
+        return this;
+    }
+
+    /**
+     * Adds the statistics of the other accumulator (of the same math element) to this accumulator.
+     * @param other accumulator of the same math element
+     * @return this accumulator
+     */
+    public MathElementAccumulator merge(MathElementAccumulator other){
+        if ( other.hits == 0 ) return this;
+        if ( reference == null || other.referenceDocument < referenceDocument ){
+            reference = other.reference;
+            referenceDocument = other.referenceDocument;
+        }
+
+        max = Math.max(max, other.max);
+        min = Math.min(min, other.min);
+        sum += other.sum;
+        hits += other.hits;
+        totalFrequency += other.totalFrequency;
+        return this;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * @return the number of hits (documents) that contain the math element
+     */
+    public int getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the sum of the term frequencies over all hits
+     */
+    public int getTotalFrequency() {
+        return totalFrequency;
+    }
+
+    public TFIDFMathElement getReference() {
+        return reference;
+    }
+
+    /**
+     * @param mergeFunction the function that merges the scores of all hits
+     * @return the merged element, its TF is the total frequency and its DF the number of hits
+     */
+    public TFIDFMathElement toTFIDFMathElement(MathMergeFunctions mergeFunction){
+        return toTFIDFMathElement(mergeFunction.calculate(this));
+    }
+
+    /**
+     * @param score the merged score
+     * @return the merged element, its TF is the total frequency and its DF the number of hits
+     */
+    public TFIDFMathElement toTFIDFMathElement(double score){
+        TFIDFMathElement element = new TFIDFMathElement(reference, score);
+        element.setTotalFrequency(totalFrequency);
+        element.setDocFrequency(hits);
+        return element;
+    }
+}
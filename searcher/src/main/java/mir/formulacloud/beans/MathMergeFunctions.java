@@ -1,22 +1,34 @@
 package mir.formulacloud.beans;
 
 import java.util.Arrays;
+import java.util.function.ToDoubleFunction;
 
 /**
  * @author Andre Greiner-Petter
  */
 public enum MathMergeFunctions {
-    AVG((a) -> Arrays.stream(a).average().getAsDouble()),
-    MAX((a) -> Arrays.stream(a).max().getAsDouble()),
-    MIN((a) -> Arrays.stream(a).min().getAsDouble());
+    AVG((a) -> Arrays.stream(a).average().getAsDouble(), acc -> acc.getSum() / acc.getHits()),
+    MAX((a) -> Arrays.stream(a).max().getAsDouble(), MathElementAccumulator::getMax),
+    MIN((a) -> Arrays.stream(a).min().getAsDouble(), MathElementAccumulator::getMin);
 
     private IMathMergeFunction mergeFunction;
 
-    MathMergeFunctions(IMathMergeFunction mergeFunction) {
+    private ToDoubleFunction<MathElementAccumulator> accumulatedFunction;
+
+    MathMergeFunctions(IMathMergeFunction mergeFunction, ToDoubleFunction<MathElementAccumulator> accumulatedFunction) {
         this.mergeFunction = mergeFunction;
+        this.accumulatedFunction = accumulatedFunction;
     }
 
     public double calculate(double... a) {
         return mergeFunction.calculate(a);
     }
+
+    /**
+     * @param accumulator the running statistics of the scores of all hits
+     * @return the merged score
+     */
+    public double calculate(MathElementAccumulator accumulator) {
+        return accumulatedFunction.applyAsDouble(accumulator);
+    }
 }
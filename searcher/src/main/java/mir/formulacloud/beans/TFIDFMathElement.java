@@ -14,7 +14,8 @@ public class TFIDFMathElement extends MathElement {
                 parent.getExpression(),
                 parent.getDepth(),
                 parent.getTotalFrequency(),
-                parent.getDocFrequency()
+                parent.getDocFrequency(),
+                parent.getId()
         );
         this.score = score;
     }
@@ -25,7 +26,7 @@ public class TFIDFMathElement extends MathElement {
 
     @Override
     public String toString(){
-        MathElement global = TFIDFLoader.getLoaderInstance().getMathElement(getExpression());
+        MathElement global = TFIDFLoader.getLoaderInstance().getMathElement(getId());
         String out = getExpression();
         out += " -> TFIDF Score: " + getScore();
         out += " [depth: " + getDepth();
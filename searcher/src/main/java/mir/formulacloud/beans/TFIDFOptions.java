@@ -39,6 +39,11 @@ public class TFIDFOptions {
         return idfOption;
     }
 
+    @Override
+    public String toString(){
+        return tfOption + "-" + idfOption + " [k1: " + k1 + ", b: " + b + "]";
+    }
+
     public static TFIDFOptions getDefaultTFIDFOption(){
         return new TFIDFOptions(TermFrequencies.BM25, InverseDocumentFrequencies.IDF);
     }
@@ -4,15 +4,15 @@ package mir.formulacloud.beans;
  * @author Andre Greiner-Petter
  */
 public enum TermFrequencies {
-    BINARY(     (r,t) -> r > 0 ? 1 : 0),
-    RAW(        (r,t) -> r),
-    RELATIVE(   (r,t) -> r/(double)t),
-    LOG(        (r,t) -> Math.log(1+r)),
-    NORM(       (r,t) -> 0.5+0.5*(r/(double)t)), // note that t isn't total but max
-    BM25(       (r,t) ->
+    BINARY(     (r,t,s) -> r > 0 ? 1 : 0),
+    RAW(        (r,t,s) -> r),
+    RELATIVE(   (r,t,s) -> r/(double)t),
+    LOG(        (r,t,s) -> Math.log(1+r)),
+    NORM(       (r,t,s) -> 0.5+0.5*(r/(double)t)), // note that t isn't total but max
+    BM25(       (r,t,s) ->
             r * (TermFrequencies.k1+1)
                     / (r + TermFrequencies.k1*(
-                            1-TermFrequencies.b + TermFrequencies.b*t/MathDocument.getCurrentAVGDL()
+                            1-TermFrequencies.b + TermFrequencies.b*t/s.getAverageDocumentLength()
                     ))
     );
 
@@ -25,7 +25,13 @@ public enum TermFrequencies {
         this.calculator = calculator;
     }
 
-    public double calculate(long raw, long total){
-        return this.calculator.calculate(raw, total);
+    /**
+     * @param raw frequency of the term in the document
+     * @param total number of terms in the document (max frequency for {@link #NORM})
+     * @param statistics statistics of the collection of the document (needed for {@link #BM25})
+     * @return the term frequency
+     */
+    public double calculate(long raw, long total, CollectionStatistics statistics){
+        return this.calculator.calculate(raw, total, statistics);
     }
 }
@@ -8,12 +8,17 @@ import org.apache.logging.log4j.Logger;
 import org.elasticsearch.action.get.GetRequest;
 import org.elasticsearch.action.get.GetRequestBuilder;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexRequestBuilder;
 import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.action.main.MainResponse;
+import org.elasticsearch.action.search.ClearScrollRequest;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
 import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestHighLevelClient;
@@ -22,9 +27,12 @@ import org.elasticsearch.client.core.CountResponse;
 import org.elasticsearch.client.indices.GetIndexRequest;
 import org.elasticsearch.client.indices.GetIndexResponse;
 import org.elasticsearch.client.ml.GetRecordsRequest;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.index.query.*;
+import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
 import org.elasticsearch.search.suggest.Suggest;
 import org.elasticsearch.search.suggest.SuggestBuilder;
 import org.elasticsearch.search.suggest.SuggestBuilders;
@@ -34,7 +42,15 @@ import org.elasticsearch.search.suggest.term.TermSuggestion;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * @author Andre Greiner-Petter
@@ -47,9 +63,14 @@ public class ElasticSearchConnector {
 
     private static final String SUGGESTION_ID = "suggest_similar_content";
 
+    private static final TimeValue SCROLL_KEEP_ALIVE = TimeValue.timeValueMinutes(1);
+
     private RestHighLevelClient client;
     private SearcherConfig config;
 
+    // concurrent multi-get requests, see getIDs
+    private ExecutorService multiGetExecutor;
+
     public ElasticSearchConnector(SearcherConfig config){
         this.config = config;
     }
@@ -70,9 +91,17 @@ public class ElasticSearchConnector {
                         )
                 )
         );
+
+        AtomicInteger threadCounter = new AtomicInteger();
+        multiGetExecutor = Executors.newFixedThreadPool(Math.max(1, config.getMultiGetParallelRequests()), r -> {
+            Thread t = new Thread(r, "es-mget-" + threadCounter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
     }
 
     public void stop(){
+        if (multiGetExecutor != null) multiGetExecutor.shutdownNow();
         try {
             client.close();
         } catch (IOException e) {
@@ -81,6 +110,10 @@ public class ElasticSearchConnector {
     }
 
     public SearchRequest createEnhancedSearchRequest(String searchQuery, @NotNull String... indices){
+        return createEnhancedSearchRequest(searchQuery, config.getElasticsearchMaxHits(), indices);
+    }
+
+    public SearchRequest createEnhancedSearchRequest(String searchQuery, int size, @NotNull String... indices){
         // must match the given searchQuery at least 50% (the half of words must match)
         MatchQueryBuilder matchQB = QueryBuilders.matchQuery("content", searchQuery);
         matchQB.minimumShouldMatch("50%");
@@ -102,7 +135,7 @@ public class ElasticSearchConnector {
 
         SearchSourceBuilder sb = new SearchSourceBuilder();
         sb.query(bqb);
-        sb.size(config.getElasticsearchMaxHits());
+        sb.size(size);
         sb.fetchSource(INCLUDE_FIELDS, EXCLUDE_FIELDS);
 
         // optional
@@ -116,7 +149,11 @@ public class ElasticSearchConnector {
     }
 
     public SearchHits search(String searchQuery, @NotNull String... indices){
-        SearchRequest request = createEnhancedSearchRequest(searchQuery, indices);
+        return search(searchQuery, config.getElasticsearchMaxHits(), indices);
+    }
+
+    public SearchHits search(String searchQuery, int maxHits, @NotNull String... indices){
+        SearchRequest request = createEnhancedSearchRequest(searchQuery, maxHits, indices);
         try {
             SearchResponse response = client.search(request, RequestOptions.DEFAULT);
             return response.getHits();
@@ -126,8 +163,66 @@ public class ElasticSearchConnector {
         }
     }
 
+    /**
+     * Same as {@link #search(String, String...)} but scrolls through the hits page by page. Every page is passed
+     * to the consumer as soon as it arrives, hence the hits of a page can be processed while the next page is requested.
+     * Stops after the maximum number of hits (see {@link SearcherConfig#getElasticsearchMaxHits()}).
+     * @param searchQuery the search query
+     * @param pageSize number of hits per page
+     * @param pageConsumer receives the pages in order of the hits
+     * @param indices the indices
+     * @return the number of received hits
+     */
+    public int scroll(String searchQuery, int pageSize, Consumer<SearchHit[]> pageConsumer, @NotNull String... indices){
+        return scroll(searchQuery, pageSize, config.getElasticsearchMaxHits(), pageConsumer, indices);
+    }
+
+    /**
+     * Same as {@link #scroll(String, int, Consumer, String...)} but stops after the given maximum number of hits.
+     */
+    public int scroll(String searchQuery, int pageSize, int maxHits, Consumer<SearchHit[]> pageConsumer, @NotNull String... indices){
+        SearchRequest request = createEnhancedSearchRequest(searchQuery, Math.max(1, Math.min(pageSize, maxHits)), indices);
+        request.scroll(SCROLL_KEEP_ALIVE);
+
+        int received = 0;
+        String scrollId = null;
+        try {
+            SearchResponse response = client.search(request, RequestOptions.DEFAULT);
+            while (true){
+                scrollId = response.getScrollId();
+                SearchHit[] hits = response.getHits().getHits();
+                if (hits.length == 0) break;
+                if (received + hits.length > maxHits)
+                    hits = Arrays.copyOf(hits, maxHits - received);
+
+                received += hits.length;
+                pageConsumer.accept(hits);
+                if (received >= maxHits) break;
+
+                SearchScrollRequest scrollRequest = new SearchScrollRequest(scrollId);
+                scrollRequest.scroll(SCROLL_KEEP_ALIVE);
+                response = client.scroll(scrollRequest, RequestOptions.DEFAULT);
+            }
+        } catch (IOException ioe) {
+            LOG.error("Cannot scroll through the hits of query " + searchQuery, ioe);
+        } finally {
+            if (scrollId != null) clearScroll(scrollId);
+        }
+        return received;
+    }
+
+    private void clearScroll(String scrollId){
+        ClearScrollRequest clearRequest = new ClearScrollRequest();
+        clearRequest.addScrollId(scrollId);
+        try {
+            client.clearScroll(clearRequest, RequestOptions.DEFAULT);
+        } catch (IOException e) {
+            LOG.warn("Cannot clear scroll context, it expires in " + SCROLL_KEEP_ALIVE);
+        }
+    }
+
     public GetResponse getID(String id){
-        GetRequest gr = new GetRequest("zbmath", "_doc", id);
+        GetRequest gr = new GetRequest(config.getIdIndex(), "_doc", id);
         try {
             GetResponse res = client.get(gr, RequestOptions.DEFAULT);
             return res;
@@ -137,6 +232,44 @@ public class ElasticSearchConnector {
         }
     }
 
+    /**
+     * Requests the documents of the given IDs from the ID index (see {@link SearcherConfig#getIdIndex()}).
+     * The IDs are requested in multi-get batches of {@link SearcherConfig#getMultiGetBatchSize()} IDs and up to
+     * {@link SearcherConfig#getMultiGetParallelRequests()} batches are requested concurrently. Only the fields
+     * of {@link MathDocument} are fetched.
+     * @param ids document IDs
+     * @return the responses in order of the IDs, IDs of failed requests are missing
+     */
+    public List<GetResponse> getIDs(List<String> ids){
+        int batchSize = Math.max(1, config.getMultiGetBatchSize());
+        FetchSourceContext source = new FetchSourceContext(true, INCLUDE_FIELDS, EXCLUDE_FIELDS);
+
+        List<Future<MultiGetResponse>> batches = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i += batchSize){
+            MultiGetRequest request = new MultiGetRequest();
+            for (String id : ids.subList(i, Math.min(i + batchSize, ids.size())))
+                request.add(new MultiGetRequest.Item(config.getIdIndex(), id).fetchSourceContext(source));
+            batches.add(multiGetExecutor.submit(() -> client.mget(request, RequestOptions.DEFAULT)));
+        }
+
+        List<GetResponse> responses = new ArrayList<>(ids.size());
+        for (Future<MultiGetResponse> batch : batches){
+            try {
+                for (MultiGetItemResponse item : batch.get().getResponses()){
+                    if (item.isFailed()) LOG.warn("Cannot get ID " + item.getId() + ": " + item.getFailure().getMessage());
+                    else responses.add(item.getResponse());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOG.error("Interrupted while requesting IDs from elasticsearch.", e);
+                break;
+            } catch (ExecutionException e) {
+                LOG.error("Cannot request IDs from elasticsearch.", e.getCause());
+            }
+        }
+        return responses;
+    }
+
     public long numberOfDocuments(String index){
         try {
             SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
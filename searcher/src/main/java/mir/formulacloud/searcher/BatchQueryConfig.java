@@ -0,0 +1,105 @@
+package mir.formulacloud.searcher;
+
+import com.beust.jcommander.Parameter;
+import mir.formulacloud.beans.MathMergeFunctions;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Settings of the {@link BatchQueryRunner}. The settings of the searcher itself are
+ * part of the {@link SearcherConfig}.
+ *
+ * @author Andre Greiner-Petter
+ */
+public class BatchQueryConfig {
+    @Parameter(names = {"-queries", "--batchQueries"}, description = "File of queries, one query per line with an optional expected regex separated by a tab.", required = true)
+    private String queries = "";
+
+    @Parameter(names = {"-out", "--batchOutput"}, description = "Output folder for the results of every query and the summary (default is batch-results).")
+    private String output = "batch-results";
+
+    @Parameter(names = {"-parallel", "--batchParallel"}, description = "Number of queries that run concurrently (default is 4).")
+    private int parallel = 4;
+
+    @Parameter(names = {"-repeat", "--batchRepeat"}, description = "Number of times every query is sent, e.g., to generate load (default is 1).")
+    private int repeat = 1;
+
+    @Parameter(names = {"-top", "--topResults"}, description = "Number of top results that are written for a query without expected regex (default is 50).")
+    private int topResults = 50;
+
+    @Parameter(names = {"-minHits", "--minimumHits"}, description = "In how many hits of Elasticsearch a formula must appear (default is 1).")
+    private int minHits = 1;
+
+    @Parameter(names = {"-merge", "--mergeFunction"}, description = "Merge function of the scores of a formula in different documents (default is MAX).")
+    private MathMergeFunctions mergeFunction = MathMergeFunctions.MAX;
+
+    @Parameter(names = {"-queryCache", "--batchQueryCache"}, description = "Serve repeated queries from the query result cache of the searcher. By default, every run searches, so that the latencies of -repeat measure the search and not the cache.")
+    private boolean queryCache = false;
+
+    public BatchQueryConfig(){}
+
+    public Path getQueries() {
+        return Paths.get(queries);
+    }
+
+    public Path getOutput() {
+        return Paths.get(output);
+    }
+
+    public int getParallel() {
+        return Math.max(1, parallel);
+    }
+
+    public int getRepeat() {
+        return Math.max(1, repeat);
+    }
+
+    public int getTopResults() {
+        return topResults;
+    }
+
+    public int getMinHits() {
+        return minHits;
+    }
+
+    public MathMergeFunctions getMergeFunction() {
+        return mergeFunction;
+    }
+
+    public boolean isQueryCache() {
+        return queryCache;
+    }
+
+    protected void setQueries(String queries) {
+        this.queries = queries;
+    }
+
+    protected void setOutput(String output) {
+        this.output = output;
+    }
+
+    protected void setParallel(int parallel) {
+        this.parallel = parallel;
+    }
+
+    protected void setRepeat(int repeat) {
+        this.repeat = repeat;
+    }
+
+    protected void setTopResults(int topResults) {
+        this.topResults = topResults;
+    }
+
+    protected void setMinHits(int minHits) {
+        this.minHits = minHits;
+    }
+
+    protected void setMergeFunction(MathMergeFunctions mergeFunction) {
+        this.mergeFunction = mergeFunction;
+    }
+
+    protected void setQueryCache(boolean queryCache) {
+        this.queryCache = queryCache;
+    }
+}
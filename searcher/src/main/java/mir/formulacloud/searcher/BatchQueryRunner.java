@@ -0,0 +1,486 @@
+package mir.formulacloud.searcher;
+
+import com.beust.jcommander.JCommander;
+import mir.formulacloud.beans.MathElementAccumulator;
+import mir.formulacloud.beans.TFIDFMathElement;
+import mir.formulacloud.util.IntObjectHashMap;
+import mir.formulacloud.util.Percentiles;
+import mir.formulacloud.util.TopKSelector;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Runs a file of queries concurrently against one initialized {@link SearcherService}, i.e., all queries
+ * share the loaded TF-IDF tables and the caches. Every line of the file is a query with an optional expected
+ * regex (separated by a tab), lines starting with # are ignored:
+ * <pre>
+ *   Riemann Zeta Function	.*mrow\(mi:ζ,mo:ivt,mrow\(mo:\(,.*,mo:\)\)\).*
+ *   Jacobi Polynomial
+ * </pre>
+ * The results of every query (and the ranks of the expected formulae, see {@link CLISearcher#getHitRanks(List, String)})
+ * are written to the output folder, together with a summary of the latency and throughput of all queries.
+ *
+ * @author Andre Greiner-Petter
+ */
+public class BatchQueryRunner {
+    private static final Logger LOG = LogManager.getLogger(BatchQueryRunner.class.getName());
+
+    public static final String SUMMARY_FILE = "summary.tsv";
+    public static final String REPORT_FILE = "report.txt";
+
+    private final SearcherService service;
+    private final QueryContext context;
+    private final BatchQueryConfig batchConfig;
+
+    public BatchQueryRunner(SearcherService service, QueryContext context, BatchQueryConfig batchConfig){
+        this.service = service;
+        this.context = context;
+        this.batchConfig = batchConfig;
+    }
+
+    /**
+     * @param file the file of queries
+     * @return the queries of the file in order
+     * @throws IOException if the file cannot be read
+     */
+    public static List<BatchQuery> readQueries(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file);
+        List<BatchQuery> queries = new ArrayList<>();
+        for ( int i = 0; i < lines.size(); i++ ){
+            BatchQuery q = BatchQuery.parse(lines.get(i), i+1);
+            if ( q != null ) queries.add(q);
+        }
+        return queries;
+    }
+
+    /**
+     * Runs every query -repeat times, at most -parallel queries concurrently. The results of the first
+     * run of every query are written to the output folder.
+     * @param queries the queries
+     * @return the report of all runs
+     * @throws IOException if the output folder cannot be created
+     */
+    public Report run(List<BatchQuery> queries) throws IOException {
+        Path out = batchConfig.getOutput();
+        Files.createDirectories(out);
+
+        int parallel = batchConfig.getParallel();
+        AtomicInteger threadCounter = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(parallel, r -> {
+            Thread t = new Thread(r, "batch-query-" + threadCounter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        LOG.info("Run " + queries.size() + " queries " + batchConfig.getRepeat() + " times with " + parallel + " concurrent queries.");
+        long start = System.nanoTime();
+        List<Future<QueryResult>> futures = new LinkedList<>();
+        for ( int run = 0; run < batchConfig.getRepeat(); run++ ){
+            for ( BatchQuery q : queries ){
+                int r = run;
+                futures.add(executor.submit(() -> runQuery(q, r)));
+            }
+        }
+
+        List<QueryResult> results = new ArrayList<>(futures.size());
+        try {
+            for ( Future<QueryResult> future : futures ){
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    // runQuery catches the errors of searches, hence this is an error of the runner itself
+                    LOG.error("Batch query failed.", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.error("Interrupted while waiting for batch queries.", e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Report report = new Report(results, System.nanoTime() - start);
+        report.writeSummary(out.resolve(SUMMARY_FILE));
+        Files.write(out.resolve(REPORT_FILE), report.toString().getBytes());
+        return report;
+    }
+
+    private QueryResult runQuery(BatchQuery q, int run){
+        LOG.info("Run query " + q.getId() + " (" + run + "): " + q.getQuery());
+        SearchTimings timings = new SearchTimings();
+        long start = System.nanoTime();
+        try {
+            IntObjectHashMap<MathElementAccumulator> elements = service.search(q.getQuery(), context, timings, batchConfig.isQueryCache());
+
+            long mergeStart = SearchTimings.start();
+            List<TFIDFMathElement> results;
+            long totalHits;
+            List<Integer> ranks = null;
+            if ( q.getExpected() != null ){
+                // the ranks of all hits are needed, hence the full list
+                results = service.groupTFIDFElements(elements, batchConfig.getMergeFunction(), batchConfig.getMinHits());
+                totalHits = results.size();
+                ranks = CLISearcher.getHitRanks(results, q.getExpected());
+            } else {
+                TopKSelector<TFIDFMathElement> top = service.selectTopTFIDFElements(
+                        elements, batchConfig.getMergeFunction(), batchConfig.getMinHits(), Math.max(1, batchConfig.getTopResults())
+                );
+                results = top.toSortedList();
+                totalHits = top.getNumberOfCandidates();
+            }
+            timings.record(SearchTimings.Stage.MERGE, mergeStart);
+
+            QueryResult result = new QueryResult(q, run, System.nanoTime() - start, timings, totalHits, ranks, null);
+            if ( run == 0 ) writeResults(result, results);
+            return result;
+        } catch (RuntimeException e) {
+            LOG.error("Query " + q.getId() + " failed: " + q.getQuery(), e);
+            return new QueryResult(q, run, System.nanoTime() - start, timings, 0, null, e.toString());
+        }
+    }
+
+    private void writeResults(QueryResult result, List<TFIDFMathElement> results){
+        BatchQuery q = result.getQuery();
+        Path file = batchConfig.getOutput().resolve("query-" + q.getId() + ".txt");
+        try ( BufferedWriter bw = Files.newBufferedWriter(file) ){
+            bw.write("# Query: " + q.getQuery());
+            bw.newLine();
+            bw.write("# Settings: " + context);
+            bw.newLine();
+            bw.write("# Total hits: " + result.getTotalHits());
+            bw.newLine();
+            if ( q.getExpected() != null ){
+                bw.write("# Expected: " + q.getExpected());
+                bw.newLine();
+                bw.write("# Ranks of expected: " + result.getRanks());
+                bw.newLine();
+            }
+            int limit = Math.min(results.size(), Math.max(batchConfig.getTopResults(), result.getLastRank()));
+            for ( int i = 0; i < limit; i++ ){
+                TFIDFMathElement e = results.get(i);
+                bw.write((i+1) + ";" + e.getScore() + ";" + e);
+                bw.newLine();
+            }
+        } catch (IOException e) {
+            LOG.error("Cannot write results of query " + q.getId() + " to " + file, e);
+        }
+    }
+
+    /**
+     * A query of the batch file.
+     */
+    public static class BatchQuery {
+        private final int id;
+        private final String query;
+        private final String expected;
+
+        public BatchQuery(int id, String query, String expected){
+            this.id = id;
+            this.query = query;
+            this.expected = expected;
+        }
+
+        /**
+         * @param line line of the batch file
+         * @param id line number
+         * @return the query or null if the line is empty or a comment
+         */
+        public static BatchQuery parse(String line, int id){
+            if ( line.trim().isEmpty() || line.trim().startsWith("#") ) return null;
+            int tab = line.indexOf('\t');
+            if ( tab < 0 ) return new BatchQuery(id, line.trim(), null);
+            String expected = line.substring(tab+1).trim();
+            return new BatchQuery(id, line.substring(0, tab).trim(), expected.isEmpty() ? null : expected);
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getQuery() {
+            return query;
+        }
+
+        /**
+         * @return the expected regex or null
+         */
+        public String getExpected() {
+            return expected;
+        }
+    }
+
+    /**
+     * The result of a single run of a query.
+     */
+    public static class QueryResult {
+        private final BatchQuery query;
+        private final int run;
+        private final long latency;
+        private final SearchTimings timings;
+        private final long totalHits;
+        private final List<Integer> ranks;
+        private final String error;
+
+        QueryResult(BatchQuery query, int run, long latency, SearchTimings timings, long totalHits, List<Integer> ranks, String error){
+            this.query = query;
+            this.run = run;
+            this.latency = latency;
+            this.timings = timings;
+            this.totalHits = totalHits;
+            this.ranks = ranks;
+            this.error = error;
+        }
+
+        public BatchQuery getQuery() {
+            return query;
+        }
+
+        public int getRun() {
+            return run;
+        }
+
+        /**
+         * @return latency of the query in nanoseconds
+         */
+        public long getLatency() {
+            return latency;
+        }
+
+        public SearchTimings getTimings() {
+            return timings;
+        }
+
+        public long getTotalHits() {
+            return totalHits;
+        }
+
+        /**
+         * @return the ranks of the expected formulae or null if the query has no expected regex
+         */
+        public List<Integer> getRanks() {
+            return ranks;
+        }
+
+        /**
+         * @return the rank of the best expected formula or -1 if there is none
+         */
+        public int getFirstRank() {
+            return ranks == null || ranks.isEmpty() ? -1 : ranks.get(0);
+        }
+
+        private int getLastRank() {
+            return ranks == null || ranks.isEmpty() ? 0 : ranks.get(ranks.size()-1);
+        }
+
+        /**
+         * @return the error message or null if the query succeeded
+         */
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * @return true if the query failed or none of its expected formulae was found
+         */
+        public boolean isFailure() {
+            return error != null || (query.getExpected() != null && ranks.isEmpty());
+        }
+    }
+
+    /**
+     * Latency and throughput of all runs of a batch.
+     */
+    public static class Report {
+        private final List<QueryResult> results;
+        private final long wallTime;
+
+        /**
+         * @param results the results of all runs
+         * @param wallTime time of the entire batch in nanoseconds
+         */
+        Report(List<QueryResult> results, long wallTime){
+            this.results = results;
+            this.wallTime = wallTime;
+        }
+
+        public List<QueryResult> getResults() {
+            return results;
+        }
+
+        /**
+         * @param percentiles percentiles between 0 and 100
+         * @return the latencies in milliseconds of the given percentiles (nearest rank)
+         */
+        public double[] getLatencyPercentiles(double... percentiles){
+            return percentiles(results.stream().mapToLong(QueryResult::getLatency).sorted().toArray(), percentiles);
+        }
+
+        /**
+         * Same as {@link #getLatencyPercentiles(double...)} but only for the runs that were (not) served
+         * from the query result cache.
+         * @param cached true for the cached runs, false for the searched runs
+         */
+        public double[] getLatencyPercentiles(boolean cached, double... percentiles){
+            return percentiles(
+                    results.stream()
+                            .filter(r -> r.getTimings().isCached() == cached)
+                            .mapToLong(QueryResult::getLatency)
+                            .sorted()
+                            .toArray(),
+                    percentiles
+            );
+        }
+
+        private static double[] percentiles(long[] latencies, double... percentiles){
+            return Arrays.stream(Percentiles.nearestRank(latencies, percentiles))
+                    .mapToDouble(l -> l / (double) TimeUnit.MILLISECONDS.toNanos(1))
+                    .toArray();
+        }
+
+        /**
+         * @return queries per second over the entire batch
+         */
+        public double getThroughput(){
+            double seconds = wallTime / 1e9;
+            return seconds <= 0 ? 0 : results.size() / seconds;
+        }
+
+        /**
+         * @param stage the stage
+         * @return mean time in milliseconds of the stage over all runs
+         */
+        public double getMeanMillis(SearchTimings.Stage stage){
+            return results.stream().mapToDouble(r -> r.getTimings().getMillis(stage)).average().orElse(0);
+        }
+
+        /**
+         * @return the results of failed queries (error or none of the expected formulae found)
+         */
+        public List<QueryResult> getFailures(){
+            return results.stream().filter(QueryResult::isFailure).collect(Collectors.toList());
+        }
+
+        void writeSummary(Path file) throws IOException {
+            try ( BufferedWriter bw = Files.newBufferedWriter(file) ){
+                bw.write("id\trun\tquery\tlatencyMs");
+                for ( SearchTimings.Stage stage : SearchTimings.Stage.values() )
+                    bw.write("\t" + stage.name().toLowerCase() + "Ms");
+                bw.write("\tcached\ttotalHits\tfirstRank\tranks\terror");
+                bw.newLine();
+                for ( QueryResult r : results ){
+                    StringBuilder sb = new StringBuilder();
+                    sb.append(r.getQuery().getId()).append('\t')
+                            .append(r.getRun()).append('\t')
+                            .append(r.getQuery().getQuery()).append('\t')
+                            .append(String.format(Locale.ROOT, "%.1f", r.getLatency() / 1e6));
+                    for ( SearchTimings.Stage stage : SearchTimings.Stage.values() )
+                        sb.append('\t').append(String.format(Locale.ROOT, "%.1f", r.getTimings().getMillis(stage)));
+                    sb.append('\t').append(r.getTimings().isCached())
+                            .append('\t').append(r.getTotalHits())
+                            .append('\t').append(r.getFirstRank())
+                            .append('\t').append(r.getRanks() == null ? "" : r.getRanks())
+                            .append('\t').append(r.getError() == null ? "" : r.getError());
+                    bw.write(sb.toString());
+                    bw.newLine();
+                }
+            }
+        }
+
+        @Override
+        public String toString(){
+            double[] p = getLatencyPercentiles(50, 95, 99);
+            long cached = results.stream().filter(r -> r.getTimings().isCached()).count();
+            long errors = results.stream().filter(r -> r.getError() != null).count();
+            long expected = results.stream().filter(r -> r.getQuery().getExpected() != null).count();
+
+            StringBuilder sb = new StringBuilder();
+            sb.append("Queries: ").append(results.size())
+                    .append(" (errors: ").append(errors)
+                    .append(", cached: ").append(cached).append(")").append(CLISearcher.NL);
+            sb.append(String.format("Wall time: %.1fs, throughput: %.2f queries/s", wallTime / 1e9, getThroughput()))
+                    .append(CLISearcher.NL);
+            if ( cached == 0 ){
+                sb.append(String.format("Latency: p50 %.1fms, p95 %.1fms, p99 %.1fms", p[0], p[1], p[2]))
+                        .append(CLISearcher.NL);
+            } else {
+                // cache hits would hide the latency of the search
+                double[] searched = getLatencyPercentiles(false, 50, 95, 99);
+                double[] hits = getLatencyPercentiles(true, 50, 95, 99);
+                sb.append(String.format("Latency (searched): p50 %.1fms, p95 %.1fms, p99 %.1fms", searched[0], searched[1], searched[2]))
+                        .append(CLISearcher.NL);
+                sb.append(String.format("Latency (cached): p50 %.1fms, p95 %.1fms, p99 %.1fms", hits[0], hits[1], hits[2]))
+                        .append(CLISearcher.NL);
+            }
+            sb.append("Mean time per stage:");
+            for ( SearchTimings.Stage stage : SearchTimings.Stage.values() )
+                sb.append(String.format(" %s %.1fms", stage, getMeanMillis(stage)));
+            sb.append(CLISearcher.NL);
+            List<QueryResult> failures = getFailures();
+            sb.append("Expected formulae found: ").append(expected - failures.stream().filter(r -> r.getError() == null).count())
+                    .append(" / ").append(expected).append(CLISearcher.NL);
+            for ( QueryResult r : failures ){
+                sb.append("  Failed query ").append(r.getQuery().getId())
+                        .append(" (").append(r.getQuery().getQuery()).append("): ")
+                        .append(r.getError() == null ? "expected formula not found" : r.getError())
+                        .append(CLISearcher.NL);
+            }
+            return sb.toString();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        SearcherConfig config = new SearcherConfig();
+        BatchQueryConfig batchConfig = new BatchQueryConfig();
+
+        JCommander jcommander = JCommander
+                .newBuilder()
+                .addObject(config)
+                .addObject(batchConfig)
+                .build();
+
+        if (args == null || args.length < 1){
+            jcommander.usage();
+            return;
+        }
+
+        jcommander.parse(args);
+        if (config.isHelp()){
+            jcommander.usage();
+            return;
+        }
+
+        List<BatchQuery> queries = readQueries(batchConfig.getQueries());
+        SearcherService service = new SearcherService(config);
+        service.init();
+
+        Report report;
+        try {
+            BatchQueryRunner runner = new BatchQueryRunner(service, service.getDefaultContext(), batchConfig);
+            report = runner.run(queries);
+        } finally {
+            service.shutdown();
+        }
+
+        System.out.println(report);
+        System.out.println("Wrote results to " + batchConfig.getOutput());
+        // non-zero exit status for regression tests
+        System.exit(report.getFailures().isEmpty() ? 0 : 1);
+    }
+}
@@ -1,15 +1,20 @@
 package mir.formulacloud.searcher;
 
 import com.formulasearchengine.mathmltools.mml.elements.MathDoc;
+import mir.formulacloud.beans.CollectionStatistics;
 import mir.formulacloud.beans.MathDocument;
 import mir.formulacloud.beans.MathElement;
+import mir.formulacloud.beans.MathElementAccumulator;
 import mir.formulacloud.beans.MathMergeFunctions;
 import mir.formulacloud.beans.TFIDFMathElement;
+import mir.formulacloud.util.IntObjectHashMap;
+import mir.formulacloud.util.MathVectorCache;
+import mir.formulacloud.util.QueryResultCache;
 import mir.formulacloud.util.SimpleMMLConverter;
-import mir.formulacloud.util.XQueryLoader;
+import mir.formulacloud.util.TFIDFLoader;
+import mir.formulacloud.util.TopKSelector;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.elasticsearch.search.SearchHits;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
@@ -40,7 +45,9 @@ public class CLISearcher extends SearcherService {
             CMD_DEF = 7,
             CMD_MIN_ES_HITS = 8,
             CMD_GET_STATS = 9,
-            CMD_EXPORT = 9;
+            CMD_EXPORT = 9,
+            CMD_FULL_LIST = 10,
+            CMD_PIPELINE = 11;
 
     private static final Pattern SET_CMDS = Pattern.compile(
             "SET INDEX ([\\w-]+)|" +
@@ -51,7 +58,9 @@ public class CLISearcher extends SearcherService {
             "SET NUM RESULTS (\\d+)|" +
             "SET (DEFAULT)|" +
             "SET MIN HITS (\\d+)|" +
-            "EXPORT LAST (.+)"
+            "EXPORT LAST (.+)|" +
+            "SET FULL LIST (true|false)|" +
+            "SET PIPELINE (true|false)"
     );
 
     private static final Pattern GET_CMDS = Pattern.compile(
@@ -63,7 +72,9 @@ public class CLISearcher extends SearcherService {
             "GET (NUM RESULTS)|" +
             "GET(\\sALL|)|" +
             "GET (MIN HITS)|" +
-            "GET STATS (.*)|" +
+            "GET STATS\\s*(.*)|" +
+            "GET (FULL LIST)|" +
+            "GET (PIPELINE)|" +
             "GET TOTAL DOCS"
     );
 
@@ -71,22 +82,31 @@ public class CLISearcher extends SearcherService {
             "SEARCH\\s*(-expect ([^\\s]*))? (.*)$"
     );
 
+    private static final Pattern RELOAD_CMD = Pattern.compile(
+            "\\s*RELOAD TFIDF (.+?)\\s*"
+    );
+
     private static final Pattern RETRIEVE_ALL_CMD = Pattern.compile(
             "\\s*RETRIEVE ALL\\s*"
     );
 
-    private String currentIndex = "arxiv";
     private int showNumberOfResults = 10;
     private int minEShits = 1;
 
+    // if false, only the shown number of results are selected (and exported)
+    private boolean fullList = false;
+
     private SearcherConfig config;
 
+    // the settings of the searches, SET commands replace the context instead of changing the config
+    private QueryContext context;
+
     private List<TFIDFMathElement> lastResults = null;
 
     public CLISearcher(SearcherConfig config){
         super(config);
         this.config = config;
-        currentIndex = config.getFixedIndex();
+        this.context = QueryContext.builder(config).build();
     }
 
     public void start(){
@@ -117,6 +137,21 @@ public class CLISearcher extends SearcherService {
             return;
         }
 
+        Matcher reloadMatcher = RELOAD_CMD.matcher(input);
+        if (reloadMatcher.matches()){
+            Path path = Paths.get(reloadMatcher.group(1));
+            if (Files.notExists(path)){
+                System.out.println("TF-IDF tables " + path + " do not exist.");
+                return;
+            }
+            System.out.println("Reload TF-IDF tables from " + path + " in the background. Queries use the current tables until then.");
+            reloadTFIDFTables(path).whenComplete( (loader, error) -> {
+                if (error == null) System.out.println("Reloaded TF-IDF tables from " + path + " [#" + loader.size() + "]");
+                else System.out.println("Wasn't able to reload TF-IDF tables: " + error.getMessage());
+            });
+            return;
+        }
+
         Matcher retrieveAllMatcher = RETRIEVE_ALL_CMD.matcher(input);
         if (retrieveAllMatcher.matches()){
             try {
@@ -139,19 +174,27 @@ public class CLISearcher extends SearcherService {
     }
 
     private void run(String searchQuery, String expected){
-        int numberOfDocs = getNumberOfDocuments(currentIndex);
-        SearchHits hits = getSearchResults(searchQuery, currentIndex);
-        List<MathDocument> mdocs = getMathResults(hits);
-        mdocs = requestMath(mdocs);
-        HashMap<String, List<TFIDFMathElement>> tfidfMath = mapMathDocsToTFIDFElements(mdocs, numberOfDocs);
-        List<TFIDFMathElement> results = groupTFIDFElements(tfidfMath, MathMergeFunctions.MAX, minEShits);
-        lastResults = results;
+        IntObjectHashMap<MathElementAccumulator> tfidfMath = search(searchQuery, context);
         if (expected == null || expected.isEmpty()){
-            System.out.println("Total Hits: " + results.size());
+            List<TFIDFMathElement> results;
+            long totalHits;
+            if (fullList || showNumberOfResults < 1){
+                results = groupTFIDFElements(tfidfMath, MathMergeFunctions.MAX, minEShits);
+                totalHits = results.size();
+            } else {
+                TopKSelector<TFIDFMathElement> top = selectTopTFIDFElements(tfidfMath, MathMergeFunctions.MAX, minEShits, showNumberOfResults);
+                results = top.toSortedList();
+                totalHits = top.getNumberOfCandidates();
+            }
+            lastResults = results;
+            System.out.println("Total Hits: " + totalHits);
             for (int i = 0; i < showNumberOfResults && i < results.size(); i++){
                 System.out.println((i+1)+": " + results.get(i));
             }
         } else {
+            // the positions of all hits are needed, hence the full list
+            List<TFIDFMathElement> results = groupTFIDFElements(tfidfMath, MathMergeFunctions.MAX, minEShits);
+            lastResults = results;
             checkHits(results, expected, showNumberOfResults);
         }
     }
@@ -159,12 +202,16 @@ public class CLISearcher extends SearcherService {
     public void runZBMath(String collection) throws IOException {
         minEShits = 1;
         showNumberOfResults = 50;
-        int numberOfDocs = getNumberOfDocuments("zbmath");
+        int numberOfDocs = getNumberOfDocuments(config.getIdIndex());
         Path p = Paths.get("data").resolve(collection);
         List<String> ids = Files.lines(p).collect(Collectors.toList());
+        QueryContext zbContext = context.toBuilder()
+                .setCollectionStatistics(CollectionStatistics.ZBMATH)
+                .build()
+                .withCurrentLoader();
         List<MathDocument> mdocs = getMathResults(ids);
-        mdocs = requestMath(mdocs);
-        HashMap<String, List<TFIDFMathElement>> tfidfMath = mapMathDocsToTFIDFElements(mdocs, numberOfDocs);
+        mdocs = requestMath(mdocs, zbContext);
+        IntObjectHashMap<MathElementAccumulator> tfidfMath = mapMathDocsToTFIDFElements(mdocs, numberOfDocs, zbContext);
         List<TFIDFMathElement> results = groupTFIDFElements(tfidfMath, MathMergeFunctions.MAX, minEShits);
         lastResults = results;
         wirteResults(Paths.get("data").resolve(collection+"Results.txt"), results);
@@ -173,8 +220,8 @@ public class CLISearcher extends SearcherService {
 
     public void runAll() throws IOException {
         LOG.info("Set MIN Depth to 3");
-        config.setMinDepth(3);
-        minEShits = config.getMinDocumentFrequency();
+        QueryContext allContext = context.toBuilder().setMinDepth(3).build().withCurrentLoader();
+        minEShits = allContext.getMinDocumentFrequency();
         showNumberOfResults = 300;
         LOG.info("Requesting all files from folder.");
         List<MathDocument> mdocs = requestAllDocs(Paths.get(config.getDatabaseParentFolder()));
@@ -182,9 +229,9 @@ public class CLISearcher extends SearcherService {
         LOG.info("Done. Total size of documents: " + numberOfDocs);
         LOG.info("Start requesting math from BaseX for all documents.");
         System.out.println("Total Docs: " + numberOfDocs);
-        mdocs = requestMath(mdocs);
+        mdocs = requestMath(mdocs, allContext);
         LOG.info("Done requesting all math. Start calculating TF-IDF values.");
-        HashMap<String, List<TFIDFMathElement>> tfidfMath = mapMathDocsToTFIDFElements(mdocs, numberOfDocs);
+        IntObjectHashMap<MathElementAccumulator> tfidfMath = mapMathDocsToTFIDFElements(mdocs, numberOfDocs, allContext);
         LOG.info("Done calculating TF-IDF values. Merging entries and find MAX.");
         List<TFIDFMathElement> results = groupTFIDFElements(tfidfMath, MathMergeFunctions.MAX, minEShits);
         LOG.info("Done. Writing results to data/ZBMathTotalResults.txt");
@@ -194,32 +241,34 @@ public class CLISearcher extends SearcherService {
     }
 
     public static void checkHits(List<TFIDFMathElement> results, String regex, int maxEntries){
-        LinkedList<TestHit> hits = new LinkedList<>();
-
-        int idx = 1;
-        Pattern p = Pattern.compile(regex);
         System.out.println("Test regex: " + regex);
-
-        for ( TFIDFMathElement e : results ){
-            Matcher m = p.matcher(e.getExpression());
-            if (m.matches()){
-                TestHit h = new TestHit(idx, e);
-                hits.add(h);
-            }
-
-            if (idx <= maxEntries) {
-                System.out.println(idx + ": " + e);
-            }
-            idx++;
+        for ( int i = 0; i < maxEntries && i < results.size(); i++ ){
+            System.out.println((i+1) + ": " + results.get(i));
         }
         System.out.println();
         System.out.println("Total: " + results.size());
         System.out.println("All hits:");
-        for (TestHit hit : hits) {
-            System.out.println(hit);
+        for ( int rank : getHitRanks(results, regex) ) {
+            System.out.println(rank + ": " + results.get(rank-1));
         }
     }
 
+    /**
+     * @param results ordered results
+     * @param regex the expected expressions
+     * @return the ranks (starting at 1) of all results whose expression matches the regex
+     */
+    public static List<Integer> getHitRanks(List<TFIDFMathElement> results, String regex){
+        LinkedList<Integer> ranks = new LinkedList<>();
+        Pattern p = Pattern.compile(regex);
+        int idx = 1;
+        for ( TFIDFMathElement e : results ){
+            if ( p.matcher(e.getExpression()).matches() ) ranks.add(idx);
+            idx++;
+        }
+        return ranks;
+    }
+
     private void printHelp(){
         StringBuilder sb = new StringBuilder();
         sb.append("quit or exit             - shutdown the service").append(NL);
@@ -230,55 +279,72 @@ public class CLISearcher extends SearcherService {
         sb.append("SET/GET DF MAX <d>       - maximum document frequency").append(NL);
         sb.append("SET/GET TF MIN <d>       - minimum term frequency per document").append(NL);
         sb.append("SET/GET NUM RESULTS <d>  - set the number of top results that should be shown").append(NL);
+        sb.append("SET/GET FULL LIST <b>    - keep all results (true) or only the shown number of top results (false)").append(NL);
+        sb.append("SET/GET PIPELINE <b>     - request math of ES hits page by page while receiving further pages (true)").append(NL);
         sb.append("SET DEFAULT              - set all parameter to default").append(NL);
         sb.append("GET ALL                  - returns all parameter").append(NL);
+        sb.append("GET STATS                - prints cache statistics").append(NL);
         sb.append("GET STATS <s>            - generates TF-IDF stats and saves them at <s>").append(NL);
         sb.append("GET TOTAL DOCS           - returns number of total docs in current ES index").append(NL);
         sb.append("EXPORT LAST <s>          - export the last results with MathML to given path").append(NL);
         sb.append("SEARCH <s>               - runs the program for given search query").append(NL);
         sb.append("SEARCH -expect <s> <s>   - runs the program for given search query and a given expected value (as java regex)").append(NL);
+        sb.append("RELOAD TFIDF <s>         - loads the TF-IDF tables from <s> in the background and swaps them in").append(NL);
         sb.append("RETRIEVE ALL             - runs the program for extracting all math in the database").append(NL);
         System.out.println(sb.toString());
     }
 
     private void printCurrentSettings(){
         StringBuilder sb = new StringBuilder();
-        sb.append("Index: ").append(currentIndex).append(NL);
-        sb.append("ES HITS: ").append(config.getElasticsearchMaxHits()).append(NL);
+        sb.append("Index: ").append(context.getIndex()).append(NL);
+        sb.append("Collection: ").append(context.getCollectionStatistics()).append(NL);
+        sb.append("ES HITS: ").append(context.getElasticsearchMaxHits()).append(NL);
         sb.append("MIN HITS: ").append(minEShits).append(NL);
-        sb.append("DF MIN: ").append(config.getMinDocumentFrequency()).append(NL);
-        sb.append("DF MAX: ").append(config.getMaxDocumentFrequency()).append(NL);
-        sb.append("TF MIN: ").append(config.getMinTermFrequency()).append(NL);
+        sb.append("DF MIN: ").append(context.getMinDocumentFrequency()).append(NL);
+        sb.append("DF MAX: ").append(context.getMaxDocumentFrequency()).append(NL);
+        sb.append("TF MIN: ").append(context.getMinTermFrequency()).append(NL);
         sb.append("#Results: ").append(showNumberOfResults).append(NL);
+        sb.append("Full list: ").append(fullList).append(NL);
+        sb.append("Pipeline: ").append(context.isPipelined()).append(NL);
         System.out.println("Current Settings are");
         System.out.println(sb.toString());
     }
 
+    private void printStats(){
+        StringBuilder sb = new StringBuilder();
+        TFIDFLoader loader = TFIDFLoader.getLoaderInstance();
+        if (loader != null){
+            sb.append("TF-IDF tables: ").append(loader.getPath())
+                    .append(" [#").append(loader.size())
+                    .append("; Bloom filter rejects: ").append(loader.getBloomFilterRejects())
+                    .append("]").append(NL);
+        }
+        MathVectorCache cache = MathVectorCache.getInstance();
+        sb.append(cache == null ? "Math vector cache is disabled." : cache.toString()).append(NL);
+        QueryResultCache<?> queryCache = getQueryResultCache();
+        sb.append(queryCache == null ? "Query result cache is disabled." : queryCache.toString()).append(NL);
+        System.out.println(sb.toString());
+    }
+
     private void setter(Matcher match){
         if (match.group(CMD_INDEX) != null){
-            currentIndex = match.group(CMD_INDEX);
-            System.out.println("Set index to " + currentIndex);
-            if ( currentIndex.equals("zbmath") ){
-                MathDocument.setZBMATHMode();
-            } else {
-                MathDocument.setArxivMode();
-            }
+            context = context.toBuilder().setIndex(match.group(CMD_INDEX)).build();
+            System.out.println("Set index to " + context.getIndex() + " " + context.getCollectionStatistics());
         } else if (match.group(CMD_ESHITS) != null){
             int n = Integer.parseInt(match.group(CMD_ESHITS));
-            config.setElasticsearchMaxHits(n);
+            context = context.toBuilder().setElasticsearchMaxHits(n).build();
             System.out.println("Set elastic search hits to " + n);
         } else if (match.group(CMD_DFMIN) != null){
             int n = Integer.parseInt(match.group(CMD_DFMIN));
-            config.setMinDocumentFrequency(n);
+            context = context.toBuilder().setMinDocumentFrequency(n).build();
             System.out.println("Set minimum document frequency to " + n);
         } else if (match.group(CMD_DFMAX) != null){
             int n = Integer.parseInt(match.group(CMD_DFMAX));
-            config.setMaxDocumentFrequency(n);
+            context = context.toBuilder().setMaxDocumentFrequency(n).build();
             System.out.println("Set maximum document frequency to " + n);
         } else if (match.group(CMD_TFMIN) != null){
             int n = Integer.parseInt(match.group(CMD_TFMIN));
-            config.setMinTermFrequency(n);
-            XQueryLoader.initMinTermFrequency(n);
+            context = context.toBuilder().setMinTermFrequency(n).build();
             System.out.println("Set minimum term frequency per document to " + n);
         } else if (match.group(CMD_RES) != null){
             showNumberOfResults = Integer.parseInt(match.group(CMD_RES));
@@ -297,36 +363,54 @@ public class CLISearcher extends SearcherService {
             } catch (IOException e) {
                 System.out.println("An error occurred during export: " + e.getMessage());
             }
+        } else if (match.group(CMD_FULL_LIST) != null){
+            fullList = Boolean.parseBoolean(match.group(CMD_FULL_LIST));
+            System.out.println(fullList ?
+                    "Keep all results of a search (e.g., for EXPORT LAST)" :
+                    "Keep only the top " + showNumberOfResults + " results of a search");
+        } else if (match.group(CMD_PIPELINE) != null){
+            context = context.toBuilder().setPipelined(Boolean.parseBoolean(match.group(CMD_PIPELINE))).build();
+            System.out.println("Set pipelined search to " + context.isPipelined());
         } else if (match.group(CMD_DEF) != null){
-            currentIndex = "arxiv";
-            config.setElasticsearchMaxHits(10);
-            config.setMinDocumentFrequency(1);
-            config.setMaxDocumentFrequency(100000);
-            config.setMinTermFrequency(2);
+            context = QueryContext.builder(config)
+                    .setIndex("arxiv")
+                    .setElasticsearchMaxHits(10)
+                    .setMinDocumentFrequency(1)
+                    .setMaxDocumentFrequency(100000)
+                    .setMinTermFrequency(2)
+                    .build();
             showNumberOfResults = 10;
             minEShits = 1;
+            fullList = false;
             printCurrentSettings();
         }
     }
 
     private void getter(Matcher match){
         if (match.group(CMD_INDEX) != null){
-            System.out.println(currentIndex);
+            System.out.println(context.getIndex());
         } else if (match.group(CMD_ESHITS) != null){
-            System.out.println(config.getElasticsearchMaxHits());
+            System.out.println(context.getElasticsearchMaxHits());
         } else if (match.group(CMD_DFMIN) != null){
-            System.out.println(config.getMinDocumentFrequency());
+            System.out.println(context.getMinDocumentFrequency());
         } else if (match.group(CMD_DFMAX) != null){
-            System.out.println(config.getMaxDocumentFrequency());
+            System.out.println(context.getMaxDocumentFrequency());
         } else if (match.group(CMD_TFMIN) != null){
-            System.out.println(config.getMinTermFrequency());
+            System.out.println(context.getMinTermFrequency());
         } else if (match.group(CMD_RES) != null){
             System.out.println(showNumberOfResults);
         } else if (match.group(CMD_DEF) != null){
             printCurrentSettings();
         } else if (match.group(CMD_MIN_ES_HITS) != null) {
             System.out.println(minEShits);
+        } else if (match.group(CMD_FULL_LIST) != null) {
+            System.out.println(fullList);
+        } else if (match.group(CMD_PIPELINE) != null) {
+            System.out.println(context.isPipelined());
         } else if (match.group(CMD_GET_STATS) != null ) {
+            printStats();
+            if (match.group(CMD_GET_STATS).isEmpty()) return;
+
             FrequencyAnalyzer fa = new FrequencyAnalyzer();
             Path out = Paths.get(match.group(CMD_GET_STATS));
             out = out.resolve("rawFrequencies.txt");
@@ -339,8 +423,8 @@ public class CLISearcher extends SearcherService {
                 System.out.println("Wasn't able to write output. You can try again.");
             }
         } else {
-            long numOfDocs = getNumberOfDocuments(currentIndex);
-            System.out.println("Index " + currentIndex + " has " + numOfDocs + " documents.");
+            long numOfDocs = getNumberOfDocuments(context.getIndex());
+            System.out.println("Index " + context.getIndex() + " has " + numOfDocs + " documents.");
         }
     }
 
@@ -362,19 +446,4 @@ public class CLISearcher extends SearcherService {
         }
     }
 
-    private static class TestHit {
-        int position;
-        TFIDFMathElement element;
-
-        public TestHit(int pos, TFIDFMathElement element){
-            this.position = pos;
-            this.element = element;
-        }
-
-        @Override
-        public String toString(){
-            return position + ": " + element;
-        }
-    }
-
 }
@@ -4,15 +4,14 @@ import mir.formulacloud.beans.*;
 import mir.formulacloud.searcher.SearcherConfig;
 import mir.formulacloud.searcher.SearcherService;
 import mir.formulacloud.tfidf.BaseXController;
+import mir.formulacloud.util.IntObjectHashMap;
 import mir.formulacloud.util.TFIDFConfig;
-import mir.formulacloud.util.XQueryLoader;
 import org.apache.commons.io.FilenameUtils;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -36,12 +35,11 @@ public class FastTest {
     private static final String expr = ".*mrow(mo:(,msub(mi:λ,.*),mo:,,.*,mo:,,msub(mi:λ,.*),mo:)).*";
 
     public static void init() throws IOException {
-        // this min term freq is minHitFreq
-        XQueryLoader.initMinTermFrequency(1);
-
         System.out.println("Init all");
 
         config = new SearcherConfig();
+        // this min term freq is minHitFreq
+        config.setMinTermFrequency(1);
         config.setTfidfData("/home/andreg-p/zbmath/zbmath-stats/tfidf/");
         config.setDatabaseParentFolder("/home/andreg-p/zbmath/pharvest/empty-math-dump/math/");
 //        config.setMinDocumentFrequency(3);
@@ -198,7 +196,7 @@ public class FastTest {
 
     private static void compute(TFIDFOptions options){
         System.out.println("Calculating TF-IDF for each document and each math");
-        HashMap<String, List<TFIDFMathElement>> elements = service.mapMathDocsToTFIDFElements(mathDocs, DOCS, options);
+        IntObjectHashMap<MathElementAccumulator> elements = service.mapMathDocsToTFIDFElements(mathDocs, DOCS, options);
 
         System.out.println("Merging all math with TF-IDF");
         List<TFIDFMathElement> results = service.groupTFIDFElements(elements, MathMergeFunctions.MAX, minHit);
@@ -0,0 +1,252 @@
+package mir.formulacloud.searcher;
+
+import mir.formulacloud.beans.CollectionStatistics;
+import mir.formulacloud.beans.TFIDFOptions;
+import mir.formulacloud.util.QueryResultCache;
+import mir.formulacloud.util.TFIDFLoader;
+
+/**
+ * All settings of a single search: the index and its collection statistics, the thresholds and the
+ * TF-IDF options. A context is immutable, hence searches with different settings (e.g., on arXiv and zbMATH)
+ * can run concurrently on the same {@link SearcherService} and share its loaded resources.
+ * Use {@link #builder(SearcherConfig)} or {@link #toBuilder()} to create a context.
+ *
+ * A request pins the TF-IDF tables by {@link #withCurrentLoader()}, so that a concurrent reload of the tables
+ * does not mix the IDs of one table with the frequencies of another one within the request.
+ *
+ * @author Andre Greiner-Petter
+ */
+public final class QueryContext {
+    private final String index;
+    private final CollectionStatistics statistics;
+
+    private final int elasticsearchMaxHits;
+    private final int minDocumentFrequency;
+    private final int maxDocumentFrequency;
+    private final int minTermFrequency;
+    private final int minDepth;
+    private final boolean pipelined;
+
+    private final TFIDFOptions options;
+
+    // the TF-IDF tables of the request, null if the context is not pinned to tables yet
+    private final TFIDFLoader loader;
+
+    private QueryContext(Builder builder){
+        this.index = builder.index;
+        this.statistics = builder.statistics;
+        this.elasticsearchMaxHits = builder.elasticsearchMaxHits;
+        this.minDocumentFrequency = builder.minDocumentFrequency;
+        this.maxDocumentFrequency = builder.maxDocumentFrequency;
+        this.minTermFrequency = builder.minTermFrequency;
+        this.minDepth = builder.minDepth;
+        this.pipelined = builder.pipelined;
+        this.options = copy(builder.options);
+        this.loader = builder.loader;
+    }
+
+    /**
+     * @param config the settings of the service
+     * @return a builder with the settings of the given config, the fixed index and its statistics
+     * and the default TF-IDF options
+     */
+    public static Builder builder(SearcherConfig config){
+        return new Builder()
+                .setIndex(config.getFixedIndex())
+                .setElasticsearchMaxHits(config.getElasticsearchMaxHits())
+                .setMinDocumentFrequency(config.getMinDocumentFrequency())
+                .setMaxDocumentFrequency(config.getMaxDocumentFrequency())
+                .setMinTermFrequency(config.getMinTermFrequency())
+                .setMinDepth(config.getMinDepth())
+                .setPipelined(config.isPipelined())
+                .setOptions(TFIDFOptions.getDefaultTFIDFOption());
+    }
+
+    /**
+     * @return a builder with the settings of this context
+     */
+    public Builder toBuilder(){
+        return new Builder()
+                .setIndex(index)
+                .setCollectionStatistics(statistics)
+                .setElasticsearchMaxHits(elasticsearchMaxHits)
+                .setMinDocumentFrequency(minDocumentFrequency)
+                .setMaxDocumentFrequency(maxDocumentFrequency)
+                .setMinTermFrequency(minTermFrequency)
+                .setMinDepth(minDepth)
+                .setPipelined(pipelined)
+                .setOptions(options)
+                .setLoader(loader);
+    }
+
+    /**
+     * @return this context if it is pinned to TF-IDF tables already, otherwise a copy that is pinned to the current tables
+     */
+    public QueryContext withCurrentLoader(){
+        if ( loader != null ) return this;
+        return toBuilder().setLoader(TFIDFLoader.getLoaderInstance()).build();
+    }
+
+    private static TFIDFOptions copy(TFIDFOptions options){
+        TFIDFOptions copy = new TFIDFOptions(options.getTfOption(), options.getIdfOption());
+        copy.setK1(options.getK1());
+        copy.setB(options.getB());
+        return copy;
+    }
+
+    public String getIndex() {
+        return index;
+    }
+
+    public CollectionStatistics getCollectionStatistics() {
+        return statistics;
+    }
+
+    public int getElasticsearchMaxHits() {
+        return elasticsearchMaxHits;
+    }
+
+    public int getMinDocumentFrequency() {
+        return minDocumentFrequency;
+    }
+
+    public int getMaxDocumentFrequency() {
+        return maxDocumentFrequency;
+    }
+
+    public int getMinTermFrequency() {
+        return minTermFrequency;
+    }
+
+    public int getMinDepth() {
+        return minDepth;
+    }
+
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    /**
+     * @return a copy of the TF-IDF options of this context
+     */
+    public TFIDFOptions getOptions() {
+        return copy(options);
+    }
+
+    /**
+     * @return the pinned TF-IDF tables (see {@link #withCurrentLoader()}) or the current tables if the context is not pinned
+     */
+    public TFIDFLoader getLoader() {
+        return loader != null ? loader : TFIDFLoader.getLoaderInstance();
+    }
+
+    /**
+     * @param searchQuery the query for Elasticsearch
+     * @return the key of the search in a {@link QueryResultCache}, i.e., all settings that change the TF-IDF values
+     */
+    public String getCacheKey(String searchQuery){
+        return QueryResultCache.key(
+                searchQuery,
+                index,
+                statistics.getName(),
+                elasticsearchMaxHits,
+                minDocumentFrequency,
+                maxDocumentFrequency,
+                minTermFrequency,
+                minDepth,
+                options
+        );
+    }
+
+    @Override
+    public String toString(){
+        return "Index: " + index + " " + statistics +
+                "; ES HITS: " + elasticsearchMaxHits +
+                "; DF: [" + minDocumentFrequency + ", " + maxDocumentFrequency + "]" +
+                "; TF MIN: " + minTermFrequency +
+                "; MIN DEPTH: " + minDepth +
+                "; Pipeline: " + pipelined +
+                "; " + options;
+    }
+
+    public static class Builder {
+        private String index = "";
+        private CollectionStatistics statistics = CollectionStatistics.ARXIV;
+        private int elasticsearchMaxHits = 10;
+        private int minDocumentFrequency = 1;
+        private int maxDocumentFrequency = Integer.MAX_VALUE;
+        private int minTermFrequency = 1;
+        private int minDepth = 1;
+        private boolean pipelined = false;
+        private TFIDFOptions options = TFIDFOptions.getDefaultTFIDFOption();
+        private TFIDFLoader loader = null;
+
+        private Builder(){}
+
+        /**
+         * Sets the index and the statistics of its collection (see {@link CollectionStatistics#forIndex(String)}).
+         */
+        public Builder setIndex(String index) {
+            this.index = index;
+            this.statistics = CollectionStatistics.forIndex(index);
+            return this;
+        }
+
+        /**
+         * Overwrites the statistics of the index, call it after {@link #setIndex(String)}.
+         */
+        public Builder setCollectionStatistics(CollectionStatistics statistics) {
+            this.statistics = statistics;
+            return this;
+        }
+
+        public Builder setElasticsearchMaxHits(int elasticsearchMaxHits) {
+            this.elasticsearchMaxHits = elasticsearchMaxHits;
+            return this;
+        }
+
+        public Builder setMinDocumentFrequency(int minDocumentFrequency) {
+            this.minDocumentFrequency = minDocumentFrequency;
+            return this;
+        }
+
+        public Builder setMaxDocumentFrequency(int maxDocumentFrequency) {
+            this.maxDocumentFrequency = maxDocumentFrequency;
+            return this;
+        }
+
+        public Builder setMinTermFrequency(int minTermFrequency) {
+            this.minTermFrequency = minTermFrequency;
+            return this;
+        }
+
+        public Builder setMinDepth(int minDepth) {
+            this.minDepth = minDepth;
+            return this;
+        }
+
+        public Builder setPipelined(boolean pipelined) {
+            this.pipelined = pipelined;
+            return this;
+        }
+
+        public Builder setOptions(TFIDFOptions options) {
+            this.options = options;
+            return this;
+        }
+
+        /**
+         * Pins the context to the given TF-IDF tables, null uses the current tables on every lookup.
+         */
+        public Builder setLoader(TFIDFLoader loader) {
+            this.loader = loader;
+            return this;
+        }
+
+        public QueryContext build(){
+            if ( statistics == null ) throw new IllegalArgumentException("Missing collection statistics.");
+            if ( options == null ) throw new IllegalArgumentException("Missing TF-IDF options.");
+            return new QueryContext(this);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package mir.formulacloud.searcher;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time a single search spent in its stages, see {@link SearcherService#search(String, QueryContext, SearchTimings)}.
+ * For a pipelined search the stages overlap, hence {@link Stage#ELASTICSEARCH} is the time until the last page
+ * was received and {@link Stage#BASEX} the time afterwards until all math was requested and scored.
+ * An instance is used by a single search only.
+ *
+ * @author Andre Greiner-Petter
+ */
+public class SearchTimings {
+    public enum Stage {
+        ELASTICSEARCH,
+        BASEX,
+        TFIDF,
+        MERGE
+    }
+
+    private final long[] nanos = new long[Stage.values().length];
+
+    private boolean cached = false;
+
+    public SearchTimings(){}
+
+    /**
+     * @return the start of a stage, see {@link #record(Stage, long)}
+     */
+    public static long start(){
+        return System.nanoTime();
+    }
+
+    /**
+     * Adds the time since the start to the given stage.
+     * @param stage the stage
+     * @param start the start of the stage, see {@link #start()}
+     */
+    public void record(Stage stage, long start){
+        nanos[stage.ordinal()] += System.nanoTime() - start;
+    }
+
+    /**
+     * @param stage the stage
+     * @return time of the stage in milliseconds
+     */
+    public double getMillis(Stage stage){
+        return nanos[stage.ordinal()] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public long getNanos(Stage stage){
+        return nanos[stage.ordinal()];
+    }
+
+    /**
+     * @return true if the result was taken from the query result cache, i.e., no stage but MERGE ran
+     */
+    public boolean isCached() {
+        return cached;
+    }
+
+    void setCached(boolean cached) {
+        this.cached = cached;
+    }
+
+    @Override
+    public String toString(){
+        StringBuilder sb = new StringBuilder();
+        for ( Stage stage : Stage.values() ){
+            if ( sb.length() > 0 ) sb.append(", ");
+            sb.append(stage).append(": ").append(String.format("%.1f", getMillis(stage))).append("ms");
+        }
+        if ( cached ) sb.append(" (cached)");
+        return sb.toString();
+    }
+}
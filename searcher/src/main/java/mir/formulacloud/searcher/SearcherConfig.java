@@ -2,6 +2,8 @@ package mir.formulacloud.searcher;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
+import mir.formulacloud.util.FrequencyFilter;
+import mir.formulacloud.util.XQueryLoader;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -10,7 +12,7 @@ import java.nio.file.Paths;
  * @author Andre Greiner-Petter
  */
 public class SearcherConfig {
-    @Parameter(names = {"-tfidf", "--frequencyTables"}, description = "Specify the location of the TF-IDF dataset", required = true)
+    @Parameter(names = {"-tfidf", "--frequencyTables"}, description = "Specify the location of the TF-IDF dataset (folder of TF-IDF tables or a binary dictionary file)", required = true)
     private String tfidfData = "";
 
     @Parameter(names = {"-db", "--databaseFolder"}, description = "Specify the location of parent folder of the BaseX databases.", required = true)
@@ -40,6 +42,75 @@ public class SearcherConfig {
     @Parameter(names = {"-minDepth", "--minimumDepth"}, description = "Only consider math with a minimum depth..")
     private int minDepth = 1;
 
+    @Parameter(names = {"-loadMinDepth", "--loadMinimumDepth"}, description = "Do not load TF-IDF entries with a smaller depth.")
+    private int loadMinDepth = Integer.MIN_VALUE;
+
+    @Parameter(names = {"-loadMaxDepth", "--loadMaximumDepth"}, description = "Do not load TF-IDF entries with a larger depth.")
+    private int loadMaxDepth = Integer.MAX_VALUE;
+
+    @Parameter(names = {"-loadMinTF", "--loadMinTermFrequency"}, description = "Do not load TF-IDF entries with a smaller term frequency.")
+    private int loadMinTF = Integer.MIN_VALUE;
+
+    @Parameter(names = {"-loadMaxTF", "--loadMaxTermFrequency"}, description = "Do not load TF-IDF entries with a larger term frequency.")
+    private int loadMaxTF = Integer.MAX_VALUE;
+
+    @Parameter(names = {"-loadMinDF", "--loadMinDocumentFrequency"}, description = "Do not load TF-IDF entries with a smaller document frequency.")
+    private int loadMinDF = Integer.MIN_VALUE;
+
+    @Parameter(names = {"-loadMaxDF", "--loadMaxDocumentFrequency"}, description = "Do not load TF-IDF entries with a larger document frequency.")
+    private int loadMaxDF = Integer.MAX_VALUE;
+
+    @Parameter(names = {"-pushDown", "--pushDownFilters"}, description = "Apply -minDepth, -minDF and -maxDF already when loading the TF-IDF tables. Searches with smaller limits are not possible afterwards.")
+    private boolean pushDownFilters = false;
+
+    @Parameter(names = {"-bloom", "--bloomFilter"}, description = "Reject expressions that are not in the TF-IDF tables by a Bloom filter before the actual lookup.")
+    private boolean bloomFilter = false;
+
+    @Parameter(names = {"-bloomFPP", "--bloomFilterFPP"}, description = "False positive probability of the Bloom filter (default is 0.01).")
+    private double bloomFilterFPP = 0.01;
+
+    @Parameter(names = {"-dbClients", "--basexClientsPerDatabase"}, description = "Number of BaseX clients per database, i.e., the maximum number of concurrent requests per database (default is 4).")
+    private int basexClientsPerDatabase = 4;
+
+    @Parameter(names = {"-batchSize", "--basexBatchSize"}, description = "Maximum number of documents of the same BaseX database that are requested by a single query (default is 10).")
+    private int batchSize = 10;
+
+    @Parameter(names = {"-cacheSize", "--mathCacheSize"}, description = "Maximum number of documents whose math is cached in memory, 0 disables the cache (default is 1000).")
+    private int mathCacheSize = 1000;
+
+    @Parameter(names = {"-cacheDir", "--mathCacheDirectory"}, description = "Directory that caches the math of all requested documents across restarts (default is none).")
+    private String mathCacheDirectory = "";
+
+    @Parameter(names = {"-forwardIndex", "--forwardIndex"}, description = "Read the math of documents from this forward index instead of requesting it from BaseX (see ForwardIndexBuilder).")
+    private String forwardIndex = "";
+
+    @Parameter(names = {"-idIndex", "--elasticsearchIdIndex"}, description = "Elasticsearch index of ID lists, e.g., zbMATH collections (default is zbmath).")
+    private String idIndex = "zbmath";
+
+    @Parameter(names = {"-mgetBatch", "--multiGetBatchSize"}, description = "Number of IDs per Elasticsearch multi-get request (default is 500).")
+    private int multiGetBatchSize = 500;
+
+    @Parameter(names = {"-mgetParallel", "--multiGetParallelRequests"}, description = "Maximum number of concurrent Elasticsearch multi-get requests (default is 4).")
+    private int multiGetParallelRequests = 4;
+
+    @Parameter(names = {"-pipeline", "--pipelinedSearch"}, description = "Request the math of Elasticsearch hits page by page, while the next page is requested from Elasticsearch.")
+    private boolean pipelined = false;
+
+    @Parameter(names = {"-extractor", "--termExtractor"}, description = "Term extraction scripts of BaseX, MEMOIZED visits every element once (default is DEFAULT).")
+    private XQueryLoader.Extractor termExtractor = XQueryLoader.Extractor.DEFAULT;
+
+    @Parameter(names = {"-esPageSize", "--elasticsearchPageSize"}, description = "Number of Elasticsearch hits per page of a pipelined search (default is 100).")
+    private int elasticsearchPageSize = 100;
+
+    @Parameter(names = {"-pipelinePages", "--pipelinePages"}, description = "Maximum number of pages of a pipelined search that are processed concurrently (default is 4).")
+    private int pipelinePages = 4;
+
+    @Parameter(names = {"-queryCacheSize", "--queryCacheSize"}, description = "Maximum number of formulae of all cached search results, 0 disables the cache (default is 2000000).")
+    private long queryCacheSize = 2_000_000;
+
+    @Parameter(names = {"-queryCacheTTL", "--queryCacheTimeToLive"}, description = "Seconds a search result is cached (default is 3600).")
+    private long queryCacheTTL = 3600;
+
     @Parameter(names = {"-h", "--help"}, help = true)
     private boolean help = false;
 
@@ -129,6 +200,157 @@ public class SearcherConfig {
         this.maxDocumentFrequency = maxDocumentFrequency;
     }
 
+    /**
+     * @return the filter for loading the TF-IDF tables. With -pushDown, the query time limits
+     * are combined with the explicit load limits.
+     */
+    public FrequencyFilter getLoadFilter() {
+        int minD = loadMinDepth, minDocF = loadMinDF, maxDocF = loadMaxDF;
+        if ( pushDownFilters ){
+            minD = Math.max(minD, minDepth);
+            minDocF = Math.max(minDocF, minDocumentFrequency);
+            maxDocF = Math.min(maxDocF, maxDocumentFrequency);
+        }
+        return new FrequencyFilter()
+                .depth(minD, loadMaxDepth)
+                .termFrequency(loadMinTF, loadMaxTF)
+                .documentFrequency(minDocF, maxDocF);
+    }
+
+    public boolean useBloomFilter() {
+        return bloomFilter;
+    }
+
+    public double getBloomFilterFPP() {
+        return bloomFilterFPP;
+    }
+
+    protected void setBloomFilter(boolean bloomFilter) {
+        this.bloomFilter = bloomFilter;
+    }
+
+    protected void setBloomFilterFPP(double bloomFilterFPP) {
+        this.bloomFilterFPP = bloomFilterFPP;
+    }
+
+    public int getBasexClientsPerDatabase() {
+        return basexClientsPerDatabase;
+    }
+
+    protected void setBasexClientsPerDatabase(int basexClientsPerDatabase) {
+        this.basexClientsPerDatabase = basexClientsPerDatabase;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    protected void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getMathCacheSize() {
+        return mathCacheSize;
+    }
+
+    /**
+     * @return the directory of the on-disk math cache or null if there is none
+     */
+    public Path getMathCacheDirectory() {
+        return mathCacheDirectory.isEmpty() ? null : Paths.get(mathCacheDirectory);
+    }
+
+    protected void setMathCacheSize(int mathCacheSize) {
+        this.mathCacheSize = mathCacheSize;
+    }
+
+    protected void setMathCacheDirectory(String mathCacheDirectory) {
+        this.mathCacheDirectory = mathCacheDirectory;
+    }
+
+    /**
+     * @return the forward index file or null if there is none
+     */
+    public Path getForwardIndex() {
+        return forwardIndex.isEmpty() ? null : Paths.get(forwardIndex);
+    }
+
+    protected void setForwardIndex(String forwardIndex) {
+        this.forwardIndex = forwardIndex;
+    }
+
+    public String getIdIndex() {
+        return idIndex;
+    }
+
+    public int getMultiGetBatchSize() {
+        return multiGetBatchSize;
+    }
+
+    public int getMultiGetParallelRequests() {
+        return multiGetParallelRequests;
+    }
+
+    protected void setIdIndex(String idIndex) {
+        this.idIndex = idIndex;
+    }
+
+    protected void setMultiGetBatchSize(int multiGetBatchSize) {
+        this.multiGetBatchSize = multiGetBatchSize;
+    }
+
+    protected void setMultiGetParallelRequests(int multiGetParallelRequests) {
+        this.multiGetParallelRequests = multiGetParallelRequests;
+    }
+
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    public int getElasticsearchPageSize() {
+        return elasticsearchPageSize;
+    }
+
+    public int getPipelinePages() {
+        return pipelinePages;
+    }
+
+    public XQueryLoader.Extractor getTermExtractor() {
+        return termExtractor;
+    }
+
+    protected void setTermExtractor(XQueryLoader.Extractor termExtractor) {
+        this.termExtractor = termExtractor;
+    }
+
+    protected void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    protected void setElasticsearchPageSize(int elasticsearchPageSize) {
+        this.elasticsearchPageSize = elasticsearchPageSize;
+    }
+
+    protected void setPipelinePages(int pipelinePages) {
+        this.pipelinePages = pipelinePages;
+    }
+
+    public long getQueryCacheSize() {
+        return queryCacheSize;
+    }
+
+    public long getQueryCacheTTL() {
+        return queryCacheTTL;
+    }
+
+    protected void setQueryCacheSize(long queryCacheSize) {
+        this.queryCacheSize = queryCacheSize;
+    }
+
+    protected void setQueryCacheTTL(long queryCacheTTL) {
+        this.queryCacheTTL = queryCacheTTL;
+    }
+
     public boolean isHelp() {
         return help;
     }
@@ -4,9 +4,13 @@ import com.formulasearchengine.mathmltools.mml.elements.MathDoc;
 import mir.formulacloud.beans.*;
 import mir.formulacloud.elasticsearch.ElasticSearchConnector;
 import mir.formulacloud.tfidf.BaseXController;
-import mir.formulacloud.util.Helper;
+import mir.formulacloud.util.ForwardIndex;
+import mir.formulacloud.util.IntObjectHashMap;
+import mir.formulacloud.util.MathVectorCache;
+import mir.formulacloud.util.QueryResultCache;
 import mir.formulacloud.util.TFIDFConfig;
 import mir.formulacloud.util.TFIDFLoader;
+import mir.formulacloud.util.TopKSelector;
 import mir.formulacloud.util.XQueryLoader;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.logging.log4j.LogManager;
@@ -21,7 +25,18 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * @author Andre Greiner-Petter
@@ -33,6 +48,12 @@ public class SearcherService {
 
     private ElasticSearchConnector elasticsearch;
 
+    // workers for concurrent BaseX requests, see requestMath
+    private ExecutorService basexExecutor;
+
+    // might be null if search results are not cached
+    private QueryResultCache<IntObjectHashMap<MathElementAccumulator>> queryCache;
+
     public SearcherService(SearcherConfig config) {
         this.config = config;
     }
@@ -41,10 +62,14 @@ public class SearcherService {
         initBaseXServers();
         initElasticSearch();
         initTFIDFTables();
+        initForwardIndex();
+        initMathVectorCache();
+        initQueryResultCache();
     }
 
     protected void initBaseXServers(){
         LOG.info("Init BaseXServer and BaseXClients.");
+        XQueryLoader.setDefaultExtractor(config.getTermExtractor());
         HashMap<String, BaseXServerInstances> serversMap = new HashMap<>();
         Path dbFolder = Paths.get(config.getDatabaseParentFolder());
         String baseFolderName = dbFolder.getFileName().toString();
@@ -56,20 +81,62 @@ public class SearcherService {
                             serversMap.put(p.getFileName().toString(), null);
                     });
 
-            BaseXController.initBaseXServers(serversMap, null, new TFIDFConfig());
+            BaseXController.initBaseXServers(serversMap, null, getBaseXConfig());
             LOG.info("Successfully initialized BaseX connections.");
         } catch (IOException e) {
             LOG.fatal("Cannot create list of BaseXServers", e);
             System.exit(1);
         }
-        XQueryLoader.initMinTermFrequency(config.getMinTermFrequency());
     }
 
     protected void initBaseXServers(String... databases) {
         HashMap<String, BaseXServerInstances> serversMap = new HashMap<>();
         for (String db : databases)
             serversMap.put(db, null);
-        BaseXController.initBaseXServers(serversMap, null, new TFIDFConfig());
+        BaseXController.initBaseXServers(serversMap, null, getBaseXConfig());
+    }
+
+    private TFIDFConfig getBaseXConfig(){
+        // each client can serve one concurrent request
+        TFIDFConfig basexConfig = new TFIDFConfig();
+        basexConfig.setDefaultClients(config.getBasexClientsPerDatabase());
+        return basexConfig;
+    }
+
+    protected void initForwardIndex(){
+        Path path = config.getForwardIndex();
+        if ( path == null ) return;
+        try {
+            ForwardIndex.initForwardIndex(path);
+            int minTF = ForwardIndex.getInstance().getMinTermFrequency();
+            if ( minTF != config.getMinTermFrequency() )
+                LOG.warn("The forward index was built with a minimum term frequency of " + minTF +
+                        " but the searcher uses " + config.getMinTermFrequency() + ". The index is only used by requests with TF MIN " + minTF + ".");
+        } catch (IOException e) {
+            LOG.error("Cannot open forward index " + path + ". Request math from BaseX instead.", e);
+        }
+    }
+
+    protected void initMathVectorCache(){
+        if ( config.getMathCacheSize() <= 0 && config.getMathCacheDirectory() == null ) return;
+        MathVectorCache.initMathVectorCache(Math.max(0, config.getMathCacheSize()), config.getMathCacheDirectory());
+    }
+
+    protected void initQueryResultCache(){
+        if ( config.getQueryCacheSize() <= 0 ) return;
+        queryCache = new QueryResultCache<>(
+                config.getQueryCacheSize(),
+                TimeUnit.SECONDS.toMillis(config.getQueryCacheTTL()),
+                IntObjectHashMap::size
+        );
+        LOG.info("Cache search results of up to " + config.getQueryCacheSize() + " formulae for " + config.getQueryCacheTTL() + "s.");
+    }
+
+    /**
+     * @return the cache of search results or null if results are not cached
+     */
+    public QueryResultCache<IntObjectHashMap<MathElementAccumulator>> getQueryResultCache(){
+        return queryCache;
     }
 
     protected void initElasticSearch(){
@@ -81,15 +148,199 @@ public class SearcherService {
 
     protected void initTFIDFTables(){
         LOG.info("Init TF-IDF cache.");
-        TFIDFLoader.initTFIDFLoader(config.getTfidfData());
+        TFIDFLoader.initTFIDFLoader(config.getTfidfData(), config.getLoadFilter());
+        if ( config.useBloomFilter() )
+            TFIDFLoader.getLoaderInstance().initBloomFilter(config.getBloomFilterFPP());
         LOG.info("Successfully loaded TF-IDF cache.");
     }
 
-    protected void shutdown(){
+    /**
+     * Loads the TF-IDF tables from the given path in the background and swaps them in
+     * once they are loaded. Queries keep using the current tables until then.
+     * @param path folder of TF-IDF tables or a binary dictionary file
+     * @return completes with the new tables (or exceptionally if they cannot be loaded)
+     */
+    public CompletableFuture<TFIDFLoader> reloadTFIDFTables(Path path){
+        LOG.info("Reload TF-IDF cache from " + path);
+        return TFIDFLoader.reloadTFIDFLoader(path)
+                .whenComplete( (loader, error) -> {
+                    if ( error != null ) return;
+                    config.setTfidfData(path.toString());
+                    // cached results were calculated with the old tables
+                    if ( queryCache != null ) queryCache.invalidate();
+                });
+    }
+
+    /**
+     * @return the settings of this service as context of a search on its fixed index
+     */
+    public QueryContext getDefaultContext(){
+        return QueryContext.builder(config).build();
+    }
+
+    public void shutdown(){
+        synchronized (this){
+            if (basexExecutor != null) basexExecutor.shutdownNow();
+        }
         BaseXController.closeAllClients();
         elasticsearch.stop();
     }
 
+    /**
+     * Same as {@link #search(String, QueryContext)} with the settings of this service.
+     * @param searchQuery the query for Elasticsearch
+     * @param index the Elasticsearch index
+     * @param options TF-IDF options
+     * @return the accumulated scores per math element, must not be changed
+     */
+    public IntObjectHashMap<MathElementAccumulator> search(String searchQuery, String index, TFIDFOptions options){
+        return search(searchQuery, QueryContext.builder(config).setIndex(index).setOptions(options).build());
+    }
+
+    /**
+     * Searches the index of the context and calculates the TF-IDF values of the math in all hits. Results are cached
+     * by all parameters that change the TF-IDF values, hence a repeated search returns immediately.
+     * The merge function and the minimum number of hits are applied afterwards
+     * (see {@link #groupTFIDFElements(IntObjectHashMap, MathMergeFunctions, int)}), so a cached result serves all of them.
+     * Searches with different contexts can run concurrently.
+     * @param searchQuery the query for Elasticsearch
+     * @param context the settings of the search
+     * @return the accumulated scores per math element, must not be changed
+     */
+    public IntObjectHashMap<MathElementAccumulator> search(String searchQuery, QueryContext context){
+        return search(searchQuery, context, new SearchTimings());
+    }
+
+    /**
+     * Same as {@link #search(String, QueryContext)} but records the time of the stages of the search.
+     * @param timings receives the time of the Elasticsearch, BaseX and TF-IDF stages
+     */
+    public IntObjectHashMap<MathElementAccumulator> search(String searchQuery, QueryContext context, SearchTimings timings){
+        return search(searchQuery, context, timings, true);
+    }
+
+    /**
+     * Same as {@link #search(String, QueryContext, SearchTimings)}.
+     * @param useQueryCache false to search even if the result is cached, e.g., to measure the search itself.
+     *                      The result is not cached either.
+     */
+    public IntObjectHashMap<MathElementAccumulator> search(String searchQuery, QueryContext context, SearchTimings timings, boolean useQueryCache){
+        // read before the tables are pinned, a reload in between invalidates the result instead of caching it
+        long generation = queryCache != null && useQueryCache ? queryCache.getGeneration() : 0;
+        // all documents of the search are scored against the same tables, even if they are reloaded meanwhile
+        context = context.withCurrentLoader();
+        String key = context.getCacheKey(searchQuery);
+
+        if ( queryCache != null && useQueryCache ){
+            IntObjectHashMap<MathElementAccumulator> cached = queryCache.get(key);
+            if ( cached != null ){
+                LOG.info("Use cached result for query: " + searchQuery);
+                timings.setCached(true);
+                return cached;
+            }
+        }
+
+        long start = SearchTimings.start();
+        int numberOfDocs = getNumberOfDocuments(context.getIndex());
+        IntObjectHashMap<MathElementAccumulator> result;
+        if ( context.isPipelined() ){
+            result = searchPipelined(searchQuery, numberOfDocs, context, timings, start);
+        } else {
+            LOG.info("Collection documents from Elasticsearch for query: " + searchQuery);
+            SearchHits hits = elasticsearch.search(searchQuery, context.getElasticsearchMaxHits(), context.getIndex());
+            List<MathDocument> mdocs = getMathResults(hits);
+            timings.record(SearchTimings.Stage.ELASTICSEARCH, start);
+
+            start = SearchTimings.start();
+            requestMath(mdocs, batch -> {}, context);
+            timings.record(SearchTimings.Stage.BASEX, start);
+
+            start = SearchTimings.start();
+            result = mapMathDocsToTFIDFElements(mdocs, numberOfDocs, context);
+            timings.record(SearchTimings.Stage.TFIDF, start);
+        }
+        if ( queryCache != null && useQueryCache ) queryCache.put(key, result, generation);
+        return result;
+    }
+
+    /**
+     * Overlaps the stages of a search. The hits are received from Elasticsearch page by page (scroll),
+     * the math of a page is requested from BaseX while the next page is received, and every batch of documents is
+     * scored as soon as its math arrives. At most -pipelinePages pages are processed concurrently,
+     * i.e., Elasticsearch waits if BaseX is too slow.
+     * @return the same as {@link #mapMathDocsToTFIDFElements(List, int, QueryContext)} for all hits
+     * @throws IllegalStateException if a page cannot be processed
+     */
+    private IntObjectHashMap<MathElementAccumulator> searchPipelined(
+            String searchQuery,
+            int totalDocs,
+            QueryContext context,
+            SearchTimings timings,
+            long stageStart
+    ){
+        LOG.info("Collection documents page by page from Elasticsearch for query: " + searchQuery);
+        long start = System.currentTimeMillis();
+        IntObjectHashMap<MathElementAccumulator> result = new IntObjectHashMap<>();
+        Semaphore pagesInFlight = new Semaphore(Math.max(1, config.getPipelinePages()));
+        List<Future<?>> pages = new LinkedList<>();
+        AtomicInteger position = new AtomicInteger();
+
+        int maxHits = context.getElasticsearchMaxHits();
+        int hits = elasticsearch.scroll(searchQuery, config.getElasticsearchPageSize(), maxHits, page -> {
+            List<MathDocument> docs = getMathResults(page);
+            // the position in the hits decides which document represents a merged math element
+            IdentityHashMap<MathDocument, Integer> positions = new IdentityHashMap<>();
+            for (MathDocument doc : docs) positions.put(doc, position.getAndIncrement());
+
+            try {
+                pagesInFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            pages.add(getBaseXExecutor().submit(() -> {
+                try {
+                    requestMath(docs, batch -> {
+                        IntObjectHashMap<MathElementAccumulator> batchResult = new IntObjectHashMap<>();
+                        for (MathDocument doc : batch)
+                            foldDocument(batchResult, doc, positions.get(doc), totalDocs, context);
+                        synchronized (result){
+                            result.mergeAll(batchResult, MathElementAccumulator::merge);
+                        }
+                    }, context);
+                } finally {
+                    pagesInFlight.release();
+                }
+            }));
+        }, context.getIndex());
+        timings.record(SearchTimings.Stage.ELASTICSEARCH, stageStart);
+        if ( Thread.currentThread().isInterrupted() ){
+            pages.forEach( p -> p.cancel(true) );
+            throw new IllegalStateException("Interrupted while receiving the pages of a pipelined search.");
+        }
+
+        stageStart = SearchTimings.start();
+        // an incomplete result must not be returned (and cached) as if it was the result of the query
+        for (Future<?> page : pages){
+            try {
+                page.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                pages.forEach( p -> p.cancel(true) );
+                throw new IllegalStateException("Interrupted while processing the pages of a pipelined search.", e);
+            } catch (ExecutionException e) {
+                pages.forEach( p -> p.cancel(true) );
+                throw new IllegalStateException("Not able to process a page of a pipelined search.", e.getCause());
+            }
+        }
+        timings.record(SearchTimings.Stage.BASEX, stageStart);
+
+        LOG.info("Finished pipelined search over " + hits + " hits in " + pages.size() + " pages. " +
+                "Time Elapsed: " + (System.currentTimeMillis() - start) + "ms");
+        return result;
+    }
+
     public int getNumberOfDocuments(String index){
         return (int)elasticsearch.numberOfDocuments(index);
     }
@@ -100,8 +351,11 @@ public class SearcherService {
     }
 
     public List<MathDocument> getMathResults(SearchHits results){
+        return getMathResults(results.getHits());
+    }
+
+    public List<MathDocument> getMathResults(SearchHit[] hits){
         LOG.info("Generate MathDocuments from Elasticsearch hits.");
-        SearchHit[] hits = results.getHits();
         LinkedList<MathDocument> mathDocs = new LinkedList<>();
 
         for (SearchHit hit : hits){
@@ -127,12 +381,12 @@ public class SearcherService {
     }
 
     public List<MathDocument> getMathResults(List<String> zbMathIDs){
+        LOG.info("Request " + zbMathIDs.size() + " IDs from Elasticsearch.");
         LinkedList<MathDocument> mathDocs = new LinkedList<>();
-        for(String zbID : zbMathIDs){
-            GetResponse res = elasticsearch.getID(zbID);
+        for(GetResponse res : elasticsearch.getIDs(zbMathIDs)){
             Map<String, Object> info = res.getSource();
             if (info == null){
-                LOG.info("Didn't find ID " + zbID);
+                LOG.info("Didn't find ID " + res.getId());
                 continue;
             }
 
@@ -158,74 +412,175 @@ public class SearcherService {
         return mathDocs;
     }
 
+    /**
+     * Requests the math of all documents from BaseX. The documents of different databases are requested
+     * concurrently, the number of concurrent requests per database is limited by the number of clients
+     * per database (-dbClients). Documents of the same database are requested in batches of -batchSize
+     * documents per query. The math is stored in the documents, hence the returned list has the
+     * same order as the given list.
+     * @param documents documents (might contain null)
+     * @return the given list
+     */
     public List<MathDocument> requestMath(List<MathDocument> documents){
-        LOG.info("Collecting math for each document from BaseX.");
-        int counter = 0;
+        return requestMath(documents, batch -> {});
+    }
+
+    /**
+     * Same as {@link #requestMath(List)} but passes every batch of documents to the consumer as soon as its math arrived.
+     * The consumer is called concurrently by the BaseX workers.
+     * @param documents documents (might contain null)
+     * @param batchConsumer receives each batch of documents with math
+     * @return the given list
+     */
+    public List<MathDocument> requestMath(List<MathDocument> documents, Consumer<List<MathDocument>> batchConsumer){
+        return requestMath(documents, batchConsumer, getDefaultContext());
+    }
+
+    /**
+     * Same as {@link #requestMath(List)} but with the minimum term frequency and depth of the given context.
+     */
+    public List<MathDocument> requestMath(List<MathDocument> documents, QueryContext context){
+        return requestMath(documents, batch -> {}, context);
+    }
 
+    /**
+     * Same as {@link #requestMath(List, Consumer)} but with the minimum term frequency and depth of the given context.
+     * @throws IllegalStateException if the math of some documents cannot be collected
+     */
+    public List<MathDocument> requestMath(
+            List<MathDocument> documents,
+            Consumer<List<MathDocument>> batchConsumer,
+            QueryContext context
+    ){
+        LOG.info("Collecting math for each document from BaseX.");
+        QueryContext pinned = context.withCurrentLoader();
+        long start = System.currentTimeMillis();
+        AtomicInteger counter = new AtomicInteger();
+        int batchSize = Math.max(1, config.getBatchSize());
+
+        // one queue of batches per database, so that a slow database does not block requests to the others
+        LinkedHashMap<String, Queue<List<MathDocument>>> batchesPerDB = new LinkedHashMap<>();
+        HashMap<String, List<MathDocument>> openBatches = new HashMap<>();
         for (MathDocument doc : documents){
             if (doc == null) continue;
-            LOG.info("Requesting math for " + doc.getDocID());
-            doc.requestMathFromBasex(config);
-            counter++;
-            LOG.info("Requested math for " + counter + " files.");
-//            counter++;
-//            System.out.print(String.format(
-//                    "\rFinished %07d/%07d",
-//                    counter,
-//                    MathDocument.ZBMATH_DOCS
-//                    )
-//            );
+            String db = doc.getBasexDB() == null ? "" : doc.getBasexDB();
+            Queue<List<MathDocument>> queue = batchesPerDB.computeIfAbsent(db, k -> new ConcurrentLinkedQueue<>());
+            if (!doc.isBatchable()){
+                queue.add(Collections.singletonList(doc));
+                continue;
+            }
+
+            List<MathDocument> batch = openBatches.get(db);
+            if (batch == null || batch.size() >= batchSize){
+                batch = new ArrayList<>(batchSize);
+                openBatches.put(db, batch);
+                queue.add(batch);
+            }
+            batch.add(doc);
         }
 
-//        int[] counter = new int[]{0};
-//        documents
-//                .stream()
-//                .filter(Objects::nonNull)
-//                .parallel()
-//                .forEach(e -> {
-//                    e.requestMathFromBasex(config);
-//                    counter[0] += 1;
-//                    System.out.print(String.format(
-//                            "\rFinished %07d/%07d",
-//                            counter[0],
-//                            MathDocument.ZBMATH_DOCS
-//                            )
-//                    );
-//                });
+        List<Future<?>> workers = new LinkedList<>();
+        for (Queue<List<MathDocument>> queue : batchesPerDB.values()){
+            int numberOfWorkers = Math.min(queue.size(), config.getBasexClientsPerDatabase());
+            for (int i = 0; i < numberOfWorkers; i++){
+                workers.add(getBaseXExecutor().submit(() -> {
+                    List<MathDocument> batch;
+                    while ((batch = queue.poll()) != null){
+                        LOG.debug("Requesting math for " + batch.size() + " documents.");
+                        MathDocument.requestMathFromBasex(batch, pinned);
+                        batchConsumer.accept(batch);
+                        LOG.debug("Requested math for " + counter.addAndGet(batch.size()) + " files.");
+                    }
+                }));
+            }
+        }
 
+        // the other workers finish their queues before the first failure is thrown
+        Throwable failure = null;
+        for (Future<?> worker : workers){
+            try {
+                worker.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                workers.forEach( w -> w.cancel(true) );
+                throw new IllegalStateException("Interrupted while collecting math from BaseX.", e);
+            } catch (ExecutionException e) {
+                LOG.error("Not able to collect math from BaseX.", e.getCause());
+                if ( failure == null ) failure = e.getCause();
+            }
+        }
+        if ( failure != null )
+            throw new IllegalStateException("Not able to collect math from BaseX.", failure);
+
+        LOG.info("Requested math for " + counter.get() + " files from " + batchesPerDB.size() + " databases. " +
+                "Time Elapsed: " + (System.currentTimeMillis() - start) + "ms");
         return documents;
     }
 
+    private synchronized ExecutorService getBaseXExecutor(){
+        if (basexExecutor == null){
+            AtomicInteger threadCounter = new AtomicInteger();
+            basexExecutor = Executors.newCachedThreadPool( r -> {
+                Thread t = new Thread(r, "basex-request-" + threadCounter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return basexExecutor;
+    }
+
     /**
-     *
+     * Calculates the TF-IDF values of the math in all documents (in parallel) and folds them per math element.
      * @param docs
-     * @return the result may contain entries multiple times. Use {{@link #groupTFIDFElements(HashMap, MathMergeFunctions)}} to group the entries.
+     * @return the accumulated scores per math element. Use {@link #groupTFIDFElements(IntObjectHashMap, MathMergeFunctions)} to merge the entries.
      */
-    public HashMap<String, List<TFIDFMathElement>> mapMathDocsToTFIDFElements(
+    public IntObjectHashMap<MathElementAccumulator> mapMathDocsToTFIDFElements(
             List<MathDocument> docs,
             int totalDocs
     ){
         return mapMathDocsToTFIDFElements(docs, totalDocs, TFIDFOptions.getDefaultTFIDFOption());
     }
 
-    public HashMap<String, List<TFIDFMathElement>> mapMathDocsToTFIDFElements(
+    public IntObjectHashMap<MathElementAccumulator> mapMathDocsToTFIDFElements(
             List<MathDocument> docs,
             int totalDocs,
             TFIDFOptions options
     ){
-        HashMap<String, List<TFIDFMathElement>> map = new HashMap<>();
-        for(MathDocument doc : docs) {
-            HashMap<String, TFIDFMathElement> docElements =
-                    doc.getDocumentTFIDF(
-                            totalDocs,
-                            config.getMinDocumentFrequency(),
-                            config.getMaxDocumentFrequency(),
-                            options,
-                            config
-                    );
-            Helper.collect(docElements, map);
-        }
-        return map;
+        return mapMathDocsToTFIDFElements(docs, totalDocs, QueryContext.builder(config).setOptions(options).build());
+    }
+
+    /**
+     * Same as {@link #mapMathDocsToTFIDFElements(List, int)} with the DF limits, TF-IDF options and
+     * collection statistics of the given context.
+     */
+    public IntObjectHashMap<MathElementAccumulator> mapMathDocsToTFIDFElements(
+            List<MathDocument> docs,
+            int totalDocs,
+            QueryContext context
+    ){
+        // the same tables for all documents, see QueryContext#withCurrentLoader()
+        QueryContext pinned = context.withCurrentLoader();
+        // every worker folds its documents into its own map, the maps are merged at the end
+        return IntStream.range(0, docs.size())
+                .parallel()
+                .collect(
+                        IntObjectHashMap::new,
+                        (map, i) -> foldDocument(map, docs.get(i), i, totalDocs, pinned),
+                        (map, other) -> map.mergeAll(other, MathElementAccumulator::merge)
+                );
+    }
+
+    private void foldDocument(
+            IntObjectHashMap<MathElementAccumulator> map,
+            MathDocument doc,
+            int position,
+            int totalDocs,
+            QueryContext context
+    ){
+        IntObjectHashMap<TFIDFMathElement> docElements = doc.getDocumentTFIDF(totalDocs, context);
+        docElements.forEach( (id, element) ->
+                map.computeIfAbsent(id, k -> new MathElementAccumulator()).add(element, position)
+        );
     }
 
     /**
@@ -234,47 +589,58 @@ public class SearcherService {
      * @param mergeFunction
      * @return ordered linked list of TF-IDF math elements
      */
-    public List<TFIDFMathElement> groupTFIDFElements(HashMap<String, List<TFIDFMathElement>> elements, MathMergeFunctions mergeFunction){
+    public List<TFIDFMathElement> groupTFIDFElements(IntObjectHashMap<MathElementAccumulator> elements, MathMergeFunctions mergeFunction){
         return groupTFIDFElements(elements, mergeFunction, 1);
     }
 
-    public List<TFIDFMathElement> groupTFIDFElements(HashMap<String, List<TFIDFMathElement>> elements, MathMergeFunctions mergeFunction, int minHitFrequency){
-//        LinkedList<TFIDFMathElement> finalElements = new LinkedList<>();
-
+    public List<TFIDFMathElement> groupTFIDFElements(IntObjectHashMap<MathElementAccumulator> elements, MathMergeFunctions mergeFunction, int minHitFrequency){
         LOG.info("Start merging math elements in parallel...");
         List<TFIDFMathElement> finalElements = elements.values().stream()
                 .parallel()
-                .map(l -> {
-                    if (l.size() < minHitFrequency) return null;
-
-                    double[] scores = new double[l.size()];
-                    int localfreq = 0;
-                    for (int i = 0; i < scores.length; i++) {
-                        scores[i] = l.get(i).getScore();
-                        localfreq += l.get(i).getTotalFrequency();
-                    }
-                    double totalScore = mergeFunction.calculate(scores);
-                    TFIDFMathElement tfidfElement = new TFIDFMathElement(l.get(0), totalScore);
-                    tfidfElement.setTotalFrequency(localfreq);
-                    tfidfElement.setDocFrequency(l.size());
-                    return tfidfElement;
-                })
-                .filter(Objects::nonNull)
+                .filter(acc -> acc.getHits() >= minHitFrequency)
+                .map(acc -> acc.toTFIDFMathElement(mergeFunction))
                 .sorted(Comparator.comparing(TFIDFMathElement::getScore).reversed())
                 .collect(Collectors.toList());
 
-//        for( List<TFIDFMathElement> list : elements.values() ){
-//            // skip if function does not appear in minimum number of hits
-//            if ( list.size() < minHitFrequency ) continue;
-//
-//
-//        }
-
         LOG.info("Successfully finished merging math elements.");
 
         return finalElements;
     }
 
+    /**
+     * Same as {@link #groupTFIDFElements(IntObjectHashMap, MathMergeFunctions, int)} but keeps only
+     * the top K merged elements. Merged elements are only created if they get into the top K,
+     * and there is no sort over all elements.
+     *
+     * @param elements
+     * @param mergeFunction
+     * @param minHitFrequency
+     * @param topK number of merged elements to keep
+     * @return the selector of the top K merged elements, use {@link TopKSelector#toSortedList()} to get the ordered list
+     */
+    public TopKSelector<TFIDFMathElement> selectTopTFIDFElements(
+            IntObjectHashMap<MathElementAccumulator> elements,
+            MathMergeFunctions mergeFunction,
+            int minHitFrequency,
+            int topK
+    ){
+        LOG.info("Start selecting top " + topK + " math elements in parallel...");
+        TopKSelector<TFIDFMathElement> selector = elements.values().stream()
+                .parallel()
+                .filter(acc -> acc.getHits() >= minHitFrequency)
+                .collect(
+                        () -> new TopKSelector<>(topK, TFIDFMathElement::getScore),
+                        (topSelector, acc) -> {
+                            double score = mergeFunction.calculate(acc);
+                            if ( topSelector.isCompetitive(score) ) topSelector.offer(acc.toTFIDFMathElement(score));
+                            else topSelector.countCandidate();
+                        },
+                        TopKSelector::merge
+                );
+        LOG.info("Successfully selected top " + selector.size() + " of " + selector.getNumberOfCandidates() + " math elements.");
+        return selector;
+    }
+
     public static List<MathDocument> requestAllDocs(Path input) throws IOException {
         return Files
                 .walk(input)
@@ -293,12 +659,6 @@ public class SearcherService {
         CLISearcher cliSearcher = new CLISearcher(config);
         cliSearcher.init();
 
-        if ( config.getFixedIndex().equals("zbmath") ){
-            MathDocument.setZBMATHMode();
-        } else {
-            MathDocument.setArxivMode();
-        }
-
         double mem = Runtime.getRuntime().totalMemory()/Math.pow(1024,2);
         System.out.println("Finish initialization - Memory usage now: " + mem + " MB");
 
@@ -0,0 +1,214 @@
+package mir.formulacloud.util;
+
+import mir.formulacloud.beans.MathVector;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of the math vectors of documents, so that popular documents are not requested from BaseX
+ * again and again. The cache has two tiers, a size bounded in-memory tier (least recently used
+ * documents are evicted) and an optional on-disk tier that survives restarts.
+ *
+ * The vectors are cached by document ID, database and minimum term frequency of the extraction script.
+ * The minimum depth is applied after the cache, hence a single vector serves every minimum depth.
+ *
+ * @author Andre Greiner-Petter
+ */
+public class MathVectorCache {
+    private static final Logger LOG = LogManager.getLogger(MathVectorCache.class.getName());
+
+    // version 2 stores the hashes of the expressions
+    private static final int FILE_VERSION = 2;
+
+    private final LinkedHashMap<String, MathVector> memory;
+
+    // might be null if there is no on-disk tier
+    private final Path directory;
+
+    private final LongAdder memoryHits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxDocuments maximum number of documents in the memory
+     * @param directory directory of the on-disk tier or null
+     * @throws IOException if the directory cannot be created
+     */
+    public MathVectorCache(int maxDocuments, Path directory) throws IOException {
+        this.memory = new LinkedHashMap<String, MathVector>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MathVector> eldest) {
+                if ( size() <= maxDocuments ) return false;
+                evictions.increment();
+                return true;
+            }
+        };
+        this.directory = directory;
+        if ( directory != null ) Files.createDirectories(directory);
+    }
+
+    private static String key(String docID, String db, int minTF){
+        return db + "/" + minTF + "/" + docID;
+    }
+
+    /**
+     * @param docID the document
+     * @param db BaseX database of the document
+     * @param minTF the minimum term frequency of the extraction script
+     * @return the cached vector or null
+     */
+    public MathVector get(String docID, String db, int minTF){
+        String key = key(docID, db, minTF);
+        MathVector vector;
+        synchronized ( memory ){
+            vector = memory.get(key);
+        }
+        if ( vector != null ){
+            memoryHits.increment();
+            return vector;
+        }
+
+        vector = readFromDisk(key);
+        if ( vector == null ){
+            misses.increment();
+            return null;
+        }
+
+        diskHits.increment();
+        synchronized ( memory ){
+            memory.put(key, vector);
+        }
+        return vector;
+    }
+
+    /**
+     * Adds the vector to both tiers.
+     */
+    public void put(String docID, String db, int minTF, MathVector vector){
+        String key = key(docID, db, minTF);
+        synchronized ( memory ){
+            memory.put(key, vector);
+        }
+        writeToDisk(key, vector);
+    }
+
+    private Path getFile(String key){
+        // the key is stored in the file, hence collisions of sanitized names are detected while reading
+        String name = key.replaceAll("[^\\w.-]", "_") + "_" + Integer.toHexString(key.hashCode()) + ".vec";
+        return directory.resolve(name);
+    }
+
+    private MathVector readFromDisk(String key){
+        if ( directory == null ) return null;
+        Path file = getFile(key);
+        if ( Files.notExists(file) ) return null;
+
+        try ( DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file))) ){
+            if ( in.readInt() != FILE_VERSION || !in.readUTF().equals(key) ) return null;
+            return MathVector.read(in);
+        } catch (IOException ioe){
+            LOG.warn("Cannot read cached math vector " + file, ioe);
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, MathVector vector){
+        if ( directory == null ) return;
+        Path file = getFile(key);
+        try {
+            // write to a temporary file first, so that concurrent readers never see a partial file
+            Path tmp = Files.createTempFile(directory, "vec", ".tmp");
+            try ( DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp))) ){
+                out.writeInt(FILE_VERSION);
+                out.writeUTF(key);
+                vector.write(out);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ioe){
+            LOG.warn("Cannot write math vector to cache " + file, ioe);
+        }
+    }
+
+    /**
+     * Removes all documents from the memory. The on-disk tier is not touched.
+     */
+    public void clearMemory(){
+        synchronized ( memory ){
+            memory.clear();
+        }
+    }
+
+    public int size(){
+        synchronized ( memory ){
+            return memory.size();
+        }
+    }
+
+    public long getMemoryHits(){
+        return memoryHits.sum();
+    }
+
+    public long getDiskHits(){
+        return diskHits.sum();
+    }
+
+    public long getMisses(){
+        return misses.sum();
+    }
+
+    public long getEvictions(){
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString(){
+        long hits = getMemoryHits() + getDiskHits();
+        long requests = hits + getMisses();
+        return String.format(
+                "Math vector cache [documents in memory: %d; memory hits: %d; disk hits: %d; misses: %d; evictions: %d; hit rate: %.2f%%]",
+                size(),
+                getMemoryHits(),
+                getDiskHits(),
+                getMisses(),
+                getEvictions(),
+                requests == 0 ? 0 : 100.0 * hits / requests
+        );
+    }
+
+    private static volatile MathVectorCache cache;
+
+    /**
+     * Creates the cache that is used by all documents.
+     * @param maxDocuments maximum number of documents in the memory
+     * @param directory directory of the on-disk tier or null
+     */
+    public static synchronized void initMathVectorCache(int maxDocuments, Path directory){
+        try {
+            cache = new MathVectorCache(maxDocuments, directory);
+            LOG.info("Cache math vectors of up to " + maxDocuments + " documents in memory" +
+                    (directory == null ? "." : " and all documents in " + directory));
+        } catch (IOException e) {
+            LOG.error("Cannot create math vector cache in " + directory + ". Documents are not cached.", e);
+        }
+    }
+
+    /**
+     * @return the cache or null if documents are not cached
+     */
+    public static MathVectorCache getInstance(){
+        return cache;
+    }
+}
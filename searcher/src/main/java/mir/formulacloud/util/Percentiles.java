@@ -0,0 +1,24 @@
+package mir.formulacloud.util;
+
+/**
+ * @author Andre Greiner-Petter
+ */
+public final class Percentiles {
+
+    private Percentiles(){}
+
+    /**
+     * @param sorted values in ascending order
+     * @param percentiles percentiles between 0 and 100
+     * @return the values of the given percentiles (nearest rank) or 0 if there are no values
+     */
+    public static long[] nearestRank(long[] sorted, double... percentiles){
+        long[] result = new long[percentiles.length];
+        if ( sorted.length == 0 ) return result;
+        for ( int i = 0; i < percentiles.length; i++ ){
+            int rank = (int) Math.ceil(percentiles[i] / 100.0 * sorted.length);
+            result[i] = sorted[Math.min(sorted.length - 1, Math.max(0, rank - 1))];
+        }
+        return result;
+    }
+}
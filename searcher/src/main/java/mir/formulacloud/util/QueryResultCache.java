@@ -0,0 +1,205 @@
+package mir.formulacloud.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Cache of search results, so that repeated searches (e.g., while tuning the number of shown results or
+ * exporting) do not run Elasticsearch, BaseX and the TF-IDF calculation again.
+ *
+ * The size of the cache is bounded by the total weight (e.g., number of formulae) of all results.
+ * Least recently used results are evicted first and results expire after a time to live.
+ * Results must not be changed after they were put into the cache.
+ *
+ * @author Andre Greiner-Petter
+ */
+public class QueryResultCache<V> {
+    private static final Logger LOG = LogManager.getLogger(QueryResultCache.class.getName());
+
+    private static final char SEPARATOR = '\u0001';
+
+    private final LinkedHashMap<String, Entry<V>> results;
+
+    private final long maxWeight;
+    private final long timeToLive;
+    private final ToLongFunction<V> weigher;
+    private final LongSupplier clock;
+
+    private long weight = 0;
+
+    // increased by every invalidation
+    private long generation = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * @param maxWeight maximum weight of all cached results
+     * @param timeToLive time in milliseconds a result is cached
+     * @param weigher the weight of a result (e.g., its number of formulae)
+     */
+    public QueryResultCache(long maxWeight, long timeToLive, ToLongFunction<V> weigher){
+        this(maxWeight, timeToLive, weigher, System::currentTimeMillis);
+    }
+
+    QueryResultCache(long maxWeight, long timeToLive, ToLongFunction<V> weigher, LongSupplier clock){
+        this.results = new LinkedHashMap<>(16, 0.75f, true);
+        this.maxWeight = maxWeight;
+        this.timeToLive = timeToLive;
+        this.weigher = weigher;
+        this.clock = clock;
+    }
+
+    /**
+     * @param parameters all parameters that change the result of a search
+     * @return the key of the search
+     */
+    public static String key(Object... parameters){
+        StringBuilder sb = new StringBuilder();
+        for ( Object p : parameters ) sb.append(p).append(SEPARATOR);
+        return sb.toString();
+    }
+
+    /**
+     * @param key see {@link #key(Object...)}
+     * @return the cached result or null if there is none (or it is expired)
+     */
+    public synchronized V get(String key){
+        Entry<V> entry = results.get(key);
+        if ( entry != null && isExpired(entry) ){
+            remove(key);
+            entry = null;
+        }
+
+        if ( entry == null ){
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.result;
+    }
+
+    /**
+     * @return the current generation of the cache, see {@link #put(String, Object, long)}
+     */
+    public synchronized long getGeneration(){
+        return generation;
+    }
+
+    /**
+     * Caches the result if the cache was not invalidated since the given generation, i.e.,
+     * a result that was calculated with outdated tables is not cached.
+     * @param generation the generation of the cache before the calculation of the result started
+     */
+    public synchronized void put(String key, V result, long generation){
+        if ( this.generation == generation ) put(key, result);
+    }
+
+    /**
+     * Caches the result. Results that are heavier than the entire cache are not cached.
+     */
+    public synchronized void put(String key, V result){
+        long resultWeight = weigher.applyAsLong(result);
+        remove(key);
+        if ( resultWeight > maxWeight ){
+            LOG.debug("Do not cache result of weight " + resultWeight + ", maximum is " + maxWeight);
+            return;
+        }
+
+        results.put(key, new Entry<>(result, resultWeight, clock.getAsLong()));
+        weight += resultWeight;
+
+        // first drop expired results, afterwards least recently used results until the weight fits
+        Iterator<Entry<V>> it = results.values().iterator();
+        while ( it.hasNext() ){
+            Entry<V> entry = it.next();
+            if ( isExpired(entry) ){
+                weight -= entry.weight;
+                it.remove();
+            }
+        }
+
+        it = results.values().iterator();
+        while ( weight > maxWeight && it.hasNext() ){
+            Entry<V> entry = it.next();
+            weight -= entry.weight;
+            it.remove();
+            evictions.increment();
+        }
+    }
+
+    private boolean isExpired(Entry<V> entry){
+        return clock.getAsLong() - entry.created > timeToLive;
+    }
+
+    private void remove(String key){
+        Entry<V> old = results.remove(key);
+        if ( old != null ) weight -= old.weight;
+    }
+
+    /**
+     * Removes all results, e.g., because the TF-IDF tables changed.
+     */
+    public synchronized void invalidate(){
+        results.clear();
+        weight = 0;
+        generation++;
+        invalidations.increment();
+    }
+
+    public synchronized int size(){
+        return results.size();
+    }
+
+    public synchronized long getWeight(){
+        return weight;
+    }
+
+    public long getHits(){
+        return hits.sum();
+    }
+
+    public long getMisses(){
+        return misses.sum();
+    }
+
+    public long getEvictions(){
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString(){
+        return String.format(
+                "Query result cache [results: %d; weight: %d of %d; TTL: %ds; hits: %d; misses: %d; evictions: %d; invalidations: %d]",
+                size(),
+                getWeight(),
+                maxWeight,
+                TimeUnit.MILLISECONDS.toSeconds(timeToLive),
+                getHits(),
+                getMisses(),
+                getEvictions(),
+                invalidations.sum()
+        );
+    }
+
+    private static class Entry<V> {
+        private final V result;
+        private final long weight;
+        private final long created;
+
+        private Entry(V result, long weight, long created){
+            this.result = result;
+            this.weight = weight;
+            this.created = created;
+        }
+    }
+}
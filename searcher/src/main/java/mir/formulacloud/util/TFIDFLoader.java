@@ -1,17 +1,32 @@
 package mir.formulacloud.util;
 
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
 import mir.formulacloud.beans.MathElement;
 import mir.formulacloud.searcher.FastTest;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.basex.query.func.math.MathE;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -20,65 +35,386 @@ import java.util.stream.Stream;
 public class TFIDFLoader {
     private static final Logger LOG = LogManager.getLogger(TFIDFLoader.class.getName());
 
-    private volatile HashMap<String, MathElement> memory;
+    private static final int BLOOM_FILTER_VERSION = 3;
+
+    // keys are the hashes of the expressions (see SubtreeHash), the elements are compacted
+    private volatile ConcurrentHashMap<Long, MathElement> memory;
+    // elements that have the same hash as another element of the memory, usually empty
+    private final ConcurrentHashMap<CompactExpression, MathElement> collisions = new ConcurrentHashMap<>();
+
+    // elements of the memory by their global IDs
+    private MathElement[] elementsByID;
+
+    // only set if the loader works on a memory mapped binary dictionary
+    private BinaryDictionary dictionary;
+
+    // optional guard that rejects most of the expressions (by their hashes) that are not in the tables
+    private BloomFilter<Long> bloomFilter;
+    private double bloomFilterFPP = Double.NaN;
+    private boolean bloomFilterLoaded = false;
+    private final LongAdder bloomFilterRejects = new LongAdder();
+
+    private Path path;
+
+    // rows that are not accepted are not loaded (or not returned from the binary dictionary)
+    private FrequencyFilter filter = new FrequencyFilter();
+    private final LongAdder droppedEntries = new LongAdder();
 
     private TFIDFLoader(){
 //        memory = new HashMap<>(350_206_974, 0.95f);
-        memory = new HashMap<>(65_000_000, 0.95f);
+        this(65_000_000);
+    }
+
+    private TFIDFLoader(int initialCapacity){
+        memory = new ConcurrentHashMap<>(initialCapacity, 0.95f, Runtime.getRuntime().availableProcessors());
+    }
+
+    private TFIDFLoader(BinaryDictionary dictionary){
+        this.dictionary = dictionary;
     }
 
     private void load(Path path) {
         try{
             LOG.debug("Load TF-IDF file " + path.toString());
-            Files.lines(path)
-//                    .parallel()
-                    .map(l -> l.split(";(?=(\"[^\"]*\")*[^\"]*$)"))
-                    .map(TFIDFLoader::stripParentheses)
-                    .map(a -> {
-                        try {
-                            return new MathElement(
-                                    a[0],
-                                    Short.parseShort(a[1]),
-                                    Integer.parseInt(a[2]),
-                                    Integer.parseInt(a[3])
-                            );
-                        } catch (NumberFormatException nfe){
-                            System.out.println("Error parsing line: " + Arrays.toString(a));
-                            return null;
-                        }
-                    })
-                    .forEach(e -> {
-                        memory.put(e.getExpression(), e);
-//                        System.out.print("\r" + memory.size());
-                    });
+            TFIDFTableParser parser = new TFIDFTableParser().setFilter(filter);
+            long counter = parser.parse(
+                    path,
+                    (expr, depth, tf, df, id, hash) -> {
+                        MathElement element = new MathElement(expr, depth, tf, df, id, hash).compact();
+                        MathElement other = memory.putIfAbsent(hash, element);
+                        if ( other == null ) return;
+                        if ( other.getCompactExpression().equals(element.getCompactExpression()) )
+                            memory.put(hash, element);
+                        else collisions.put(element.getCompactExpression(), element);
+                    }
+            );
+            droppedEntries.add(parser.getFilteredLines());
             double heapSize = Runtime.getRuntime().totalMemory()/Math.pow(1024,2);
-            LOG.info("Loaded TF-IDF math elements from " + path.toString() + " [#" + memory.size() + "; Mem: "+heapSize+" MB]");
+            LOG.info("Loaded " + counter + " TF-IDF math elements from " + path.toString() + " [#" + size() + "; Dropped: " + parser.getFilteredLines() + "; Mem: "+heapSize+" MB]");
         } catch (IOException ioe){
             ioe.printStackTrace();
         }
     }
 
+    /**
+     * Builds the ID lookup table for the loaded elements. Elements of tables without IDs
+     * get IDs after the highest ID of the tables.
+     */
+    private void indexIDs() {
+        int maxID = -1;
+        for ( MathElement e : getHeapElements() )
+            maxID = Math.max(maxID, e.getId());
+
+        int missing = 0;
+        for ( MathElement e : getHeapElements() ){
+            if ( e.getId() < 0 ){
+                e.setId(++maxID);
+                missing++;
+            }
+        }
+
+        elementsByID = new MathElement[maxID+1];
+        for ( MathElement e : getHeapElements() )
+            elementsByID[e.getId()] = e;
+
+        if ( !collisions.isEmpty() )
+            LOG.warn("Found " + collisions.size() + " TF-IDF math elements with the same hash as another element.");
+        if ( missing > 0 )
+            LOG.warn("Assigned IDs to " + missing + " TF-IDF math elements without ID.");
+        LOG.info("Indexed IDs of TF-IDF math elements [max ID: " + maxID + "]");
+    }
+
+    private Iterable<MathElement> getHeapElements(){
+        return () -> Stream.concat(memory.values().stream(), collisions.values().stream()).iterator();
+    }
+
     public MathElement getMathElement(String expression){
-        return memory.get(expression);
+        return getMathElement(SubtreeHash.of(expression), expression);
+    }
+
+    /**
+     * @param hash the {@link SubtreeHash} of the expression
+     * @param expression the expression to detect hash collisions
+     * @return the element or null if the expression is unknown
+     */
+    public MathElement getMathElement(long hash, String expression){
+        if (bloomFilter != null && !bloomFilter.mightContain(hash)){
+            bloomFilterRejects.increment();
+            return null;
+        }
+        if (dictionary != null) return filter(dictionary.getMathElement(hash, expression));
+        MathElement element = memory.get(hash);
+        if ( element == null ) return null;
+        if ( element.getCompactExpression().matches(expression) ) return element;
+        if ( collisions.isEmpty() ) return null;
+        CompactExpression key = CompactExpression.lookup(expression);
+        return key == null ? null : collisions.get(key);
+    }
+
+    /**
+     * @param id global ID of the expression
+     * @return the element or null if the ID is unknown
+     */
+    public MathElement getMathElement(int id){
+        if (dictionary != null) return filter(dictionary.getMathElement(id));
+        return id < 0 || id >= elementsByID.length ? null : elementsByID[id];
+    }
+
+    private MathElement filter(MathElement e){
+        if ( e == null || filter.accept(e.getDepth(), e.getTotalFrequency(), e.getDocFrequency()) )
+            return e;
+        return null;
+    }
+
+    /**
+     * Puts a Bloom filter of the hashes of all expressions in front of {@link #getMathElement(long, String)}.
+     * The filter is stored next to the TF-IDF tables (<code>&lt;tables&gt;.bloom</code>) together with a
+     * fingerprint of the table files (see {@link #fingerprint()}). It is rebuilt if the fingerprint,
+     * the FPP or the load filter differs.
+     * @param fpp desired false positive probability
+     */
+    public void initBloomFilter(double fpp) {
+        bloomFilterFPP = fpp;
+        Path bloomFile = Paths.get(path.toString() + ".bloom");
+        long expectedInsertions = Math.max(1, size());
+
+        String fingerprint;
+        try {
+            fingerprint = fingerprint();
+        } catch (IOException ioe){
+            LOG.warn("Cannot read the TF-IDF tables " + path + ". The Bloom filter is not stored.", ioe);
+            fingerprint = null;
+        }
+
+        try {
+            if ( fingerprint != null && Files.exists(bloomFile) ){
+                try ( InputStream in = new BufferedInputStream(Files.newInputStream(bloomFile)) ){
+                    DataInputStream data = new DataInputStream(in);
+                    // filters of older versions contain the expression strings instead of their hashes
+                    if ( data.readInt() == BLOOM_FILTER_VERSION &&
+                            data.readDouble() == fpp && data.readUTF().equals(filter.toString()) &&
+                            data.readUTF().equals(fingerprint) ){
+                        bloomFilter = BloomFilter.readFrom(in, Funnels.longFunnel());
+                        bloomFilterLoaded = true;
+                        LOG.info("Loaded Bloom filter from " + bloomFile);
+                    } else LOG.info("Stored Bloom filter " + bloomFile + " does not fit to the tables.");
+                }
+            }
+        } catch (IOException ioe){
+            LOG.warn("Cannot read Bloom filter " + bloomFile + ". Build a new one.", ioe);
+            bloomFilter = null;
+            bloomFilterLoaded = false;
+        }
+
+        if ( bloomFilter == null ){
+            LOG.info("Build Bloom filter for " + expectedInsertions + " expressions.");
+            BloomFilter<Long> bloom = BloomFilter.create(
+                    Funnels.longFunnel(),
+                    expectedInsertions,
+                    fpp
+            );
+            // put is thread-safe
+            getMathElementStream().parallel().forEach( e -> bloom.put(e.getHash()) );
+            bloomFilter = bloom;
+
+            if ( fingerprint != null ) try ( OutputStream out = new BufferedOutputStream(Files.newOutputStream(bloomFile)) ){
+                DataOutputStream data = new DataOutputStream(out);
+                data.writeInt(BLOOM_FILTER_VERSION);
+                data.writeDouble(fpp);
+                data.writeUTF(this.filter.toString());
+                data.writeUTF(fingerprint);
+                bloomFilter.writeTo(out);
+                LOG.info("Stored Bloom filter in " + bloomFile);
+            } catch (IOException ioe){
+                LOG.warn("Cannot store Bloom filter in " + bloomFile, ioe);
+            }
+        }
+
+        // same as the number of bits guava allocates for these parameters
+        double bits = -expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2));
+        LOG.info(String.format(
+                "Bloom filter ready [expressions: %d; expected FPP: %.5f (configured: %.5f); Mem: %.2f MB]",
+                expectedInsertions,
+                bloomFilter.expectedFpp(),
+                fpp,
+                bits / 8 / Math.pow(1024, 2)
+        ));
+    }
+
+    /**
+     * The fingerprint of the table files: the number of files, their total size, their latest modification time
+     * and the number of loaded entries. Files that are rewritten in place (e.g., by the calculator or merger)
+     * do not change the modification time of their directory but the fingerprint.
+     */
+    private String fingerprint() throws IOException {
+        long files = 0, bytes = 0, modified = 0;
+        try ( Stream<Path> walk = Files.walk(path) ){
+            for ( Path p : (Iterable<Path>) walk.filter(Files::isRegularFile)::iterator ){
+                files++;
+                bytes += Files.size(p);
+                modified = Math.max(modified, Files.getLastModifiedTime(p).toMillis());
+            }
+        }
+        return "files=" + files + ";bytes=" + bytes + ";modified=" + modified + ";entries=" + size();
+    }
+
+    /**
+     * @return number of rows of the tables that were dropped by the load filter
+     */
+    public long getDroppedEntries(){
+        return droppedEntries.sum();
     }
 
-    private static TFIDFLoader loader;
+    public long size(){
+        if (dictionary != null) return dictionary.size();
+        return memory.size() + collisions.size();
+    }
+
+    /**
+     * @return number of lookups that were rejected by the Bloom filter
+     */
+    public long getBloomFilterRejects(){
+        return bloomFilterRejects.sum();
+    }
+
+    /**
+     * @return true if the Bloom filter was read from the file next to the tables instead of built
+     */
+    public boolean isBloomFilterLoaded(){
+        return bloomFilterLoaded;
+    }
 
+    private static final AtomicReference<TFIDFLoader> loader = new AtomicReference<>();
+
+    // reloads run one after another in the background
+    private static final ExecutorService reloadExecutor = Executors.newSingleThreadExecutor( r -> {
+        Thread t = new Thread(r, "tfidf-reload");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Loads the TF-IDF tables. If the given path is a binary dictionary file
+     * (see {@link mir.formulacloud.tfidf.BinaryDictionaryBuilder}), the file gets
+     * memory mapped instead of loading all entries to the heap.
+     * @param path folder of TF-IDF tables or a binary dictionary file
+     */
     public static void initTFIDFLoader(Path path){
-        if (loader != null) return;
-        loader = new TFIDFLoader();
+        initTFIDFLoader(path, new FrequencyFilter());
+    }
+
+    /**
+     * Loads the TF-IDF tables but skips all rows that are not accepted by the filter.
+     * A memory mapped binary dictionary cannot skip rows, in this case the filter
+     * is applied on every lookup instead.
+     * Does nothing if the tables were loaded already, use {@link #reloadTFIDFLoader(Path)} to replace them.
+     * @param path folder of TF-IDF tables or a binary dictionary file
+     * @param filter load filter
+     */
+    public static synchronized void initTFIDFLoader(Path path, FrequencyFilter filter){
+        if (loader.get() != null) return;
         try {
-            Files.walk(path)
-                    .filter(Files::isRegularFile)
-                    .forEach(loader::load);
+            loader.set(build(path, filter, 65_000_000));
         } catch (IOException e) {
             e.printStackTrace();
         }
-//        loader.load(path);
     }
 
+    /**
+     * Loads the TF-IDF tables from the given path in the background and replaces the current
+     * instance once the new tables are completely loaded. Until then, all lookups are answered by
+     * the current instance. The load filter and Bloom filter settings of the current instance are reused.
+     *
+     * The replaced instance is not cleared, requests that still work on it finish normally and it
+     * gets garbage collected afterwards. If loading fails, the current instance stays in place.
+     * @param path folder of TF-IDF tables or a binary dictionary file
+     * @return the new instance, completes exceptionally if the tables cannot be loaded
+     */
+    public static CompletableFuture<TFIDFLoader> reloadTFIDFLoader(Path path){
+        CompletableFuture<TFIDFLoader> future = new CompletableFuture<>();
+        reloadExecutor.execute( () -> {
+            try {
+                TFIDFLoader current = loader.get();
+                FrequencyFilter filter = current == null ? new FrequencyFilter() : current.filter;
+                int capacity = current == null ? 65_000_000 : (int)Math.min(Integer.MAX_VALUE, current.size());
+
+                long start = System.currentTimeMillis();
+                LOG.info("Reload TF-IDF tables from " + path);
+                TFIDFLoader fresh = build(path, filter, capacity);
+                if ( current != null && !Double.isNaN(current.bloomFilterFPP) )
+                    fresh.initBloomFilter(current.bloomFilterFPP);
+
+                TFIDFLoader old = loader.getAndSet(fresh);
+                LOG.info("Swapped TF-IDF tables to " + path + " [#" + fresh.size() + "; Time Elapsed: " +
+                        (System.currentTimeMillis() - start) + "ms]");
+                if ( old != null ) old.retire();
+                future.complete(fresh);
+            } catch (Throwable t) {
+                LOG.error("Cannot reload TF-IDF tables from " + path + ". Keep the current tables.", t);
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
+    }
+
+    private static TFIDFLoader build(Path path, FrequencyFilter filter, int initialCapacity) throws IOException {
+        if (!filter.acceptsAll())
+            LOG.info("Filter TF-IDF math elements by " + filter);
+
+        if (BinaryDictionary.isBinaryDictionary(path)){
+            TFIDFLoader instance = new TFIDFLoader(BinaryDictionary.open(path));
+            instance.path = path;
+            instance.filter = filter;
+            return instance;
+        }
+
+        TFIDFLoader instance = new TFIDFLoader(initialCapacity);
+        instance.path = path;
+        instance.filter = filter;
+        // load all tables in parallel, the memory is a concurrent map
+        List<Path> files;
+        try ( Stream<Path> walk = Files.walk(path) ){
+            files = walk
+                    .filter(Files::isRegularFile)
+                    .filter(p -> !p.getFileName().toString().equals(Constants.DICTIONARY_FILE))
+                    .collect(Collectors.toList());
+        }
+        files.parallelStream().forEach(instance::load);
+        if (!filter.acceptsAll())
+            LOG.info("Dropped " + instance.getDroppedEntries() + " TF-IDF math elements by the load filter.");
+        instance.indexIDs();
+        return instance;
+    }
+
+    /**
+     * Called once this instance was replaced. The heap tables are left to the garbage collector,
+     * clearing them would only block requests that still use this instance. The file handles of
+     * a binary dictionary are closed, its mapped buffers stay readable until they are collected.
+     */
+    private void retire(){
+        if ( dictionary != null ){
+            try {
+                dictionary.close();
+            } catch (IOException e) {
+                LOG.warn("Cannot close replaced binary dictionary " + path, e);
+            }
+        }
+        LOG.info("Retired TF-IDF tables " + path);
+    }
+
+    /**
+     * @return the current instance. Hold the returned instance while processing a request,
+     * so that a concurrent {@link #reloadTFIDFLoader(Path)} does not mix two tables in one request.
+     */
     public static TFIDFLoader getLoaderInstance(){
-        return loader;
+        return loader.get();
+    }
+
+    /**
+     * @return the path of the loaded tables
+     */
+    public Path getPath(){
+        return path;
     }
 
     public static String[] stripParentheses(String[] a){
@@ -89,7 +425,9 @@ public class TFIDFLoader {
     }
 
     public Stream<MathElement> getMathElementStream(){
-        return memory.values().stream();
+        if (dictionary != null) return dictionary.stream()
+                .filter( e -> filter.accept(e.getDepth(), e.getTotalFrequency(), e.getDocFrequency()) );
+        return Stream.concat(memory.values().stream(), collisions.values().stream());
     }
 
     public static void main(String[] args) throws IOException {
@@ -0,0 +1,108 @@
+package mir.formulacloud.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Keeps the K elements with the highest scores in a bounded min-heap, i.e., selecting
+ * the top K of n elements takes O(n log K) time and O(K) memory instead of sorting all n elements.
+ *
+ * Check {@link #isCompetitive(double)} before creating an expensive element.
+ * Selectors of parallel workers can be combined via {@link #merge(TopKSelector)}.
+ * A selector is not thread-safe.
+ *
+ * @author Andre Greiner-Petter
+ */
+public class TopKSelector<T> {
+    private final int k;
+    private final ToDoubleFunction<T> score;
+    private final Comparator<T> ascending;
+
+    // the head is the element with the lowest score
+    private final PriorityQueue<T> heap;
+
+    private long candidates = 0;
+
+    /**
+     * @param k maximum number of elements
+     * @param score the score of an element, higher is better
+     */
+    public TopKSelector(int k, ToDoubleFunction<T> score){
+        if ( k < 1 ) throw new IllegalArgumentException("K must be positive but was " + k);
+        this.k = k;
+        this.score = score;
+        this.ascending = Comparator.comparingDouble(score);
+        this.heap = new PriorityQueue<>(Math.min(k, 1024) + 1, ascending);
+    }
+
+    /**
+     * Counts a candidate that was not offered, because it is not competitive anyway.
+     */
+    public void countCandidate(){
+        candidates++;
+    }
+
+    /**
+     * @param score score of a candidate
+     * @return true if a candidate with the given score would be kept (at the current state)
+     */
+    public boolean isCompetitive(double score){
+        return heap.size() < k || score > this.score.applyAsDouble(heap.peek());
+    }
+
+    /**
+     * Offers the element. If the selector is full, the element replaces the lowest scored element
+     * if it has a higher score.
+     * @param element the candidate
+     * @return true if the element was kept
+     */
+    public boolean offer(T element){
+        candidates++;
+        return insert(element);
+    }
+
+    private boolean insert(T element){
+        if ( heap.size() < k ){
+            heap.add(element);
+            return true;
+        }
+        if ( score.applyAsDouble(element) <= score.applyAsDouble(heap.peek()) ) return false;
+        heap.poll();
+        heap.add(element);
+        return true;
+    }
+
+    /**
+     * Adds all elements of the other selector to this selector.
+     * @param other selector with the same K
+     * @return this selector
+     */
+    public TopKSelector<T> merge(TopKSelector<T> other){
+        for ( T element : other.heap ) insert(element);
+        candidates += other.candidates;
+        return this;
+    }
+
+    /**
+     * @return the number of all offered and counted elements, including those that were dropped
+     */
+    public long getNumberOfCandidates(){
+        return candidates;
+    }
+
+    public int size(){
+        return heap.size();
+    }
+
+    /**
+     * @return the kept elements, highest score first
+     */
+    public ArrayList<T> toSortedList(){
+        ArrayList<T> list = new ArrayList<>(heap);
+        list.sort(Collections.reverseOrder(ascending));
+        return list;
+    }
+}
@@ -0,0 +1,49 @@
+package mir.formulacloud.beans;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Andre Greiner-Petter
+ */
+public class MathElementAccumulatorTest {
+
+    private static TFIDFMathElement hit(double score, int tf){
+        return new TFIDFMathElement(new MathElement("mi:x", (short)1, tf, 1, 7), score);
+    }
+
+    @Test
+    public void mergeFunctionsTest(){
+        MathElementAccumulator acc = new MathElementAccumulator()
+                .add(hit(2.0, 1), 0)
+                .add(hit(6.0, 3), 1)
+                .add(hit(1.0, 2), 2);
+
+        assertEquals(6.0, MathMergeFunctions.MAX.calculate(acc), 1e-9);
+        assertEquals(1.0, MathMergeFunctions.MIN.calculate(acc), 1e-9);
+        assertEquals(3.0, MathMergeFunctions.AVG.calculate(acc), 1e-9);
+        assertEquals(MathMergeFunctions.AVG.calculate(2.0, 6.0, 1.0), MathMergeFunctions.AVG.calculate(acc), 1e-9);
+
+        TFIDFMathElement merged = acc.toTFIDFMathElement(MathMergeFunctions.MAX);
+        assertEquals(6.0, merged.getScore(), 1e-9);
+        assertEquals(6, merged.getTotalFrequency());
+        assertEquals(3, merged.getDocFrequency());
+        assertEquals(7, merged.getId());
+    }
+
+    @Test
+    public void mergeTest(){
+        TFIDFMathElement first = hit(4.0, 1);
+        MathElementAccumulator a = new MathElementAccumulator().add(hit(1.0, 1), 5).add(hit(3.0, 1), 3);
+        MathElementAccumulator b = new MathElementAccumulator().add(first, 1);
+
+        a.merge(b).merge(new MathElementAccumulator());
+        assertEquals(3, a.getHits());
+        assertEquals(3, a.getTotalFrequency());
+        assertEquals(8.0, a.getSum(), 1e-9);
+        assertEquals(4.0, a.getMax(), 1e-9);
+        assertEquals(1.0, a.getMin(), 1e-9);
+        assertSame(first, a.getReference());
+    }
+}
@@ -9,6 +9,6 @@ import org.junit.jupiter.api.Test;
 public class LoadResourcesTest {
     @Test
     public void loadResources(){
-        XQueryLoader.initMinTermFrequency(5);
+        XQueryLoader.getScript("1000474.xml", 5);
     }
 }
@@ -1,6 +1,7 @@
 package mir.formulacloud.searcher;
 
 import mir.formulacloud.beans.*;
+import mir.formulacloud.util.IntObjectHashMap;
 import mir.formulacloud.util.SimpleMMLConverter;
 import org.elasticsearch.search.SearchHits;
 import org.junit.jupiter.api.AfterAll;
@@ -10,7 +11,6 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.EnumSource;
 import org.junit.jupiter.params.provider.ValueSource;
 
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.regex.Matcher;
@@ -30,6 +30,7 @@ public class ArxivTests {
     private static final String index = "zbmath";
 
     private static SearcherConfig config;
+    private static QueryContext context;
     private static SearcherService service;
     private static List<MathDocument> mathDocs;
 
@@ -63,11 +64,11 @@ public class ArxivTests {
         service = new SearcherService(config);
         service.init();
 
-        MathDocument.setZBMATHMode();
+        context = QueryContext.builder(config).setIndex(index).build();
 
         SearchHits hits = service.getSearchResults(searchQuery, index);
         mathDocs = service.getMathResults(hits);
-        mathDocs = service.requestMath(mathDocs);
+        mathDocs = service.requestMath(mathDocs, context);
 
 
         double mem = Runtime.getRuntime().totalMemory()/Math.pow(1024,2);
@@ -253,8 +254,8 @@ public class ArxivTests {
     private static void compute(TFIDFOptions options, int minHitFrequency){
 //        options.setK1(0.2);
 
-        HashMap<String, List<TFIDFMathElement>> tfidfMath =
-                service.mapMathDocsToTFIDFElements(mathDocs, DOCS, options);
+        IntObjectHashMap<MathElementAccumulator> tfidfMath =
+                service.mapMathDocsToTFIDFElements(mathDocs, DOCS, context.toBuilder().setOptions(options).build());
         List<TFIDFMathElement> results = service.groupTFIDFElements(tfidfMath, mergeF, minHitFrequency);
 
         System.out.println(options.getB());
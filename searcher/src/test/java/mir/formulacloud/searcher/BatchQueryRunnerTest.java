@@ -0,0 +1,134 @@
+package mir.formulacloud.searcher;
+
+import mir.formulacloud.beans.MathElement;
+import mir.formulacloud.beans.TFIDFMathElement;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Andre Greiner-Petter
+ */
+public class BatchQueryRunnerTest {
+
+    @Test
+    public void readQueriesTest() throws IOException {
+        Path file = Files.createTempFile("queries", ".txt");
+        try {
+            Files.write(file, Arrays.asList(
+                    "# query <tab> expected regex",
+                    "Riemann Zeta Function\t.*mi:ζ.*",
+                    "",
+                    "Jacobi Polynomial",
+                    "Beta Function\t  "
+            ));
+            List<BatchQueryRunner.BatchQuery> queries = BatchQueryRunner.readQueries(file);
+            assertEquals(3, queries.size());
+
+            assertEquals(2, queries.get(0).getId());
+            assertEquals("Riemann Zeta Function", queries.get(0).getQuery());
+            assertEquals(".*mi:ζ.*", queries.get(0).getExpected());
+
+            assertEquals(4, queries.get(1).getId());
+            assertEquals("Jacobi Polynomial", queries.get(1).getQuery());
+            assertNull(queries.get(1).getExpected());
+
+            assertEquals("Beta Function", queries.get(2).getQuery());
+            assertNull(queries.get(2).getExpected());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void hitRanksTest(){
+        List<TFIDFMathElement> results = Arrays.asList(
+                element("mi:x", 3.0),
+                element("mrow(mi:ζ,mo:ivt,mi:s)", 2.0),
+                element("mi:y", 1.5),
+                element("mi:ζ", 1.0)
+        );
+        assertEquals(Arrays.asList(2, 4), CLISearcher.getHitRanks(results, ".*mi:ζ.*"));
+        assertTrue(CLISearcher.getHitRanks(results, "mi:z").isEmpty());
+    }
+
+    @Test
+    public void reportTest() throws IOException {
+        BatchQueryRunner.BatchQuery found = new BatchQueryRunner.BatchQuery(1, "zeta", ".*mi:ζ.*");
+        BatchQueryRunner.BatchQuery missing = new BatchQueryRunner.BatchQuery(2, "beta", ".*mi:B.*");
+        BatchQueryRunner.BatchQuery plain = new BatchQueryRunner.BatchQuery(3, "jacobi", null);
+
+        List<BatchQueryRunner.QueryResult> results = new ArrayList<>();
+        // latencies of 1, 2, ..., 100 ms
+        for ( int i = 1; i <= 100; i++ ){
+            BatchQueryRunner.BatchQuery q = i == 1 ? missing : i % 2 == 0 ? found : plain;
+            List<Integer> ranks = q == plain ? null : q == found ? Arrays.asList(3, 7) : Collections.emptyList();
+            results.add(new BatchQueryRunner.QueryResult(
+                    q, i, TimeUnit.MILLISECONDS.toNanos(i), new SearchTimings(), 10, ranks, null
+            ));
+        }
+        results.add(new BatchQueryRunner.QueryResult(
+                plain, 0, TimeUnit.MILLISECONDS.toNanos(100), new SearchTimings(), 0, null, "timeout"
+        ));
+
+        BatchQueryRunner.Report report = new BatchQueryRunner.Report(results, TimeUnit.SECONDS.toNanos(10));
+        double[] p = report.getLatencyPercentiles(50, 95, 99);
+        assertEquals(51, p[0], 1e-9);
+        assertEquals(96, p[1], 1e-9);
+        assertEquals(100, p[2], 1e-9);
+        assertEquals(10.1, report.getThroughput(), 1e-9);
+
+        List<BatchQueryRunner.QueryResult> failures = report.getFailures();
+        assertEquals(2, failures.size());
+        assertSame(missing, failures.get(0).getQuery());
+        assertEquals("timeout", failures.get(1).getError());
+        assertEquals(3, results.get(1).getFirstRank());
+        assertEquals(-1, results.get(0).getFirstRank());
+
+        Path summary = Files.createTempFile("summary", ".tsv");
+        try {
+            report.writeSummary(summary);
+            List<String> lines = Files.readAllLines(summary);
+            assertEquals(102, lines.size());
+            assertTrue(lines.get(0).startsWith("id\trun\tquery\tlatencyMs\telasticsearchMs"), lines.get(0));
+            assertTrue(lines.get(2).startsWith("1\t2\tzeta\t2.0\t"), lines.get(2));
+            assertTrue(lines.get(101).endsWith("\ttimeout"), lines.get(101));
+        } finally {
+            Files.deleteIfExists(summary);
+        }
+    }
+
+    @Test
+    public void cachedLatencyTest(){
+        BatchQueryRunner.BatchQuery q = new BatchQueryRunner.BatchQuery(1, "zeta", null);
+        List<BatchQueryRunner.QueryResult> results = new ArrayList<>();
+        // the first run searches, the repeats are cache hits
+        results.add(new BatchQueryRunner.QueryResult(q, 0, TimeUnit.MILLISECONDS.toNanos(500), new SearchTimings(), 10, null, null));
+        for ( int i = 1; i <= 9; i++ ){
+            SearchTimings timings = new SearchTimings();
+            timings.setCached(true);
+            results.add(new BatchQueryRunner.QueryResult(q, i, TimeUnit.MILLISECONDS.toNanos(1), timings, 10, null, null));
+        }
+
+        BatchQueryRunner.Report report = new BatchQueryRunner.Report(results, TimeUnit.SECONDS.toNanos(1));
+        assertEquals(1, report.getLatencyPercentiles(50)[0], 1e-9);
+        assertEquals(500, report.getLatencyPercentiles(false, 50)[0], 1e-9);
+        assertEquals(1, report.getLatencyPercentiles(true, 99)[0], 1e-9);
+        assertTrue(report.toString().contains("Latency (searched): p50 500.0ms"), report.toString());
+
+        assertFalse(new BatchQueryConfig().isQueryCache());
+    }
+
+    private static TFIDFMathElement element(String expression, double score){
+        return new TFIDFMathElement(new MathElement(expression, (short) 1, 1, 1), score);
+    }
+}
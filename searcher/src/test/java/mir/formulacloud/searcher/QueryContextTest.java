@@ -0,0 +1,97 @@
+package mir.formulacloud.searcher;
+
+import mir.formulacloud.beans.CollectionStatistics;
+import mir.formulacloud.beans.InverseDocumentFrequencies;
+import mir.formulacloud.beans.TFIDFOptions;
+import mir.formulacloud.beans.TermFrequencies;
+import mir.formulacloud.util.TFIDFLoader;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Andre Greiner-Petter
+ */
+public class QueryContextTest {
+
+    @Test
+    public void builderTest(){
+        SearcherConfig config = new SearcherConfig();
+        config.setElasticsearchMaxHits(50);
+        config.setMinDepth(2);
+
+        QueryContext context = QueryContext.builder(config).setIndex("zbmath").build();
+        assertEquals("zbmath", context.getIndex());
+        assertSame(CollectionStatistics.ZBMATH, context.getCollectionStatistics());
+        assertEquals(50, context.getElasticsearchMaxHits());
+        assertEquals(2, context.getMinDepth());
+        assertEquals(config.getMinTermFrequency(), context.getMinTermFrequency());
+        assertEquals(TermFrequencies.BM25, context.getOptions().getTfOption());
+
+        assertSame(CollectionStatistics.ARXIV, context.toBuilder().setIndex("arxiv").build().getCollectionStatistics());
+        assertSame(CollectionStatistics.ARXIV, CollectionStatistics.forIndex("arxiv-no-problem"));
+    }
+
+    @Test
+    public void immutableTest(){
+        SearcherConfig config = new SearcherConfig();
+        TFIDFOptions options = new TFIDFOptions(TermFrequencies.LOG, InverseDocumentFrequencies.IDF);
+        QueryContext context = QueryContext.builder(config).setIndex("arxiv").setOptions(options).build();
+
+        // neither the options nor a derived context change the context
+        options.setK1(0.1);
+        context.getOptions().setB(0.2);
+        QueryContext derived = context.toBuilder().setMinTermFrequency(5).setIndex("zbmath").build();
+
+        assertEquals(1.2, context.getOptions().getK1(), 1e-9);
+        assertEquals(0.95, context.getOptions().getB(), 1e-9);
+        assertEquals(1, context.getMinTermFrequency());
+        assertSame(CollectionStatistics.ARXIV, context.getCollectionStatistics());
+        assertEquals(5, derived.getMinTermFrequency());
+        assertEquals(TermFrequencies.LOG, derived.getOptions().getTfOption());
+
+        // the config is not changed by any context
+        assertEquals(1, config.getMinTermFrequency());
+    }
+
+    @Test
+    public void cacheKeyTest(){
+        QueryContext context = QueryContext.builder(new SearcherConfig()).setIndex("arxiv").build();
+        String key = context.getCacheKey("riemann zeta");
+
+        assertEquals(key, context.toBuilder().build().getCacheKey("riemann zeta"));
+        assertEquals(key, context.toBuilder().setPipelined(true).build().getCacheKey("riemann zeta"));
+        assertNotEquals(key, context.getCacheKey("riemann"));
+        assertNotEquals(key, context.toBuilder().setMinTermFrequency(2).build().getCacheKey("riemann zeta"));
+        assertNotEquals(key, context.toBuilder()
+                .setCollectionStatistics(CollectionStatistics.ZBMATH)
+                .build()
+                .getCacheKey("riemann zeta")
+        );
+    }
+
+    @Test
+    public void bm25StatisticsTest(){
+        double arxiv = TermFrequencies.BM25.calculate(3, 100, CollectionStatistics.ARXIV);
+        double zbmath = TermFrequencies.BM25.calculate(3, 100, CollectionStatistics.ZBMATH);
+        assertNotEquals(arxiv, zbmath);
+        assertEquals(arxiv, TermFrequencies.BM25.calculate(3, 100, CollectionStatistics.ARXIV), 1e-12);
+    }
+
+    @Test
+    public void pinLoaderTest(){
+        // the tables of other tests, if any
+        TFIDFLoader current = TFIDFLoader.getLoaderInstance();
+
+        QueryContext context = QueryContext.builder(new SearcherConfig()).setIndex("arxiv").build();
+        QueryContext pinned = context.withCurrentLoader();
+        assertSame(current, pinned.getLoader());
+        // without tables there is nothing to pin
+        if ( current != null ) assertSame(pinned, pinned.withCurrentLoader());
+
+        // derived contexts of a request use the same tables
+        assertSame(current, pinned.toBuilder().setMinDepth(3).build().getLoader());
+        // pinning does not change the cache key
+        assertEquals(context.getCacheKey("riemann zeta"), pinned.getCacheKey("riemann zeta"));
+    }
+}
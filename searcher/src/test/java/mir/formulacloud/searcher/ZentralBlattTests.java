@@ -4,9 +4,9 @@ import mir.formulacloud.beans.*;
 import mir.formulacloud.tfidf.BaseXController;
 import mir.formulacloud.tfidf.DatastructureAnalyzer;
 import mir.formulacloud.util.Helper;
+import mir.formulacloud.util.IntObjectHashMap;
 import mir.formulacloud.util.SimpleMMLConverter;
 import mir.formulacloud.util.TFIDFConfig;
-import mir.formulacloud.util.XQueryLoader;
 import org.apache.commons.io.FilenameUtils;
 import org.junit.Before;
 import org.junit.jupiter.api.AfterAll;
@@ -17,7 +17,6 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -33,6 +32,7 @@ public class ZentralBlattTests {
     private static final String DB = "harvest";
 
     private static SearcherConfig config;
+    private static QueryContext context;
     private static SearcherService service;
     private static List<MathDocument> mathDocs;
 
@@ -48,11 +48,10 @@ public class ZentralBlattTests {
     @BeforeAll
     public static void init() throws IOException {
 
-        // this min term freq is minHitFreq
-        XQueryLoader.initMinTermFrequency(1);
-
         config = new SearcherConfig();
         config.setTfidfData("/opt/zbmath/tfidf");
+        // this min term freq is minHitFreq
+        config.setMinTermFrequency(1);
 //        config.setMinDocumentFrequency(3);
 
         // in minimum of 10 docs we want to get results
@@ -61,7 +60,9 @@ public class ZentralBlattTests {
         config.setMaxDocumentFrequency(100_000);
         config.setMinDepth(1);
 
-        MathDocument.setZBMATHMode();
+        context = QueryContext.builder(config)
+                .setCollectionStatistics(CollectionStatistics.ZBMATH)
+                .build();
 
         service = new SearcherService(config);
 
@@ -83,7 +84,7 @@ public class ZentralBlattTests {
 
         addMathDoc(collection, ids);
 
-        mathDocs = service.requestMath(mathDocs);
+        mathDocs = service.requestMath(mathDocs, context);
 
 
 
@@ -250,7 +251,7 @@ public class ZentralBlattTests {
 
     private static void compute(TFIDFOptions options){
         System.out.println("Calculating TF-IDF for each document and each math");
-        HashMap<String, List<TFIDFMathElement>> elements = service.mapMathDocsToTFIDFElements(mathDocs, DOCS, options);
+        IntObjectHashMap<MathElementAccumulator> elements = service.mapMathDocsToTFIDFElements(mathDocs, DOCS, context.toBuilder().setOptions(options).build());
 
         System.out.println("Merging all math with TF-IDF");
         List<TFIDFMathElement> results = service.groupTFIDFElements(elements, MathMergeFunctions.MAX, minHit);
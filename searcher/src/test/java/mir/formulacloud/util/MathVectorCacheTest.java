@@ -0,0 +1,69 @@
+package mir.formulacloud.util;
+
+import mir.formulacloud.beans.MathVector;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Andre Greiner-Petter
+ */
+public class MathVectorCacheTest {
+
+    private static final String RESULTS =
+            "<element xmlns=\"http://www.w3.org/1998/Math/MathML\" freq=\"3\" depth=\"1\">mi:x</element>\n" +
+            "<element xmlns=\"http://www.w3.org/1998/Math/MathML\" freq=\"1\" depth=\"2\">mrow(mi:x,mo:=,mn:1)</element>";
+
+    @Test
+    public void parseTest(){
+        MathVector vector = MathVector.parse(RESULTS);
+        assertEquals(2, vector.size());
+        assertEquals("mi:x", vector.getExpression(0));
+        assertEquals(3, vector.getFrequency(0));
+        assertEquals(2, vector.getDepth(1));
+        assertEquals(0, MathVector.parse("").size());
+    }
+
+    @Test
+    public void memoryEvictionTest() throws Exception {
+        MathVectorCache cache = new MathVectorCache(2, null);
+        MathVector vector = MathVector.parse(RESULTS);
+        cache.put("1.xml", "db1", 1, vector);
+        cache.put("2.xml", "db1", 1, vector);
+
+        assertSame(vector, cache.get("1.xml", "db1", 1));
+        assertNull(cache.get("1.xml", "db1", 2));
+        assertNull(cache.get("1.xml", "db2", 1));
+
+        // 2.xml is the least recently used document
+        cache.put("3.xml", "db1", 1, vector);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.get("2.xml", "db1", 1));
+        assertNotNull(cache.get("1.xml", "db1", 1));
+
+        assertEquals(2, cache.getMemoryHits());
+        assertEquals(3, cache.getMisses());
+    }
+
+    @Test
+    public void diskTest() throws Exception {
+        Path dir = Files.createTempDirectory("mathcache");
+        MathVectorCache cache = new MathVectorCache(10, dir);
+        cache.put("a/b.xml", "db1", 1, MathVector.parse(RESULTS));
+
+        // simulates a restart
+        MathVectorCache restarted = new MathVectorCache(10, dir);
+        MathVector vector = restarted.get("a/b.xml", "db1", 1);
+        assertNotNull(vector);
+        assertEquals("mrow(mi:x,mo:=,mn:1)", vector.getExpression(1));
+        assertEquals(1, restarted.getDiskHits());
+
+        assertNotNull(restarted.get("a/b.xml", "db1", 1));
+        assertEquals(1, restarted.getMemoryHits());
+        assertNull(restarted.get("a_b.xml", "db1", 1));
+    }
+}
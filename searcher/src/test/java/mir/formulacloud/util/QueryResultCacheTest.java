@@ -0,0 +1,75 @@
+package mir.formulacloud.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Andre Greiner-Petter
+ */
+public class QueryResultCacheTest {
+
+    private final AtomicLong time = new AtomicLong();
+
+    private QueryResultCache<String> cache(long maxWeight, long ttl){
+        return new QueryResultCache<>(maxWeight, ttl, String::length, time::get);
+    }
+
+    @Test
+    public void keyTest(){
+        assertEquals(QueryResultCache.key("riemann zeta", "arxiv", 10), QueryResultCache.key("riemann zeta", "arxiv", 10));
+        assertNotEquals(QueryResultCache.key("riemann zeta", "arxiv", 10), QueryResultCache.key("riemann zeta", "arxiv", 100));
+        assertNotEquals(QueryResultCache.key("a", "bc"), QueryResultCache.key("ab", "c"));
+    }
+
+    @Test
+    public void weightEvictionTest(){
+        QueryResultCache<String> cache = cache(10, 1000);
+        cache.put("a", "aaaa");
+        cache.put("b", "bbbb");
+        assertEquals("aaaa", cache.get("a"));
+
+        // b is the least recently used result
+        cache.put("c", "cccc");
+        assertEquals(2, cache.size());
+        assertEquals(8, cache.getWeight());
+        assertNull(cache.get("b"));
+        assertEquals("cccc", cache.get("c"));
+        assertEquals(1, cache.getEvictions());
+
+        cache.put("d", "way too heavy");
+        assertNull(cache.get("d"));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void timeToLiveTest(){
+        QueryResultCache<String> cache = cache(100, 1000);
+        cache.put("a", "aaaa");
+        time.addAndGet(1000);
+        assertEquals("aaaa", cache.get("a"));
+        time.addAndGet(1);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void invalidateTest(){
+        QueryResultCache<String> cache = cache(100, 1000);
+        long generation = cache.getGeneration();
+        cache.put("a", "aaaa", generation);
+        assertEquals("aaaa", cache.get("a"));
+
+        cache.invalidate();
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+
+        // result was calculated before the invalidation
+        cache.put("b", "bbbb", generation);
+        assertNull(cache.get("b"));
+        cache.put("b", "bbbb", cache.getGeneration());
+        assertEquals("bbbb", cache.get("b"));
+    }
+}
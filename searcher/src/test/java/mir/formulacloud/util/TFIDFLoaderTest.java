@@ -0,0 +1,128 @@
+package mir.formulacloud.util;
+
+import mir.formulacloud.beans.MathElement;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Andre Greiner-Petter
+ */
+public class TFIDFLoaderTest {
+
+    private static Path tables;
+
+    @BeforeAll
+    public static void init() throws Exception {
+        tables = Files.createTempDirectory("tfidf");
+        Files.write(tables.resolve("1"), Arrays.asList(
+                "\"mrow(mi:ζ,mo:ivt,mrow(mo:(,mi:z,mo:)))\";3;42;17;0",
+                "\"mi:x\";1;1000;500;1"
+        ), StandardCharsets.UTF_8);
+        Files.write(tables.resolve("2"), Arrays.asList(
+                "\"mrow(mi:a,mo:;,mi:b)\";2;5;3"
+        ), StandardCharsets.UTF_8);
+
+        TFIDFLoader.initTFIDFLoader(tables);
+        TFIDFLoader.getLoaderInstance().initBloomFilter(0.01);
+    }
+
+    @Test
+    public void lookupTest(){
+        TFIDFLoader loader = TFIDFLoader.getLoaderInstance();
+        assertEquals(3, loader.size());
+
+        MathElement zeta = loader.getMathElement("mrow(mi:ζ,mo:ivt,mrow(mo:(,mi:z,mo:)))");
+        assertEquals(42, zeta.getTotalFrequency());
+        assertEquals(0, zeta.getId());
+        assertEquals("mi:x", loader.getMathElement(1).getExpression());
+
+        // the table without IDs gets the next free ID
+        assertEquals(2, loader.getMathElement("mrow(mi:a,mo:;,mi:b)").getId());
+    }
+
+    @Test
+    public void bloomFilterTest(){
+        TFIDFLoader loader = TFIDFLoader.getLoaderInstance();
+        assertTrue(Files.exists(Paths.get(tables.toString() + ".bloom")));
+
+        long rejects = loader.getBloomFilterRejects();
+        assertNull(loader.getMathElement("mi:y"));
+        assertTrue(loader.getBloomFilterRejects() >= rejects);
+        assertNotNull(loader.getMathElement("mi:x"));
+    }
+
+    @Test
+    public void reloadTest() throws Exception {
+        Path updated = Files.createTempDirectory("tfidf");
+        Files.write(updated.resolve("1"), Arrays.asList(
+                "\"mrow(mi:ζ,mo:ivt,mrow(mo:(,mi:z,mo:)))\";3;42;17;0",
+                "\"mi:x\";1;1000;501;1",
+                "\"mrow(mi:a,mo:;,mi:b)\";2;5;3;2"
+        ), StandardCharsets.UTF_8);
+
+        TFIDFLoader old = TFIDFLoader.getLoaderInstance();
+        TFIDFLoader fresh = TFIDFLoader.reloadTFIDFLoader(updated).get(1, TimeUnit.MINUTES);
+
+        assertSame(fresh, TFIDFLoader.getLoaderInstance());
+        assertNotSame(old, fresh);
+        assertEquals(updated, fresh.getPath());
+        assertEquals(501, fresh.getMathElement("mi:x").getDocFrequency());
+        assertEquals(2, fresh.getMathElement("mrow(mi:a,mo:;,mi:b)").getId());
+
+        // requests that still hold the old instance are not affected
+        assertEquals(3, old.size());
+        assertNotNull(old.getMathElement(1));
+
+        // failed reloads keep the current tables
+        assertThrows(ExecutionException.class, () ->
+                TFIDFLoader.reloadTFIDFLoader(updated.resolve("missing")).get(1, TimeUnit.MINUTES));
+        assertSame(fresh, TFIDFLoader.getLoaderInstance());
+    }
+
+    @Test
+    public void storedBloomFilterTest() throws Exception {
+        try {
+            // the first reload stores the filter (if not stored yet), the second one reads it
+            TFIDFLoader.reloadTFIDFLoader(tables).get(1, TimeUnit.MINUTES);
+            TFIDFLoader fresh = TFIDFLoader.reloadTFIDFLoader(tables).get(1, TimeUnit.MINUTES);
+            assertTrue(fresh.isBloomFilterLoaded());
+            assertNull(fresh.getMathElement("mi:y"));
+            assertNotNull(fresh.getMathElement("mi:x"));
+        } finally {
+            TFIDFLoader.reloadTFIDFLoader(tables).get(1, TimeUnit.MINUTES);
+        }
+    }
+
+    @Test
+    public void staleBloomFilterTest() throws Exception {
+        Path rewritten = Files.createTempDirectory("tfidf");
+        Path table = rewritten.resolve("1");
+        Files.write(table, Arrays.asList("\"mi:x\";1;1000;500;0"), StandardCharsets.UTF_8);
+        FileTime dirTime = Files.getLastModifiedTime(rewritten);
+
+        try {
+            TFIDFLoader.reloadTFIDFLoader(rewritten).get(1, TimeUnit.MINUTES);
+            assertNull(TFIDFLoader.getLoaderInstance().getMathElement("mi:y"));
+
+            // rewriting a file in place does not change the modification time of the directory
+            Files.write(table, Arrays.asList("\"mi:x\";1;1000;500;0", "\"mi:y\";1;7;3;1"), StandardCharsets.UTF_8);
+            Files.setLastModifiedTime(rewritten, dirTime);
+
+            TFIDFLoader fresh = TFIDFLoader.reloadTFIDFLoader(rewritten).get(1, TimeUnit.MINUTES);
+            assertEquals(7, fresh.getMathElement("mi:y").getTotalFrequency());
+        } finally {
+            TFIDFLoader.reloadTFIDFLoader(tables).get(1, TimeUnit.MINUTES);
+        }
+    }
+}
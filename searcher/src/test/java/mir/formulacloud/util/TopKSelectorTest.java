@@ -0,0 +1,64 @@
+package mir.formulacloud.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Andre Greiner-Petter
+ */
+public class TopKSelectorTest {
+
+    @Test
+    public void selectTest(){
+        TopKSelector<Double> selector = new TopKSelector<>(3, Double::doubleValue);
+        for ( double d : new double[]{0.5, 2.0, 1.0, 7.0, 0.1, 3.0} ) selector.offer(d);
+
+        assertEquals(3, selector.size());
+        assertEquals(6, selector.getNumberOfCandidates());
+        assertEquals(Arrays.asList(7.0, 3.0, 2.0), selector.toSortedList());
+        assertFalse(selector.isCompetitive(2.0));
+        assertTrue(selector.isCompetitive(2.5));
+    }
+
+    @Test
+    public void fewerElementsThanKTest(){
+        TopKSelector<Double> selector = new TopKSelector<>(10, Double::doubleValue);
+        selector.offer(1.0);
+        selector.offer(2.0);
+        assertTrue(selector.isCompetitive(Double.NEGATIVE_INFINITY));
+        assertEquals(Arrays.asList(2.0, 1.0), selector.toSortedList());
+    }
+
+    @Test
+    public void parallelMergeTest(){
+        Random random = new Random(42);
+        List<Double> values = IntStream.range(0, 10_000)
+                .mapToObj(i -> random.nextDouble())
+                .collect(Collectors.toList());
+
+        TopKSelector<Double> selector = values.parallelStream().collect(
+                () -> new TopKSelector<>(25, Double::doubleValue),
+                TopKSelector::offer,
+                TopKSelector::merge
+        );
+
+        List<Double> expected = new ArrayList<>(values);
+        expected.sort(Collections.reverseOrder());
+        assertEquals(expected.subList(0, 25), selector.toSortedList());
+        assertEquals(values.size(), selector.getNumberOfCandidates());
+    }
+
+    @Test
+    public void invalidKTest(){
+        assertThrows(IllegalArgumentException.class, () -> new TopKSelector<Double>(0, Double::doubleValue));
+    }
+}
@@ -0,0 +1,299 @@
+package mir.formulacloud.server;
+
+import com.beust.jcommander.JCommander;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import mir.formulacloud.beans.MathElement;
+import mir.formulacloud.beans.MathElementAccumulator;
+import mir.formulacloud.beans.TFIDFMathElement;
+import mir.formulacloud.searcher.QueryContext;
+import mir.formulacloud.searcher.SearcherConfig;
+import mir.formulacloud.searcher.SearcherService;
+import mir.formulacloud.util.IntObjectHashMap;
+import mir.formulacloud.util.MathVectorCache;
+import mir.formulacloud.util.QueryResultCache;
+import mir.formulacloud.util.SimpleMMLConverter;
+import mir.formulacloud.util.TFIDFLoader;
+import mir.formulacloud.util.TopKSelector;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long-running HTTP server in front of a single {@link SearcherService}, i.e., all requests share the
+ * loaded TF-IDF tables, the BaseX clients and the caches. Endpoints:
+ * <pre>
+ *   GET /search?q=...   runs a search and streams the results as JSON (see {@link QueryParameters})
+ *   GET /stats          request throughput, latency percentiles and cache statistics as JSON
+ * </pre>
+ * Searches run on a bounded pool of workers. If all workers are busy and the queue is full,
+ * further searches are rejected with 503.
+ *
+ * @author Andre Greiner-Petter
+ */
+public class FormulaCloudServer {
+    private static final Logger LOG = LogManager.getLogger(FormulaCloudServer.class.getName());
+
+    private static final String JSON = "application/json; charset=UTF-8";
+
+    private final SearcherConfig config;
+    private final ServerConfig serverConfig;
+    private final SearcherService service;
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final RequestStatistics statistics = new RequestStatistics(10_000);
+
+    private HttpServer server;
+    private ExecutorService httpExecutor;
+    private ExecutorService searchWorkers;
+
+    // running and waiting searches
+    private Semaphore admission;
+
+    public FormulaCloudServer(SearcherConfig config, ServerConfig serverConfig){
+        this.config = config;
+        this.serverConfig = serverConfig;
+        this.service = new SearcherService(config);
+    }
+
+    public void start() throws IOException {
+        service.init();
+
+        admission = new Semaphore(serverConfig.getWorkers() + serverConfig.getQueue());
+        searchWorkers = Executors.newFixedThreadPool(serverConfig.getWorkers(), daemonThreads("search-worker-"));
+        httpExecutor = Executors.newCachedThreadPool(daemonThreads("http-"));
+
+        server = HttpServer.create(new InetSocketAddress(serverConfig.getPort()), 0);
+        server.createContext("/search", this::handleSearch);
+        server.createContext("/stats", this::handleStats);
+        server.setExecutor(httpExecutor);
+        server.start();
+        LOG.info("Started server on port " + serverConfig.getPort() + " with " + serverConfig.getWorkers() + " search workers.");
+    }
+
+    public void stop(){
+        LOG.info("Stop server.");
+        if ( server != null ) server.stop(1);
+        if ( searchWorkers != null ) searchWorkers.shutdownNow();
+        if ( httpExecutor != null ) httpExecutor.shutdownNow();
+        service.shutdown();
+    }
+
+    private static ThreadFactory daemonThreads(String prefix){
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    private void handleSearch(HttpExchange exchange) throws IOException {
+        long start = statistics.now();
+        try {
+            if ( !"GET".equals(exchange.getRequestMethod()) ){
+                sendError(exchange, 405, "Only GET requests are supported.");
+                return;
+            }
+
+            QueryParameters params;
+            try {
+                params = QueryParameters.parse(exchange.getRequestURI().getRawQuery(), config, serverConfig.getDefaultResults());
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, e.getMessage());
+                return;
+            }
+
+            if ( !admission.tryAcquire() ){
+                statistics.recordRejected();
+                sendError(exchange, 503, "Too many searches, try again later.");
+                return;
+            }
+
+            SearchResult result;
+            try {
+                Future<SearchResult> future = searchWorkers.submit(() -> search(params));
+                result = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                sendError(exchange, 503, "Server is shutting down.");
+                return;
+            } catch (ExecutionException e) {
+                LOG.error("Search failed for query " + params.getQuery(), e.getCause());
+                statistics.recordError();
+                sendError(exchange, 500, "Search failed: " + e.getCause().getMessage());
+                return;
+            } finally {
+                admission.release();
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", JSON);
+            // chunked, the results are streamed while they are written
+            exchange.sendResponseHeaders(200, 0);
+            try ( JsonGenerator json = jsonFactory.createGenerator(exchange.getResponseBody(), JsonEncoding.UTF8) ){
+                writeSearchResult(json, params, result);
+            }
+            statistics.record(start);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private SearchResult search(QueryParameters params){
+        long start = System.currentTimeMillis();
+        // the results are rendered with the global frequencies of the same tables they were scored with
+        QueryContext context = params.getContext().withCurrentLoader();
+        IntObjectHashMap<MathElementAccumulator> elements = service.search(params.getQuery(), context);
+        long searchTime = System.currentTimeMillis() - start;
+
+        List<TFIDFMathElement> results;
+        long totalHits;
+        if ( params.getResults() > 0 ){
+            TopKSelector<TFIDFMathElement> top = service.selectTopTFIDFElements(
+                    elements, params.getMergeFunction(), params.getMinHits(), params.getResults()
+            );
+            results = top.toSortedList();
+            totalHits = top.getNumberOfCandidates();
+        } else {
+            results = service.groupTFIDFElements(elements, params.getMergeFunction(), params.getMinHits());
+            totalHits = results.size();
+        }
+        return new SearchResult(results, totalHits, context.getLoader(), searchTime, System.currentTimeMillis() - start - searchTime);
+    }
+
+    private void writeSearchResult(JsonGenerator json, QueryParameters params, SearchResult result) throws IOException {
+        QueryContext context = params.getContext();
+        TFIDFLoader loader = result.loader;
+
+        json.writeStartObject();
+        json.writeStringField("query", params.getQuery());
+        json.writeObjectFieldStart("parameters");
+        json.writeStringField("index", context.getIndex());
+        json.writeStringField("collection", context.getCollectionStatistics().toString());
+        json.writeNumberField("esHits", context.getElasticsearchMaxHits());
+        json.writeNumberField("minDF", context.getMinDocumentFrequency());
+        json.writeNumberField("maxDF", context.getMaxDocumentFrequency());
+        json.writeNumberField("minTF", context.getMinTermFrequency());
+        json.writeNumberField("minDepth", context.getMinDepth());
+        json.writeNumberField("minHits", params.getMinHits());
+        json.writeStringField("merge", params.getMergeFunction().name());
+        json.writeStringField("tfidf", context.getOptions().toString());
+        json.writeEndObject();
+        json.writeNumberField("totalHits", result.totalHits);
+        json.writeObjectFieldStart("timeMs");
+        json.writeNumberField("search", result.searchTime);
+        json.writeNumberField("merge", result.mergeTime);
+        json.writeEndObject();
+
+        json.writeArrayFieldStart("results");
+        int rank = 1;
+        for ( TFIDFMathElement e : result.results ){
+            json.writeStartObject();
+            json.writeNumberField("rank", rank++);
+            json.writeStringField("expression", e.getExpression());
+            json.writeNumberField("score", e.getScore());
+            json.writeNumberField("depth", e.getDepth());
+            json.writeNumberField("tf", e.getTotalFrequency());
+            json.writeNumberField("hdf", e.getDocFrequency());
+            MathElement global = loader == null ? null : loader.getMathElement(e.getId());
+            if ( global != null ){
+                json.writeNumberField("gtf", global.getTotalFrequency());
+                json.writeNumberField("gdf", global.getDocFrequency());
+            }
+            if ( params.isMathML() )
+                json.writeStringField("mathml", "<math>" + SimpleMMLConverter.stringToMML(e.getExpression()) + "</math>");
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+        json.writeEndObject();
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        try {
+            exchange.getResponseHeaders().set("Content-Type", JSON);
+            exchange.sendResponseHeaders(200, 0);
+            try ( JsonGenerator json = jsonFactory.createGenerator(exchange.getResponseBody(), JsonEncoding.UTF8) ){
+                json.writeStartObject();
+                json.writeFieldName("requests");
+                statistics.writeTo(json);
+                json.writeNumberField("workers", serverConfig.getWorkers());
+                json.writeNumberField("queue", serverConfig.getQueue());
+                MathVectorCache mathCache = MathVectorCache.getInstance();
+                if ( mathCache != null ) json.writeStringField("mathVectorCache", mathCache.toString());
+                QueryResultCache<?> queryCache = service.getQueryResultCache();
+                if ( queryCache != null ) json.writeStringField("queryResultCache", queryCache.toString());
+                json.writeEndObject();
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", JSON);
+        exchange.sendResponseHeaders(status, 0);
+        try ( OutputStream out = exchange.getResponseBody();
+              JsonGenerator json = jsonFactory.createGenerator(out, JsonEncoding.UTF8) ){
+            json.writeStartObject();
+            json.writeNumberField("status", status);
+            json.writeStringField("error", message);
+            json.writeEndObject();
+        }
+    }
+
+    private static class SearchResult {
+        private final List<TFIDFMathElement> results;
+        private final long totalHits;
+        private final TFIDFLoader loader;
+        private final long searchTime;
+        private final long mergeTime;
+
+        private SearchResult(List<TFIDFMathElement> results, long totalHits, TFIDFLoader loader, long searchTime, long mergeTime){
+            this.results = results;
+            this.totalHits = totalHits;
+            this.loader = loader;
+            this.searchTime = searchTime;
+            this.mergeTime = mergeTime;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        SearcherConfig config = new SearcherConfig();
+        ServerConfig serverConfig = new ServerConfig();
+
+        JCommander jcommander = JCommander
+                .newBuilder()
+                .addObject(config)
+                .addObject(serverConfig)
+                .build();
+
+        if (args == null || args.length < 1){
+            jcommander.usage();
+            return;
+        }
+
+        jcommander.parse(args);
+        if (config.isHelp()){
+            jcommander.usage();
+            return;
+        }
+
+        FormulaCloudServer server = new FormulaCloudServer(config, serverConfig);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "server-shutdown"));
+        server.start();
+    }
+}
@@ -0,0 +1,187 @@
+package mir.formulacloud.server;
+
+import mir.formulacloud.beans.InverseDocumentFrequencies;
+import mir.formulacloud.beans.MathMergeFunctions;
+import mir.formulacloud.beans.TFIDFOptions;
+import mir.formulacloud.beans.TermFrequencies;
+import mir.formulacloud.searcher.QueryContext;
+import mir.formulacloud.searcher.SearcherConfig;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The parameters of a single search request, e.g.,
+ * <code>/search?q=riemann+zeta&amp;esHits=100&amp;minDepth=3&amp;results=20</code>.
+ * Parameters that are not given fall back to the settings of the server, i.e., a request never
+ * changes the settings of other requests.
+ *
+ * @author Andre Greiner-Petter
+ */
+public class QueryParameters {
+    public static final String
+            P_QUERY     = "q",
+            P_INDEX     = "index",
+            P_ES_HITS   = "esHits",
+            P_MIN_DF    = "minDF",
+            P_MAX_DF    = "maxDF",
+            P_MIN_TF    = "minTF",
+            P_MIN_DEPTH = "minDepth",
+            P_MIN_HITS  = "minHits",
+            P_RESULTS   = "results",
+            P_MERGE     = "merge",
+            P_TF        = "tf",
+            P_IDF       = "idf",
+            P_K1        = "k1",
+            P_B         = "b",
+            P_PIPELINE  = "pipeline",
+            P_MATHML    = "mathml";
+
+    private final String query;
+    private final QueryContext context;
+    private final MathMergeFunctions mergeFunction;
+    private final int minHits;
+    private final int results;
+    private final boolean mathML;
+
+    private QueryParameters(Map<String, String> params, SearcherConfig defaults, int defaultResults){
+        this.query = params.get(P_QUERY);
+        if ( query == null || query.trim().isEmpty() )
+            throw new IllegalArgumentException("Missing search query (parameter " + P_QUERY + ").");
+
+        String index = params.getOrDefault(P_INDEX, defaults.getFixedIndex());
+        if ( index == null || index.isEmpty() )
+            throw new IllegalArgumentException("Missing Elasticsearch index (parameter " + P_INDEX + ").");
+
+        TFIDFOptions defaultOptions = TFIDFOptions.getDefaultTFIDFOption();
+        TFIDFOptions options = new TFIDFOptions(
+                getEnum(params, P_TF, TermFrequencies.class, defaultOptions.getTfOption()),
+                getEnum(params, P_IDF, InverseDocumentFrequencies.class, defaultOptions.getIdfOption())
+        );
+        options.setK1(getDouble(params, P_K1, defaultOptions.getK1()));
+        options.setB(getDouble(params, P_B, defaultOptions.getB()));
+
+        this.context = QueryContext.builder(defaults)
+                .setIndex(index)
+                .setElasticsearchMaxHits(getInt(params, P_ES_HITS, defaults.getElasticsearchMaxHits()))
+                .setMinDocumentFrequency(getInt(params, P_MIN_DF, defaults.getMinDocumentFrequency()))
+                .setMaxDocumentFrequency(getInt(params, P_MAX_DF, defaults.getMaxDocumentFrequency()))
+                .setMinTermFrequency(getInt(params, P_MIN_TF, defaults.getMinTermFrequency()))
+                .setMinDepth(getInt(params, P_MIN_DEPTH, defaults.getMinDepth()))
+                .setPipelined(Boolean.parseBoolean(params.getOrDefault(P_PIPELINE, String.valueOf(defaults.isPipelined()))))
+                .setOptions(options)
+                .build();
+
+        this.mergeFunction = getEnum(params, P_MERGE, MathMergeFunctions.class, MathMergeFunctions.MAX);
+        this.minHits = getInt(params, P_MIN_HITS, 1);
+        this.results = getInt(params, P_RESULTS, defaultResults);
+        this.mathML = Boolean.parseBoolean(params.getOrDefault(P_MATHML, "false"));
+    }
+
+    /**
+     * @param rawQuery the raw (URL encoded) query string of the request, might be null
+     * @param defaults the settings of the server, they are not changed
+     * @param defaultResults number of results if the request does not specify it
+     * @return the parameters of the request
+     * @throws IllegalArgumentException if a parameter is unknown or invalid
+     */
+    public static QueryParameters parse(String rawQuery, SearcherConfig defaults, int defaultResults){
+        return new QueryParameters(parseQueryString(rawQuery), defaults, defaultResults);
+    }
+
+    public static Map<String, String> parseQueryString(String rawQuery){
+        LinkedHashMap<String, String> params = new LinkedHashMap<>();
+        if ( rawQuery == null || rawQuery.isEmpty() ) return params;
+
+        for ( String pair : rawQuery.split("&") ){
+            if ( pair.isEmpty() ) continue;
+            int eq = pair.indexOf('=');
+            String key = decode(eq < 0 ? pair : pair.substring(0, eq));
+            String value = eq < 0 ? "" : decode(pair.substring(eq + 1));
+            if ( !isKnown(key) ) throw new IllegalArgumentException("Unknown parameter " + key);
+            params.put(key, value);
+        }
+        return params;
+    }
+
+    private static boolean isKnown(String key){
+        switch (key){
+            case P_QUERY: case P_INDEX: case P_ES_HITS: case P_MIN_DF: case P_MAX_DF: case P_MIN_TF: case P_MIN_DEPTH:
+            case P_MIN_HITS: case P_RESULTS: case P_MERGE: case P_TF: case P_IDF: case P_K1: case P_B:
+            case P_PIPELINE: case P_MATHML:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static String decode(String str){
+        try {
+            return URLDecoder.decode(str, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int getInt(Map<String, String> params, String key, int defaultValue){
+        String value = params.get(key);
+        if ( value == null ) return defaultValue;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter " + key + " must be an integer but was " + value);
+        }
+    }
+
+    private static double getDouble(Map<String, String> params, String key, double defaultValue){
+        String value = params.get(key);
+        if ( value == null ) return defaultValue;
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter " + key + " must be a number but was " + value);
+        }
+    }
+
+    private static <T extends Enum<T>> T getEnum(Map<String, String> params, String key, Class<T> type, T defaultValue){
+        String value = params.get(key);
+        if ( value == null ) return defaultValue;
+        try {
+            return Enum.valueOf(type, value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown value " + value + " of parameter " + key);
+        }
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * @return the settings of this search
+     */
+    public QueryContext getContext() {
+        return context;
+    }
+
+    public MathMergeFunctions getMergeFunction() {
+        return mergeFunction;
+    }
+
+    public int getMinHits() {
+        return minHits;
+    }
+
+    /**
+     * @return number of results, 0 or less for all results
+     */
+    public int getResults() {
+        return results;
+    }
+
+    public boolean isMathML() {
+        return mathML;
+    }
+}
@@ -0,0 +1,126 @@
+package mir.formulacloud.server;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import mir.formulacloud.util.Percentiles;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Throughput and latency of the requests of the server. The latency percentiles are calculated
+ * over the most recent requests (a fixed size window), the throughput over the entire uptime.
+ * This class is thread-safe.
+ *
+ * @author Andre Greiner-Petter
+ */
+public class RequestStatistics {
+    private final LongSupplier clock;
+    private final long start;
+
+    // latencies of the most recent requests in nanoseconds (ring buffer)
+    private final long[] latencies;
+    private int next = 0;
+    private int size = 0;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param window number of recent requests for the latency percentiles
+     */
+    public RequestStatistics(int window){
+        this(window, System::nanoTime);
+    }
+
+    RequestStatistics(int window, LongSupplier clock){
+        this.latencies = new long[window];
+        this.clock = clock;
+        this.start = clock.getAsLong();
+    }
+
+    /**
+     * @return the current time of the clock of this statistics in nanoseconds, use it as start of a request
+     */
+    public long now(){
+        return clock.getAsLong();
+    }
+
+    /**
+     * Records a successful request.
+     * @param startTime start of the request, see {@link #now()}
+     */
+    public void record(long startTime){
+        long latency = clock.getAsLong() - startTime;
+        requests.increment();
+        synchronized ( latencies ){
+            latencies[next] = latency;
+            next = (next + 1) % latencies.length;
+            size = Math.min(size + 1, latencies.length);
+        }
+    }
+
+    public void recordError(){
+        errors.increment();
+    }
+
+    public void recordRejected(){
+        rejected.increment();
+    }
+
+    public long getRequests(){
+        return requests.sum();
+    }
+
+    public long getErrors(){
+        return errors.sum();
+    }
+
+    public long getRejected(){
+        return rejected.sum();
+    }
+
+    /**
+     * @return successful requests per second since the start
+     */
+    public double getThroughput(){
+        double seconds = (clock.getAsLong() - start) / 1e9;
+        return seconds <= 0 ? 0 : getRequests() / seconds;
+    }
+
+    /**
+     * @param percentiles percentiles between 0 and 100
+     * @return the latencies in milliseconds of the given percentiles (nearest rank) or 0 if there was no request yet
+     */
+    public double[] getLatencyPercentiles(double... percentiles){
+        long[] snapshot;
+        synchronized ( latencies ){
+            snapshot = Arrays.copyOf(latencies, size);
+        }
+        Arrays.sort(snapshot);
+
+        long[] latencies = Percentiles.nearestRank(snapshot, percentiles);
+        double[] result = new double[latencies.length];
+        for ( int i = 0; i < latencies.length; i++ )
+            result[i] = latencies[i] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        return result;
+    }
+
+    public void writeTo(JsonGenerator json) throws IOException {
+        double[] p = getLatencyPercentiles(50, 95, 99);
+        json.writeStartObject();
+        json.writeNumberField("requests", getRequests());
+        json.writeNumberField("errors", getErrors());
+        json.writeNumberField("rejected", getRejected());
+        json.writeNumberField("requestsPerSecond", getThroughput());
+        json.writeObjectFieldStart("latencyMs");
+        json.writeNumberField("p50", p[0]);
+        json.writeNumberField("p95", p[1]);
+        json.writeNumberField("p99", p[2]);
+        json.writeEndObject();
+        json.writeEndObject();
+    }
+}
@@ -0,0 +1,57 @@
+package mir.formulacloud.server;
+
+import com.beust.jcommander.Parameter;
+
+/**
+ * Settings of the {@link FormulaCloudServer}. The settings of the searcher itself are
+ * part of the {@link mir.formulacloud.searcher.SearcherConfig}.
+ *
+ * @author Andre Greiner-Petter
+ */
+public class ServerConfig {
+    @Parameter(names = {"-port", "--serverPort"}, description = "Port of the HTTP server (default is 8080).")
+    private int port = 8080;
+
+    @Parameter(names = {"-workers", "--searchWorkers"}, description = "Number of searches that run concurrently (default is 8).")
+    private int workers = 8;
+
+    @Parameter(names = {"-queue", "--searchQueue"}, description = "Number of searches that wait for a worker, further searches are rejected (default is 64).")
+    private int queue = 64;
+
+    @Parameter(names = {"-results", "--defaultResults"}, description = "Number of results of a search if the request does not specify it (default is 10).")
+    private int defaultResults = 10;
+
+    public ServerConfig(){}
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getWorkers() {
+        return Math.max(1, workers);
+    }
+
+    public int getQueue() {
+        return Math.max(0, queue);
+    }
+
+    public int getDefaultResults() {
+        return defaultResults;
+    }
+
+    protected void setPort(int port) {
+        this.port = port;
+    }
+
+    protected void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    protected void setQueue(int queue) {
+        this.queue = queue;
+    }
+
+    protected void setDefaultResults(int defaultResults) {
+        this.defaultResults = defaultResults;
+    }
+}
@@ -0,0 +1,77 @@
+package mir.formulacloud.server;
+
+import mir.formulacloud.beans.CollectionStatistics;
+import mir.formulacloud.beans.InverseDocumentFrequencies;
+import mir.formulacloud.beans.MathMergeFunctions;
+import mir.formulacloud.beans.TermFrequencies;
+import mir.formulacloud.searcher.QueryContext;
+import mir.formulacloud.searcher.SearcherConfig;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Andre Greiner-Petter
+ */
+public class QueryParametersTest {
+
+    @Test
+    public void defaultsTest(){
+        SearcherConfig defaults = new SearcherConfig();
+        QueryParameters params = QueryParameters.parse("q=riemann+zeta&index=arxiv", defaults, 10);
+
+        assertEquals("riemann zeta", params.getQuery());
+        QueryContext context = params.getContext();
+        assertEquals("arxiv", context.getIndex());
+        assertSame(CollectionStatistics.ARXIV, context.getCollectionStatistics());
+        assertEquals(10, params.getResults());
+        assertEquals(1, params.getMinHits());
+        assertEquals(MathMergeFunctions.MAX, params.getMergeFunction());
+        assertEquals(TermFrequencies.BM25, context.getOptions().getTfOption());
+        assertEquals(defaults.getElasticsearchMaxHits(), context.getElasticsearchMaxHits());
+        assertEquals(defaults.getMinTermFrequency(), context.getMinTermFrequency());
+        assertFalse(params.isMathML());
+    }
+
+    @Test
+    public void requestSettingsTest(){
+        SearcherConfig defaults = new SearcherConfig();
+        QueryParameters params = QueryParameters.parse(
+                "q=eigenvalue%20problem&index=zbmath&esHits=200&minDF=5&maxDF=1000&minDepth=3&minHits=2" +
+                        "&minTF=2&results=0&merge=avg&tf=log&idf=bm25_idf&k1=0.5&b=0.3&mathml=true",
+                defaults, 10
+        );
+
+        QueryContext context = params.getContext();
+        assertEquals("eigenvalue problem", params.getQuery());
+        assertSame(CollectionStatistics.ZBMATH, context.getCollectionStatistics());
+        assertEquals(200, context.getElasticsearchMaxHits());
+        assertEquals(5, context.getMinDocumentFrequency());
+        assertEquals(1000, context.getMaxDocumentFrequency());
+        assertEquals(2, context.getMinTermFrequency());
+        assertEquals(3, context.getMinDepth());
+        assertEquals(2, params.getMinHits());
+        assertEquals(0, params.getResults());
+        assertEquals(MathMergeFunctions.AVG, params.getMergeFunction());
+        assertEquals(TermFrequencies.LOG, context.getOptions().getTfOption());
+        assertEquals(InverseDocumentFrequencies.BM25_IDF, context.getOptions().getIdfOption());
+        assertEquals(0.5, context.getOptions().getK1(), 1e-9);
+        assertEquals(0.3, context.getOptions().getB(), 1e-9);
+        assertTrue(params.isMathML());
+
+        // the settings of the server are untouched
+        assertEquals(10, defaults.getElasticsearchMaxHits());
+        assertEquals(1, defaults.getMinDepth());
+        assertEquals(1, defaults.getMinTermFrequency());
+    }
+
+    @Test
+    public void invalidParametersTest(){
+        SearcherConfig defaults = new SearcherConfig();
+        assertThrows(IllegalArgumentException.class, () -> QueryParameters.parse("index=arxiv", defaults, 10));
+        assertThrows(IllegalArgumentException.class, () -> QueryParameters.parse("q=zeta", defaults, 10));
+        assertThrows(IllegalArgumentException.class, () -> QueryParameters.parse("q=zeta&index=arxiv&esHits=many", defaults, 10));
+        assertThrows(IllegalArgumentException.class, () -> QueryParameters.parse("q=zeta&index=arxiv&merge=median", defaults, 10));
+        assertThrows(IllegalArgumentException.class, () -> QueryParameters.parse("q=zeta&index=arxiv&minTermFrequency=2", defaults, 10));
+    }
+}
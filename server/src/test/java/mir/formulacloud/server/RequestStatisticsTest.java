@@ -0,0 +1,57 @@
+package mir.formulacloud.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Andre Greiner-Petter
+ */
+public class RequestStatisticsTest {
+
+    @Test
+    public void percentilesTest(){
+        AtomicLong time = new AtomicLong();
+        RequestStatistics stats = new RequestStatistics(1000, time::get);
+        assertArrayEquals(new double[]{0, 0}, stats.getLatencyPercentiles(50, 99), 1e-9);
+
+        // requests with latencies of 1, 2, ..., 100 ms
+        for ( int i = 1; i <= 100; i++ ){
+            long start = stats.now();
+            time.addAndGet(TimeUnit.MILLISECONDS.toNanos(i));
+            stats.record(start);
+        }
+
+        double[] p = stats.getLatencyPercentiles(50, 95, 99, 100);
+        assertEquals(50, p[0], 1e-9);
+        assertEquals(95, p[1], 1e-9);
+        assertEquals(99, p[2], 1e-9);
+        assertEquals(100, p[3], 1e-9);
+
+        // 100 requests in 5050 ms
+        assertEquals(100, stats.getRequests());
+        assertEquals(100 / 5.05, stats.getThroughput(), 1e-9);
+    }
+
+    @Test
+    public void windowTest(){
+        AtomicLong time = new AtomicLong();
+        RequestStatistics stats = new RequestStatistics(10, time::get);
+        for ( int i = 1; i <= 30; i++ ){
+            long start = stats.now();
+            time.addAndGet(TimeUnit.MILLISECONDS.toNanos(i));
+            stats.record(start);
+        }
+        // only the latencies of the last 10 requests (21 - 30 ms) are kept
+        assertEquals(21, stats.getLatencyPercentiles(0)[0], 1e-9);
+        assertEquals(30, stats.getRequests());
+
+        stats.recordError();
+        stats.recordRejected();
+        assertEquals(1, stats.getErrors());
+        assertEquals(1, stats.getRejected());
+    }
+}
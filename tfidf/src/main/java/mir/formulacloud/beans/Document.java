@@ -1,5 +1,6 @@
 package mir.formulacloud.beans;
 
+import mir.formulacloud.util.SubtreeHash;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -20,13 +21,17 @@ public class Document {
     public static final String SPLITTER_DATA = " #-<>-# ";
     public static final String SPLITTER_ENTRY = System.lineSeparator();
 
+    // the ID and hash columns are optional to be able to read documents of older splitter runs,
+    // if the hash is given, the ID is given as well (-1 if there is no ID)
     public static Pattern entryPattern = Pattern.compile(
-            "^(.*)" + SPLITTER_DATA + "(.*)" + SPLITTER_DATA + "(.*)\\s*$"
+            "^(.*?)" + SPLITTER_DATA + "(\\d+)" + SPLITTER_DATA + "(\\d+)(?:" + SPLITTER_DATA + "(-?\\d+)(?:" + SPLITTER_DATA + "(-?\\d+))?)?\\s*$"
     );
 
     public static final int IDX_EXPR    = 1;
     public static final int IDX_DEPTH   = 2;
     public static final int IDX_FREQ    = 3;
+    public static final int IDX_ID      = 4;
+    public static final int IDX_HASH    = 5;
 
 
     private String DB;
@@ -35,6 +40,8 @@ public class Document {
     private LinkedList<String> expressions;
     private LinkedList<Short> depths;
     private LinkedList<Short> termFrequencies;
+    private LinkedList<Integer> ids;
+    private LinkedList<Long> hashes;
 
     public Document () {
         init();
@@ -50,6 +57,8 @@ public class Document {
         expressions = new LinkedList<>();
         termFrequencies = new LinkedList<>();
         depths = new LinkedList<>();
+        ids = new LinkedList<>();
+        hashes = new LinkedList<>();
     }
 
     /**
@@ -59,9 +68,34 @@ public class Document {
      * @param frequency
      */
     public void addFormula(String expression, Short depth, Short frequency) {
+        addFormula(expression, depth, frequency, -1);
+    }
+
+    /**
+     * Expr -> Depth -> Freq -> ID
+     * @param expression
+     * @param depth
+     * @param frequency
+     * @param id global ID of the expression (see {@link mir.formulacloud.util.ExpressionDictionary}) or -1
+     */
+    public void addFormula(String expression, Short depth, Short frequency, int id) {
+        addFormula(expression, depth, frequency, id, SubtreeHash.UNKNOWN);
+    }
+
+    /**
+     * Expr -> Depth -> Freq -> ID -> Hash
+     * @param expression
+     * @param depth
+     * @param frequency
+     * @param id global ID of the expression (see {@link mir.formulacloud.util.ExpressionDictionary}) or -1
+     * @param hash {@link SubtreeHash} of the expression or {@link SubtreeHash#UNKNOWN}
+     */
+    public void addFormula(String expression, Short depth, Short frequency, int id, long hash) {
         this.expressions.addLast(expression);
         this.depths.addLast(depth);
         this.termFrequencies.addLast(frequency);
+        this.ids.addLast(id);
+        this.hashes.addLast(hash);
     }
 
     public boolean isNull(){
@@ -85,6 +119,14 @@ public class Document {
             out.append(depths.get(i));
             out.append(SPLITTER_DATA);
             out.append(termFrequencies.get(i));
+            if ( ids.get(i) >= 0 || hashes.get(i) != SubtreeHash.UNKNOWN ){
+                out.append(SPLITTER_DATA);
+                out.append(ids.get(i));
+            }
+            if ( hashes.get(i) != SubtreeHash.UNKNOWN ){
+                out.append(SPLITTER_DATA);
+                out.append(hashes.get(i));
+            }
             out.append(SPLITTER_ENTRY);
         }
         return out.toString();
@@ -111,7 +153,28 @@ public class Document {
         return depths;
     }
 
+    public LinkedList<Integer> getIDs() {
+        return ids;
+    }
+
+    /**
+     * @return the hashes of the expressions, {@link SubtreeHash#UNKNOWN} for documents of older splitter runs
+     */
+    public LinkedList<Long> getHashes() {
+        return hashes;
+    }
+
     public static Document parseDocument(Path p) {
+        return parseDocument(p, true);
+    }
+
+    /**
+     * Parses a document of the splitter.
+     * @param p the file
+     * @param keepExpressions if false, the expressions of entries with an ID are not extracted (null)
+     * @return the document
+     */
+    public static Document parseDocument(Path p, boolean keepExpressions) {
         Document d = new Document();
 
         // properly release resource
@@ -120,10 +183,15 @@ public class Document {
             lines.forEach( l -> {
                 Matcher matcher = entryPattern.matcher(l);
                 if ( matcher.matches() ){
+                    String id = matcher.group(IDX_ID);
+                    String hash = matcher.group(IDX_HASH);
+                    int parsedID = id == null ? -1 : Integer.parseInt(id);
                     d.addFormula(
-                            matcher.group(IDX_EXPR),
+                            parsedID < 0 || keepExpressions ? matcher.group(IDX_EXPR) : null,
                             Short.parseShort(matcher.group(IDX_DEPTH)),
-                            Short.parseShort(matcher.group(IDX_FREQ))
+                            Short.parseShort(matcher.group(IDX_FREQ)),
+                            parsedID,
+                            hash == null ? SubtreeHash.UNKNOWN : Long.parseLong(hash)
                     );
                 }
             });
@@ -1,6 +1,8 @@
 package mir.formulacloud.beans;
 
 import mir.formulacloud.tfidf.TFIDFCalculator;
+import mir.formulacloud.util.CompactExpression;
+import mir.formulacloud.util.SubtreeHash;
 
 /**
  * @author Andre Greiner-Petter
@@ -8,6 +10,15 @@ import mir.formulacloud.tfidf.TFIDFCalculator;
 public class MathElement {
     private String expression;
 
+    // encoded expression, only set if the element was compacted (see compact())
+    private CompactExpression compactExpression;
+
+    // global ID of the expression, see ExpressionDictionary
+    private int id = -1;
+
+    // structural hash of the expression, see SubtreeHash
+    private long hash = SubtreeHash.UNKNOWN;
+
     private int totalFrequency;
     private int docFrequency;
     private short depth;
@@ -28,6 +39,16 @@ public class MathElement {
         this.docFrequency = docFrequency;
     }
 
+    public MathElement(String expression, short depth, int totalFrequency, int docFrequency, int id){
+        this(expression, depth, totalFrequency, docFrequency);
+        this.id = id;
+    }
+
+    public MathElement(String expression, short depth, int totalFrequency, int docFrequency, int id, long hash){
+        this(expression, depth, totalFrequency, docFrequency, id);
+        this.hash = hash;
+    }
+
     public void markAsStopper(){
         this.isStopper = true;
     }
@@ -48,12 +69,60 @@ public class MathElement {
         return depth;
     }
 
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    /**
+     * @return the {@link SubtreeHash} of the expression or {@link SubtreeHash#UNKNOWN}
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    public void setHash(long hash) {
+        this.hash = hash;
+    }
+
     public String getExpression() {
+        if ( expression == null && compactExpression != null )
+            return compactExpression.toString();
         return expression;
     }
 
     public void setExpression(String expression) {
         this.expression = expression;
+        this.compactExpression = null;
+    }
+
+    /**
+     * Replaces the expression string by its encoded form. Use this for elements that are kept in
+     * memory for a long time. {@link #getExpression()} decodes the expression on every call.
+     * @return this element
+     */
+    public MathElement compact() {
+        if ( expression != null ){
+            compactExpression = CompactExpression.of(expression);
+            expression = null;
+        }
+        return this;
+    }
+
+    public void setCompactExpression(CompactExpression compactExpression) {
+        this.expression = null;
+        this.compactExpression = compactExpression;
+    }
+
+    /**
+     * @return the encoded expression (the element itself is not compacted by this call)
+     */
+    public CompactExpression getCompactExpression() {
+        if ( compactExpression != null ) return compactExpression;
+        return expression == null ? null : CompactExpression.of(expression);
     }
 
     public void setDepth(short depth) {
@@ -71,12 +140,18 @@ public class MathElement {
     public MathElement add(MathElement reference) throws IllegalArgumentException {
         this.totalFrequency += reference.totalFrequency;
         this.docFrequency += reference.docFrequency;
+        if ( this.hash == SubtreeHash.UNKNOWN ) this.hash = reference.hash;
         TFIDFCalculator.updateMerger();
         return this;
     }
 
     @Override
     public String toString(){
-        return String.join(";", '"'+expression+'"', ""+depth, ""+totalFrequency, ""+docFrequency);
+        // the hash column requires the ID column, hence the ID might be -1
+        if ( hash != SubtreeHash.UNKNOWN )
+            return String.join(";", '"'+getExpression()+'"', ""+depth, ""+totalFrequency, ""+docFrequency, ""+id, ""+hash);
+        if ( id >= 0 )
+            return String.join(";", '"'+getExpression()+'"', ""+depth, ""+totalFrequency, ""+docFrequency, ""+id);
+        return String.join(";", '"'+getExpression()+'"', ""+depth, ""+totalFrequency, ""+docFrequency);
     }
 }
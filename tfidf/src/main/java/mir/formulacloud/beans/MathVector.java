@@ -0,0 +1,182 @@
+package mir.formulacloud.beans;
+
+import mir.formulacloud.util.Constants;
+import mir.formulacloud.util.SubtreeHash;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.regex.Matcher;
+
+/**
+ * The math of a single document as it is returned by the term extraction script of BaseX,
+ * i.e., all subexpressions with their depth and term frequency within the document.
+ * The vector also provides the length of the document (sum of all term frequencies) and
+ * the maximum term frequency per depth.
+ *
+ * Every expression has its {@link SubtreeHash}. Vectors of the extraction carry the hashes, otherwise
+ * the hashes are calculated once on the first request.
+ *
+ * @author Andre Greiner-Petter
+ */
+public class MathVector {
+    private final String[] expressions;
+    private final short[] depths;
+    private final int[] frequencies;
+
+    // null until the first request if the hashes were not provided
+    private volatile long[] hashes;
+
+    private final int documentLength;
+    private final int[] maxFrequencyPerDepth;
+
+    /**
+     * Creates the vector and calculates the document length and maximum frequencies per depth.
+     */
+    public MathVector(String[] expressions, short[] depths, int[] frequencies){
+        this(expressions, depths, frequencies, null);
+    }
+
+    /**
+     * Creates the vector with the hashes of the expressions and calculates the document length and
+     * maximum frequencies per depth.
+     */
+    public MathVector(String[] expressions, short[] depths, int[] frequencies, long[] hashes){
+        this.expressions = expressions;
+        this.hashes = hashes;
+        this.depths = depths;
+        this.frequencies = frequencies;
+
+        int length = 0;
+        int maxDepth = 0;
+        for ( int i = 0; i < depths.length; i++ ){
+            length += frequencies[i];
+            maxDepth = Math.max(maxDepth, depths[i]);
+        }
+
+        int[] maxPerDepth = new int[maxDepth];
+        for ( int i = 0; i < depths.length; i++ ){
+            if ( depths[i] < 1 ) continue;
+            maxPerDepth[depths[i]-1] = Math.max(maxPerDepth[depths[i]-1], frequencies[i]);
+        }
+        this.documentLength = length;
+        this.maxFrequencyPerDepth = maxPerDepth;
+    }
+
+    /**
+     * Creates the vector with precalculated statistics (e.g., from a {@link mir.formulacloud.util.ForwardIndex}).
+     */
+    public MathVector(String[] expressions, short[] depths, int[] frequencies, int documentLength, int[] maxFrequencyPerDepth){
+        this.expressions = expressions;
+        this.depths = depths;
+        this.frequencies = frequencies;
+        this.documentLength = documentLength;
+        this.maxFrequencyPerDepth = maxFrequencyPerDepth;
+    }
+
+    /**
+     * @param results result of the term extraction script for a single document
+     * @return the math vector of the document
+     */
+    public static MathVector parse(String results){
+        ArrayList<String> expressions = new ArrayList<>();
+        ArrayList<Short> depths = new ArrayList<>();
+        ArrayList<Integer> frequencies = new ArrayList<>();
+
+        Matcher matcher = Constants.BASEX_ELEMENT_PATTERN.matcher(results);
+        while ( matcher.find() ){
+            expressions.add(matcher.group(Constants.BX_IDX_EXPR));
+            depths.add(Short.parseShort(matcher.group(Constants.BX_IDX_DEPTH)));
+            frequencies.add(Integer.parseInt(matcher.group(Constants.BX_IDX_FREQ)));
+        }
+
+        int n = expressions.size();
+        short[] d = new short[n];
+        int[] f = new int[n];
+        long[] h = new long[n];
+        for ( int i = 0; i < n; i++ ){
+            d[i] = depths.get(i);
+            f[i] = frequencies.get(i);
+            // BaseX returns strings only, the results are hashed once here
+            h[i] = SubtreeHash.of(expressions.get(i));
+        }
+        return new MathVector(expressions.toArray(new String[n]), d, f, h);
+    }
+
+    public int size(){
+        return expressions.length;
+    }
+
+    public String getExpression(int i){
+        return expressions[i];
+    }
+
+    public short getDepth(int i){
+        return depths[i];
+    }
+
+    public int getFrequency(int i){
+        return frequencies[i];
+    }
+
+    /**
+     * @return the {@link SubtreeHash} of the i-th expression
+     */
+    public long getHash(int i){
+        long[] h = hashes;
+        if ( h == null ){
+            // concurrent requests calculate the same values
+            h = new long[expressions.length];
+            for ( int j = 0; j < h.length; j++ ) h[j] = SubtreeHash.of(expressions[j]);
+            hashes = h;
+        }
+        return h[i];
+    }
+
+    /**
+     * @return sum of the term frequencies of all elements
+     */
+    public int getDocumentLength(){
+        return documentLength;
+    }
+
+    /**
+     * @return the maximum term frequency of elements per depth, the maximum of depth d is at index d-1.
+     *         The length of the array is the maximum depth.
+     */
+    public int[] getMaxFrequencyPerDepth(){
+        return maxFrequencyPerDepth;
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(expressions.length);
+        for ( int i = 0; i < expressions.length; i++ ){
+            // expressions might be longer than writeUTF allows
+            byte[] bytes = expressions[i].getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.writeShort(depths[i]);
+            out.writeInt(frequencies[i]);
+            out.writeLong(getHash(i));
+        }
+    }
+
+    public static MathVector read(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        String[] expressions = new String[n];
+        short[] depths = new short[n];
+        int[] frequencies = new int[n];
+        long[] hashes = new long[n];
+        for ( int i = 0; i < n; i++ ){
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            expressions[i] = new String(bytes, StandardCharsets.UTF_8);
+            depths[i] = in.readShort();
+            frequencies[i] = in.readInt();
+            hashes[i] = in.readLong();
+        }
+        return new MathVector(expressions, depths, frequencies, hashes);
+    }
+}
@@ -135,6 +135,9 @@ public class BaseXController {
     }
 
     public synchronized static void closeAllClients(){
+        // no servers were started, e.g., the math was extracted locally
+        if ( basexServers == null ) return;
+
         for (String db : basexServers.keySet()){
             BlockingQueue<BaseXClient> pool = poolMapper.get(db);
             // stop all clients first
@@ -2,7 +2,11 @@ package mir.formulacloud.tfidf;
 
 import com.formulasearchengine.mathosphere.basex.BaseXClient;
 import mir.formulacloud.beans.Document;
+import mir.formulacloud.beans.MathVector;
 import mir.formulacloud.util.Constants;
+import mir.formulacloud.util.ExpressionDictionary;
+import mir.formulacloud.util.SubtreeExtractor;
+import mir.formulacloud.util.SubtreeHash;
 import mir.formulacloud.util.XQueryLoader;
 import org.apache.flink.api.common.functions.FlatMapFunction;
 import org.apache.flink.api.java.tuple.Tuple3;
@@ -14,8 +18,11 @@ import org.apache.logging.log4j.Logger;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.regex.Matcher;
+import java.util.stream.Collectors;
 
 /**
  * @author Andre Greiner-Petter
@@ -52,18 +59,24 @@ public class BaseXRequestMapper implements FlatMapFunction<Path, Tuple4<String,
         TFIDFCalculator.update();
     }
 
-    public static Document getDocument(String docID, Path outputPath){
-        String query = XQueryLoader.getScript(docID);
-        String db = BaseXController.getDBFromDocID(docID);
+    public static Document getDocument(String docID, int minTermFrequency, Path outputPath){
+        return getDocument(docID, minTermFrequency, outputPath, null);
+    }
 
-        Path p = outputPath.resolve(db).resolve(docID);
-        if (Files.exists(p)){
-            // file already exist -> skip it
-            LOG.info("File already processed. Skip it. " + p.toString());
+    /**
+     * Requests the math of the given document from BaseX.
+     * @param docID the document
+     * @param minTermFrequency minimum frequency of an expression in the document
+     * @param outputPath output folder of the splitter, already processed documents are skipped
+     * @param dictionary assigns the global IDs to the expressions, might be null
+     * @return the document (empty if it was skipped)
+     */
+    public static Document getDocument(String docID, int minTermFrequency, Path outputPath, ExpressionDictionary dictionary){
+        String query = XQueryLoader.getScript(docID, minTermFrequency);
+        String db = BaseXController.getDBFromDocID(docID);
 
+        if (isProcessed(docID, db, outputPath)){
             // empty document
-            Splitter.PROCESSED++;
-            Splitter.update();
             return new Document();
         }
 
@@ -71,20 +84,7 @@ public class BaseXRequestMapper implements FlatMapFunction<Path, Tuple4<String,
 
         // check if document is empty or exists
         if ( db == null || client == null ){
-            // empty document
-            Splitter.PROCESSED++;
-            Splitter.EMPTY_FILES++;
-            String msg = String.format(
-                    "Finished %10s (%5s); Contained %3d math expressions; Processed: %6d / %d",
-                    docID,
-                    db,
-                    0,
-                    Splitter.PROCESSED,
-                    Splitter.NUM_OF_FILES
-            );
-            LOG.warn(msg);
-            Splitter.update();
-            return new Document();
+            return emptyDocument(docID, db);
         }
 
         // doc exists -> proceed
@@ -101,48 +101,195 @@ public class BaseXRequestMapper implements FlatMapFunction<Path, Tuple4<String,
             start = System.currentTimeMillis() - start;
 
             LOG.debug("Received result from BaseX for " + docID + " (" + db + ") - it took " + start + "ms");
+            doc = parseResults(docID, db, results, dictionary);
+        } catch (IOException | NullPointerException e) {
+            LOG.error("Cannot execute script to retrieve math (docID: " + docID + ")", e);
+        } finally {
+            BaseXController.returnBaseXClient(docID, client);
+            Splitter.update();
+        }
 
-            int counter = 0;
-            Matcher matcher = Constants.BASEX_ELEMENT_PATTERN.matcher(results);
+        return doc;
+    }
 
-            // go through all hits
-            while (matcher.find()) {
-                doc.addFormula(
-                        matcher.group(Constants.BX_IDX_EXPR),                   // expression
-                        Short.parseShort(matcher.group(Constants.BX_IDX_DEPTH)),// frequency
-                        Short.parseShort(matcher.group(Constants.BX_IDX_FREQ))  // depth
-                );
+    /**
+     * Requests the math of the given documents from BaseX by a single query.
+     * All documents must belong to the same database.
+     * @param docIDs documents of the same database
+     * @param minTermFrequency minimum frequency of an expression in a document
+     * @param outputPath output folder of the splitter, already processed documents are skipped
+     * @param dictionary assigns the global IDs to the expressions, might be null
+     * @return the documents that were not skipped
+     */
+    public static List<Document> getDocuments(List<String> docIDs, int minTermFrequency, Path outputPath, ExpressionDictionary dictionary){
+        String db = BaseXController.getDBFromDocID(docIDs.get(0));
+        if ( db == null || docIDs.size() == 1 ){
+            return docIDs.stream()
+                    .map( id -> getDocument(id, minTermFrequency, outputPath, dictionary) )
+                    .collect(Collectors.toList());
+        }
+
+        List<String> open = docIDs.stream()
+                .filter( id -> !isProcessed(id, db, outputPath) )
+                .collect(Collectors.toList());
+        List<Document> docs = new LinkedList<>();
+        if ( open.isEmpty() ) return docs;
 
-                counter++;
+        BaseXClient client = BaseXController.getBaseXClientByDatabase(db);
+        LOG.info("Requesting math in " + open.size() + " documents (" + db + ")");
+
+        // lets measure time
+        long start = System.currentTimeMillis();
+        try {
+            // execute extraction script for all documents at once
+            String results = client.execute("XQUERY " + XQueryLoader.getBatchScript(open, minTermFrequency));
+            // stop time
+            start = System.currentTimeMillis() - start;
+
+            LOG.debug("Received result from BaseX for " + open.size() + " documents (" + db + ") - it took " + start + "ms");
+
+            LinkedHashMap<String, String> resultsPerDoc = XQueryLoader.splitBatchResult(results);
+            for ( String docID : open ){
+                String docResults = resultsPerDoc.get(docID);
+                if ( docResults == null ) docs.add(emptyDocument(docID, db));
+                else docs.add(parseResults(docID, db, docResults, dictionary));
             }
+        } catch (IOException | NullPointerException e) {
+            LOG.error("Cannot execute script to retrieve math (docIDs: " + open + ")", e);
+            // same as for single documents, the documents are written without math
+            for ( int i = docs.size(); i < open.size(); i++ )
+                docs.add(new Document(db, open.get(i)));
+        } finally {
+            BaseXController.returnBaseXClientByDatabase(db, client);
+            Splitter.update();
+        }
 
+        return docs;
+    }
+
+    private static boolean isProcessed(String docID, String db, Path outputPath){
+        if ( db == null ) return false;
+        Path p = outputPath.resolve(db).resolve(docID);
+        if (Files.exists(p)){
+            // file already exist -> skip it
+            LOG.info("File already processed. Skip it. " + p.toString());
             Splitter.PROCESSED++;
-            String msg = String.format(
-                    "Finished %10s (%5s); Contained %3d math expressions; Processed: %6d / %d",
-                    docID,
-                    db,
-                    counter,
-                    Splitter.PROCESSED,
-                    Splitter.NUM_OF_FILES
+            Splitter.update();
+            return true;
+        }
+        return false;
+    }
+
+    private static Document emptyDocument(String docID, String db){
+        Splitter.PROCESSED++;
+        Splitter.EMPTY_FILES++;
+        String msg = String.format(
+                "Finished %10s (%5s); Contained %3d math expressions; Processed: %6d / %d",
+                docID,
+                db,
+                0,
+                Splitter.PROCESSED,
+                Splitter.NUM_OF_FILES
+        );
+        LOG.warn(msg);
+        Splitter.update();
+        return new Document();
+    }
+
+    private static Document parseResults(String docID, String db, String results, ExpressionDictionary dictionary){
+        Document doc = new Document(db, docID);
+        int counter = 0;
+        Matcher matcher = Constants.BASEX_ELEMENT_PATTERN.matcher(results);
+
+        // go through all hits
+        while (matcher.find()) {
+            String expression = matcher.group(Constants.BX_IDX_EXPR);
+            // BaseX returns strings only, the hash is calculated once here and stored in the document
+            long hash = SubtreeHash.of(expression);
+            doc.addFormula(
+                    expression,                                             // expression
+                    Short.parseShort(matcher.group(Constants.BX_IDX_DEPTH)),// frequency
+                    Short.parseShort(matcher.group(Constants.BX_IDX_FREQ)), // depth
+                    dictionary == null ? -1 : dictionary.getOrAssign(hash, expression),
+                    hash
             );
 
-            if (counter < 2){
-                if ( counter == 0 ){
-                    Splitter.EMPTY_FILES++;
-                }
-                LOG.warn(msg);
+            counter++;
+        }
+
+        finished(docID, db, counter);
+        return doc;
+    }
+
+    /**
+     * Extracts the math of the given document directly from its harvest file by the {@link SubtreeExtractor},
+     * i.e., without BaseX. The result is the same as the result of {@link #getDocument(String, int, Path, ExpressionDictionary)}.
+     * @param docID the document
+     * @param db the database (folder) of the document
+     * @param harvest the harvest file of the document
+     * @param extractor the extractor with the minimum term frequency
+     * @param outputPath output folder of the splitter, already processed documents are skipped
+     * @param dictionary assigns the global IDs to the expressions, might be null
+     * @return the document (empty if it was skipped)
+     */
+    public static Document extractDocument(String docID, String db, Path harvest, SubtreeExtractor extractor, Path outputPath, ExpressionDictionary dictionary){
+        if (isProcessed(docID, db, outputPath)){
+            // empty document
+            return new Document();
+        }
+
+        if ( db == null || harvest == null ){
+            return emptyDocument(docID, db);
+        }
+
+        long start = System.currentTimeMillis();
+        Document doc = new Document(db, docID);
+        try {
+            MathVector vector = extractor.extract(harvest);
+            start = System.currentTimeMillis() - start;
+            LOG.debug("Extracted math of " + docID + " (" + db + ") - it took " + start + "ms");
+
+            for ( int i = 0; i < vector.size(); i++ ){
+                String expression = vector.getExpression(i);
+                long hash = vector.getHash(i);
+                doc.addFormula(
+                        expression,
+                        vector.getDepth(i),
+                        // the frequencies of BaseX results are parsed as shorts as well
+                        (short) Math.min(Short.MAX_VALUE, vector.getFrequency(i)),
+                        dictionary == null ? -1 : dictionary.getOrAssign(hash, expression),
+                        hash
+                );
             }
-            else LOG.info(msg);
-        } catch (IOException | NullPointerException e) {
-            LOG.error("Cannot execute script to retrieve math (docID: " + docID + ")", e);
+            finished(docID, db, vector.size());
+        } catch (IOException e) {
+            LOG.error("Cannot extract math (docID: " + docID + ")", e);
         } finally {
-            BaseXController.returnBaseXClient(docID, client);
             Splitter.update();
         }
-
         return doc;
     }
 
+    private static void finished(String docID, String db, int counter){
+        Splitter.PROCESSED++;
+        String msg = String.format(
+                "Finished %10s (%5s); Contained %3d math expressions; Processed: %6d / %d",
+                docID,
+                db,
+                counter,
+                Splitter.PROCESSED,
+                Splitter.NUM_OF_FILES
+        );
+
+        if (counter < 2){
+            if ( counter == 0 ){
+                Splitter.EMPTY_FILES++;
+            }
+            LOG.warn(msg);
+        }
+        else LOG.info(msg);
+    }
+
 
 //
 //    @Override
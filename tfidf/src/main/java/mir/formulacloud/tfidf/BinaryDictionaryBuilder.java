@@ -0,0 +1,264 @@
+package mir.formulacloud.tfidf;
+
+import com.beust.jcommander.JCommander;
+import mir.formulacloud.beans.MathElement;
+import mir.formulacloud.util.BinaryDictionary;
+import mir.formulacloud.util.Constants;
+import mir.formulacloud.util.ExpressionCodec;
+import mir.formulacloud.util.MappedFileBuffer;
+import mir.formulacloud.util.TFIDFConfig;
+import mir.formulacloud.util.TFIDFTableParser;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+import static mir.formulacloud.util.BinaryDictionary.*;
+
+/**
+ * Converts the output folder of the {@link TFIDFCalculator} (or {@link TFIDFMerger})
+ * into one immutable {@link BinaryDictionary} file. The searcher maps this file
+ * instead of parsing all TF-IDF tables into the heap.
+ *
+ * Use -in to specify the TF-IDF folder and -out for the dictionary file.
+ *
+ * @author Andre Greiner-Petter
+ */
+public class BinaryDictionaryBuilder {
+    private static final Logger LOG = LogManager.getLogger(BinaryDictionaryBuilder.class.getName());
+
+    private static final double LOAD_FACTOR = 0.5;
+
+    private final Path input;
+    private final Path output;
+
+    private long position;
+    private long entries;
+    private long[] hashes;
+    private long[] offsets;
+    private int[] ids;
+    private int maxID;
+
+    private DataOutputStream out;
+    private ExpressionCodec codec;
+
+    public BinaryDictionaryBuilder(Path input, Path output) {
+        this.input = input;
+        this.output = output;
+        this.hashes = new long[1024];
+        this.offsets = new long[1024];
+        this.ids = new int[1024];
+    }
+
+    public void build() throws IOException {
+        LinkedList<Path> files = new LinkedList<>();
+        Files.walk(input)
+                .filter( Files::isRegularFile )
+                .filter( p -> !p.getFileName().toString().equals(Constants.DICTIONARY_FILE) )
+                .forEach( files::add );
+
+        LOG.info("Write data section of " + output);
+        Files.deleteIfExists(output);
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(output), 1 << 20));
+        out.write(new byte[HEADER_SIZE]);
+        position = HEADER_SIZE;
+        entries = 0;
+        maxID = -1;
+        codec = new ExpressionCodec();
+
+        TFIDFTableParser parser = new TFIDFTableParser();
+        for ( Path p : files ){
+            try {
+                parser.parse(p, (expr, depth, tf, df, id, hash) -> writeRecord(new MathElement(expr, depth, tf, df, id, hash)));
+            } catch ( IOException ioe ){
+                LOG.fatal("Cannot read TF-IDF file " + p, ioe);
+                out.close();
+                throw ioe;
+            }
+            LOG.info("Added TF-IDF math elements from " + p + " [#" + entries + "]");
+        }
+
+        long dataEnd = position;
+
+        // the vocabulary is complete after all records are encoded
+        ArrayList<String> vocabulary = codec.getVocabulary();
+        for ( String leaf : vocabulary ){
+            byte[] text = leaf.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(text.length);
+            out.write(text);
+            position += 4 + text.length;
+        }
+        out.close();
+        LOG.info("Encoded expressions with " + vocabulary.size() + " distinct leaf texts.");
+        long vocabEnd = position;
+
+        long buckets = Long.highestOneBit(Math.max(2, (long)(entries / LOAD_FACTOR)) - 1) << 1;
+        long indexOffset = (vocabEnd + BUCKET_SIZE - 1) / BUCKET_SIZE * BUCKET_SIZE;
+        long idOffset = indexOffset + buckets * BUCKET_SIZE;
+
+        // tables of older runs do not contain IDs, those entries get IDs after the highest known ID
+        long missingIDs = 0;
+        for ( int i = 0; i < entries; i++ ){
+            if ( ids[i] < 0 ){
+                ids[i] = ++maxID;
+                missingIDs++;
+            }
+        }
+        long numberOfIDs = maxID + 1L;
+        long fileSize = idOffset + numberOfIDs * 8;
+
+        LOG.info("Write hash index with " + buckets + " buckets for " + entries + " entries.");
+        try ( MappedFileBuffer buffer = MappedFileBuffer.openReadWrite(output, fileSize) ){
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(POS_ENTRIES, entries);
+            buffer.putLong(POS_DATA_OFFSET, HEADER_SIZE);
+            buffer.putLong(POS_DATA_END, dataEnd);
+            buffer.putLong(POS_INDEX_OFFSET, indexOffset);
+            buffer.putLong(POS_BUCKETS, buckets);
+            buffer.putLong(POS_ID_OFFSET, idOffset);
+            buffer.putLong(POS_IDS, numberOfIDs);
+            buffer.putLong(POS_VOCAB_OFFSET, dataEnd);
+            buffer.putLong(POS_VOCAB_SIZE, vocabulary.size());
+
+            long duplicates = 0;
+            long mask = buckets - 1;
+            for ( long i = 0; i < entries; i++ ){
+                long hash = hashes[(int)i];
+                long bucket = hash & mask;
+                while ( true ){
+                    long slot = indexOffset + bucket * BUCKET_SIZE;
+                    long record = buffer.getLong(slot + 8);
+                    if ( record == 0 ){
+                        buffer.putLong(slot, hash);
+                        buffer.putLong(slot + 8, offsets[(int)i]);
+                        break;
+                    }
+                    if ( buffer.getLong(slot) == hash && sameExpression(buffer, record, offsets[(int)i]) ){
+                        duplicates++;
+                        break;
+                    }
+                    bucket = (bucket + 1) & mask;
+                }
+            }
+
+            if ( duplicates > 0 )
+                LOG.warn("Skipped " + duplicates + " duplicated expressions. Only the first occurrence is accessible.");
+
+            LOG.info("Write ID table for " + numberOfIDs + " IDs.");
+            long duplicatedIDs = 0;
+            for ( int i = 0; i < entries; i++ ){
+                long slot = idOffset + (long)ids[i] * 8;
+                if ( buffer.getLong(slot) != 0 ){
+                    duplicatedIDs++;
+                    continue;
+                }
+                buffer.putLong(slot, offsets[i]);
+                buffer.putInt(offsets[i] + REC_ID, ids[i]);
+            }
+
+            if ( missingIDs > 0 )
+                LOG.warn("Assigned IDs to " + missingIDs + " entries without ID.");
+            if ( duplicatedIDs > 0 )
+                LOG.warn("Found " + duplicatedIDs + " duplicated IDs. Only the first occurrence is accessible by ID.");
+        }
+
+        LOG.info("Finished binary dictionary " + output + " [#" + entries + "; Size: " + fileSize/Math.pow(1024,2) + " MB]");
+    }
+
+    private void writeRecord(MathElement element) {
+        byte[] expr = codec.encode(element.getExpression());
+        int recordSize = RECORD_HEADER_SIZE + expr.length;
+
+        try {
+            long remaining = MappedFileBuffer.remainingInSegment(position);
+            if ( remaining < recordSize ){
+                // records must not cross segments, fill the rest of this segment
+                byte[] padding = new byte[(int)remaining];
+                if ( remaining >= RECORD_HEADER_SIZE ){
+                    padding[0] = (byte)(PADDING >> 8);
+                    padding[1] = (byte)PADDING;
+                }
+                out.write(padding);
+                position += remaining;
+            }
+
+            if ( entries == hashes.length ){
+                int newLength = hashes.length + (hashes.length >> 1);
+                hashes = Arrays.copyOf(hashes, newLength);
+                offsets = Arrays.copyOf(offsets, newLength);
+                ids = Arrays.copyOf(ids, newLength);
+            }
+            hashes[(int)entries] = element.getHash();
+            offsets[(int)entries] = position;
+            ids[(int)entries] = element.getId();
+            maxID = Math.max(maxID, element.getId());
+            entries++;
+
+            out.writeShort(element.getDepth());
+            out.writeInt(element.getTotalFrequency());
+            out.writeInt(element.getDocFrequency());
+            out.writeInt(element.getId());
+            out.writeLong(element.getHash());
+            out.writeInt(expr.length);
+            out.write(expr);
+            position += recordSize;
+        } catch ( IOException ioe ){
+            throw new IllegalStateException("Cannot write record to " + output, ioe);
+        }
+    }
+
+    private static boolean sameExpression(MappedFileBuffer buffer, long recordA, long recordB){
+        int length = buffer.getInt(recordA + REC_LENGTH);
+        if ( length != buffer.getInt(recordB + REC_LENGTH) ) return false;
+        for ( int i = 0; i < length; i++ ){
+            if ( buffer.get(recordA + RECORD_HEADER_SIZE + i) != buffer.get(recordB + RECORD_HEADER_SIZE + i) )
+                return false;
+        }
+        return true;
+    }
+
+    public static void main(String[] args) throws IOException {
+        long start = System.currentTimeMillis();
+        TFIDFConfig config = new TFIDFConfig();
+
+        // parse config
+        JCommander jcommander = JCommander
+                .newBuilder()
+                .addObject(config)
+                .build();
+
+        jcommander.parse(args);
+
+        if (config.isHelp() || config.getOutputF().isEmpty()){
+            jcommander.usage();
+            return;
+        }
+
+        BinaryDictionaryBuilder builder = new BinaryDictionaryBuilder(
+                Paths.get(config.getDataset()),
+                Paths.get(config.getOutputF())
+        );
+        builder.build();
+
+        long stop = System.currentTimeMillis() - start;
+        LOG.info("Time Elapsed: " + stop + "ms");
+        System.out.println("Done");
+
+        String format = String.format("%02d:%02d",
+                TimeUnit.MILLISECONDS.toMinutes(stop),
+                TimeUnit.MILLISECONDS.toSeconds(stop)%60
+        );
+        System.out.println("Time Elapsed: " + format);
+    }
+}
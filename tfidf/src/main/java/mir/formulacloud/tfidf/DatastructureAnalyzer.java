@@ -8,6 +8,7 @@ import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collection;
 import java.util.HashMap;
@@ -26,6 +27,7 @@ public class DatastructureAnalyzer {
     private HashMap<String, BaseXServerInstances> basexServers;
     private HashMap<String, String> fileMapping;
     private HashMap<String, LinkedList<String>> groupedFileMapping;
+    private HashMap<String, Path> filePaths;
 
     private int numFiles;
 
@@ -34,6 +36,7 @@ public class DatastructureAnalyzer {
         this.basexServers = new HashMap<>();
         this.fileMapping = new HashMap<>();
         this.groupedFileMapping = new HashMap<>();
+        this.filePaths = new HashMap<>();
     }
 
     public int init() throws IOException {
@@ -57,16 +60,34 @@ public class DatastructureAnalyzer {
                     String fileName = FilenameUtils.removeExtension(p.getFileName().toString());
                     String folderName = p.getParent().getFileName().toString();
                     fileMapping.put(fileName, folderName);
+                    filePaths.put(fileName, p);
                     groupedFileMapping.get(folderName).push(fileName);
                 });
 
         LOG.info("Done collecting the files. Start init flink plan.");
         numFiles = fileMapping.keySet().size();
         LOG.info("Total number of files: " + numFiles);
-        BaseXController.initBaseXServers(basexServers, fileMapping, config);
+        if ( config.isExtractLocally() ) LOG.info("Extract math locally. Do not start BaseX servers.");
+        else BaseXController.initBaseXServers(basexServers, fileMapping, config);
         return numFiles;
     }
 
+    /**
+     * @param docID the document (file name without extension)
+     * @return the harvest file of the document or null
+     */
+    public Path getPath(String docID){
+        return filePaths.get(docID);
+    }
+
+    /**
+     * @param docID the document (file name without extension)
+     * @return the database (folder) of the document or null
+     */
+    public String getDatabase(String docID){
+        return fileMapping.get(docID);
+    }
+
     public LinkedList<String> getEvenProcessingOrder(){
         LinkedList<String> set = new LinkedList<>();
 
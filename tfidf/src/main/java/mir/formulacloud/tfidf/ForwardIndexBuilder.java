@@ -0,0 +1,209 @@
+package mir.formulacloud.tfidf;
+
+import com.beust.jcommander.JCommander;
+import mir.formulacloud.beans.Document;
+import mir.formulacloud.beans.MathVector;
+import mir.formulacloud.util.Constants;
+import mir.formulacloud.util.ExpressionCodec;
+import mir.formulacloud.util.ForwardIndex;
+import mir.formulacloud.util.MappedFileBuffer;
+import mir.formulacloud.util.TFIDFConfig;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static mir.formulacloud.util.ForwardIndex.*;
+
+/**
+ * Converts the output folder of the {@link Splitter} (one folder per database with
+ * one file per document) into a single {@link ForwardIndex} file.
+ *
+ * Use -in to specify the output folder of the splitter, -out for the index file and
+ * -minTF for the minimum term frequency the splitter used.
+ *
+ * @author Andre Greiner-Petter
+ */
+public class ForwardIndexBuilder {
+    private static final Logger LOG = LogManager.getLogger(ForwardIndexBuilder.class.getName());
+
+    private final Path input;
+    private final Path output;
+    private final int minTermFrequency;
+
+    private long position;
+    private ExpressionCodec codec;
+
+    private final ArrayList<String> databases = new ArrayList<>();
+    private final ArrayList<String> docIDs = new ArrayList<>();
+    private final ArrayList<Long> offsets = new ArrayList<>();
+    private final ArrayList<Integer> lengths = new ArrayList<>();
+
+    public ForwardIndexBuilder(Path input, Path output, int minTermFrequency) {
+        this.input = input;
+        this.output = output;
+        this.minTermFrequency = minTermFrequency;
+    }
+
+    public void build() throws IOException {
+        List<Path> files;
+        try ( Stream<Path> walk = Files.walk(input) ){
+            files = walk
+                    .filter( Files::isRegularFile )
+                    .filter( p -> !p.getFileName().toString().equals(Constants.DICTIONARY_FILE) )
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+
+        LOG.info("Write data section of " + output + " for " + files.size() + " documents.");
+        Files.deleteIfExists(output);
+        codec = new ExpressionCodec();
+        position = HEADER_SIZE;
+
+        long vocabOffset, directoryOffset;
+        int vocabSize;
+        try ( DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(output), 1 << 20)) ){
+            out.write(new byte[HEADER_SIZE]);
+            for ( Path p : files ){
+                // the splitter writes <out>/<db>/<docID>
+                String db = input.relativize(p).getNameCount() > 1 ? p.getParent().getFileName().toString() : "";
+                writeRecord(out, db, p.getFileName().toString(), toMathVector(Document.parseDocument(p)));
+                if ( docIDs.size() % 100_000 == 0 )
+                    LOG.info("Added documents to forward index [#" + docIDs.size() + "]");
+            }
+
+            vocabOffset = position;
+            ArrayList<String> vocabulary = codec.getVocabulary();
+            vocabSize = vocabulary.size();
+            for ( String leaf : vocabulary ){
+                position += writeString(out, leaf);
+            }
+            LOG.info("Encoded expressions with " + vocabulary.size() + " distinct leaf texts.");
+
+            directoryOffset = position;
+            for ( int i = 0; i < docIDs.size(); i++ ){
+                position += writeString(out, databases.get(i));
+                position += writeString(out, docIDs.get(i));
+                out.writeLong(offsets.get(i));
+                out.writeInt(lengths.get(i));
+                position += 12;
+            }
+        }
+
+        try ( MappedFileBuffer buffer = MappedFileBuffer.openReadWrite(output, position) ){
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(POS_DOCUMENTS, docIDs.size());
+            buffer.putLong(POS_DIRECTORY_OFFSET, directoryOffset);
+            buffer.putLong(POS_VOCAB_OFFSET, vocabOffset);
+            buffer.putLong(POS_VOCAB_SIZE, vocabSize);
+            buffer.putInt(POS_MIN_TF, minTermFrequency);
+        }
+
+        LOG.info("Finished forward index " + output + " [#" + docIDs.size() + "; Size: " + position/Math.pow(1024,2) + " MB]");
+    }
+
+    private static MathVector toMathVector(Document doc){
+        LinkedList<String> expressions = doc.getExpressions();
+        LinkedList<Short> depths = doc.getDepths();
+        LinkedList<Short> frequencies = doc.getTermFrequencies();
+
+        int n = expressions.size();
+        String[] e = expressions.toArray(new String[n]);
+        short[] d = new short[n];
+        int[] f = new int[n];
+        int i = 0;
+        for ( Short depth : depths ) d[i++] = depth;
+        i = 0;
+        for ( Short frequency : frequencies ) f[i++] = frequency;
+        return new MathVector(e, d, f);
+    }
+
+    private void writeRecord(DataOutputStream out, String db, String docID, MathVector vector) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(bytes);
+        int[] maxPerDepth = vector.getMaxFrequencyPerDepth();
+        record.writeInt(vector.size());
+        record.writeInt(vector.getDocumentLength());
+        record.writeInt(maxPerDepth.length);
+        for ( int max : maxPerDepth ) record.writeInt(max);
+        for ( int i = 0; i < vector.size(); i++ ){
+            byte[] expr = codec.encode(vector.getExpression(i));
+            record.writeShort(vector.getDepth(i));
+            record.writeInt(vector.getFrequency(i));
+            record.writeInt(expr.length);
+            record.write(expr);
+        }
+        record.flush();
+
+        int recordSize = bytes.size();
+        long remaining = MappedFileBuffer.remainingInSegment(position);
+        if ( remaining < recordSize ){
+            // records must not cross segments, skip the rest of this segment
+            out.write(new byte[(int)remaining]);
+            position += remaining;
+        }
+
+        databases.add(db);
+        docIDs.add(docID);
+        offsets.add(position);
+        lengths.add(recordSize);
+        bytes.writeTo(out);
+        position += recordSize;
+    }
+
+    private static int writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        return 4 + bytes.length;
+    }
+
+    public static void main(String[] args) throws IOException {
+        long start = System.currentTimeMillis();
+        TFIDFConfig config = new TFIDFConfig();
+
+        // parse config
+        JCommander jcommander = JCommander
+                .newBuilder()
+                .addObject(config)
+                .build();
+
+        jcommander.parse(args);
+
+        if (config.isHelp() || config.getOutputF().isEmpty()){
+            jcommander.usage();
+            return;
+        }
+
+        ForwardIndexBuilder builder = new ForwardIndexBuilder(
+                Paths.get(config.getDataset()),
+                Paths.get(config.getOutputF()),
+                config.getMinTermFrequency()
+        );
+        builder.build();
+
+        long stop = System.currentTimeMillis() - start;
+        LOG.info("Time Elapsed: " + stop + "ms");
+        System.out.println("Done");
+
+        String format = String.format("%02d:%02d",
+                TimeUnit.MILLISECONDS.toMinutes(stop),
+                TimeUnit.MILLISECONDS.toSeconds(stop)%60
+        );
+        System.out.println("Time Elapsed: " + format);
+    }
+}
@@ -2,6 +2,9 @@ package mir.formulacloud.tfidf;
 
 import com.beust.jcommander.JCommander;
 import mir.formulacloud.beans.Document;
+import mir.formulacloud.util.Constants;
+import mir.formulacloud.util.ExpressionDictionary;
+import mir.formulacloud.util.SubtreeExtractor;
 import mir.formulacloud.util.TFIDFConfig;
 import mir.formulacloud.util.XQueryLoader;
 import org.apache.flink.api.common.functions.FilterFunction;
@@ -15,9 +18,14 @@ import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
 import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 /**
  * @author Andre Greiner-Petter
@@ -28,6 +36,9 @@ public class Splitter {
     private final TFIDFConfig config;
     private ExecutionEnvironment environment;
 
+    // knows the harvest files of the documents
+    private DatastructureAnalyzer dataAnalyzer;
+
     public static int NUM_OF_FILES = 0;
     public static int EMPTY_FILES = 0;
     public static int PROCESSED = 0;
@@ -41,8 +52,7 @@ public class Splitter {
 //        dump.addFirst("1000474.xml");
 //        return dump;
 
-        XQueryLoader.initMinTermFrequency(config.getMinTermFrequency());
-        DatastructureAnalyzer dataAnalyzer = new DatastructureAnalyzer(config);
+        dataAnalyzer = new DatastructureAnalyzer(config);
 
         try {
             NUM_OF_FILES = dataAnalyzer.init();
@@ -53,7 +63,7 @@ public class Splitter {
         }
     }
 
-    public void startProcessing(LinkedList<String> set) {
+    public void startProcessing(LinkedList<String> set) throws IOException {
 //        Configuration flinkConfig = GlobalConfiguration.loadConfiguration("conf");
 //        environment = ExecutionEnvironment.createLocalEnvironment(flinkConfig);
 
@@ -63,11 +73,33 @@ public class Splitter {
 
         Path basePath = Paths.get(config.getOutputF());
 
+        // expressions get global IDs, new IDs are appended to the dictionary file
+        // so previously written documents stay valid when the splitter is restarted
+        ExpressionDictionary dictionary = ExpressionDictionary.open(basePath.resolve(Constants.DICTIONARY_FILE));
+
+        Stream<Document> documents;
+        if ( config.isExtractLocally() ){
+            // the harvest files are read directly, there is nothing to batch
+            SubtreeExtractor extractor = new SubtreeExtractor(config.getMinTermFrequency());
+            LOG.info("Extract math of " + set.size() + " documents from the harvest files.");
+            documents = set
+                    .stream()
+                    .parallel()
+                    .map( id -> BaseXRequestMapper.extractDocument(
+                            id, dataAnalyzer.getDatabase(id), dataAnalyzer.getPath(id), extractor, basePath, dictionary
+                    ));
+        } else {
+            // documents of the same database are requested by one query
+            List<List<String>> batches = createBatches(set, config.getBatchSize());
+            LOG.info("Request " + set.size() + " documents by " + batches.size() + " queries.");
+            documents = batches
+                    .stream()
+                    .parallel()
+                    .flatMap( b -> BaseXRequestMapper.getDocuments(b, config.getMinTermFrequency(), basePath, dictionary).stream() );
+        }
+
         outerPool.submit(
-                () -> set
-                        .stream()
-                        .parallel()
-                        .map( f -> BaseXRequestMapper.getDocument(f, basePath) )
+                () -> documents
                         .filter( d -> !d.isNull() )
                         .forEach( doc -> {
                             Path outF = basePath.resolve(doc.getDB() + "/");
@@ -81,6 +113,8 @@ public class Splitter {
                             }
                             outF = outF.resolve(doc.getFilename());
                             try {
+                                // the document must not refer to IDs that are not persisted yet
+                                dictionary.flush();
                                 LOG.info("Writing " + doc.getDB() + "/" + doc.getFilename());
                                 Files.write(outF, doc.toString().getBytes(), StandardOpenOption.CREATE);
                                 LOG.debug("Finished writing " + doc.getDB() + "/" + doc.getFilename());
@@ -97,6 +131,38 @@ public class Splitter {
             LOG.fatal("Cannot stop processing...", e);
             e.printStackTrace();
         }
+
+        dictionary.close();
+        LOG.info("Expression dictionary contains " + dictionary.size() + " expressions.");
+    }
+
+    /**
+     * Groups the documents by their databases into batches of the given size. The batches keep the
+     * processing order of their documents, i.e., a batch is listed once its first document is reached.
+     * @param docIDs the documents in processing order
+     * @param batchSize maximum number of documents per batch
+     * @return the batches, all documents of a batch belong to the same database
+     */
+    public static List<List<String>> createBatches(List<String> docIDs, int batchSize){
+        List<List<String>> batches = new LinkedList<>();
+        HashMap<String, List<String>> openBatches = new HashMap<>();
+        for ( String docID : docIDs ){
+            String db = BaseXController.getDBFromDocID(docID);
+            if ( db == null ){
+                // no math, request it alone to keep track of empty files
+                batches.add(Collections.singletonList(docID));
+                continue;
+            }
+
+            List<String> batch = openBatches.get(db);
+            if ( batch == null || batch.size() >= batchSize ){
+                batch = new ArrayList<>(batchSize);
+                openBatches.put(db, batch);
+                batches.add(batch);
+            }
+            batch.add(docID);
+        }
+        return batches;
     }
 
     public static void update(){
@@ -138,6 +204,8 @@ public class Splitter {
             return;
         }
 
+        XQueryLoader.setDefaultExtractor(config.getTermExtractor());
+
         // create and init calculator
         Splitter splitter = new Splitter(config);
 
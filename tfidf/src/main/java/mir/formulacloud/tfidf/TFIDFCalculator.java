@@ -3,20 +3,33 @@ package mir.formulacloud.tfidf;
 import com.beust.jcommander.JCommander;
 import mir.formulacloud.beans.Document;
 import mir.formulacloud.beans.MathElement;
+import mir.formulacloud.util.CompactExpression;
+import mir.formulacloud.util.Constants;
+import mir.formulacloud.util.ExpressionDictionary;
+import mir.formulacloud.util.ExternalAggregator;
+import mir.formulacloud.util.IntObjectHashMap;
+import mir.formulacloud.util.PartitionedAggregator;
+import mir.formulacloud.util.SubtreeHash;
 import mir.formulacloud.util.TFIDFConfig;
 import org.apache.flink.api.java.ExecutionEnvironment;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.LinkedList;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collector;
 
 /**
  * @author Andre Greiner-Petter
@@ -28,6 +41,11 @@ public class TFIDFCalculator {
     private final TFIDFConfig config;
     private ExecutionEnvironment environment;
 
+    private ExpressionDictionary dictionary;
+
+    // elements that wait for the writers if the elements are aggregated externally
+    private static final int WRITING_QUEUE_CAPACITY = 100_000;
+
     public static int NUM_OF_FILES = 0;
     public static int PROCESSED = 0;
 
@@ -42,10 +60,14 @@ public class TFIDFCalculator {
                 .walk(Paths.get(config.getDataset()))
                 .sequential()
                 .filter( Files::isRegularFile )
+                .filter( p -> !p.getFileName().toString().equals(Constants.DICTIONARY_FILE) )
                 .forEach( files::add );
 
         NUM_OF_FILES = files.size();
 
+        // documents of older splitter runs do not contain IDs, those get new IDs in this dictionary
+        dictionary = ExpressionDictionary.load(Paths.get(config.getDataset()).resolve(Constants.DICTIONARY_FILE));
+
         return files;
     }
 
@@ -53,11 +75,20 @@ public class TFIDFCalculator {
      * Builds the execution plan for Flink.
      */
     public void execute(LinkedList<Path> set) throws Exception {
+        if ( config.isPartitionedAggregation() ){
+            if ( config.getAggregationMemory() > 0 )
+                LOG.warn("The partitioned aggregation ignores the memory budget of -aggMem.");
+            executePartitioned(set);
+            return;
+        }
 
         ForkJoinPool outerPool = new ForkJoinPool(config.getParallelism());
         ForkJoinPool writingPool = new ForkJoinPool(config.getNumOfOutputFiles());
 
-        BlockingQueue<MathElement> writingQueue = new LinkedBlockingQueue<>();
+        // the external aggregation must not buffer all elements in the writing queue instead
+        BlockingQueue<MathElement> writingQueue = config.getAggregationMemory() > 0 ?
+                new LinkedBlockingQueue<>(WRITING_QUEUE_CAPACITY) :
+                new LinkedBlockingQueue<>();
         Path outputBase = Paths.get(config.getOutputF());
 
         if ( Files.notExists(outputBase) ){
@@ -73,25 +104,38 @@ public class TFIDFCalculator {
         }
 
         LOG.info("Start processing...");
-        outerPool.submit(
+        Future<?> processing = outerPool.submit(
                 () -> {
+                    if ( config.getAggregationMemory() > 0 ){
+                        aggregateExternally(set, writingQueue);
+                        return;
+                    }
                     set.parallelStream()
                             .flatMap( path -> {
                                 LinkedList<MathElement> elements = new LinkedList<>();
                                 LOG.info("Load file " + path.toString());
-                                Document doc = Document.parseDocument(path);
+                                // expressions are resolved by the dictionary when the elements are written
+                                Document doc = Document.parseDocument(path, false);
 
                                 LinkedList<String> expressions = doc.getExpressions();
                                 LinkedList<Short> freqs = doc.getTermFrequencies();
                                 LinkedList<Short> depths = doc.getDepths();
+                                LinkedList<Integer> ids = doc.getIDs();
+                                LinkedList<Long> hashes = doc.getHashes();
                                 int counter = 0;
 
                                 while ( !expressions.isEmpty() ){
+                                    String expr = expressions.pop();
+                                    int id = ids.pop();
+                                    long hash = hashes.pop();
+                                    if ( id < 0 && hash == SubtreeHash.UNKNOWN ) hash = SubtreeHash.of(expr);
                                     MathElement entry = new MathElement(
-                                            expressions.pop(),
+                                            null,
                                             depths.pop(),
                                             (int)freqs.pop(),
-                                            1
+                                            1,
+                                            id >= 0 ? id : dictionary.getOrAssign(hash, expr),
+                                            hash
                                     );
 
                                     elements.add(entry);
@@ -104,28 +148,27 @@ public class TFIDFCalculator {
                                 TFIDFCalculator.update();
                                 return elements.stream();
                             })
-                            .collect(
-                                    Collectors.groupingBy(
-                                        MathElement::getExpression,
-                                        Collectors.reducing( MathElement::add )
-                                    )
-                            ).values().forEach( opt -> {
-                                if ( opt.isPresent() ){
-                                    writingQueue.add(opt.get());
-                                    update(writingQueue.size());
-                                }
-                            });
+                            .collect( groupByID() )
+                            .forEach( (id, element) -> enqueue(element, writingQueue) );
                 }
         );
 
         outerPool.shutdown();
-        outerPool.awaitTermination(42, TimeUnit.HOURS);
+        try {
+            processing.get(42, TimeUnit.HOURS);
+        } catch ( ExecutionException | TimeoutException e ){
+            // the stop signals would let the writers finish incomplete output files
+            LOG.fatal("Cannot aggregate the math elements. Stop writers.", e);
+            writingPool.shutdownNow();
+            outerPool.shutdownNow();
+            throw e;
+        }
 
         LOG.info("Finished filling up writing queues. Inform writers.");
         for ( int i = 1; i <= config.getNumOfOutputFiles(); i++ ){
             MathElement stopper = new MathElement();
             stopper.markAsStopper();
-            writingQueue.add(stopper);
+            writingQueue.put(stopper);
         }
 
         LOG.info("Await termination of writing process.");
@@ -155,6 +198,167 @@ public class TFIDFCalculator {
 //        LOG.info("Done planning Flink schedule.");
     }
 
+    /**
+     * Aggregates the math elements within the memory budget of {@link TFIDFConfig#getAggregationMemory()}.
+     * The documents are still read in parallel, the elements are buffered, sorted and spilled as runs to
+     * the spill directory. Finally, the runs are merged and the elements are written in the order of their IDs.
+     * @throws UncheckedIOException if the runs cannot be spilled or merged
+     */
+    private void aggregateExternally(LinkedList<Path> set, BlockingQueue<MathElement> writingQueue) {
+        long budget = config.getAggregationMemory() * 1024L * 1024L;
+        try ( ExternalAggregator aggregator = new ExternalAggregator(Paths.get(config.getSpillDirectory()), budget) ){
+            set.parallelStream().forEach( path -> loadDocument(path, (ids, depths, tfs, dfs, hashes, n) -> {
+                try {
+                    aggregator.add(ids, depths, tfs, dfs, hashes, n);
+                } catch ( IOException ioe ){
+                    throw new UncheckedIOException(ioe);
+                }
+            }));
+
+            long elements = aggregator.merge( element -> enqueue(element, writingQueue) );
+            LOG.info("Merged " + elements + " math elements from " + aggregator.getNumberOfRuns() + " runs.");
+        } catch ( IOException ioe ){
+            throw new UncheckedIOException("Cannot aggregate math elements in " + config.getSpillDirectory(), ioe);
+        }
+    }
+
+    /**
+     * Aggregates the math elements in {@link TFIDFConfig#getNumOfOutputFiles()} hash partitions
+     * (see {@link PartitionedAggregator}). Every partition is written by its own thread to its own output
+     * file, i.e., the file <code>i</code> contains all elements of the partition <code>i-1</code>.
+     */
+    private void executePartitioned(LinkedList<Path> set) throws Exception {
+        Path outputBase = Paths.get(config.getOutputF());
+        if ( Files.notExists(outputBase) ){
+            LOG.error("Output directory does not exist.");
+            return;
+        }
+
+        ForkJoinPool outerPool = new ForkJoinPool(config.getParallelism());
+        try ( PartitionedAggregator aggregator = new PartitionedAggregator(config.getNumOfOutputFiles()) ){
+            LOG.info("Start processing...");
+            outerPool.submit(
+                    () -> set.parallelStream().forEach( path -> loadDocument(path, (ids, depths, tfs, dfs, hashes, n) -> {
+                        try {
+                            aggregator.add(ids, depths, tfs, dfs, hashes, n);
+                        } catch ( InterruptedException ie ){
+                            Thread.currentThread().interrupt();
+                            throw new IllegalStateException("Interrupted while waiting for the partitions.", ie);
+                        }
+                    }))
+            ).get();
+            outerPool.shutdown();
+
+            LOG.info("Finished reading documents. Write partitions.");
+            aggregator.finish( (partition, elements) -> {
+                Path outF = outputBase.resolve((partition+1)+"");
+                try ( BufferedWriter writer = Files.newBufferedWriter(outF) ){
+                    for ( MathElement element : elements.values() ){
+                        if ( !resolve(element) ) continue;
+                        writer.write(element.toString());
+                        writer.newLine();
+                    }
+                }
+                LOG.info("Written partition " + partition + " to " + outF.toString());
+            });
+        } finally {
+            outerPool.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads the math elements of a document into primitive arrays. Elements without IDs (older splitter runs)
+     * get their IDs from the dictionary.
+     */
+    private void loadDocument(Path path, ElementsConsumer consumer) {
+        LOG.info("Load file " + path.toString());
+        Document doc = Document.parseDocument(path, false);
+
+        int n = doc.getExpressions().size();
+        int[] ids = new int[n];
+        short[] depths = new short[n];
+        int[] tfs = new int[n];
+        int[] dfs = new int[n];
+        long[] hashes = new long[n];
+        for ( int i = 0; i < n; i++ ){
+            String expr = doc.getExpressions().pop();
+            int id = doc.getIDs().pop();
+            long hash = doc.getHashes().pop();
+            if ( hash == SubtreeHash.UNKNOWN ) hash = hashOf(id, expr);
+            ids[i] = id >= 0 ? id : dictionary.getOrAssign(hash, expr);
+            depths[i] = doc.getDepths().pop();
+            tfs[i] = doc.getTermFrequencies().pop();
+            dfs[i] = 1;
+            hashes[i] = hash;
+        }
+
+        consumer.accept(ids, depths, tfs, dfs, hashes, n);
+        LOG.info("Successfully extracted " + n + " lines from " + path.toString());
+
+        TFIDFCalculator.PROCESSED++;
+        TFIDFCalculator.update();
+    }
+
+    /**
+     * Hashes elements of documents without hash columns. The partitions depend on the hashes,
+     * so elements with IDs get the hash of their expression in the dictionary.
+     */
+    private long hashOf(int id, String expr) {
+        if ( id < 0 ) return SubtreeHash.of(expr);
+        CompactExpression compact = dictionary.getCompactExpression(id);
+        return compact == null ? SubtreeHash.UNKNOWN : SubtreeHash.of(compact.toString());
+    }
+
+    @FunctionalInterface
+    private interface ElementsConsumer {
+        void accept(int[] ids, short[] depths, int[] tfs, int[] dfs, long[] hashes, int n);
+    }
+
+    /**
+     * Adds the expression of the element from the dictionary and hands it to the writers.
+     */
+    private void enqueue(MathElement element, BlockingQueue<MathElement> writingQueue) {
+        if ( !resolve(element) ) return;
+        try {
+            writingQueue.put(element);
+        } catch ( InterruptedException ie ){
+            Thread.currentThread().interrupt();
+            LOG.error("Interrupted while waiting for the writers.");
+            return;
+        }
+        update(writingQueue.size());
+    }
+
+    /**
+     * Adds the expression of the element from the dictionary.
+     * @return false if the dictionary does not know the ID of the element
+     */
+    private boolean resolve(MathElement element) {
+        // the compact expression is decoded when the element is printed
+        CompactExpression expr = dictionary.getCompactExpression(element.getId());
+        if ( expr == null ){
+            LOG.error("Unknown expression ID " + element.getId() + ". The expression dictionary does not fit to the documents.");
+            return false;
+        }
+        element.setCompactExpression(expr);
+        // documents of older splitter runs have IDs but no hashes
+        if ( element.getHash() == SubtreeHash.UNKNOWN )
+            element.setHash(SubtreeHash.of(expr.toString()));
+        return true;
+    }
+
+    /**
+     * Groups math elements by their IDs in primitive int maps. Each thread fills its own
+     * map and the maps are merged afterwards.
+     */
+    private static Collector<MathElement, ?, IntObjectHashMap<MathElement>> groupByID(){
+        return Collector.of(
+                IntObjectHashMap::new,
+                (map, element) -> map.merge(element.getId(), element, MathElement::add),
+                (left, right) -> left.mergeAll(right, MathElement::add)
+        );
+    }
+
 //    public void execute() throws Exception {
 //        LOG.info("Done! Trigger Flink execution. Write files to specified output.");
 //        environment.execute();
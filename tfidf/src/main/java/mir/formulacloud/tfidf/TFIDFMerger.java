@@ -2,7 +2,9 @@ package mir.formulacloud.tfidf;
 
 import com.beust.jcommander.JCommander;
 import mir.formulacloud.beans.MathElement;
+import mir.formulacloud.util.CompactExpression;
 import mir.formulacloud.util.TFIDFConfig;
+import mir.formulacloud.util.TFIDFTableParser;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -12,9 +14,9 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -27,11 +29,15 @@ public class TFIDFMerger {
     private static final Logger LOG = LogManager.getLogger(TFIDFMerger.class.getName());
 
     private TFIDFConfig config;
-    private volatile HashMap<String, MathElement> memory;
+    // keys are the hashes of the expressions (see SubtreeHash), the elements are compacted
+    private volatile ConcurrentHashMap<Long, MathElement> memory;
+    // elements that have the same hash as another element of the memory, usually empty
+    private final ConcurrentHashMap<CompactExpression, MathElement> collisions;
 
     private TFIDFMerger(TFIDFConfig config) {
         this.config = config;
-        memory = new HashMap<>();
+        memory = new ConcurrentHashMap<>();
+        collisions = new ConcurrentHashMap<>();
 
         if ( Files.notExists(Paths.get(config.getOutputF())) ){
             LOG.error("Output directory does not exist.");
@@ -41,43 +47,90 @@ public class TFIDFMerger {
 
     public void loadRef(LinkedList<Path> files) {
         LOG.info("Loading reference to cache.");
-        // get reference
-        for ( Path p : files ){
-            try (Stream<String> lines = Files.lines(p)) {
-                loadToCache(lines).forEach( e -> memory.put( e.getExpression(), e ));
-                double heapSize = Runtime.getRuntime().totalMemory()/Math.pow(1024,2);
-                LOG.info("Loaded TF-IDF math elements from " + p.toString() + " [#" + memory.size() + "; Mem: "+heapSize+" MB]");
-            } catch ( IOException ioe ) {
-                LOG.fatal("Cannot read TF-IDF file " + p);
-                return;
-            }
-        }
-
-        LOG.info("Finished loading references.");
+        // get reference, all files in parallel
+        boolean success = files.parallelStream()
+                .allMatch( p -> {
+                    try {
+                        new TFIDFTableParser().parse(
+                                p,
+                                (expr, depth, tf, df, id, hash) -> {
+                                    MathElement element = new MathElement(expr, depth, tf, df, id, hash).compact();
+                                    memory.merge(hash, element, (old, e) -> resolve(old, e, false));
+                                }
+                        );
+                        double heapSize = Runtime.getRuntime().totalMemory()/Math.pow(1024,2);
+                        LOG.info("Loaded TF-IDF math elements from " + p.toString() + " [#" + memory.size() + "; Mem: "+heapSize+" MB]");
+                        return true;
+                    } catch ( IOException ioe ) {
+                        LOG.fatal("Cannot read TF-IDF file " + p);
+                        return false;
+                    }
+                });
+
+        if ( success ) LOG.info("Finished loading references.");
     }
 
     public void merge(LinkedList<Path> files) {
         LOG.info("Reference loaded. Start merging.");
-        for ( Path m : files ) {
-            LOG.info("Loading " + m.toString());
-            try ( Stream<String> lines = Files.lines(m) ) {
-                loadToCache(lines)
-                        .forEach( element -> {
-                            MathElement refEl = memory.get(element.getExpression());
-                            if ( refEl == null ) { // new element, just grow memory
-                                memory.put(element.getExpression(), element);
-                            } else { // otherwise, update element
-                                refEl.add(element);
-                            }
-                        });
-                double heapSize = Runtime.getRuntime().totalMemory()/Math.pow(1024,2);
-                LOG.info("Merged TF-IDF math elements from " + m.toString() + " [#" + memory.size() + "; Mem: "+heapSize+" MB]");
-            } catch (IOException ioe) {
-                LOG.fatal("Cannot read merging files " + m + "; Continue with other files.");
+        files.parallelStream()
+                .forEach( m -> {
+                    LOG.info("Loading " + m.toString());
+                    try {
+                        // merge is atomic per key: new elements just grow memory, otherwise update element.
+                        // IDs of the merged tables are not related to the reference, new expressions get IDs later
+                        new TFIDFTableParser().parse(
+                                m,
+                                (expr, depth, tf, df, id, hash) -> {
+                                    MathElement element = new MathElement(expr, depth, tf, df, -1, hash).compact();
+                                    memory.merge(hash, element, (old, e) -> resolve(old, e, true));
+                                }
+                        );
+                        double heapSize = Runtime.getRuntime().totalMemory()/Math.pow(1024,2);
+                        LOG.info("Merged TF-IDF math elements from " + m.toString() + " [#" + memory.size() + "; Mem: "+heapSize+" MB]");
+                    } catch (IOException ioe) {
+                        LOG.fatal("Cannot read merging files " + m + "; Continue with other files.");
+                    }
+                });
+
+        assignIDs();
+        LOG.info("Done, succesffully merged all files into one mapping.");
+    }
+
+    /**
+     * Called for two elements with the same hash. Elements of different expressions are kept in the
+     * collisions map. Otherwise, the element of the reference is replaced or both elements are added.
+     * @return the element that stays in the memory
+     */
+    private MathElement resolve(MathElement old, MathElement element, boolean add) {
+        if ( old.getCompactExpression().equals(element.getCompactExpression()) )
+            return add ? old.add(element) : element;
+
+        if ( add ) collisions.merge(element.getCompactExpression(), element, MathElement::add);
+        else collisions.put(element.getCompactExpression(), element);
+        LOG.debug("Hash collision of the expressions " + old.getExpression() + " and " + element.getExpression());
+        return old;
+    }
+
+    /**
+     * Expressions of the reference keep their IDs. All other expressions get new IDs
+     * after the highest ID of the reference.
+     */
+    private void assignIDs() {
+        int nextID = Stream.concat(memory.values().stream(), collisions.values().stream())
+                .mapToInt(MathElement::getId)
+                .max()
+                .orElse(-1) + 1;
+
+        int counter = 0;
+        for ( MathElement e : (Iterable<MathElement>) Stream.concat(memory.values().stream(), collisions.values().stream())::iterator ){
+            if ( e.getId() < 0 ){
+                e.setId(nextID++);
+                counter++;
             }
         }
-
-        LOG.info("Done, succesffully merged all files into one mapping.");
+        LOG.info("Assigned IDs to " + counter + " new expressions.");
+        if ( !collisions.isEmpty() )
+            LOG.warn("Found " + collisions.size() + " expressions with the same hash as another expression.");
     }
 
     public void storeMemory() throws IOException {
@@ -92,8 +145,7 @@ public class TFIDFMerger {
             writerPool.submit( writer );
         }
 
-        memory.values()
-                .parallelStream()
+        Stream.concat(memory.values().parallelStream(), collisions.values().parallelStream())
                 .forEach( writingQueue::add );
 
         for ( int i = 1; i <= config.getNumOfOutputFiles(); i++ ){
@@ -112,24 +164,6 @@ public class TFIDFMerger {
         }
     }
 
-    private Stream<MathElement> loadToCache(Stream<String> lines) {
-        return lines.map( l -> l.split(";(?=(\"[^\"]*\")*[^\"]*$)") )
-                .map( TFIDFMerger::stripParentheses )
-                .map( arr -> new MathElement(
-                        arr[0],
-                        Short.parseShort(arr[1]),
-                        Integer.parseInt(arr[2]),
-                        Integer.parseInt(arr[3])
-                ));
-    }
-
-    private static String[] stripParentheses(String[] a){
-        for(int i = 0; i<a.length; i++)
-            if(a[i].startsWith("\""))
-                a[i] = a[i].substring(1,a[i].length()-1);
-        return a;
-    }
-
     public static void main(String[] args) throws IOException {
         long start = System.currentTimeMillis();
         TFIDFConfig config = new TFIDFConfig();
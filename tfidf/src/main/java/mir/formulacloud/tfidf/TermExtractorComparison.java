@@ -0,0 +1,165 @@
+package mir.formulacloud.tfidf;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.formulasearchengine.mathosphere.basex.BaseXClient;
+import mir.formulacloud.util.Constants;
+import mir.formulacloud.util.XQueryLoader;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the term extraction scripts ({@link XQueryLoader.Extractor}) on a running BaseX database.
+ * The terms of every document are extracted by all scripts (alternating the order of the scripts),
+ * the results are compared and the times per script are reported.
+ *
+ * Use -db to specify the database and -docs for the number of documents.
+ *
+ * @author Andre Greiner-Petter
+ */
+public class TermExtractorComparison {
+    private static final Logger LOG = LogManager.getLogger(TermExtractorComparison.class.getName());
+
+    private static final String DOC_IDS =
+            "XQUERY declare namespace mws = \"http://search.mathweb.org/ns\";\n" +
+            "(/mws:harvest/@data-doc-id/string())[position() <= %d]";
+
+    @Parameter(names = {"-host", "--basexhost"}, description = "Host of the BaseX server (default is localhost).")
+    private String host = "localhost";
+
+    @Parameter(names = {"-port", "--basexport"}, description = "Port of the BaseX server (default is 1984).")
+    private int port = 1984;
+
+    @Parameter(names = {"-db", "--database"}, description = "The database of the sample documents.", required = true)
+    private String database = "";
+
+    @Parameter(names = {"-docs", "--documents"}, description = "Number of documents of the database that are extracted (default is 100).")
+    private int documents = 100;
+
+    @Parameter(names = {"-warmup", "--warmupDocuments"}, description = "Number of documents that are extracted before the measurement (default is 10).")
+    private int warmup = 10;
+
+    @Parameter(names = {"-minTF", "--minTermFrequency"}, description = "Set the minimum term frequency per document (default is 1).")
+    private int minTermFrequency = 1;
+
+    @Parameter(names = {"-h", "--help"}, help = true)
+    private boolean help = false;
+
+    private final EnumMap<XQueryLoader.Extractor, long[]> nanos = new EnumMap<>(XQueryLoader.Extractor.class);
+
+    private int mismatches = 0;
+
+    public TermExtractorComparison(){}
+
+    public void run() throws IOException {
+        BaseXClient client = new BaseXClient(host, port, "admin", "admin");
+        try {
+            client.execute("OPEN " + database);
+            List<String> ids = Arrays.stream(client.execute(String.format(DOC_IDS, documents + warmup)).split("[\\r\\n]+"))
+                    .filter( id -> !id.isEmpty() )
+                    .collect(Collectors.toList());
+            LOG.info("Compare term extraction scripts on " + ids.size() + " documents of " + database);
+
+            for ( XQueryLoader.Extractor extractor : XQueryLoader.Extractor.values() )
+                nanos.put(extractor, new long[Math.max(0, ids.size() - warmup)]);
+
+            XQueryLoader.Extractor[] extractors = XQueryLoader.Extractor.values();
+            for ( int i = 0; i < ids.size(); i++ ){
+                String docID = ids.get(i);
+                Map<String, String> reference = null;
+                for ( int j = 0; j < extractors.length; j++ ){
+                    // alternate the order, so that no script profits from the caches of BaseX
+                    XQueryLoader.Extractor extractor = extractors[(i + j) % extractors.length];
+                    long start = System.nanoTime();
+                    String results = client.execute("XQUERY " + XQueryLoader.getScript(docID, minTermFrequency, extractor));
+                    long time = System.nanoTime() - start;
+                    if ( i >= warmup ) nanos.get(extractor)[i - warmup] = time;
+
+                    Map<String, String> terms = parse(results);
+                    if ( reference == null ) reference = terms;
+                    else if ( !reference.equals(terms) ){
+                        mismatches++;
+                        LOG.warn("Scripts extract different terms from " + docID);
+                    }
+                }
+            }
+        } finally {
+            client.close();
+        }
+    }
+
+    /**
+     * @return the depth and frequency by expression, the order of the terms does not matter
+     */
+    private static Map<String, String> parse(String results){
+        HashMap<String, String> terms = new HashMap<>();
+        Matcher matcher = Constants.BASEX_ELEMENT_PATTERN.matcher(results);
+        while ( matcher.find() ){
+            terms.put(
+                    matcher.group(Constants.BX_IDX_EXPR),
+                    matcher.group(Constants.BX_IDX_DEPTH) + ";" + matcher.group(Constants.BX_IDX_FREQ)
+            );
+        }
+        return terms;
+    }
+
+    public int getMismatches(){
+        return mismatches;
+    }
+
+    @Override
+    public String toString(){
+        StringBuilder sb = new StringBuilder();
+        long defaultTotal = total(nanos.get(XQueryLoader.Extractor.DEFAULT));
+        for ( Map.Entry<XQueryLoader.Extractor, long[]> e : nanos.entrySet() ){
+            long[] times = e.getValue().clone();
+            Arrays.sort(times);
+            long total = total(times);
+            sb.append(String.format(
+                    "%-9s total: %8d ms; mean: %8.2f ms; median: %8.2f ms; max: %8.2f ms; speedup: %.2fx%n",
+                    e.getKey(),
+                    TimeUnit.NANOSECONDS.toMillis(total),
+                    times.length == 0 ? 0 : total / (double) times.length / 1e6,
+                    times.length == 0 ? 0 : times[times.length / 2] / 1e6,
+                    times.length == 0 ? 0 : times[times.length - 1] / 1e6,
+                    total == 0 ? 0 : defaultTotal / (double) total
+            ));
+        }
+        sb.append("Documents with different terms: ").append(mismatches);
+        return sb.toString();
+    }
+
+    private static long total(long[] times){
+        long total = 0;
+        for ( long t : times ) total += t;
+        return total;
+    }
+
+    public static void main(String[] args) throws IOException {
+        TermExtractorComparison comparison = new TermExtractorComparison();
+        JCommander jcommander = JCommander
+                .newBuilder()
+                .addObject(comparison)
+                .build();
+        jcommander.parse(args);
+
+        if ( comparison.help ){
+            jcommander.usage();
+            return;
+        }
+
+        comparison.run();
+        System.out.println(comparison);
+        if ( comparison.getMismatches() > 0 ) System.exit(1);
+    }
+}
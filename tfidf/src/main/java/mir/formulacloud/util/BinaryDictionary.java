@@ -0,0 +1,244 @@
+package mir.formulacloud.util;
+
+import mir.formulacloud.beans.MathElement;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Read-only, memory mapped dictionary of the global TF-IDF math elements.
+ * The file is created by {@link mir.formulacloud.tfidf.BinaryDictionaryBuilder} and
+ * answers lookups directly from the mapped pages, so nothing but the requested
+ * elements is ever loaded to the heap.
+ *
+ * Layout of the file:
+ * <pre>
+ *   header  : magic (int), version (int), entries (long), data offset (long),
+ *             data end (long), index offset (long), buckets (long), ID table offset (long),
+ *             number of IDs (long), vocabulary offset (long), vocabulary size (long)
+ *   data    : records of depth (short), TF (int), DF (int), ID (int), hash (long), length (int), encoded expression
+ *   vocab   : leaf texts of the {@link ExpressionCodec} as length (int) and UTF-8 bytes
+ *   index   : open addressing hash table of buckets * ({@link SubtreeHash} (long), record offset (long))
+ *   IDs     : record offset (long) for each ID (0 if the ID does not exist)
+ * </pre>
+ * The expressions are encoded by an {@link ExpressionCodec} with the vocabulary of this file.
+ * Records never cross the border of a mapped segment. If a record does not fit in
+ * the rest of a segment, the writer marks the rest with {@link #PADDING} as depth
+ * and continues in the next segment.
+ *
+ * @author Andre Greiner-Petter
+ */
+public class BinaryDictionary implements Closeable {
+    private static final Logger LOG = LogManager.getLogger(BinaryDictionary.class.getName());
+
+    public static final int MAGIC = 0x46434454; // FCDT
+    public static final int VERSION = 4;
+
+    public static final int HEADER_SIZE = 128;
+    public static final int RECORD_HEADER_SIZE = 2 + 4 + 4 + 4 + 8 + 4;
+    public static final int BUCKET_SIZE = 16;
+    public static final short PADDING = -1;
+
+    public static final int POS_ENTRIES = 8;
+    public static final int POS_DATA_OFFSET = 16;
+    public static final int POS_DATA_END = 24;
+    public static final int POS_INDEX_OFFSET = 32;
+    public static final int POS_BUCKETS = 40;
+    public static final int POS_ID_OFFSET = 48;
+    public static final int POS_IDS = 56;
+    public static final int POS_VOCAB_OFFSET = 64;
+    public static final int POS_VOCAB_SIZE = 72;
+
+    // positions within a record
+    public static final int REC_DEPTH = 0;
+    public static final int REC_TF = 2;
+    public static final int REC_DF = 6;
+    public static final int REC_ID = 10;
+    public static final int REC_HASH = 14;
+    public static final int REC_LENGTH = 22;
+
+    private final MappedFileBuffer buffer;
+    private final long entries;
+    private final long dataOffset;
+    private final long dataEnd;
+    private final long indexOffset;
+    private final long bucketMask;
+    private final long idOffset;
+    private final long numberOfIDs;
+    private final ExpressionCodec codec;
+
+    private BinaryDictionary(MappedFileBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        int version = buffer.getInt(4);
+        if ( buffer.getInt(0) != MAGIC || version != VERSION ){
+            buffer.close();
+            throw new IOException("Unknown binary dictionary format (version " + version + ").");
+        }
+        this.entries = buffer.getLong(POS_ENTRIES);
+        this.dataOffset = buffer.getLong(POS_DATA_OFFSET);
+        this.dataEnd = buffer.getLong(POS_DATA_END);
+        this.indexOffset = buffer.getLong(POS_INDEX_OFFSET);
+        this.bucketMask = buffer.getLong(POS_BUCKETS) - 1;
+        this.idOffset = buffer.getLong(POS_ID_OFFSET);
+        this.numberOfIDs = buffer.getLong(POS_IDS);
+        this.codec = readVocabulary(buffer.getLong(POS_VOCAB_OFFSET), buffer.getLong(POS_VOCAB_SIZE));
+    }
+
+    private ExpressionCodec readVocabulary(long position, long size){
+        ExpressionCodec codec = new ExpressionCodec();
+        for ( long i = 0; i < size; i++ ){
+            // entries might cross segments, so read byte by byte
+            int length = 0;
+            for ( int j = 0; j < 4; j++ )
+                length = (length << 8) | (buffer.get(position++) & 0xff);
+            byte[] text = new byte[length];
+            for ( int j = 0; j < length; j++ )
+                text[j] = buffer.get(position++);
+            codec.internLeaf(new String(text, StandardCharsets.UTF_8));
+        }
+        return codec;
+    }
+
+    public static BinaryDictionary open(Path path) throws IOException {
+        BinaryDictionary dict = new BinaryDictionary(MappedFileBuffer.openReadOnly(path));
+        LOG.info("Mapped binary dictionary " + path + " [#" + dict.entries + "; Size: " + dict.buffer.size()/Math.pow(1024,2) + " MB]");
+        return dict;
+    }
+
+    /**
+     * @param path a file or directory
+     * @return true if the given path is a binary dictionary file
+     */
+    public static boolean isBinaryDictionary(Path path){
+        if ( !Files.isRegularFile(path) ) return false;
+        try ( InputStream in = Files.newInputStream(path) ){
+            return new DataInputStream(in).readInt() == MAGIC;
+        } catch ( IOException ioe ){
+            return false;
+        }
+    }
+
+    public long size() {
+        return entries;
+    }
+
+    public MathElement getMathElement(String expression){
+        return getMathElement(SubtreeHash.of(expression), expression);
+    }
+
+    /**
+     * @param hash the {@link SubtreeHash} of the expression
+     * @param expression the expression
+     * @return the element or null if the expression is not in this dictionary
+     */
+    public MathElement getMathElement(long hash, String expression){
+        // only encoded if the hash is found, to compare the expressions
+        byte[] expr = null;
+        long bucket = hash & bucketMask;
+
+        while ( true ){
+            long slot = indexOffset + bucket * BUCKET_SIZE;
+            long record = buffer.getLong(slot + 8);
+            if ( record == 0 ) return null;
+            if ( buffer.getLong(slot) == hash ){
+                if ( expr == null ) expr = codec.encodeIfKnown(expression);
+                if ( expr == null ) return null; // contains a leaf text that is not in this dictionary
+                if ( equalsExpression(record, expr) ) return readRecord(record, expression);
+            }
+            bucket = (bucket + 1) & bucketMask;
+        }
+    }
+
+    /**
+     * @param id global ID of the expression
+     * @return the element or null if the ID does not exist
+     */
+    public MathElement getMathElement(int id){
+        if ( id < 0 || id >= numberOfIDs ) return null;
+        long record = buffer.getLong(idOffset + (long)id * 8);
+        if ( record == 0 ) return null;
+        return readRecord(record, null);
+    }
+
+    private MathElement readRecord(long record, String expression){
+        if ( expression == null ){
+            int length = buffer.getInt(record + REC_LENGTH);
+            byte[] expr = new byte[length];
+            buffer.get(record + RECORD_HEADER_SIZE, expr, length);
+            expression = codec.decode(expr);
+        }
+        return new MathElement(
+                expression,
+                buffer.getShort(record + REC_DEPTH),
+                buffer.getInt(record + REC_TF),
+                buffer.getInt(record + REC_DF),
+                buffer.getInt(record + REC_ID),
+                buffer.getLong(record + REC_HASH)
+        );
+    }
+
+    boolean equalsExpression(long record, byte[] expr){
+        if ( buffer.getInt(record + REC_LENGTH) != expr.length ) return false;
+        long start = record + RECORD_HEADER_SIZE;
+        for ( int i = 0; i < expr.length; i++ ){
+            if ( buffer.get(start + i) != expr[i] ) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Streams over all entries in the order of the data section.
+     * Each entry is read from the mapped file when it is requested.
+     */
+    public Stream<MathElement> stream(){
+        return StreamSupport.stream(
+                Spliterators.spliterator(new RecordIterator(), entries, Spliterator.NONNULL | Spliterator.IMMUTABLE),
+                false
+        );
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.close();
+    }
+
+    private class RecordIterator implements Iterator<MathElement> {
+        private long position = dataOffset;
+
+        private void skipPadding(){
+            while ( position < dataEnd &&
+                    ( MappedFileBuffer.remainingInSegment(position) < RECORD_HEADER_SIZE ||
+                      buffer.getShort(position) == PADDING )
+            ){
+                position = MappedFileBuffer.nextSegment(position);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            skipPadding();
+            return position < dataEnd;
+        }
+
+        @Override
+        public MathElement next() {
+            if ( !hasNext() ) throw new NoSuchElementException();
+            MathElement element = readRecord(position, null);
+            position += RECORD_HEADER_SIZE + buffer.getInt(position + REC_LENGTH);
+            return element;
+        }
+    }
+}
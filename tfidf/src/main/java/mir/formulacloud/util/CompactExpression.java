@@ -0,0 +1,68 @@
+package mir.formulacloud.util;
+
+import java.util.Arrays;
+
+/**
+ * An expression encoded by the default {@link ExpressionCodec}. It is used instead
+ * of the expression string as key of the large in-memory maps.
+ *
+ * @author Andre Greiner-Petter
+ */
+public final class CompactExpression {
+    private final byte[] code;
+    private final int hash;
+
+    private CompactExpression(byte[] code){
+        this.code = code;
+        this.hash = Arrays.hashCode(code);
+    }
+
+    /**
+     * Encodes the expression and extends the vocabulary of the default codec if necessary.
+     */
+    public static CompactExpression of(String expression){
+        return new CompactExpression(ExpressionCodec.getDefault().encode(expression));
+    }
+
+    /**
+     * Encodes the expression for a lookup.
+     * @return the compact expression or null if no equal expression was ever encoded
+     */
+    public static CompactExpression lookup(String expression){
+        byte[] code = ExpressionCodec.getDefault().encodeIfKnown(expression);
+        return code == null ? null : new CompactExpression(code);
+    }
+
+    /**
+     * @param expression string representation of an expression
+     * @return true if this is the encoded form of the given expression (without decoding it)
+     */
+    public boolean matches(String expression){
+        return ExpressionCodec.getDefault().matches(code, expression);
+    }
+
+    public byte[] getCode() {
+        return code;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if ( this == o ) return true;
+        if ( !(o instanceof CompactExpression) ) return false;
+        CompactExpression other = (CompactExpression) o;
+        return hash == other.hash && Arrays.equals(code, other.code);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * @return the decoded expression
+     */
+    @Override
+    public String toString() {
+        return ExpressionCodec.getDefault().decode(code);
+    }
+}
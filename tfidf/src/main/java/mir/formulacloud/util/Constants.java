@@ -15,4 +15,18 @@ public class Constants {
     public static final Pattern BASEX_ELEMENT_PATTERN =
             Pattern.compile("<element.*freq=\"(\\d+)\" depth=\"(\\d+)\">(.*?)</element>");
 
+    public static final int BX_IDX_DOC_ID = 1;
+
+    /**
+     * Start tag of the result of a single document in the result of a batch script
+     * (see {@link XQueryLoader#getBatchScript(java.util.Collection)}).
+     */
+    public static final Pattern BASEX_DOCUMENT_PATTERN =
+            Pattern.compile("<document[^>]*?\\sid=\"([^\"]*)\"[^>]*>");
+
+    /**
+     * File name of the {@link ExpressionDictionary} in the output folder of the splitter.
+     */
+    public static final String DICTIONARY_FILE = "expressions.dict";
+
 }
@@ -0,0 +1,338 @@
+package mir.formulacloud.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact binary encoding of the string representation of math expressions,
+ * e.g., <code>mrow(msub(mi:E,mn:0),mo:=,mi:m)</code>.
+ *
+ * The expressions consist mainly of a small set of MathML tag names and the structural
+ * characters <code>(</code>, <code>,</code> and <code>)</code>. A known tag together with the following
+ * <code>(</code> or <code>:</code> is encoded as a single byte. The text of a leaf (everything after
+ * <code>tag:</code>) is interned in the vocabulary of the codec and encoded by its index (variable length
+ * integer). Separators are implicit, a node that follows a leaf or a closed node is preceded by <code>,</code>.
+ *
+ * The encoding is a sequence of tokens and decoding simply concatenates the string forms of these
+ * tokens, hence every encoded expression decodes to exactly the same string. Expressions that cannot
+ * be tokenized are stored as raw UTF-8 bytes.
+ *
+ * The encoding depends on the vocabulary of the codec. Use the same codec instance
+ * (usually {@link #getDefault()}) to encode and decode. Encoding and decoding is thread-safe.
+ *
+ * @author Andre Greiner-Petter
+ */
+public class ExpressionCodec {
+    // token bytes: 0x00 raw (first byte only), 0x01 - 0x03 structure and unknown tags,
+    // 0x20 - 0x7F known tag + '(', 0x80 - 0xFF known tag + ':' + leaf ID
+    private static final int RAW       = 0x00;
+    private static final int CLOSE     = 0x01;
+    private static final int TAG_NODE  = 0x02;
+    private static final int TAG_LEAF  = 0x03;
+    private static final int NODE      = 0x20;
+    private static final int LEAF      = 0x80;
+
+    private static final String[] TAGS = new String[]{
+            "mrow", "mi", "mo", "mn", "msub", "msup", "msubsup", "mfrac", "msqrt", "mroot",
+            "mtext", "mspace", "ms", "munder", "mover", "munderover", "mstyle", "mpadded",
+            "mphantom", "menclose", "mfenced", "merror", "mtable", "mtr", "mtd", "mlabeledtr",
+            "mmultiscripts", "mprescripts", "none", "mglyph", "maction", "semantics",
+            "annotation", "annotation-xml", "maligngroup", "malignmark", "mstack", "mlongdiv",
+            "msgroup", "msrow", "mscarries", "mscarry", "msline", "math", "csymbol", "ci", "cn"
+    };
+
+    private static final HashMap<String, Integer> TAG_IDS = new HashMap<>();
+
+    static {
+        for ( int i = 0; i < TAGS.length; i++ ) TAG_IDS.put(TAGS[i], i);
+    }
+
+    private static final ExpressionCodec DEFAULT = new ExpressionCodec();
+
+    private final ConcurrentHashMap<String, Integer> leafIDs;
+    private volatile String[] leaves;
+    private int numberOfLeaves;
+
+    public ExpressionCodec(){
+        this.leafIDs = new ConcurrentHashMap<>();
+        this.leaves = new String[1024];
+        this.numberOfLeaves = 0;
+    }
+
+    /**
+     * @return the codec that is shared by all in-memory representations of this process
+     */
+    public static ExpressionCodec getDefault(){
+        return DEFAULT;
+    }
+
+    /**
+     * Encodes the expression and adds unknown leaf texts to the vocabulary.
+     * @param expression string representation of an expression
+     * @return the encoded expression
+     */
+    public byte[] encode(String expression){
+        return encode(expression, true);
+    }
+
+    /**
+     * Encodes the expression without changing the vocabulary. Use this for lookups.
+     * @param expression string representation of an expression
+     * @return the encoded expression or null if the expression contains an unknown leaf text
+     *         (hence it was never encoded by this codec)
+     */
+    public byte[] encodeIfKnown(String expression){
+        return encode(expression, false);
+    }
+
+    private byte[] encode(String expression, boolean intern){
+        ByteArrayOutputStream out = new ByteArrayOutputStream(expression.length() / 2 + 8);
+        int length = expression.length();
+        int pos = 0;
+        boolean expectNode = true;
+        boolean unknownLeaf = false;
+
+        while ( pos < length ){
+            char c = expression.charAt(pos);
+            if ( expectNode ){
+                int tagEnd = pos;
+                while ( tagEnd < length && isTagChar(expression.charAt(tagEnd)) ) tagEnd++;
+                if ( tagEnd == pos || tagEnd == length ) return raw(expression);
+
+                String tag = expression.substring(pos, tagEnd);
+                char next = expression.charAt(tagEnd);
+                if ( next == '(' ){
+                    writeTag(out, tag, NODE, TAG_NODE);
+                    pos = tagEnd + 1;
+                    // expect the first child
+                } else if ( next == ':' ){
+                    // leaf text contains at least one character and ends before the next ',' or ')'
+                    int textStart = tagEnd + 1;
+                    int textEnd = Math.min(textStart + 1, length);
+                    while ( textEnd < length && expression.charAt(textEnd) != ',' && expression.charAt(textEnd) != ')' )
+                        textEnd++;
+
+                    int leaf = getLeafID(expression.substring(textStart, textEnd), intern);
+                    if ( leaf < 0 ){
+                        // do not stop here, the expression might still end up as raw string
+                        unknownLeaf = true;
+                        leaf = 0;
+                    }
+                    writeTag(out, tag, LEAF, TAG_LEAF);
+                    writeVarInt(out, leaf);
+                    pos = textEnd;
+                    expectNode = false;
+                } else return raw(expression);
+            } else if ( c == ',' ){
+                // implicit separator, but it must be followed by a node
+                pos++;
+                expectNode = true;
+            } else if ( c == ')' ){
+                out.write(CLOSE);
+                pos++;
+            } else return raw(expression);
+        }
+
+        if ( expectNode && length > 0 ) return raw(expression);
+        return unknownLeaf ? null : out.toByteArray();
+    }
+
+    private static boolean isTagChar(char c){
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_';
+    }
+
+    private static void writeTag(ByteArrayOutputStream out, String tag, int knownToken, int unknownToken){
+        Integer id = TAG_IDS.get(tag);
+        if ( id != null ){
+            out.write(knownToken + id);
+        } else {
+            byte[] bytes = tag.getBytes(StandardCharsets.UTF_8);
+            out.write(unknownToken);
+            writeVarInt(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+    }
+
+    private static byte[] raw(String expression){
+        byte[] bytes = expression.getBytes(StandardCharsets.UTF_8);
+        byte[] code = new byte[bytes.length + 1];
+        code[0] = RAW;
+        System.arraycopy(bytes, 0, code, 1, bytes.length);
+        return code;
+    }
+
+    private int getLeafID(String text, boolean intern){
+        Integer id = leafIDs.get(text);
+        if ( id != null ) return id;
+        if ( !intern ) return -1;
+        return internLeaf(text);
+    }
+
+    /**
+     * Adds the text to the vocabulary (if it does not exist yet).
+     * @param text leaf text
+     * @return the index of the text in the vocabulary
+     */
+    public int internLeaf(String text){
+        synchronized ( leafIDs ){
+            Integer id = leafIDs.get(text);
+            if ( id != null ) return id;
+
+            if ( numberOfLeaves == leaves.length )
+                leaves = Arrays.copyOf(leaves, leaves.length * 2);
+            leaves[numberOfLeaves] = text;
+            // publish the ID only after the text is stored
+            leafIDs.put(text, numberOfLeaves);
+            return numberOfLeaves++;
+        }
+    }
+
+    public String decode(byte[] code){
+        if ( code.length > 0 && code[0] == RAW )
+            return new String(code, 1, code.length - 1, StandardCharsets.UTF_8);
+        StringBuilder sb = new StringBuilder(code.length * 4);
+        decode(code, sb);
+        return sb.toString();
+    }
+
+    public void decode(byte[] code, StringBuilder sb){
+        if ( code.length > 0 && code[0] == RAW ){
+            sb.append(new String(code, 1, code.length - 1, StandardCharsets.UTF_8));
+            return;
+        }
+
+        String[] vocabulary = leaves;
+        // true if the previous token was a leaf or a closed node, i.e., the next node needs a separator
+        boolean afterValue = false;
+        int[] pos = new int[]{0};
+        while ( pos[0] < code.length ){
+            int token = code[pos[0]++] & 0xff;
+            if ( token == CLOSE ){
+                sb.append(')');
+                afterValue = true;
+                continue;
+            }
+
+            if ( afterValue ) sb.append(',');
+            if ( token >= LEAF ){
+                sb.append(TAGS[token - LEAF]).append(':').append(vocabulary[readVarInt(code, pos)]);
+                afterValue = true;
+            } else if ( token >= NODE ){
+                sb.append(TAGS[token - NODE]).append('(');
+                afterValue = false;
+            } else {
+                int length = readVarInt(code, pos);
+                sb.append(new String(code, pos[0], length, StandardCharsets.UTF_8));
+                pos[0] += length;
+                if ( token == TAG_LEAF ){
+                    sb.append(':').append(vocabulary[readVarInt(code, pos)]);
+                    afterValue = true;
+                } else {
+                    sb.append('(');
+                    afterValue = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Compares the encoded expression with the given expression without decoding it.
+     * @param code encoded expression
+     * @param expression string representation of an expression
+     * @return true if the code decodes to the given expression
+     */
+    public boolean matches(byte[] code, String expression){
+        if ( code.length > 0 && code[0] == RAW )
+            return expression.equals(new String(code, 1, code.length - 1, StandardCharsets.UTF_8));
+
+        String[] vocabulary = leaves;
+        boolean afterValue = false;
+        int at = 0;
+        int[] pos = new int[]{0};
+        while ( pos[0] < code.length ){
+            int token = code[pos[0]++] & 0xff;
+            if ( token == CLOSE ){
+                if ( !matches(expression, at++, ')') ) return false;
+                afterValue = true;
+                continue;
+            }
+
+            if ( afterValue && !matches(expression, at++, ',') ) return false;
+            String tag;
+            boolean leaf;
+            if ( token >= LEAF ){
+                tag = TAGS[token - LEAF];
+                leaf = true;
+            } else if ( token >= NODE ){
+                tag = TAGS[token - NODE];
+                leaf = false;
+            } else {
+                int length = readVarInt(code, pos);
+                tag = new String(code, pos[0], length, StandardCharsets.UTF_8);
+                pos[0] += length;
+                leaf = token == TAG_LEAF;
+            }
+
+            if ( !expression.startsWith(tag, at) ) return false;
+            at += tag.length();
+            if ( leaf ){
+                String text = vocabulary[readVarInt(code, pos)];
+                if ( !matches(expression, at++, ':') || !expression.startsWith(text, at) ) return false;
+                at += text.length();
+            } else if ( !matches(expression, at++, '(') ) return false;
+            afterValue = leaf;
+        }
+        return at == expression.length();
+    }
+
+    private static boolean matches(String expression, int at, char c){
+        return at < expression.length() && expression.charAt(at) == c;
+    }
+
+    private static int readVarInt(byte[] code, int[] pos){
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = code[pos[0]++];
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ( (b & 0x80) != 0 );
+        return value;
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value){
+        while ( (value & ~0x7f) != 0 ){
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    public int getNumberOfLeaves(){
+        synchronized ( leafIDs ){
+            return numberOfLeaves;
+        }
+    }
+
+    /**
+     * @param id index in the vocabulary
+     * @return the leaf text
+     */
+    public String getLeaf(int id){
+        return leaves[id];
+    }
+
+    /**
+     * @return a copy of the vocabulary, the index of a leaf text is its ID
+     */
+    public ArrayList<String> getVocabulary(){
+        synchronized ( leafIDs ){
+            return new ArrayList<>(Arrays.asList(leaves).subList(0, numberOfLeaves));
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package mir.formulacloud.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Global dictionary of math expressions. Every expression gets a unique integer ID,
+ * so that the following stages of the pipeline can work on IDs instead of the
+ * (potentially very long) expression strings.
+ *
+ * The dictionary is stored as plain text file ({@link Constants#DICTIONARY_FILE}),
+ * the line number of an expression (starting with 0) is its ID. If the dictionary is
+ * opened with {@link #open(Path)}, newly assigned IDs are appended to the file, so
+ * IDs stay stable if a process gets restarted.
+ *
+ * The expressions are kept as {@link CompactExpression} in memory, once per expression.
+ * The IDs are looked up by the {@link SubtreeHash} of the expressions, a hit is compared with the stored
+ * expression to detect collisions. Expressions that collide with another expression are looked up
+ * by their encoded form instead. Lookups are thread-safe and lock-free, including the lookups of expressions by
+ * their IDs. Only new expressions are assigned under a lock.
+ *
+ * Expressions must not contain line breaks, since the file stores one expression per line.
+ *
+ * @author Andre Greiner-Petter
+ */
+public class ExpressionDictionary implements Closeable {
+    private static final Logger LOG = LogManager.getLogger(ExpressionDictionary.class.getName());
+
+    private final ConcurrentHashMap<Long, Entry> ids;
+    // expressions that have the same hash as another expression, usually empty
+    private final ConcurrentHashMap<CompactExpression, Integer> collisions;
+
+    // append-only, an expression is stored before the size is increased and a grown array is
+    // published before the size, hence readers read the size first
+    private volatile CompactExpression[] expressions = new CompactExpression[1024];
+    private volatile int size = 0;
+
+    // assigns new IDs and guards the file
+    private final Object lock = new Object();
+
+    private BufferedWriter appender;
+
+    public ExpressionDictionary(){
+        this.ids = new ConcurrentHashMap<>();
+        this.collisions = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Loads the dictionary from the given file (if it exists) and appends all
+     * new expressions to this file.
+     * @param file the dictionary file
+     * @return the dictionary
+     * @throws IOException if the file cannot be read or opened for writing
+     */
+    public static ExpressionDictionary open(Path file) throws IOException {
+        ExpressionDictionary dict = load(file);
+        dict.appender = Files.newBufferedWriter(
+                file,
+                StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND
+        );
+        return dict;
+    }
+
+    /**
+     * Loads the dictionary from the given file. Returns an empty dictionary if the file does not exist.
+     * @param file the dictionary file
+     * @return the dictionary
+     * @throws IOException if the file cannot be read
+     */
+    public static ExpressionDictionary load(Path file) throws IOException {
+        ExpressionDictionary dict = new ExpressionDictionary();
+        if ( Files.notExists(file) ) return dict;
+
+        try ( Stream<String> lines = Files.lines(file, StandardCharsets.UTF_8) ){
+            lines.forEach( l -> {
+                CompactExpression expr = CompactExpression.of(l);
+                dict.index(SubtreeHash.of(l), expr, dict.append(expr));
+            });
+        }
+        LOG.info("Loaded expression dictionary " + file + " [#" + dict.size() + "]");
+        return dict;
+    }
+
+    /**
+     * Stores the expression under the next free ID. Writers must hold the lock (or own the dictionary exclusively).
+     * @return the ID of the expression
+     */
+    private int append(CompactExpression expr){
+        int id = size;
+        CompactExpression[] array = expressions;
+        if ( id == array.length ){
+            array = Arrays.copyOf(array, array.length + (array.length >> 1));
+            expressions = array;
+        }
+        array[id] = expr;
+        size = id + 1;
+        return id;
+    }
+
+    private void index(long hash, CompactExpression expr, int id){
+        Entry other = ids.putIfAbsent(hash, new Entry(id, expr));
+        if ( other != null && !other.expression.equals(expr) ){
+            LOG.warn("Hash collision of the expressions " + other.expression + " and " + expr);
+            collisions.putIfAbsent(expr, id);
+        }
+    }
+
+    /**
+     * @param expression math expression
+     * @return the ID of the expression or -1 if it is not in the dictionary
+     */
+    public int getID(String expression){
+        return getID(SubtreeHash.of(expression), expression);
+    }
+
+    /**
+     * @param hash the {@link SubtreeHash} of the expression
+     * @param expression math expression
+     * @return the ID of the expression or -1 if it is not in the dictionary
+     */
+    public int getID(long hash, String expression){
+        Entry entry = ids.get(hash);
+        if ( entry == null ) return -1;
+        if ( entry.expression.matches(expression) ) return entry.id;
+        if ( collisions.isEmpty() ) return -1;
+
+        CompactExpression expr = CompactExpression.lookup(expression);
+        Integer id = expr == null ? null : collisions.get(expr);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Returns the ID of the given expression. If the expression is unknown, it gets the next free ID.
+     * @param expression math expression
+     * @return the ID of the expression
+     */
+    public int getOrAssign(String expression){
+        return getOrAssign(SubtreeHash.of(expression), expression);
+    }
+
+    /**
+     * Returns the ID of the given expression. If the expression is unknown, it gets the next free ID.
+     * @param hash the {@link SubtreeHash} of the expression
+     * @param expression math expression
+     * @return the ID of the expression
+     * @throws IllegalArgumentException if the expression contains a line break
+     */
+    public int getOrAssign(long hash, String expression){
+        int id = getID(hash, expression);
+        if ( id >= 0 ) return id;
+        // a line break would split the entry in the file and shift all following IDs
+        if ( expression.indexOf('\n') >= 0 || expression.indexOf('\r') >= 0 )
+            throw new IllegalArgumentException("Expressions with line breaks cannot be stored in the dictionary: " + expression);
+
+        synchronized ( lock ){
+            id = getID(hash, expression);
+            if ( id >= 0 ) return id;
+
+            CompactExpression expr = CompactExpression.of(expression);
+            id = append(expr);
+            if ( appender != null ){
+                try {
+                    appender.write(expression);
+                    appender.newLine();
+                } catch ( IOException ioe ){
+                    throw new IllegalStateException("Cannot append expression to dictionary.", ioe);
+                }
+            }
+            // publish the ID only after the expression is stored
+            index(hash, expr, id);
+            return id;
+        }
+    }
+
+    /**
+     * @param id ID of an expression
+     * @return the expression or null if the ID is unknown
+     */
+    public String getExpression(int id){
+        CompactExpression expr = getCompactExpression(id);
+        return expr == null ? null : expr.toString();
+    }
+
+    /**
+     * @param id ID of an expression
+     * @return the encoded expression or null if the ID is unknown
+     */
+    public CompactExpression getCompactExpression(int id){
+        // the size first, the array is at least as large afterwards
+        int n = size;
+        return id < 0 || id >= n ? null : expressions[id];
+    }
+
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Writes all pending expressions to the dictionary file. Call this before IDs leave
+     * the process (e.g., before writing a document that uses them).
+     * @throws IOException if the file cannot be written
+     */
+    public void flush() throws IOException {
+        if ( appender == null ) return;
+        synchronized ( lock ){
+            appender.flush();
+        }
+    }
+
+    /**
+     * Writes the entire dictionary to the given file.
+     * @param file output file
+     * @throws IOException if the file cannot be written
+     */
+    public void store(Path file) throws IOException {
+        synchronized ( lock ){
+            int n = size;
+            CompactExpression[] array = expressions;
+            try ( BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8) ){
+                for ( int i = 0; i < n; i++ ){
+                    writer.write(array[i].toString());
+                    writer.newLine();
+                }
+            }
+        }
+        LOG.info("Stored expression dictionary " + file + " [#" + size() + "]");
+    }
+
+    @Override
+    public void close() throws IOException {
+        if ( appender == null ) return;
+        synchronized ( lock ){
+            appender.close();
+            appender = null;
+        }
+    }
+
+    /**
+     * An ID and its expression to detect hash collisions.
+     */
+    private static final class Entry {
+        private final int id;
+        private final CompactExpression expression;
+
+        private Entry(int id, CompactExpression expression){
+            this.id = id;
+            this.expression = expression;
+        }
+    }
+}
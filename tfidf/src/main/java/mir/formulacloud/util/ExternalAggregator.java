@@ -0,0 +1,368 @@
+package mir.formulacloud.util;
+
+import mir.formulacloud.beans.MathElement;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Sums the term and document frequencies of math elements by their global IDs within a fixed memory budget
+ * (external sort-merge). The elements are buffered in primitive arrays. A full buffer is sorted by ID, equal IDs
+ * are combined and the result is written as a sorted run to the spill directory. Finally, all runs are merged
+ * (k-way) and every ID is handed to the consumer exactly once, in ascending order of the IDs.
+ *
+ * The budget is split into two buffers, one is spilled in the background while the other one is filled.
+ * If there are more runs than {@link #DEFAULT_FAN_IN}, groups of runs are merged into larger runs first.
+ *
+ * Adding elements is thread-safe. The run files are deleted by {@link #close()}.
+ *
+ * @author Andre Greiner-Petter
+ */
+public class ExternalAggregator implements Closeable {
+    private static final Logger LOG = LogManager.getLogger(ExternalAggregator.class.getName());
+
+    /**
+     * Size of a record in a run: ID (int), depth (short), TF (int), DF (int), hash (long)
+     */
+    public static final int RECORD_SIZE = 4 + 2 + 4 + 4 + 8;
+
+    // the buffers need another long per record to sort it
+    private static final int BUFFERED_RECORD_SIZE = RECORD_SIZE + 8;
+
+    // Arrays.parallelSort needs a scratch array as large as the keys, only one buffer is sorted at a time
+    private static final int SORT_SCRATCH_SIZE = 8;
+
+    public static final int DEFAULT_FAN_IN = 64;
+
+    private static final int IO_BUFFER_SIZE = 1 << 20;
+
+    private final Path spillDirectory;
+    private final int fanIn;
+
+    private Buffer buffer;
+    // the buffer that is not filled right now, null while it gets spilled
+    private Buffer spare;
+
+    private final ExecutorService spiller;
+    private Future<Buffer> pendingSpill;
+
+    private final List<Path> runs = new ArrayList<>();
+    private long bufferedRecords = 0;
+
+    /**
+     * @param spillDirectory directory of the sorted runs
+     * @param memoryBudget bytes of the buffers (both buffers together) and the scratch array of the sort
+     */
+    public ExternalAggregator(Path spillDirectory, long memoryBudget){
+        this(spillDirectory, recordsPerBuffer(memoryBudget), DEFAULT_FAN_IN);
+    }
+
+    /**
+     * @param memoryBudget bytes of both buffers and the scratch array of the sort
+     * @return number of records per buffer
+     */
+    static int recordsPerBuffer(long memoryBudget){
+        long records = memoryBudget / (2 * BUFFERED_RECORD_SIZE + SORT_SCRATCH_SIZE);
+        return (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1024, records));
+    }
+
+    ExternalAggregator(Path spillDirectory, int recordsPerBuffer, int fanIn){
+        this.spillDirectory = spillDirectory;
+        this.fanIn = Math.max(2, fanIn);
+        this.buffer = new Buffer(recordsPerBuffer);
+        this.spare = new Buffer(recordsPerBuffer);
+        this.spiller = Executors.newSingleThreadExecutor( r -> {
+            Thread t = new Thread(r, "aggregation-spill");
+            t.setDaemon(true);
+            return t;
+        });
+        LOG.info("Aggregate math elements in buffers of " + recordsPerBuffer + " records, spill runs to " + spillDirectory);
+    }
+
+    /**
+     * Adds the first n elements of the given arrays, e.g., all elements of a document.
+     * @param ids global IDs
+     * @param depths depths of the elements
+     * @param tfs term frequencies
+     * @param dfs document frequencies
+     * @param hashes the {@link SubtreeHash} of the elements
+     * @param n number of elements
+     * @throws IOException if a full buffer cannot be spilled
+     */
+    public synchronized void add(int[] ids, short[] depths, int[] tfs, int[] dfs, long[] hashes, int n) throws IOException {
+        for ( int i = 0; i < n; i++ ){
+            if ( ids[i] < 0 ) throw new IllegalArgumentException("Elements without ID cannot be aggregated.");
+            if ( buffer.isFull() ) spill();
+            buffer.add(ids[i], depths[i], tfs[i], dfs[i], hashes[i]);
+        }
+        bufferedRecords += n;
+    }
+
+    /**
+     * Sorts the current buffer and writes it in the background. Waits for the previous spill, if necessary.
+     */
+    private void spill() throws IOException {
+        Buffer full = buffer;
+        buffer = awaitSpill();
+        Path run = Files.createTempFile(spillDirectory, "run", ".agg");
+        runs.add(run);
+        pendingSpill = spiller.submit( () -> {
+            long start = System.currentTimeMillis();
+            long written = full.writeTo(run);
+            LOG.info("Spilled run " + run.getFileName() + " [records: " + full.size + "; aggregated: " + written +
+                    "; Time Elapsed: " + (System.currentTimeMillis() - start) + "ms]");
+            full.clear();
+            return full;
+        });
+    }
+
+    /**
+     * @return the spare buffer after the pending spill finished
+     */
+    private Buffer awaitSpill() throws IOException {
+        if ( pendingSpill == null ) return spare;
+        try {
+            spare = pendingSpill.get();
+            pendingSpill = null;
+            return spare;
+        } catch ( InterruptedException ie ){
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while spilling a run.", ie);
+        } catch ( ExecutionException ee ){
+            throw new IOException("Cannot spill run.", ee.getCause());
+        }
+    }
+
+    /**
+     * Spills the remaining elements and merges all runs. Do not add elements afterwards.
+     * @param consumer receives the aggregated elements (without expressions) in ascending order of the IDs
+     * @return number of aggregated elements
+     * @throws IOException if the runs cannot be written or read
+     */
+    public synchronized long merge(Consumer<MathElement> consumer) throws IOException {
+        if ( buffer.size > 0 ) spill();
+        awaitSpill();
+        LOG.info("Merge " + runs.size() + " runs of " + bufferedRecords + " math elements.");
+
+        List<Path> current = new ArrayList<>(runs);
+        while ( current.size() > fanIn ){
+            // merge groups of runs to larger runs until all runs can be opened at once
+            List<Path> merged = new ArrayList<>();
+            for ( int i = 0; i < current.size(); i += fanIn ){
+                List<Path> group = current.subList(i, Math.min(i + fanIn, current.size()));
+                Path run = Files.createTempFile(spillDirectory, "run", ".agg");
+                runs.add(run);
+                try ( DataOutputStream out = openRun(run) ){
+                    mergeRuns(group, (id, depth, tf, df, hash) -> writeRecord(out, id, depth, tf, df, hash));
+                }
+                for ( Path p : group ) Files.deleteIfExists(p);
+                merged.add(run);
+            }
+            LOG.info("Merged " + current.size() + " runs to " + merged.size() + " runs.");
+            current = merged;
+        }
+
+        return mergeRuns(current, (id, depth, tf, df, hash) -> consumer.accept(new MathElement(null, depth, tf, df, id, hash)));
+    }
+
+    private long mergeRuns(List<Path> files, RecordConsumer consumer) throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(1, files.size()), Comparator.comparingInt((RunReader r) -> r.id));
+        long counter = 0;
+        try {
+            for ( Path p : files ){
+                RunReader reader = new RunReader(p);
+                if ( reader.next() ) queue.add(reader);
+                else reader.close();
+            }
+
+            while ( !queue.isEmpty() ){
+                RunReader head = queue.poll();
+                int id = head.id;
+                short depth = head.depth;
+                long tf = head.tf;
+                long df = head.df;
+                long hash = head.hash;
+                advance(head, queue);
+
+                while ( !queue.isEmpty() && queue.peek().id == id ){
+                    RunReader r = queue.poll();
+                    tf += r.tf;
+                    df += r.df;
+                    if ( hash == SubtreeHash.UNKNOWN ) hash = r.hash;
+                    advance(r, queue);
+                }
+                consumer.accept(id, depth, saturate(tf), saturate(df), hash);
+                counter++;
+            }
+        } finally {
+            for ( RunReader r : queue ) r.close();
+        }
+        return counter;
+    }
+
+    private static void advance(RunReader reader, PriorityQueue<RunReader> queue) throws IOException {
+        if ( reader.next() ) queue.add(reader);
+        else reader.close();
+    }
+
+    private static int saturate(long value){
+        return (int) Math.min(Integer.MAX_VALUE, value);
+    }
+
+    private static DataOutputStream openRun(Path run) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), IO_BUFFER_SIZE));
+    }
+
+    private static void writeRecord(DataOutputStream out, int id, short depth, int tf, int df, long hash) throws IOException {
+        out.writeInt(id);
+        out.writeShort(depth);
+        out.writeInt(tf);
+        out.writeInt(df);
+        out.writeLong(hash);
+    }
+
+    /**
+     * @return number of runs that were written so far (including intermediate runs of the merge)
+     */
+    public synchronized int getNumberOfRuns(){
+        return runs.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        spiller.shutdownNow();
+        for ( Path run : runs ) Files.deleteIfExists(run);
+        runs.clear();
+    }
+
+    @FunctionalInterface
+    private interface RecordConsumer {
+        void accept(int id, short depth, int tf, int df, long hash) throws IOException;
+    }
+
+    /**
+     * Elements in primitive arrays.
+     */
+    private static final class Buffer {
+        private final int[] ids;
+        private final short[] depths;
+        private final int[] tfs;
+        private final int[] dfs;
+        private final long[] hashes;
+        // ID in the upper and index in the lower 32 bits, so the elements are sorted without moving them
+        private final long[] keys;
+        private int size = 0;
+
+        private Buffer(int capacity){
+            ids = new int[capacity];
+            depths = new short[capacity];
+            tfs = new int[capacity];
+            dfs = new int[capacity];
+            hashes = new long[capacity];
+            keys = new long[capacity];
+        }
+
+        private boolean isFull(){
+            return size == ids.length;
+        }
+
+        private void add(int id, short depth, int tf, int df, long hash){
+            ids[size] = id;
+            depths[size] = depth;
+            tfs[size] = tf;
+            dfs[size] = df;
+            hashes[size] = hash;
+            keys[size] = ((long) id << 32) | size;
+            size++;
+        }
+
+        private void clear(){
+            size = 0;
+        }
+
+        /**
+         * Sorts the buffer and writes every ID once.
+         * @return number of written records
+         */
+        private long writeTo(Path run) throws IOException {
+            Arrays.parallelSort(keys, 0, size);
+            long written = 0;
+            try ( DataOutputStream out = openRun(run) ){
+                int i = 0;
+                while ( i < size ){
+                    int first = (int) keys[i];
+                    int id = ids[first];
+                    long tf = tfs[first];
+                    long df = dfs[first];
+                    long hash = hashes[first];
+                    for ( i++; i < size && ids[(int) keys[i]] == id; i++ ){
+                        int idx = (int) keys[i];
+                        tf += tfs[idx];
+                        df += dfs[idx];
+                        if ( hash == SubtreeHash.UNKNOWN ) hash = hashes[idx];
+                    }
+                    writeRecord(out, id, depths[first], saturate(tf), saturate(df), hash);
+                    written++;
+                }
+            }
+            return written;
+        }
+    }
+
+    /**
+     * Reads a sorted run record by record.
+     */
+    private static final class RunReader implements Closeable {
+        private final DataInputStream in;
+
+        private int id;
+        private short depth;
+        private int tf;
+        private int df;
+        private long hash;
+
+        private RunReader(Path run) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), IO_BUFFER_SIZE));
+        }
+
+        /**
+         * @return false if the run has no more records
+         */
+        private boolean next() throws IOException {
+            try {
+                id = in.readInt();
+            } catch ( EOFException eof ){
+                return false;
+            }
+            depth = in.readShort();
+            tf = in.readInt();
+            df = in.readInt();
+            hash = in.readLong();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
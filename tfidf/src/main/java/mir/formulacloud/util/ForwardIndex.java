@@ -0,0 +1,222 @@
+package mir.formulacloud.util;
+
+import mir.formulacloud.beans.MathVector;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+/**
+ * Read-only, memory mapped index of the math vectors of all documents (forward index), i.e.,
+ * the output of the {@link mir.formulacloud.tfidf.Splitter} in a single file. The file is created
+ * by {@link mir.formulacloud.tfidf.ForwardIndexBuilder}. The searcher reads the math of documents from
+ * this index instead of requesting it from BaseX.
+ *
+ * Layout of the file:
+ * <pre>
+ *   header    : magic (int), version (int), documents (long), directory offset (long),
+ *               vocabulary offset (long), vocabulary size (long), minimum TF of the splitter (int)
+ *   data      : one record per document of elements (int), document length (int), max depth (int),
+ *               max TF per depth (int * max depth) and the elements as depth (short), TF (int),
+ *               length (int), encoded expression
+ *   vocab     : leaf texts of the {@link ExpressionCodec} as length (int) and UTF-8 bytes
+ *   directory : per document the database and document ID as length (int) and UTF-8 bytes,
+ *               followed by the record offset (long) and record length (int)
+ * </pre>
+ * Records never cross the border of a mapped segment, the rest of a segment is left empty instead.
+ *
+ * @author Andre Greiner-Petter
+ */
+public class ForwardIndex implements Closeable {
+    private static final Logger LOG = LogManager.getLogger(ForwardIndex.class.getName());
+
+    public static final int MAGIC = 0x46434649; // FCFI
+    public static final int VERSION = 1;
+
+    public static final int HEADER_SIZE = 64;
+    public static final int POS_DOCUMENTS = 8;
+    public static final int POS_DIRECTORY_OFFSET = 16;
+    public static final int POS_VOCAB_OFFSET = 24;
+    public static final int POS_VOCAB_SIZE = 32;
+    public static final int POS_MIN_TF = 40;
+
+    private final MappedFileBuffer buffer;
+    private final ExpressionCodec codec;
+    private final int minTermFrequency;
+
+    // document ID -> position in the following arrays
+    private final HashMap<String, Integer> documents;
+    private final String[] databases;
+    private final long[] offsets;
+    private final int[] lengths;
+
+    private ForwardIndex(Path path, MappedFileBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        int version = buffer.getInt(4);
+        if ( buffer.getInt(0) != MAGIC || version != VERSION ){
+            buffer.close();
+            throw new IOException("Unknown forward index format (version " + version + ").");
+        }
+
+        int numberOfDocs = (int)buffer.getLong(POS_DOCUMENTS);
+        this.minTermFrequency = buffer.getInt(POS_MIN_TF);
+        this.documents = new HashMap<>(numberOfDocs * 4 / 3 + 1);
+        this.databases = new String[numberOfDocs];
+        this.offsets = new long[numberOfDocs];
+        this.lengths = new int[numberOfDocs];
+        this.codec = new ExpressionCodec();
+
+        // vocabulary and directory are read once, sequentially
+        try ( InputStream in = new BufferedInputStream(Files.newInputStream(path), 1 << 20) ){
+            DataInputStream data = new DataInputStream(in);
+            long position = skip(in, 0, buffer.getLong(POS_VOCAB_OFFSET));
+            long vocabSize = buffer.getLong(POS_VOCAB_SIZE);
+            for ( long i = 0; i < vocabSize; i++ ){
+                byte[] leaf = readBytes(data);
+                codec.internLeaf(new String(leaf, StandardCharsets.UTF_8));
+                position += 4 + leaf.length;
+            }
+
+            skip(in, position, buffer.getLong(POS_DIRECTORY_OFFSET));
+            HashMap<String, String> internedDBs = new HashMap<>();
+            for ( int i = 0; i < numberOfDocs; i++ ){
+                String db = readString(data);
+                databases[i] = internedDBs.computeIfAbsent(db, k -> k);
+                documents.put(readString(data), i);
+                offsets[i] = data.readLong();
+                lengths[i] = data.readInt();
+            }
+        }
+    }
+
+    private static long skip(InputStream in, long position, long target) throws IOException {
+        long remaining = target - position;
+        while ( remaining > 0 ){
+            long skipped = in.skip(remaining);
+            if ( skipped <= 0 ) throw new IOException("Unexpected end of forward index.");
+            remaining -= skipped;
+        }
+        return target;
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    public static ForwardIndex open(Path path) throws IOException {
+        ForwardIndex index = new ForwardIndex(path, MappedFileBuffer.openReadOnly(path));
+        LOG.info("Mapped forward index " + path + " [#" + index.size() + "; Size: " + index.buffer.size()/Math.pow(1024,2) + " MB]");
+        return index;
+    }
+
+    /**
+     * @param path a file or directory
+     * @return true if the given path is a forward index file
+     */
+    public static boolean isForwardIndex(Path path){
+        if ( !Files.isRegularFile(path) ) return false;
+        try ( InputStream in = Files.newInputStream(path) ){
+            return new DataInputStream(in).readInt() == MAGIC;
+        } catch ( IOException ioe ){
+            return false;
+        }
+    }
+
+    /**
+     * @param docID document ID
+     * @return true if the index contains the document
+     */
+    public boolean contains(String docID){
+        return documents.containsKey(docID);
+    }
+
+    /**
+     * @param docID document ID
+     * @return the database of the document or null if the document is not in the index
+     */
+    public String getDatabase(String docID){
+        Integer i = documents.get(docID);
+        return i == null ? null : databases[i];
+    }
+
+    /**
+     * @param docID document ID
+     * @return the math of the document or null if the document is not in the index
+     */
+    public MathVector getMathVector(String docID){
+        Integer i = documents.get(docID);
+        if ( i == null ) return null;
+
+        byte[] record = new byte[lengths[i]];
+        buffer.get(offsets[i], record, record.length);
+        ByteBuffer data = ByteBuffer.wrap(record);
+
+        int n = data.getInt();
+        int documentLength = data.getInt();
+        int[] maxPerDepth = new int[data.getInt()];
+        for ( int d = 0; d < maxPerDepth.length; d++ )
+            maxPerDepth[d] = data.getInt();
+
+        String[] expressions = new String[n];
+        short[] depths = new short[n];
+        int[] frequencies = new int[n];
+        for ( int j = 0; j < n; j++ ){
+            depths[j] = data.getShort();
+            frequencies[j] = data.getInt();
+            byte[] expr = new byte[data.getInt()];
+            data.get(expr);
+            expressions[j] = codec.decode(expr);
+        }
+        return new MathVector(expressions, depths, frequencies, documentLength, maxPerDepth);
+    }
+
+    /**
+     * @return the minimum term frequency per document of the splitter run the index was built from
+     */
+    public int getMinTermFrequency(){
+        return minTermFrequency;
+    }
+
+    public int size(){
+        return offsets.length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.close();
+    }
+
+    private static volatile ForwardIndex index;
+
+    /**
+     * Maps the forward index that is used by all documents.
+     * @param path the forward index file
+     * @throws IOException if the file is not a forward index
+     */
+    public static synchronized void initForwardIndex(Path path) throws IOException {
+        if ( index != null ) index.close();
+        index = open(path);
+    }
+
+    /**
+     * @return the forward index or null if there is none
+     */
+    public static ForwardIndex getInstance(){
+        return index;
+    }
+}
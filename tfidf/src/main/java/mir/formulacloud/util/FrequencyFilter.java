@@ -0,0 +1,58 @@
+package mir.formulacloud.util;
+
+/**
+ * Ranges of depth, term frequency (TF) and document frequency (DF) of math elements.
+ * All ranges are inclusive. The default filter accepts everything.
+ *
+ * @author Andre Greiner-Petter
+ */
+public class FrequencyFilter {
+    private int minDepth = Integer.MIN_VALUE;
+    private int maxDepth = Integer.MAX_VALUE;
+    private int minTF = Integer.MIN_VALUE;
+    private int maxTF = Integer.MAX_VALUE;
+    private int minDF = Integer.MIN_VALUE;
+    private int maxDF = Integer.MAX_VALUE;
+
+    public FrequencyFilter(){}
+
+    public FrequencyFilter depth(int min, int max){
+        this.minDepth = min;
+        this.maxDepth = max;
+        return this;
+    }
+
+    public FrequencyFilter termFrequency(int min, int max){
+        this.minTF = min;
+        this.maxTF = max;
+        return this;
+    }
+
+    public FrequencyFilter documentFrequency(int min, int max){
+        this.minDF = min;
+        this.maxDF = max;
+        return this;
+    }
+
+    public boolean accept(int depth, int totalFrequency, int docFrequency){
+        return minDepth <= depth && depth <= maxDepth &&
+                minTF <= totalFrequency && totalFrequency <= maxTF &&
+                minDF <= docFrequency && docFrequency <= maxDF;
+    }
+
+    /**
+     * @return true if this filter accepts every element
+     */
+    public boolean acceptsAll(){
+        return minDepth == Integer.MIN_VALUE && maxDepth == Integer.MAX_VALUE &&
+                minTF == Integer.MIN_VALUE && maxTF == Integer.MAX_VALUE &&
+                minDF == Integer.MIN_VALUE && maxDF == Integer.MAX_VALUE;
+    }
+
+    @Override
+    public String toString(){
+        return "depth [" + minDepth + ", " + maxDepth + "], " +
+                "TF [" + minTF + ", " + maxTF + "], " +
+                "DF [" + minDF + ", " + maxDF + "]";
+    }
+}
@@ -0,0 +1,191 @@
+package mir.formulacloud.util;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.BinaryOperator;
+import java.util.function.IntFunction;
+
+/**
+ * Open addressing hash map with primitive int keys. It is used for the hot paths
+ * that map expression IDs to elements and avoids boxing the keys.
+ *
+ * Null values are not supported (an empty slot is marked by a null value).
+ * The map is not thread-safe.
+ *
+ * @author Andre Greiner-Petter
+ */
+public class IntObjectHashMap<V> {
+    private static final float LOAD_FACTOR = 0.6f;
+
+    @FunctionalInterface
+    public interface IntObjectConsumer<V> {
+        void accept(int key, V value);
+    }
+
+    private int[] keys;
+    private Object[] values;
+    private int size;
+    private int threshold;
+
+    public IntObjectHashMap(){
+        this(16);
+    }
+
+    public IntObjectHashMap(int expectedSize){
+        int capacity = Integer.highestOneBit(Math.max(4, (int)(expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity){
+        keys = new int[capacity];
+        values = new Object[capacity];
+        threshold = (int)(capacity * LOAD_FACTOR);
+    }
+
+    private static int mix(int key){
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int slot(int key){
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        while ( values[i] != null && keys[i] != key ){
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key){
+        return (V) values[slot(key)];
+    }
+
+    public boolean containsKey(int key){
+        return values[slot(key)] != null;
+    }
+
+    /**
+     * @return the previous value or null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value){
+        if ( value == null ) throw new NullPointerException("Null values are not supported.");
+        int i = slot(key);
+        V old = (V) values[i];
+        values[i] = value;
+        keys[i] = key;
+        if ( old == null && ++size > threshold ) rehash();
+        return old;
+    }
+
+    public V computeIfAbsent(int key, IntFunction<V> function){
+        V value = get(key);
+        if ( value == null ){
+            value = function.apply(key);
+            put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * Same as {@link java.util.Map#merge(Object, Object, java.util.function.BiFunction)}
+     * but the merge function must not return null.
+     */
+    @SuppressWarnings("unchecked")
+    public V merge(int key, V value, BinaryOperator<V> function){
+        int i = slot(key);
+        V old = (V) values[i];
+        if ( old == null ){
+            put(key, value);
+            return value;
+        }
+        V merged = function.apply(old, value);
+        values[i] = merged;
+        return merged;
+    }
+
+    /**
+     * Adds all entries of the other map to this map. Existing values are merged with the given function.
+     */
+    public IntObjectHashMap<V> mergeAll(IntObjectHashMap<V> other, BinaryOperator<V> function){
+        other.forEach( (k, v) -> merge(k, v, function) );
+        return this;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    public void clear(){
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(IntObjectConsumer<V> consumer){
+        for ( int i = 0; i < values.length; i++ ){
+            if ( values[i] != null ) consumer.accept(keys[i], (V) values[i]);
+        }
+    }
+
+    /**
+     * @return a read-only view of the values
+     */
+    public Collection<V> values(){
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new ValueIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private void rehash(){
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(keys.length << 1);
+        for ( int i = 0; i < oldValues.length; i++ ){
+            if ( oldValues[i] != null ){
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private class ValueIterator implements Iterator<V> {
+        private int next = advance(0);
+
+        private int advance(int from){
+            while ( from < values.length && values[from] == null ) from++;
+            return from;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < values.length;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V next() {
+            if ( !hasNext() ) throw new NoSuchElementException();
+            V value = (V) values[next];
+            next = advance(next + 1);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package mir.formulacloud.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * A memory mapped view of a file that might be larger than 2GB. Java can only map
+ * 2GB per buffer, so the file is mapped in segments of {@link #SEGMENT_SIZE} bytes.
+ * A single read or write must not cross the border between two segments, writers
+ * of such files have to align their entries via {@link #remainingInSegment(long)}.
+ *
+ * All reads are absolute, hence a read-only buffer can be shared between threads.
+ *
+ * @author Andre Greiner-Petter
+ */
+public class MappedFileBuffer implements Closeable {
+    public static final int SEGMENT_BITS = 30;
+    public static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final long size;
+    private final boolean writable;
+
+    private MappedFileBuffer(Path path, long size, boolean writable) throws IOException {
+        this.file = new RandomAccessFile(path.toFile(), writable ? "rw" : "r");
+        this.writable = writable;
+        if ( writable ) file.setLength(size);
+        this.size = writable ? size : file.length();
+        this.channel = file.getChannel();
+
+        int numSegments = (int)((this.size + SEGMENT_SIZE - 1) >>> SEGMENT_BITS);
+        this.segments = new MappedByteBuffer[numSegments];
+        FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+        for ( int i = 0; i < numSegments; i++ ){
+            long start = ((long)i) << SEGMENT_BITS;
+            long length = Math.min(SEGMENT_SIZE, this.size - start);
+            segments[i] = channel.map(mode, start, length);
+        }
+    }
+
+    public static MappedFileBuffer openReadOnly(Path path) throws IOException {
+        return new MappedFileBuffer(path, -1, false);
+    }
+
+    /**
+     * Opens (or creates) the file and maps it with the given size. The file will be
+     * truncated or extended to exactly this size.
+     */
+    public static MappedFileBuffer openReadWrite(Path path, long size) throws IOException {
+        return new MappedFileBuffer(path, size, true);
+    }
+
+    /**
+     * @param position absolute position in the file
+     * @return number of bytes left in the segment of the given position
+     */
+    public static long remainingInSegment(long position){
+        return SEGMENT_SIZE - (position & SEGMENT_MASK);
+    }
+
+    /**
+     * @param position absolute position in the file
+     * @return the start position of the next segment
+     */
+    public static long nextSegment(long position){
+        return (position & ~SEGMENT_MASK) + SEGMENT_SIZE;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public byte get(long position){
+        return segments[(int)(position >>> SEGMENT_BITS)].get((int)(position & SEGMENT_MASK));
+    }
+
+    public short getShort(long position){
+        return segments[(int)(position >>> SEGMENT_BITS)].getShort((int)(position & SEGMENT_MASK));
+    }
+
+    public int getInt(long position){
+        return segments[(int)(position >>> SEGMENT_BITS)].getInt((int)(position & SEGMENT_MASK));
+    }
+
+    public long getLong(long position){
+        return segments[(int)(position >>> SEGMENT_BITS)].getLong((int)(position & SEGMENT_MASK));
+    }
+
+    /**
+     * Copies {@param length} bytes starting at {@param position} into {@param dst}.
+     */
+    public void get(long position, byte[] dst, int length){
+        MappedByteBuffer segment = segments[(int)(position >>> SEGMENT_BITS)];
+        int offset = (int)(position & SEGMENT_MASK);
+        for ( int i = 0; i < length; i++ )
+            dst[i] = segment.get(offset + i);
+    }
+
+    public void putInt(long position, int value){
+        segments[(int)(position >>> SEGMENT_BITS)].putInt((int)(position & SEGMENT_MASK), value);
+    }
+
+    public void putLong(long position, long value){
+        segments[(int)(position >>> SEGMENT_BITS)].putLong((int)(position & SEGMENT_MASK), value);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if ( writable ){
+            for ( MappedByteBuffer segment : segments ) segment.force();
+        }
+        channel.close();
+        file.close();
+    }
+}
@@ -0,0 +1,201 @@
+package mir.formulacloud.util;
+
+import mir.formulacloud.beans.MathElement;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sums the term and document frequencies of math elements in hash partitions (shuffle). Every element
+ * is routed by its {@link SubtreeHash} to one of N partitions (see {@link SubtreeHash#partition(long, int)}).
+ * Each partition has its own owner thread, which is the only thread that touches the map of the partition,
+ * hence the maps need no locks. The producers only hand batches of elements to the queues of the owners.
+ *
+ * Once all elements are added, {@link #finish(PartitionConsumer)} hands every partition to the consumer
+ * within its owner thread, e.g., to write each partition to its own file in parallel.
+ *
+ * Adding elements is thread-safe.
+ *
+ * @author Andre Greiner-Petter
+ */
+public class PartitionedAggregator implements Closeable {
+    private static final Logger LOG = LogManager.getLogger(PartitionedAggregator.class.getName());
+
+    // number of batches that might wait for an owner thread
+    private static final int QUEUE_CAPACITY = 256;
+
+    private static final Batch END = new Batch(0);
+
+    @FunctionalInterface
+    public interface PartitionConsumer {
+        void accept(int partition, IntObjectHashMap<MathElement> elements) throws IOException;
+    }
+
+    private final int partitions;
+    private final List<BlockingQueue<Batch>> queues;
+    private final List<CompletableFuture<IntObjectHashMap<MathElement>>> results;
+    private final ExecutorService owners;
+
+    public PartitionedAggregator(int partitions){
+        this.partitions = Math.max(1, partitions);
+        this.queues = new ArrayList<>(this.partitions);
+        this.results = new ArrayList<>(this.partitions);
+
+        AtomicInteger counter = new AtomicInteger();
+        this.owners = Executors.newFixedThreadPool(this.partitions, r -> {
+            Thread t = new Thread(r, "partition-" + counter.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+
+        for ( int p = 0; p < this.partitions; p++ ){
+            BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+            queues.add(queue);
+            results.add(CompletableFuture.supplyAsync(() -> aggregate(queue), owners));
+        }
+        LOG.info("Aggregate math elements in " + this.partitions + " partitions.");
+    }
+
+    /**
+     * The loop of an owner thread.
+     */
+    private static IntObjectHashMap<MathElement> aggregate(BlockingQueue<Batch> queue){
+        IntObjectHashMap<MathElement> elements = new IntObjectHashMap<>();
+        try {
+            for ( Batch batch = queue.take(); batch != END; batch = queue.take() ){
+                for ( int i = 0; i < batch.size; i++ ){
+                    MathElement element = elements.get(batch.ids[i]);
+                    if ( element == null ){
+                        elements.put(batch.ids[i], new MathElement(null, batch.depths[i], batch.tfs[i], batch.dfs[i], batch.ids[i], batch.hashes[i]));
+                    } else {
+                        element.setTotalFrequency(element.getTotalFrequency() + batch.tfs[i]);
+                        element.setDocFrequency(element.getDocFrequency() + batch.dfs[i]);
+                    }
+                }
+            }
+        } catch ( InterruptedException ie ){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while aggregating a partition.", ie);
+        }
+        return elements;
+    }
+
+    /**
+     * Routes the first n elements of the given arrays (e.g., all elements of a document) to their partitions.
+     * @param ids global IDs
+     * @param depths depths of the elements
+     * @param tfs term frequencies
+     * @param dfs document frequencies
+     * @param hashes the {@link SubtreeHash} of the elements, which selects the partition
+     * @param n number of elements
+     * @throws InterruptedException if interrupted while waiting for an owner thread
+     */
+    public void add(int[] ids, short[] depths, int[] tfs, int[] dfs, long[] hashes, int n) throws InterruptedException {
+        // count the elements per partition first, so that every batch has the size of its partition
+        int[] partitionOf = new int[n];
+        int[] counts = new int[partitions];
+        for ( int i = 0; i < n; i++ ){
+            partitionOf[i] = SubtreeHash.partition(hashes[i], partitions);
+            counts[partitionOf[i]]++;
+        }
+
+        Batch[] batches = new Batch[partitions];
+        for ( int i = 0; i < n; i++ ){
+            int p = partitionOf[i];
+            if ( batches[p] == null ) batches[p] = new Batch(counts[p]);
+            batches[p].add(ids[i], depths[i], tfs[i], dfs[i], hashes[i]);
+        }
+        for ( int p = 0; p < partitions; p++ ){
+            if ( batches[p] != null ) queues.get(p).put(batches[p]);
+        }
+    }
+
+    /**
+     * Waits until all partitions are aggregated and hands every partition to the consumer.
+     * The consumer is called by the owner threads, i.e., for all partitions in parallel.
+     * Do not add elements afterwards.
+     * @param consumer receives the elements (without expressions) of each partition
+     * @throws IOException if the consumer fails or a partition cannot be aggregated
+     */
+    public void finish(PartitionConsumer consumer) throws IOException {
+        List<CompletableFuture<Void>> done = new ArrayList<>(partitions);
+        for ( int p = 0; p < partitions; p++ ){
+            final int partition = p;
+            try {
+                queues.get(p).put(END);
+            } catch ( InterruptedException ie ){
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while finishing the partitions.", ie);
+            }
+            done.add(results.get(p).thenAcceptAsync( elements -> {
+                LOG.info("Aggregated partition " + partition + " [#" + elements.size() + "]");
+                try {
+                    consumer.accept(partition, elements);
+                } catch ( IOException ioe ){
+                    throw new IllegalStateException("Cannot process partition " + partition, ioe);
+                }
+            }, owners));
+        }
+
+        try {
+            CompletableFuture.allOf(done.toArray(new CompletableFuture[0])).get();
+        } catch ( InterruptedException ie ){
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while finishing the partitions.", ie);
+        } catch ( ExecutionException ee ){
+            Throwable cause = ee.getCause();
+            if ( cause instanceof IllegalStateException && cause.getCause() instanceof IOException )
+                throw (IOException) cause.getCause();
+            throw new IOException("Cannot aggregate partitions.", cause);
+        }
+    }
+
+    public int getPartitions(){
+        return partitions;
+    }
+
+    @Override
+    public void close() {
+        owners.shutdownNow();
+    }
+
+    /**
+     * Elements of one producer for one partition.
+     */
+    private static final class Batch {
+        private final int[] ids;
+        private final short[] depths;
+        private final int[] tfs;
+        private final int[] dfs;
+        private final long[] hashes;
+        private int size = 0;
+
+        private Batch(int capacity){
+            ids = new int[capacity];
+            depths = new short[capacity];
+            tfs = new int[capacity];
+            dfs = new int[capacity];
+            hashes = new long[capacity];
+        }
+
+        private void add(int id, short depth, int tf, int df, long hash){
+            ids[size] = id;
+            depths[size] = depth;
+            tfs[size] = tf;
+            dfs[size] = df;
+            hashes[size] = hash;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package mir.formulacloud.util;
+
+import mir.formulacloud.beans.MathVector;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Extracts the math of a harvest file without BaseX. The result is the same as the result of the
+ * term extraction script <code>termExtractor.xq</code>: for every child of a <code>math</code> element,
+ * all descendants (or self) that are or contain an <code>mi</code> element are converted to strings
+ * (<code>mrow(mi:x,mo:ivt,mi:y)</code>), grouped and counted. Expressions that appear less than the
+ * minimum term frequency are dropped and the rest is ordered by depth and descending frequency.
+ * The expressions are escaped as BaseX serializes them, hence they match the existing TF-IDF tables.
+ *
+ * The script converts and measures the subtree of every descendant again, which is quadratic in the size
+ * of a formula. The extractor reads the file once by StAX and builds the strings and depths bottom-up,
+ * i.e., the string of an element is built from the strings of its children when the element is closed.
+ * The same applies to the {@link SubtreeHash} of an element, which is the key to group equal subtrees.
+ * The strings are only compared if two subtrees have the same hash.
+ *
+ * Text nodes are trimmed as BaseX does while building the databases (CHOP). Expressions with line breaks
+ * inside a text are dropped (together with all ancestors), since {@link Constants#BASEX_ELEMENT_PATTERN} does not
+ * match them in the results of the script either. An instance is thread-safe.
+ *
+ * @author Andre Greiner-Petter
+ */
+public class SubtreeExtractor {
+    public static final String MATHML_NS = "http://www.w3.org/1998/Math/MathML";
+
+    private static final String INVISIBLE_TIMES = "\u2062";
+    private static final String FUNCTION_APPLICATION = "\u2061";
+
+    // factories are not guaranteed to be thread-safe
+    private static final ThreadLocal<XMLInputFactory> FACTORY = ThreadLocal.withInitial(SubtreeExtractor::createFactory);
+
+    private final int minTermFrequency;
+
+    /**
+     * @param minTermFrequency minimum frequency of an expression in a file
+     */
+    public SubtreeExtractor(int minTermFrequency){
+        this.minTermFrequency = minTermFrequency;
+    }
+
+    private static XMLInputFactory createFactory(){
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * @param harvest the harvest file
+     * @return the math of all formulae in the file
+     * @throws IOException if the file cannot be read or is not well-formed
+     */
+    public MathVector extract(Path harvest) throws IOException {
+        try ( InputStream in = new BufferedInputStream(Files.newInputStream(harvest)) ){
+            return extract(in);
+        } catch (IOException ioe){
+            throw new IOException("Cannot extract math from " + harvest + ". " + ioe.getMessage(), ioe);
+        }
+    }
+
+    /**
+     * @param in the harvest
+     * @return the math of all formulae in the harvest
+     * @throws IOException if the stream cannot be read or is not well-formed
+     */
+    public MathVector extract(InputStream in) throws IOException {
+        HashMap<Long, Subtree> subtrees = new HashMap<>();
+        ArrayDeque<Frame> stack = new ArrayDeque<>();
+        // number of open math elements
+        int openMath = 0;
+        int elements = 0;
+
+        XMLStreamReader reader = null;
+        try {
+            reader = FACTORY.get().createXMLStreamReader(in);
+            while ( reader.hasNext() ){
+                switch ( reader.next() ){
+                    case XMLStreamConstants.START_ELEMENT:
+                        Frame frame = new Frame(reader.getPrefix(), reader.getLocalName(), reader.getNamespaceURI(), openMath, elements++);
+                        if ( frame.math ) openMath++;
+                        stack.push(frame);
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        Frame current = stack.peek();
+                        if ( current != null && current.mathAncestors > 0 && current.children == null )
+                            current.appendText(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        Frame closed = stack.pop();
+                        if ( closed.math ) openMath--;
+                        close(closed, stack.peek(), subtrees);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } catch (XMLStreamException xse){
+            throw new IOException(xse.getMessage(), xse);
+        } finally {
+            if ( reader != null ){
+                try {
+                    reader.close();
+                } catch (XMLStreamException ignore){}
+            }
+        }
+
+        return toMathVector(subtrees);
+    }
+
+    private static void close(Frame frame, Frame parent, HashMap<Long, Subtree> subtrees){
+        if ( parent != null ) parent.containsMi |= frame.mathMLMi || frame.containsMi;
+
+        // outside of math (e.g., the math element itself) nothing is counted
+        if ( frame.mathAncestors == 0 ) return;
+
+        String expression;
+        SubtreeHash hash;
+        int depth;
+        if ( frame.children == null ){
+            // escaped as BaseX serializes the results, tags and structure never need escaping
+            expression = frame.name + ":" + escape(convertText(frame.text));
+            hash = new SubtreeHash().append(expression);
+            depth = 1;
+            frame.lineBreak = containsLineBreak(expression);
+        } else {
+            expression = frame.children.append(')').toString();
+            hash = frame.hash.append(')');
+            depth = frame.maxChildDepth + 1;
+        }
+
+        // the script selects descendant-or-self::*[descendant::mi or name()="mi"]
+        if ( !frame.lineBreak && (frame.containsMi || frame.name.equals("mi")) ){
+            Long key = hash.value();
+            Subtree subtree = subtrees.get(key);
+            while ( subtree != null && !subtree.expression.equals(expression) ) subtree = subtree.collision;
+            if ( subtree == null ){
+                subtree = new Subtree(expression, key, depth, frame.mathAncestors, frame.position);
+                subtree.collision = subtrees.put(key, subtree);
+            }
+            // a formula of nested math is counted once per math ancestor, as by $doc//math/*
+            else subtree.frequency += frame.mathAncestors;
+        }
+
+        if ( parent != null && parent.mathAncestors > 0 ){
+            parent.appendChild(expression, hash);
+            parent.lineBreak |= frame.lineBreak;
+            parent.maxChildDepth = Math.max(parent.maxChildDepth, depth);
+        }
+    }
+
+    private static String convertText(StringBuilder text){
+        String txt = text == null ? "" : trim(text);
+        if ( txt.equals(INVISIBLE_TIMES) ) return "ivt";
+        if ( txt.equals(FUNCTION_APPLICATION) ) return "fap";
+        return txt;
+    }
+
+    private static String trim(StringBuilder text){
+        int start = 0, end = text.length();
+        while ( start < end && isWhitespace(text.charAt(start)) ) start++;
+        while ( end > start && isWhitespace(text.charAt(end-1)) ) end--;
+        return text.substring(start, end);
+    }
+
+    /**
+     * @return true if the text contains a line terminator of {@link java.util.regex.Pattern}
+     */
+    private static boolean containsLineBreak(String text){
+        for ( int i = 0; i < text.length(); i++ ){
+            switch ( text.charAt(i) ){
+                case '\n': case '\r': case '\u0085': case '\u2028': case '\u2029':
+                    return true;
+                default:
+                    break;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isWhitespace(char c){
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    private MathVector toMathVector(HashMap<Long, Subtree> subtrees){
+        List<Subtree> list = new ArrayList<>(subtrees.size());
+        for ( Subtree subtree : subtrees.values() ){
+            for ( ; subtree != null; subtree = subtree.collision )
+                if ( subtree.frequency >= minTermFrequency ) list.add(subtree);
+        }
+
+        list.sort(Comparator
+                .comparingInt((Subtree s) -> s.depth)
+                .thenComparing(s -> s.frequency, Comparator.reverseOrder())
+                .thenComparingInt(s -> s.position)
+        );
+
+        String[] expressions = new String[list.size()];
+        short[] depths = new short[list.size()];
+        int[] frequencies = new int[list.size()];
+        long[] hashes = new long[list.size()];
+        for ( int i = 0; i < list.size(); i++ ){
+            Subtree s = list.get(i);
+            expressions[i] = s.expression;
+            depths[i] = (short) s.depth;
+            frequencies[i] = s.frequency;
+            hashes[i] = s.hash;
+        }
+        return new MathVector(expressions, depths, frequencies, hashes);
+    }
+
+    /**
+     * @param expression an expression
+     * @return the expression as BaseX serializes it in the result of the script
+     */
+    public static String escape(String expression){
+        if ( expression.indexOf('&') < 0 && expression.indexOf('<') < 0 && expression.indexOf('>') < 0 )
+            return expression;
+        StringBuilder sb = new StringBuilder(expression.length() + 8);
+        for ( int i = 0; i < expression.length(); i++ ){
+            char c = expression.charAt(i);
+            switch ( c ){
+                case '&': sb.append("&amp;"); break;
+                case '<': sb.append("&lt;"); break;
+                case '>': sb.append("&gt;"); break;
+                default: sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * An open element.
+     */
+    private static final class Frame {
+        // the name as returned by name() in XQuery, i.e., with prefix
+        private final String name;
+        private final boolean math;
+        private final boolean mathMLMi;
+
+        // number of math ancestors, 0 if the element is not part of a formula
+        private final int mathAncestors;
+        private final int position;
+
+        private StringBuilder text;
+
+        // the string and hash of this element while the children are closed, null for leaves
+        private StringBuilder children;
+        private SubtreeHash hash;
+        private int maxChildDepth = 0;
+
+        // true if a descendant is an mi element
+        private boolean containsMi = false;
+
+        // true if the expression contains a line break, i.e., the element is not extracted
+        private boolean lineBreak = false;
+
+        private Frame(String prefix, String localName, String namespace, int mathAncestors, int position){
+            this.name = prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName;
+            boolean mathML = MATHML_NS.equals(namespace);
+            this.math = mathML && localName.equals("math");
+            this.mathMLMi = mathML && localName.equals("mi");
+            this.mathAncestors = mathAncestors;
+            this.position = position;
+        }
+
+        private void appendText(char[] chars, int start, int length){
+            if ( text == null ) text = new StringBuilder(length);
+            text.append(chars, start, length);
+        }
+
+        private void appendChild(String expression, SubtreeHash childHash){
+            if ( children == null ){
+                children = new StringBuilder(name.length() + expression.length() + 2).append(name).append('(');
+                hash = new SubtreeHash().append(name).append('(');
+                text = null;
+            } else {
+                children.append(',');
+                hash.append(',');
+            }
+            children.append(expression);
+            hash.append(childHash);
+        }
+    }
+
+    /**
+     * A group of equal subtrees.
+     */
+    private static final class Subtree {
+        private final String expression;
+        private final long hash;
+        private final int depth;
+        private final int position;
+        private int frequency;
+
+        // a group of other subtrees with the same hash
+        private Subtree collision;
+
+        private Subtree(String expression, long hash, int depth, int frequency, int position){
+            this.expression = expression;
+            this.hash = hash;
+            this.depth = depth;
+            this.frequency = frequency;
+            this.position = position;
+        }
+    }
+}
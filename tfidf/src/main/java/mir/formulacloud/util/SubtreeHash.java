@@ -0,0 +1,90 @@
+package mir.formulacloud.util;
+
+/**
+ * Structural 64-bit hash of an expression (e.g., <code>mrow(mi:x,mo:=,mn:1)</code>).
+ *
+ * The hash of a node combines its tag, its text (leaves) and the hashes of its children,
+ * hence the {@link SubtreeExtractor} calculates the hash of an element from the hashes of its
+ * children when the element is closed (Merkle tree). Internally, the hash is a polynomial
+ * rolling hash over the characters of the expression string, so combining the child hashes gives
+ * exactly the same value as hashing the entire string with {@link #of(CharSequence)}. Expressions of
+ * tables or documents without a hash column (and the results of BaseX) get the same hash as the
+ * extracted expressions. The final value is mixed by the murmur3 finalizer, so that the lower bits
+ * are usable as bucket index.
+ *
+ * Different expressions might have the same hash. All maps that are keyed by this hash compare the
+ * expressions on a hit to detect collisions.
+ *
+ * An instance is the hash of a node under construction and is not thread-safe.
+ *
+ * @author Andre Greiner-Petter
+ */
+public final class SubtreeHash {
+    /**
+     * Marks a missing hash (e.g., in documents of older splitter runs). {@link #value()} never returns it.
+     */
+    public static final long UNKNOWN = 0L;
+
+    // odd, hence BASE^n never becomes 0
+    private static final long BASE = 0x9E3779B97F4A7C15L;
+
+    // polynomial of the characters so far and BASE^length
+    private long polynomial = 0;
+    private long power = 1;
+
+    public SubtreeHash(){}
+
+    public SubtreeHash append(char c){
+        polynomial = polynomial * BASE + c;
+        power *= BASE;
+        return this;
+    }
+
+    public SubtreeHash append(CharSequence s){
+        for ( int i = 0; i < s.length(); i++ ) append(s.charAt(i));
+        return this;
+    }
+
+    /**
+     * Appends a child without visiting its characters again.
+     * @param child the hash of the child
+     * @return this hash
+     */
+    public SubtreeHash append(SubtreeHash child){
+        polynomial = polynomial * child.power + child.polynomial;
+        power *= child.power;
+        return this;
+    }
+
+    /**
+     * @return the 64-bit hash, never {@link #UNKNOWN}
+     */
+    public long value(){
+        long h = polynomial ^ power;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == UNKNOWN ? 1L : h;
+    }
+
+    /**
+     * Maps the hash to one of the given number of partitions. The partition depends on the upper bits of
+     * the hash only, so it is independent of the buckets of hash tables within a partition.
+     * @param hash a hash of this class
+     * @param partitions number of partitions
+     * @return the partition, between 0 (inclusive) and partitions (exclusive)
+     */
+    public static int partition(long hash, int partitions){
+        return (int) (((hash >>> 32) * partitions) >>> 32);
+    }
+
+    /**
+     * @param expression the expression string
+     * @return the hash of the expression
+     */
+    public static long of(CharSequence expression){
+        return new SubtreeHash().append(expression).value();
+    }
+}
@@ -29,6 +29,24 @@ public class TFIDFConfig implements Serializable {
     @Parameter(names = {"-numOutF", "--numberOutputFiles"}, description = "Set the number of output files (default is 8) only effective if the output is specified via -out.")
     private int numOfOutputFiles = 8;
 
+    @Parameter(names = {"-batch", "--batchSize"}, description = "Set the number of documents of the same database that are requested from BaseX by one query (default is 10)")
+    private int batchSize = 10;
+
+    @Parameter(names = {"-local", "--extractLocally"}, description = "Extract the math directly from the harvest files instead of requesting it from BaseX (no BaseX servers are started)")
+    private boolean extractLocally = false;
+
+    @Parameter(names = {"-extractor", "--termExtractor"}, description = "Term extraction scripts of BaseX, MEMOIZED visits every element once (default is DEFAULT)")
+    private XQueryLoader.Extractor termExtractor = XQueryLoader.Extractor.DEFAULT;
+
+    @Parameter(names = {"-aggMem", "--aggregationMemory"}, description = "Memory budget in MB of the calculator. If set, the math elements are aggregated by sorted runs on disk instead of in the heap (default is 0, i.e., in the heap)")
+    private int aggregationMemory = 0;
+
+    @Parameter(names = {"-spill", "--spillDirectory"}, description = "Directory of the sorted runs of -aggMem (default is the temporary directory of the system)")
+    private String spillDirectory = System.getProperty("java.io.tmpdir");
+
+    @Parameter(names = {"-partitioned", "--partitionedAggregation"}, description = "Aggregate the math elements in hash partitions, one thread and one output file per partition (-numOutF partitions)")
+    private boolean partitionedAggregation = false;
+
     @Parameter(names = {"-h", "--help"}, help = true)
     private boolean help = false;
 
@@ -82,6 +100,46 @@ public class TFIDFConfig implements Serializable {
         this.minTermFrequency = minTermFrequency;
     }
 
+    public boolean isExtractLocally() {
+        return extractLocally;
+    }
+
+    public void setExtractLocally(boolean extractLocally) {
+        this.extractLocally = extractLocally;
+    }
+
+    public XQueryLoader.Extractor getTermExtractor() {
+        return termExtractor;
+    }
+
+    public void setTermExtractor(XQueryLoader.Extractor termExtractor) {
+        this.termExtractor = termExtractor;
+    }
+
+    public int getAggregationMemory() {
+        return Math.max(0, aggregationMemory);
+    }
+
+    public void setAggregationMemory(int aggregationMemory) {
+        this.aggregationMemory = aggregationMemory;
+    }
+
+    public String getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    public void setSpillDirectory(String spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    public boolean isPartitionedAggregation() {
+        return partitionedAggregation;
+    }
+
+    public void setPartitionedAggregation(boolean partitionedAggregation) {
+        this.partitionedAggregation = partitionedAggregation;
+    }
+
     public boolean isHelp() {
         return help;
     }
@@ -98,6 +156,18 @@ public class TFIDFConfig implements Serializable {
         this.defaultClients = defaultClients;
     }
 
+    public int getBatchSize() {
+        if (batchSize < 1){
+            System.out.println("Negative or 0 batch size is not allowed. Request single documents instead.");
+            return 1;
+        }
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
     public int getNumOfOutputFiles() {
         return numOfOutputFiles;
     }
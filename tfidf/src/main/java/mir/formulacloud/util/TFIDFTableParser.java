@@ -0,0 +1,220 @@
+package mir.formulacloud.util;
+
+import mir.formulacloud.beans.MathElement;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Single pass parser for the TF-IDF tables written by {@link MathElement#toString()},
+ * i.e., lines of the form <code>"expr";depth;tf;df;id;hash</code>. The ID and hash columns are optional
+ * (tables of older runs do not contain them), in this case the consumer receives -1 as ID. A missing
+ * {@link SubtreeHash} is calculated from the expression, so the consumers of {@link #parse(Path, EntryConsumer)}
+ * always receive the hash.
+ *
+ * The expression may contain semicolons and quotes. Instead of splitting the line with
+ * a lookahead regex (which rescans the rest of the line at every semicolon) the parser
+ * reads the numeric fields backwards from the end of the line until it reaches the
+ * closing quote of the expression. The file is read in chunks into a byte buffer and
+ * the expression is the only part that is decoded to a string.
+ *
+ * Rows can be skipped by a {@link FrequencyFilter} before the expression gets decoded.
+ *
+ * An instance keeps its buffers and is not thread-safe. Use one parser per thread.
+ *
+ * @author Andre Greiner-Petter
+ */
+public class TFIDFTableParser {
+    private static final Logger LOG = LogManager.getLogger(TFIDFTableParser.class.getName());
+
+    private static final int DEFAULT_BUFFER_SIZE = 8 << 20;
+    private static final int MAX_NUMERIC_FIELDS = 8;
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(String expression, short depth, int totalFrequency, int docFrequency, int id, long hash);
+    }
+
+    private ByteBuffer buffer;
+
+    // numeric fields of the current line (right to left) and the position of the
+    // semicolon that separates the expression from the numeric fields
+    private final long[] fields;
+    private int fieldsStart;
+
+    private long malformedLines;
+
+    private FrequencyFilter filter;
+    private long filteredLines;
+
+    public TFIDFTableParser() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    public TFIDFTableParser(int bufferSize) {
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        this.fields = new long[MAX_NUMERIC_FIELDS];
+    }
+
+    /**
+     * Rows that are not accepted by the filter are skipped.
+     * @param filter the filter or null to accept all rows
+     * @return this parser
+     */
+    public TFIDFTableParser setFilter(FrequencyFilter filter) {
+        this.filter = filter == null || filter.acceptsAll() ? null : filter;
+        return this;
+    }
+
+    /**
+     * @return the number of rows of the last parsed file that were skipped by the filter
+     */
+    public long getFilteredLines() {
+        return filteredLines;
+    }
+
+    /**
+     * Parses the given TF-IDF table and hands every entry to the consumer.
+     * @param file TF-IDF table
+     * @param consumer receives all entries
+     * @return number of parsed entries (without the filtered entries)
+     * @throws IOException if the file cannot be read
+     */
+    public long parse(Path file, EntryConsumer consumer) throws IOException {
+        long counter = 0;
+        malformedLines = 0;
+        filteredLines = 0;
+        buffer.clear();
+
+        try ( FileChannel channel = FileChannel.open(file, StandardOpenOption.READ) ){
+            boolean eof = false;
+            while ( !eof ){
+                if ( !buffer.hasRemaining() ){
+                    // a single line is larger than the buffer
+                    ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                    buffer.flip();
+                    larger.put(buffer);
+                    buffer = larger;
+                }
+
+                eof = channel.read(buffer) < 0;
+                byte[] data = buffer.array();
+                int limit = buffer.position();
+                int lineStart = 0;
+
+                for ( int i = 0; i < limit; i++ ){
+                    if ( data[i] == '\n' ){
+                        if ( parseLine(data, lineStart, i, consumer, true) ) counter++;
+                        lineStart = i + 1;
+                    }
+                }
+
+                if ( eof && lineStart < limit ){
+                    // last line without line break
+                    if ( parseLine(data, lineStart, limit, consumer, true) ) counter++;
+                    lineStart = limit;
+                }
+
+                // move the incomplete line to the beginning of the buffer
+                buffer.flip();
+                buffer.position(lineStart);
+                buffer.compact();
+            }
+        }
+
+        if ( malformedLines > 0 )
+            LOG.warn("Skipped " + malformedLines + " malformed lines in " + file);
+        return counter;
+    }
+
+    /**
+     * Parses a single line, e.g., for testing. Prefer {@link #parse(Path, EntryConsumer)} for files.
+     * @param line a line of a TF-IDF table
+     * @return the parsed element (without hash if the line has no hash column) or null if the line is malformed
+     */
+    public MathElement parseLine(String line){
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        MathElement[] element = new MathElement[1];
+        parseLine(bytes, 0, bytes.length, (e, d, tf, df, id, hash) -> element[0] = new MathElement(e, d, tf, df, id, hash), false);
+        return element[0];
+    }
+
+    private boolean parseLine(byte[] data, int start, int end, EntryConsumer consumer, boolean hashExpressions){
+        if ( end > start && data[end-1] == '\r' ) end--;
+        if ( end <= start ) return false; // skip empty lines
+
+        int numFields = parseNumericFields(data, start, end);
+        if ( numFields < 3 || data[start] != '"' ){
+            malformedLine(data, start, end);
+            return false;
+        }
+
+        // the numeric fields are stored from right to left
+        int df    = (int)fields[numFields-3];
+        int tf    = (int)fields[numFields-2];
+        short depth = (short)fields[numFields-1];
+        int id      = numFields > 3 ? (int)fields[numFields-4] : -1;
+        long hash   = numFields > 4 ? fields[numFields-5] : SubtreeHash.UNKNOWN;
+
+        if ( filter != null && !filter.accept(depth, tf, df) ){
+            filteredLines++;
+            return false;
+        }
+
+        int exprStart = start + 1;
+        int exprLength = fieldsStart - 1 - exprStart;
+        if ( exprLength < 0 ){
+            malformedLine(data, start, end);
+            return false;
+        }
+
+        String expression = new String(data, exprStart, exprLength, StandardCharsets.UTF_8);
+        if ( hashExpressions && hash == SubtreeHash.UNKNOWN ) hash = SubtreeHash.of(expression);
+        consumer.accept(expression, depth, tf, df, id, hash);
+        return true;
+    }
+
+    /**
+     * Reads numeric fields from the end of the line until the closing quote of the expression.
+     * @return the number of numeric fields or -1 if the line is malformed
+     */
+    private int parseNumericFields(byte[] data, int start, int end){
+        int pos = end;
+        int n = 0;
+        while ( n < MAX_NUMERIC_FIELDS ){
+            long value = 0;
+            long multiplier = 1;
+            int p = pos - 1;
+            while ( p >= start && data[p] >= '0' && data[p] <= '9' ){
+                value += (data[p] - '0') * multiplier;
+                multiplier *= 10;
+                p--;
+            }
+            if ( p == pos - 1 ) return -1; // no digits
+            if ( p >= start && data[p] == '-' ){
+                value = -value;
+                p--;
+            }
+            if ( p < start || data[p] != ';' ) return -1;
+
+            fields[n++] = value;
+            pos = p;
+            if ( pos - 1 > start && data[pos-1] == '"' ){
+                fieldsStart = pos;
+                return n;
+            }
+        }
+        return -1;
+    }
+
+    private void malformedLine(byte[] data, int start, int end){
+        malformedLines++;
+        LOG.debug("Error parsing line: " + new String(data, start, end - start, StandardCharsets.UTF_8));
+    }
+}
@@ -7,6 +7,10 @@ import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.regex.Matcher;
 
 /**
  * @author Andre Greiner-Petter
@@ -19,51 +23,82 @@ public class XQueryLoader {
     private static final String MINFRQ_PATTERN = "$$MINFREQ$$";
     private static final String LIST_PATTERN = "$$LIST$$";
 
-    private static String script, zbScript;
+    /**
+     * The term extraction scripts. All variants return the same terms for a document.
+     */
+    public enum Extractor {
+        /**
+         * The original scripts, they convert every descendant again (quadratic in the size of a formula)
+         * and order the terms by depth and frequency.
+         */
+        DEFAULT("termExtractor.xq", "ZBTermExtractor.xq"),
+
+        /**
+         * Visit every element once and build its string and depth from its children, the terms are not ordered.
+         */
+        MEMOIZED("termExtractorMemo.xq", "ZBTermExtractorMemo.xq");
+
+        private final String file, zbFile;
+        private String script, zbScript;
+
+        Extractor(String file, String zbFile){
+            this.file = file;
+            this.zbFile = zbFile;
+        }
+    }
+
+    // the scripts of the methods without explicit extractor, selected once at startup
+    private static volatile Extractor defaultExtractor = Extractor.DEFAULT;
 
     private static final String NS_DECLARE =
             "declare namespace mws = \"http://search.mathweb.org/ns\";\n" +
             "declare default element namespace \"http://www.w3.org/1998/Math/MathML\";\n\n";
 
-    private static final String ID_PREFIX = "@data-doc-id=";
-
-    private static String DOC_PRE_CALLER =
+    private static final String DOC_PRE_CALLER =
             "declare variable $docid := \"$$DOCID$$\";\n" +
             "declare variable $minDocFreq := $$MINFREQ$$;\n\n";
 
-    private static String DOC_PRE_COLLECTION_CALLER =
+    private static final String DOC_PRE_COLLECTION_CALLER =
             "declare variable $dataCollection := \"$$DATACOL$$\";\n" +
             "declare variable $minDocFreq := $$MINFREQ$$;\n\n";
 
-    private static String DOC_PRE_ID_CALLER =
+    private static final String DOC_PRE_ID_CALLER =
             "declare variable $docID := \"$$DOCID$$\";\n";
 
-    private static String POST_CALLER =
+    private static final String POST_CALLER =
             "declare variable $doc := /mws:harvest[@data-doc-id=$docid];\n" +
             "if ($doc/*) then\n" +
             "  local:extractTerms($doc[1], $minDocFreq)";
 
-    private static String POST_SET_CALLER =
-            "declare variable $minDocFreq := $$MINFREQ$$;\n" +
-            "declare variable $doc := /mws:mir.formulacloud.harvest[$$LIST$$];\n" +
-                    "if ($doc/*) then\n" +
-                    "  local:extractTerms($doc[1], $minDocFreq)";
+    private static final String DOC_PRE_BATCH_CALLER =
+            "declare variable $docids := ($$LIST$$);\n" +
+            "declare variable $minDocFreq := $$MINFREQ$$;\n\n";
+
+    private static final String POST_BATCH_CALLER = "\n" +
+            "for $doc in /mws:harvest[@data-doc-id=$docids]\n" +
+            "let $id := $doc/@data-doc-id/string()\n" +
+            "group by $id\n" +
+            "return <document id=\"{$id}\">{\n" +
+            "  if ($doc[1]/*) then local:extractTerms($doc[1], $minDocFreq) else ()\n" +
+            "}</document>";
 
-    private static String IDENTIFY_EMPTY_DOC = NS_DECLARE +
+    private static final String IDENTIFY_EMPTY_DOC = NS_DECLARE +
             "mws:harvest[not(descendant::mi)]/@data-doc-id/string()";
 
-    private static String TRIGGER = "\n" +
+    private static final String TRIGGER = "\n" +
             "declare variable $docs := /mws:harvest[@data-collection=$dataCollection];\n" +
             "local:extractTerms($docs, $minDocFreq)";
 
-    private static String TRIGGER_SINGLE_DOC = "\n" +
+    private static final String TRIGGER_SINGLE_DOC = "\n" +
             "declare variable $docs := /mws:harvest[@data-collection=$dataCollection]/mws:expr[contains(@url, $docID)]/..;\n" +
             "local:extractTerms($docs, $minDocFreq)";
 
     static {
         try {
-            script = getTermExtractorScript("termExtractor.xq");
-            zbScript = getTermExtractorScript("ZBTermExtractor.xq");
+            for ( Extractor extractor : Extractor.values() ){
+                extractor.script = getTermExtractorScript(extractor.file);
+                extractor.zbScript = getTermExtractorScript(extractor.zbFile);
+            }
         } catch (Exception e){
             System.err.println("Cannot read resource!");
             e.printStackTrace();
@@ -76,34 +111,128 @@ public class XQueryLoader {
         return Resources.toString(url, Charsets.UTF_8);
     }
 
-    public static void initMinTermFrequency(int minTermFrequency){
-        DOC_PRE_CALLER = DOC_PRE_CALLER.replace(MINFRQ_PATTERN, ""+minTermFrequency);
-        POST_SET_CALLER = POST_SET_CALLER.replace(MINFRQ_PATTERN, ""+minTermFrequency);
-        DOC_PRE_COLLECTION_CALLER = DOC_PRE_COLLECTION_CALLER.replace(MINFRQ_PATTERN, ""+minTermFrequency);
+    /**
+     * Selects the scripts of all methods without an explicit {@link Extractor}.
+     * @param extractor the term extraction scripts
+     */
+    public static void setDefaultExtractor(Extractor extractor){
+        defaultExtractor = extractor;
+        LOG.info("Use the " + extractor + " term extraction scripts.");
+    }
+
+    public static Extractor getDefaultExtractor(){
+        return defaultExtractor;
+    }
+
+    /**
+     * The scripts are created per call, hence requests with different minimum term frequencies
+     * can run concurrently.
+     * @param docID the document
+     * @param minTermFrequency minimum frequency of an expression in the document
+     * @return the script that extracts the terms of the document
+     */
+    public static String getScript(String docID, int minTermFrequency){
+        return getScript(docID, minTermFrequency, defaultExtractor);
+    }
+
+    /**
+     * @see #getScript(String, int)
+     */
+    public static String getScript(String docID, int minTermFrequency, Extractor extractor){
+        String caller = DOC_PRE_CALLER
+                .replace(FNAME_PATTERN, docID)
+                .replace(MINFRQ_PATTERN, ""+minTermFrequency);
+        return NS_DECLARE + caller + extractor.script + POST_CALLER;
     }
 
-    public static String getScript(String docID){
-        String caller = DOC_PRE_CALLER.replace(FNAME_PATTERN, docID);
-        return NS_DECLARE + caller + script + POST_CALLER;
+    /**
+     * Creates one script that extracts the terms of all given documents (of the same database).
+     * The result contains one <code>&lt;document id="..."&gt;</code> element per existing document
+     * that wraps the usual term elements of this document. Use {@link #splitBatchResult(String)}
+     * to split the result into the results of the single documents.
+     * @param minTermFrequency minimum frequency of an expression in a document
+     * @param docIDs the documents
+     * @return the script
+     */
+    public static String getScript(int minTermFrequency, String... docIDs){
+        return getBatchScript(Arrays.asList(docIDs), minTermFrequency);
     }
 
-    public static String getScript(String... docIDs){
-        String command = ID_PREFIX + '"' + docIDs[0] + '"';
-        for ( int i = 1; i < docIDs.length; i++ ){
-            command = command + " or " + ID_PREFIX + '"' + docIDs[i] + '"';
+    /**
+     * @see #getScript(int, String...)
+     */
+    public static String getBatchScript(Collection<String> docIDs, int minTermFrequency){
+        return getBatchScript(docIDs, minTermFrequency, defaultExtractor);
+    }
+
+    /**
+     * @see #getScript(int, String...)
+     */
+    public static String getBatchScript(Collection<String> docIDs, int minTermFrequency, Extractor extractor){
+        StringBuilder list = new StringBuilder();
+        for ( String id : docIDs ){
+            if ( list.length() > 0 ) list.append(", ");
+            // string literal in XQuery, quotes are doubled and ampersands start entity references
+            list.append('"').append(id.replace("&", "&amp;").replace("\"", "\"\"")).append('"');
+        }
+        String caller = DOC_PRE_BATCH_CALLER
+                .replace(LIST_PATTERN, list.toString())
+                .replace(MINFRQ_PATTERN, ""+minTermFrequency);
+        return NS_DECLARE + caller + extractor.script + POST_BATCH_CALLER;
+    }
+
+    /**
+     * Splits the result of a batch script (see {@link #getBatchScript(Collection, int)}) into
+     * the results of the single documents. Every result can be parsed
+     * by {@link Constants#BASEX_ELEMENT_PATTERN} like the result of {@link #getScript(String, int)}.
+     * @param results the result of a batch script
+     * @return the results by document IDs (in order of the result). Documents that do not
+     *         exist in the database are not part of the map.
+     */
+    public static LinkedHashMap<String, String> splitBatchResult(String results){
+        LinkedHashMap<String, String> documents = new LinkedHashMap<>();
+        Matcher matcher = Constants.BASEX_DOCUMENT_PATTERN.matcher(results);
+        String docID = null;
+        int start = 0;
+        while ( matcher.find() ){
+            if ( docID != null ) documents.put(docID, results.substring(start, matcher.start()));
+            docID = unescapeXML(matcher.group(Constants.BX_IDX_DOC_ID));
+            start = matcher.end();
         }
-        return NS_DECLARE + script + POST_CALLER.replace(LIST_PATTERN, command);
+        if ( docID != null ) documents.put(docID, results.substring(start));
+        return documents;
+    }
+
+    private static String unescapeXML(String str){
+        if ( str.indexOf('&') < 0 ) return str;
+        return str.replace("&quot;", "\"")
+                .replace("&apos;", "'")
+                .replace("&lt;", "<")
+                .replace("&gt;", ">")
+                .replace("&amp;", "&");
+    }
+
+    public static String getZBScript(String collection, int minTermFrequency){
+        return getZBScript(collection, minTermFrequency, defaultExtractor);
+    }
+
+    public static String getZBScript(String collection, int minTermFrequency, Extractor extractor){
+        String caller = DOC_PRE_COLLECTION_CALLER
+                .replace(COLNAME_PATTERN, collection)
+                .replace(MINFRQ_PATTERN, ""+minTermFrequency);
+        return NS_DECLARE + caller + extractor.zbScript + TRIGGER;
     }
 
-    public static String getZBScript(String collection){
-        String caller = DOC_PRE_COLLECTION_CALLER.replace(COLNAME_PATTERN, collection);
-        return NS_DECLARE + caller + zbScript + TRIGGER;
+    public static String getZBScriptForSingleDoc(String collection, String docID, int minTermFrequency){
+        return getZBScriptForSingleDoc(collection, docID, minTermFrequency, defaultExtractor);
     }
 
-    public static String getZBScriptForSingleDoc(String collection, String docID){
-        String caller = DOC_PRE_COLLECTION_CALLER.replace(COLNAME_PATTERN, collection);
+    public static String getZBScriptForSingleDoc(String collection, String docID, int minTermFrequency, Extractor extractor){
+        String caller = DOC_PRE_COLLECTION_CALLER
+                .replace(COLNAME_PATTERN, collection)
+                .replace(MINFRQ_PATTERN, ""+minTermFrequency);
         caller += DOC_PRE_ID_CALLER.replace(FNAME_PATTERN, docID);
-        return NS_DECLARE + caller + zbScript + TRIGGER_SINGLE_DOC;
+        return NS_DECLARE + caller + extractor.zbScript + TRIGGER_SINGLE_DOC;
     }
 
     public static String getIdentifyEmptyDocIDScript() {
@@ -0,0 +1,80 @@
+package mir.formulacloud.util;
+
+import mir.formulacloud.beans.MathElement;
+import mir.formulacloud.tfidf.BinaryDictionaryBuilder;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Andre Greiner-Petter
+ */
+public class BinaryDictionaryTest {
+
+    @Test
+    public void buildAndLookupTest() throws Exception {
+        Path tables = Files.createTempDirectory("tfidf");
+        Files.write(tables.resolve("1"), Arrays.asList(
+                "\"mrow(mi:ζ,mo:ivt,mrow(mo:(,mi:z,mo:)))\";3;42;17",
+                "\"mi:x\";1;1000;500"
+        ), StandardCharsets.UTF_8);
+        Files.write(tables.resolve("2"), Arrays.asList(
+                "\"mrow(mi:a,mo:;,mi:b)\";2;5;3"
+        ), StandardCharsets.UTF_8);
+
+        Path dictFile = Files.createTempFile("tfidf", ".bin");
+        new BinaryDictionaryBuilder(tables, dictFile).build();
+        assertTrue(BinaryDictionary.isBinaryDictionary(dictFile));
+        assertFalse(BinaryDictionary.isBinaryDictionary(tables));
+
+        try ( BinaryDictionary dict = BinaryDictionary.open(dictFile) ){
+            assertEquals(3, dict.size());
+
+            MathElement zeta = dict.getMathElement("mrow(mi:ζ,mo:ivt,mrow(mo:(,mi:z,mo:)))");
+            assertNotNull(zeta);
+            assertEquals(3, zeta.getDepth());
+            assertEquals(42, zeta.getTotalFrequency());
+            assertEquals(17, zeta.getDocFrequency());
+
+            MathElement semicolon = dict.getMathElement("mrow(mi:a,mo:;,mi:b)");
+            assertNotNull(semicolon);
+            assertEquals(5, semicolon.getTotalFrequency());
+
+            assertNull(dict.getMathElement("mi:y"));
+            assertEquals(3, dict.stream().count());
+        }
+    }
+
+    @Test
+    public void lookupByIDTest() throws Exception {
+        Path tables = Files.createTempDirectory("tfidf");
+        Files.write(tables.resolve("1"), Arrays.asList(
+                "\"mi:x\";1;1000;500;4",
+                "\"mrow(mi:a,mo:;,mi:b)\";2;5;3;0",
+                "\"mi:y\";1;7;7" // no ID, gets the next free ID
+        ), StandardCharsets.UTF_8);
+
+        Path dictFile = Files.createTempFile("tfidf", ".bin");
+        new BinaryDictionaryBuilder(tables, dictFile).build();
+
+        try ( BinaryDictionary dict = BinaryDictionary.open(dictFile) ){
+            MathElement x = dict.getMathElement(4);
+            assertEquals("mi:x", x.getExpression());
+            assertEquals(500, x.getDocFrequency());
+            assertEquals(4, dict.getMathElement("mi:x").getId());
+
+            assertEquals("mrow(mi:a,mo:;,mi:b)", dict.getMathElement(0).getExpression());
+            assertEquals(5, dict.getMathElement("mi:y").getId());
+            assertEquals("mi:y", dict.getMathElement(5).getExpression());
+
+            assertNull(dict.getMathElement(1));
+            assertNull(dict.getMathElement(6));
+            assertNull(dict.getMathElement(-1));
+        }
+    }
+}
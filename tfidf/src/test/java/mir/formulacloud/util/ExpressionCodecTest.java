@@ -0,0 +1,75 @@
+package mir.formulacloud.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Andre Greiner-Petter
+ */
+public class ExpressionCodecTest {
+
+    private static final String[] EXPRESSIONS = new String[]{
+            "mrow(msub(mi:E,mn:0),mo:=,mi:m)",
+            "mrow(mi:ζ,mo:ivt,mrow(mo:(,mi:z,mo:)))",
+            "mrow(mo:,,mi:x,mo:))",
+            "mrow(mi:a,mo:;,mi:b)",
+            "mrow(mtext:a, b,mi:x)",
+            "mrow(mglyph(mi:x),unknowntag:y)",
+            "mi:",
+            "mrow(mi:,mi:x)",
+            "mi:x",
+            "mrow(",
+            "mrow()",
+            "(mi:x)",
+            "",
+            "mo:\"",
+            "mrow(mi:x,mo:+,mn:1))"
+    };
+
+    @Test
+    public void roundTripTest(){
+        ExpressionCodec codec = new ExpressionCodec();
+        for ( String expr : EXPRESSIONS ){
+            byte[] code = codec.encode(expr);
+            assertEquals(expr, codec.decode(code), "Round trip failed for " + expr);
+            assertArrayEquals(code, codec.encodeIfKnown(expr));
+        }
+    }
+
+    @Test
+    public void compactTest(){
+        ExpressionCodec codec = new ExpressionCodec();
+        String expr = "mrow(msubsup(mi:x,mrow(mi:i,mo:=,mn:1),mi:n),mo:ivt,mrow(mo:(,mi:x,mo:+,mi:y,mo:)))";
+        byte[] code = codec.encode(expr);
+        assertEquals(expr, codec.decode(code));
+        assertTrue(code.length * 2 < expr.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    @Test
+    public void unknownLeafTest(){
+        ExpressionCodec codec = new ExpressionCodec();
+        codec.encode("mrow(mi:x,mo:+,mi:y)");
+        assertNotNull(codec.encodeIfKnown("mrow(mi:y,mo:+,mi:x)"));
+        assertNull(codec.encodeIfKnown("mrow(mi:x,mo:+,mi:z)"));
+        // raw expressions do not depend on the vocabulary
+        assertNotNull(codec.encodeIfKnown("(mi:z)"));
+        assertEquals(3, codec.getNumberOfLeaves());
+    }
+
+    @Test
+    public void matchesTest(){
+        ExpressionCodec codec = new ExpressionCodec();
+        for ( String expr : EXPRESSIONS ){
+            byte[] code = codec.encode(expr);
+            assertTrue(codec.matches(code, expr), "No match for " + expr);
+        }
+        byte[] code = codec.encode("mrow(mi:x,mo:+,mi:y)");
+        assertFalse(codec.matches(code, "mrow(mi:x,mo:+,mi:y"));
+        assertFalse(codec.matches(code, "mrow(mi:x,mo:+,mi:y))"));
+        assertFalse(codec.matches(code, "mrow(mi:x,mo:-,mi:y)"));
+        assertFalse(codec.matches(code, "mrow(mi:x,mo:+,mn:y)"));
+    }
+}
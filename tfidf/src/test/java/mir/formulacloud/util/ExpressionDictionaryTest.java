@@ -0,0 +1,84 @@
+package mir.formulacloud.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Andre Greiner-Petter
+ */
+public class ExpressionDictionaryTest {
+
+    @Test
+    public void assignAndReopenTest() throws Exception {
+        Path file = Files.createTempDirectory("dict").resolve(Constants.DICTIONARY_FILE);
+
+        try ( ExpressionDictionary dict = ExpressionDictionary.open(file) ){
+            assertEquals(0, dict.getOrAssign("mi:x"));
+            assertEquals(1, dict.getOrAssign("mrow(mi:a,mo:;,mi:b)"));
+            assertEquals(0, dict.getOrAssign("mi:x"));
+            assertEquals(-1, dict.getID("mi:y"));
+        }
+
+        // IDs stay stable, new expressions are appended
+        try ( ExpressionDictionary dict = ExpressionDictionary.open(file) ){
+            assertEquals(2, dict.size());
+            assertEquals(1, dict.getID("mrow(mi:a,mo:;,mi:b)"));
+            assertEquals(2, dict.getOrAssign("mi:y"));
+        }
+
+        ExpressionDictionary dict = ExpressionDictionary.load(file);
+        assertEquals(3, dict.size());
+        assertEquals("mi:x", dict.getExpression(0));
+        assertEquals("mi:y", dict.getExpression(2));
+        assertNull(dict.getExpression(3));
+    }
+
+    @Test
+    public void lineBreakTest() throws Exception {
+        Path file = Files.createTempDirectory("dict").resolve(Constants.DICTIONARY_FILE);
+
+        try ( ExpressionDictionary dict = ExpressionDictionary.open(file) ){
+            assertEquals(0, dict.getOrAssign("mi:x"));
+            // would be stored as two lines and shift the IDs of all following expressions
+            assertThrows(IllegalArgumentException.class, () -> dict.getOrAssign("mi:a\nb"));
+            assertThrows(IllegalArgumentException.class, () -> dict.getOrAssign("mi:a\rb"));
+            assertEquals(1, dict.getOrAssign("mi:y"));
+        }
+
+        ExpressionDictionary dict = ExpressionDictionary.load(file);
+        assertEquals(2, dict.size());
+        assertEquals(1, dict.getID("mi:y"));
+    }
+
+    @Test
+    public void hashCollisionTest(){
+        ExpressionDictionary dict = new ExpressionDictionary();
+        // different expressions with the same hash get different IDs
+        assertEquals(0, dict.getOrAssign(42L, "mi:x"));
+        assertEquals(1, dict.getOrAssign(42L, "mi:y"));
+        assertEquals(0, dict.getOrAssign(42L, "mi:x"));
+        assertEquals(1, dict.getID(42L, "mi:y"));
+        assertEquals(-1, dict.getID(42L, "mi:z"));
+        assertEquals(-1, dict.getID(43L, "mi:x"));
+        assertEquals(2, dict.size());
+    }
+
+    @Test
+    public void concurrentReadTest(){
+        ExpressionDictionary dict = new ExpressionDictionary();
+        // the readers see every assigned ID, also while the array grows
+        IntStream.range(0, 20_000).parallel().forEach( i -> {
+            int id = dict.getOrAssign("mi:x" + i);
+            assertEquals("mi:x" + i, dict.getExpression(id));
+            int size = dict.size();
+            assertNotNull(dict.getCompactExpression(size - 1));
+        });
+        assertEquals(20_000, dict.size());
+        assertNull(dict.getCompactExpression(20_000));
+    }
+}
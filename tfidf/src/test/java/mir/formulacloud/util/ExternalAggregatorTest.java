@@ -0,0 +1,94 @@
+package mir.formulacloud.util;
+
+import mir.formulacloud.beans.MathElement;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Andre Greiner-Petter
+ */
+public class ExternalAggregatorTest {
+
+    @Test
+    public void mergeRunsTest() throws Exception {
+        Path dir = Files.createTempDirectory("runs");
+        Random random = new Random(42);
+        HashMap<Integer, long[]> expected = new HashMap<>();
+
+        List<MathElement> result = new ArrayList<>();
+        // 10 records per buffer and a fan in of 3, so the runs are merged in several passes
+        try ( ExternalAggregator aggregator = new ExternalAggregator(dir, 10, 3) ){
+            for ( int doc = 0; doc < 50; doc++ ){
+                int n = random.nextInt(8);
+                int[] ids = new int[n];
+                short[] depths = new short[n];
+                int[] tfs = new int[n];
+                int[] dfs = new int[n];
+                long[] hashes = new long[n];
+                for ( int i = 0; i < n; i++ ){
+                    ids[i] = random.nextInt(40);
+                    depths[i] = (short) (ids[i] % 5 + 1);
+                    tfs[i] = 1 + random.nextInt(3);
+                    dfs[i] = 1;
+                    hashes[i] = 1000L + ids[i];
+                    long[] sums = expected.computeIfAbsent(ids[i], k -> new long[2]);
+                    sums[0] += tfs[i];
+                    sums[1] += dfs[i];
+                }
+                aggregator.add(ids, depths, tfs, dfs, hashes, n);
+            }
+
+            assertEquals(expected.size(), aggregator.merge(result::add));
+            assertTrue(aggregator.getNumberOfRuns() > 3);
+        }
+
+        int previous = -1;
+        for ( MathElement e : result ){
+            assertTrue(previous < e.getId());
+            previous = e.getId();
+            assertEquals(expected.get(e.getId())[0], e.getTotalFrequency());
+            assertEquals(expected.get(e.getId())[1], e.getDocFrequency());
+            assertEquals(e.getId() % 5 + 1, e.getDepth());
+            assertEquals(1000L + e.getId(), e.getHash());
+        }
+
+        // all runs are deleted
+        try ( Stream<Path> files = Files.list(dir) ){
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void singleRunTest() throws Exception {
+        Path dir = Files.createTempDirectory("runs");
+        List<MathElement> result = new ArrayList<>();
+        try ( ExternalAggregator aggregator = new ExternalAggregator(dir, 1024 * 1024) ){
+            aggregator.add(new int[]{3, 1, 3}, new short[]{2, 1, 2}, new int[]{4, 1, 2}, new int[]{1, 1, 1}, new long[]{7, 8, 7}, 3);
+            assertEquals(2, aggregator.merge(result::add));
+            assertEquals(1, aggregator.getNumberOfRuns());
+        }
+        assertEquals(1, result.get(0).getId());
+        assertEquals(3, result.get(1).getId());
+        assertEquals(6, result.get(1).getTotalFrequency());
+        assertEquals(2, result.get(1).getDocFrequency());
+    }
+
+    @Test
+    public void memoryBudgetTest(){
+        long budget = 64L * 1024 * 1024;
+        long records = ExternalAggregator.recordsPerBuffer(budget);
+        // two buffers (records and sort keys) and the scratch array of the sort fit into the budget
+        long bytes = records * (2 * (ExternalAggregator.RECORD_SIZE + 8) + 8);
+        assertTrue(bytes <= budget, bytes + " > " + budget);
+        assertTrue(bytes > budget - 2 * (ExternalAggregator.RECORD_SIZE + 8) - 8);
+    }
+}
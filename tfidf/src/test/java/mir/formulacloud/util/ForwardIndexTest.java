@@ -0,0 +1,58 @@
+package mir.formulacloud.util;
+
+import mir.formulacloud.beans.Document;
+import mir.formulacloud.beans.MathVector;
+import mir.formulacloud.tfidf.ForwardIndexBuilder;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Andre Greiner-Petter
+ */
+public class ForwardIndexTest {
+
+    @Test
+    public void buildAndReadTest() throws Exception {
+        Path splitterOut = Files.createTempDirectory("splitter");
+        Files.createDirectory(splitterOut.resolve("db1"));
+        Files.createDirectory(splitterOut.resolve("db2"));
+
+        Document doc = new Document("db1", "1.xml");
+        doc.addFormula("mi:x", (short)1, (short)3, 0);
+        doc.addFormula("mi:y", (short)1, (short)5, 1);
+        doc.addFormula("mrow(mi:x,mo:=,mi:y)", (short)2, (short)2);
+        Files.write(splitterOut.resolve("db1").resolve("1.xml"), doc.toString().getBytes(StandardCharsets.UTF_8));
+        Files.write(splitterOut.resolve("db2").resolve("2.xml"), new byte[0]);
+        Files.write(splitterOut.resolve(Constants.DICTIONARY_FILE), "mi:x\nmi:y\n".getBytes(StandardCharsets.UTF_8));
+
+        Path indexFile = Files.createTempFile("forward", ".idx");
+        new ForwardIndexBuilder(splitterOut, indexFile, 2).build();
+        assertTrue(ForwardIndex.isForwardIndex(indexFile));
+        assertFalse(ForwardIndex.isForwardIndex(splitterOut));
+
+        try ( ForwardIndex index = ForwardIndex.open(indexFile) ){
+            assertEquals(2, index.size());
+            assertEquals(2, index.getMinTermFrequency());
+            assertEquals("db1", index.getDatabase("1.xml"));
+            assertEquals("db2", index.getDatabase("2.xml"));
+            assertNull(index.getMathVector("3.xml"));
+
+            MathVector vector = index.getMathVector("1.xml");
+            assertEquals(3, vector.size());
+            assertEquals("mrow(mi:x,mo:=,mi:y)", vector.getExpression(2));
+            assertEquals(2, vector.getDepth(2));
+            assertEquals(5, vector.getFrequency(1));
+            assertEquals(10, vector.getDocumentLength());
+            assertArrayEquals(new int[]{5, 2}, vector.getMaxFrequencyPerDepth());
+
+            MathVector empty = index.getMathVector("2.xml");
+            assertEquals(0, empty.size());
+            assertEquals(0, empty.getDocumentLength());
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package mir.formulacloud.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Andre Greiner-Petter
+ */
+public class IntObjectHashMapTest {
+
+    @Test
+    public void putAndGetTest(){
+        IntObjectHashMap<String> map = new IntObjectHashMap<>();
+        for ( int i = -500; i < 10_000; i++ ){
+            assertNull(map.put(i, "v"+i));
+        }
+        assertEquals(10_500, map.size());
+        assertEquals("v0", map.get(0));
+        assertEquals("v-500", map.get(-500));
+        assertEquals("v9999", map.get(9999));
+        assertNull(map.get(10_000));
+        assertFalse(map.containsKey(10_000));
+
+        assertEquals("v42", map.put(42, "x"));
+        assertEquals("x", map.get(42));
+        assertEquals(10_500, map.size());
+        assertEquals(10_500, new HashSet<>(map.values()).size());
+    }
+
+    @Test
+    public void mergeTest(){
+        IntObjectHashMap<Integer> left = new IntObjectHashMap<>();
+        IntObjectHashMap<Integer> right = new IntObjectHashMap<>();
+        left.put(1, 1);
+        left.put(2, 2);
+        right.put(2, 3);
+        right.put(3, 4);
+
+        left.mergeAll(right, Integer::sum);
+        assertEquals(3, left.size());
+        assertEquals(Integer.valueOf(1), left.get(1));
+        assertEquals(Integer.valueOf(5), left.get(2));
+        assertEquals(Integer.valueOf(4), left.get(3));
+    }
+
+    @Test
+    public void collectTest(){
+        IntObjectHashMap<List<String>> map = new IntObjectHashMap<>();
+        map.computeIfAbsent(7, k -> new LinkedList<>()).add("a");
+        map.computeIfAbsent(7, k -> new LinkedList<>()).add("b");
+        assertEquals(2, map.get(7).size());
+        assertEquals(1, map.size());
+    }
+}
@@ -0,0 +1,96 @@
+package mir.formulacloud.util;
+
+import mir.formulacloud.beans.MathElement;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Andre Greiner-Petter
+ */
+public class PartitionedAggregatorTest {
+
+    private static long hashOf(int id){
+        return SubtreeHash.of("mi:" + id);
+    }
+
+    @Test
+    public void partitionTest(){
+        for ( int i = 0; i < 1000; i++ ){
+            int p = SubtreeHash.partition(hashOf(i), 7);
+            assertTrue(p >= 0 && p < 7);
+        }
+        assertEquals(0, SubtreeHash.partition(-1L, 1));
+        assertEquals(6, SubtreeHash.partition(-1L, 7));
+    }
+
+    @Test
+    public void aggregateTest() throws IOException {
+        int partitions = 4;
+        Map<Integer, long[]> expected = new HashMap<>();
+
+        try ( PartitionedAggregator aggregator = new PartitionedAggregator(partitions) ){
+            // documents are added by several threads
+            IntStream.range(0, 200).parallel().forEach( doc -> {
+                Random random = new Random(doc);
+                int n = 1 + random.nextInt(50);
+                int[] ids = new int[n];
+                short[] depths = new short[n];
+                int[] tfs = new int[n];
+                int[] dfs = new int[n];
+                long[] hashes = new long[n];
+                for ( int i = 0; i < n; i++ ){
+                    ids[i] = random.nextInt(300);
+                    depths[i] = (short) (ids[i] % 5 + 1);
+                    tfs[i] = 1 + random.nextInt(3);
+                    dfs[i] = 1;
+                    hashes[i] = hashOf(ids[i]);
+                }
+                synchronized ( expected ){
+                    for ( int i = 0; i < n; i++ ){
+                        long[] sums = expected.computeIfAbsent(ids[i], k -> new long[2]);
+                        sums[0] += tfs[i];
+                        sums[1] += dfs[i];
+                    }
+                }
+                try {
+                    aggregator.add(ids, depths, tfs, dfs, hashes, n);
+                } catch ( InterruptedException ie ){
+                    throw new IllegalStateException(ie);
+                }
+            });
+
+            Map<Integer, MathElement> results = new ConcurrentHashMap<>();
+            aggregator.finish( (partition, elements) -> elements.forEach( (id, element) -> {
+                // every ID is aggregated in the partition of its hash only
+                assertEquals(partition, SubtreeHash.partition(element.getHash(), partitions));
+                assertNull(results.put(id, element));
+            }));
+
+            assertEquals(expected.keySet(), results.keySet());
+            for ( Map.Entry<Integer, long[]> e : expected.entrySet() ){
+                MathElement element = results.get(e.getKey());
+                assertEquals(e.getValue()[0], element.getTotalFrequency());
+                assertEquals(e.getValue()[1], element.getDocFrequency());
+                assertEquals(e.getKey().intValue(), element.getId());
+            }
+        }
+    }
+
+    @Test
+    public void consumerFailureTest(){
+        PartitionedAggregator aggregator = new PartitionedAggregator(2);
+        IOException ioe = assertThrows(IOException.class, () -> aggregator.finish( (partition, elements) -> {
+            throw new IOException("partition " + partition);
+        }));
+        assertTrue(ioe.getMessage().startsWith("partition "));
+        aggregator.close();
+    }
+}
@@ -0,0 +1,119 @@
+package mir.formulacloud.util;
+
+import mir.formulacloud.beans.MathVector;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Andre Greiner-Petter
+ */
+public class SubtreeExtractorTest {
+
+    private static final String HARVEST =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<mws:harvest xmlns:mws=\"http://search.mathweb.org/ns\" xmlns=\"http://www.w3.org/1998/Math/MathML\" data-doc-id=\"1.xml\">\n" +
+            "  <mws:expr url=\"1.xml#1\">\n" +
+            "    <math><mrow><mi>x</mi><mo>&#x2062;</mo><msup><mi>y</mi><mn>2</mn></msup></mrow></math>\n" +
+            "  </mws:expr>\n" +
+            "  <mws:expr url=\"1.xml#2\">\n" +
+            "    <math>\n" +
+            "      <mi> x </mi>\n" +
+            "    </math>\n" +
+            "  </mws:expr>\n" +
+            "  <mws:expr url=\"1.xml#3\">\n" +
+            "    <math><mrow><mi>f</mi><mo>&#x2061;</mo><mrow><mo>(</mo><mi>x</mi><mo>&lt;</mo><mn>1</mn><mo>)</mo></mrow></mrow></math>\n" +
+            "  </mws:expr>\n" +
+            "  <mws:expr url=\"1.xml#4\">\n" +
+            "    <math><mrow><mn>1</mn><mo>+</mo><mn>2</mn></mrow></math>\n" +
+            "  </mws:expr>\n" +
+            "</mws:harvest>\n";
+
+    private static MathVector extract(int minTF) throws IOException {
+        return new SubtreeExtractor(minTF).extract(new ByteArrayInputStream(HARVEST.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static int indexOf(MathVector vector, String expression){
+        for ( int i = 0; i < vector.size(); i++ )
+            if ( vector.getExpression(i).equals(expression) ) return i;
+        return -1;
+    }
+
+    @Test
+    public void subtreeTest() throws IOException {
+        MathVector vector = extract(1);
+
+        int i = indexOf(vector, "mrow(mi:x,mo:ivt,msup(mi:y,mn:2))");
+        assertTrue(i >= 0);
+        assertEquals(3, vector.getDepth(i));
+        assertEquals(1, vector.getFrequency(i));
+
+        i = indexOf(vector, "msup(mi:y,mn:2)");
+        assertEquals(2, vector.getDepth(i));
+
+        // text is trimmed and the special characters are mapped
+        i = indexOf(vector, "mi:x");
+        assertEquals(1, vector.getDepth(i));
+        assertEquals(3, vector.getFrequency(i));
+
+        // escaped as in the results of BaseX
+        i = indexOf(vector, "mrow(mi:f,mo:fap,mrow(mo:(,mi:x,mo:&lt;,mn:1,mo:)))");
+        assertEquals(3, vector.getDepth(i));
+    }
+
+    @Test
+    public void miFilterTest() throws IOException {
+        MathVector vector = extract(1);
+        // elements without mi descendants are not extracted
+        assertEquals(-1, indexOf(vector, "mo:ivt"));
+        assertEquals(-1, indexOf(vector, "mn:2"));
+        assertEquals(-1, indexOf(vector, "mrow(mn:1,mo:+,mn:2)"));
+        assertEquals(7, vector.size());
+    }
+
+    @Test
+    public void orderAndMinTermFrequencyTest() throws IOException {
+        MathVector vector = extract(1);
+        // ordered by depth and descending frequency
+        assertEquals("mi:x", vector.getExpression(0));
+        for ( int i = 1; i < vector.size(); i++ ){
+            assertTrue(vector.getDepth(i-1) <= vector.getDepth(i));
+            if ( vector.getDepth(i-1) == vector.getDepth(i) )
+                assertTrue(vector.getFrequency(i-1) >= vector.getFrequency(i));
+        }
+
+        MathVector frequent = extract(2);
+        assertEquals(1, frequent.size());
+        assertEquals("mi:x", frequent.getExpression(0));
+        assertEquals(3, frequent.getFrequency(0));
+    }
+
+    @Test
+    public void lineBreakTest() throws IOException {
+        String harvest =
+                "<mws:harvest xmlns:mws=\"http://search.mathweb.org/ns\" xmlns=\"http://www.w3.org/1998/Math/MathML\">\n" +
+                "  <mws:expr url=\"1.xml#1\">\n" +
+                "    <math><mrow><mi>a\nb</mi><mo>+</mo><mi>x</mi></mrow></math>\n" +
+                "  </mws:expr>\n" +
+                "</mws:harvest>\n";
+        MathVector vector = new SubtreeExtractor(1).extract(new ByteArrayInputStream(harvest.getBytes(StandardCharsets.UTF_8)));
+
+        // BaseX results with line breaks are not matched by BASEX_ELEMENT_PATTERN, neither the leaf nor its ancestors
+        assertEquals(1, vector.size());
+        assertEquals("mi:x", vector.getExpression(0));
+        for ( int i = 0; i < vector.size(); i++ )
+            assertEquals(-1, vector.getExpression(i).indexOf('\n'));
+    }
+
+    @Test
+    public void malformedTest(){
+        SubtreeExtractor extractor = new SubtreeExtractor(1);
+        assertThrows(IOException.class, () -> extractor.extract(
+                new ByteArrayInputStream("<math xmlns=\"http://www.w3.org/1998/Math/MathML\"><mi>x</math>".getBytes(StandardCharsets.UTF_8))
+        ));
+    }
+}
@@ -0,0 +1,52 @@
+package mir.formulacloud.util;
+
+import mir.formulacloud.beans.MathVector;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Andre Greiner-Petter
+ */
+public class SubtreeHashTest {
+
+    @Test
+    public void mergeChildrenTest(){
+        SubtreeHash x = new SubtreeHash().append("mi:x");
+        SubtreeHash two = new SubtreeHash().append("mn:2");
+        SubtreeHash sup = new SubtreeHash().append("msup(").append(x).append(',').append(two).append(')');
+        assertEquals(SubtreeHash.of("msup(mi:x,mn:2)"), sup.value());
+
+        SubtreeHash row = new SubtreeHash().append("mrow(").append(sup).append(",mo:+,mi:y)");
+        assertEquals(SubtreeHash.of("mrow(msup(mi:x,mn:2),mo:+,mi:y)"), row.value());
+    }
+
+    @Test
+    public void distinctTest(){
+        assertNotEquals(SubtreeHash.of("mrow(mi:x,mo:+,mi:y)"), SubtreeHash.of("mrow(mi:y,mo:+,mi:x)"));
+        assertNotEquals(SubtreeHash.of("mi:x"), SubtreeHash.of("mi:xx"));
+        assertNotEquals(SubtreeHash.UNKNOWN, SubtreeHash.of(""));
+
+        HashSet<Long> hashes = new HashSet<>();
+        for ( int i = 0; i < 100_000; i++ )
+            hashes.add(SubtreeHash.of("mrow(mi:x,mo:+,mn:" + i + ")"));
+        assertEquals(100_000, hashes.size());
+    }
+
+    @Test
+    public void extractorTest() throws IOException {
+        String harvest = "<mws:harvest xmlns:mws=\"http://search.mathweb.org/ns\" xmlns=\"http://www.w3.org/1998/Math/MathML\">" +
+                "<mws:expr><math><mrow><mi>x</mi><mo>&lt;</mo><msup><mi>y</mi><mn>2</mn></msup></mrow></math></mws:expr>" +
+                "</mws:harvest>";
+        MathVector vector = new SubtreeExtractor(1).extract(new ByteArrayInputStream(harvest.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(4, vector.size());
+        // hashes of the extraction are the same as the hashes of the strings (e.g., of BaseX results)
+        for ( int i = 0; i < vector.size(); i++ )
+            assertEquals(SubtreeHash.of(vector.getExpression(i)), vector.getHash(i), vector.getExpression(i));
+    }
+}
@@ -0,0 +1,121 @@
+package mir.formulacloud.util;
+
+import mir.formulacloud.beans.MathElement;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Andre Greiner-Petter
+ */
+public class TFIDFTableParserTest {
+
+    @Test
+    public void simpleLineTest(){
+        MathElement e = new TFIDFTableParser().parseLine("\"mrow(msub(mi:E,mn:0),mo:=,mi:m)\";3;42;17");
+        assertEquals("mrow(msub(mi:E,mn:0),mo:=,mi:m)", e.getExpression());
+        assertEquals(3, e.getDepth());
+        assertEquals(42, e.getTotalFrequency());
+        assertEquals(17, e.getDocFrequency());
+        assertEquals(-1, e.getId());
+    }
+
+    @Test
+    public void idColumnTest(){
+        MathElement e = new TFIDFTableParser().parseLine("\"mrow(mi:a,mo:;,mi:b)\";2;42;17;1337");
+        assertEquals("mrow(mi:a,mo:;,mi:b)", e.getExpression());
+        assertEquals(2, e.getDepth());
+        assertEquals(42, e.getTotalFrequency());
+        assertEquals(17, e.getDocFrequency());
+        assertEquals(1337, e.getId());
+        assertEquals("\"mrow(mi:a,mo:;,mi:b)\";2;42;17;1337", e.toString());
+    }
+
+    @Test
+    public void hashColumnTest() throws Exception {
+        MathElement e = new TFIDFTableParser().parseLine("\"mrow(mi:a,mo:;,mi:b)\";2;42;17;-1;-4242424242424242");
+        assertEquals("mrow(mi:a,mo:;,mi:b)", e.getExpression());
+        assertEquals(17, e.getDocFrequency());
+        assertEquals(-1, e.getId());
+        assertEquals(-4242424242424242L, e.getHash());
+        assertEquals("\"mrow(mi:a,mo:;,mi:b)\";2;42;17;-1;-4242424242424242", e.toString());
+
+        e = new TFIDFTableParser().parseLine("\"mi:x\";1;2;3;4;" + Long.MIN_VALUE);
+        assertEquals(Long.MIN_VALUE, e.getHash());
+
+        // entries of tables without the hash column get the hash of the expression
+        Path file = Files.createTempFile("tfidf", "");
+        Files.write(file, Arrays.asList(
+                "\"mrow(mi:a,mo:;,mi:b)\";2;42;17;1337",
+                "\"mi:x\";1;2;3;4;42"
+        ), StandardCharsets.UTF_8);
+        HashMap<String, Long> map = new HashMap<>();
+        new TFIDFTableParser().parse(file, (expr, depth, tf, df, id, hash) -> map.put(expr, hash));
+        assertEquals(Long.valueOf(SubtreeHash.of("mrow(mi:a,mo:;,mi:b)")), map.get("mrow(mi:a,mo:;,mi:b)"));
+        assertEquals(Long.valueOf(42), map.get("mi:x"));
+    }
+
+    @Test
+    public void semicolonAndQuoteTest(){
+        MathElement e = new TFIDFTableParser().parseLine("\"mrow(mo:;,mo:\",mi:x)\";2;5;1");
+        assertEquals("mrow(mo:;,mo:\",mi:x)", e.getExpression());
+        assertEquals(2, e.getDepth());
+
+        e = new TFIDFTableParser().parseLine("\"mo:\"\";1;7;3");
+        assertEquals("mo:\"", e.getExpression());
+        assertEquals(7, e.getTotalFrequency());
+    }
+
+    @Test
+    public void malformedLineTest(){
+        TFIDFTableParser parser = new TFIDFTableParser();
+        assertNull(parser.parseLine("\"mi:x\";1;2"));
+        assertNull(parser.parseLine("mi:x;1;2;3"));
+        assertNull(parser.parseLine("\"mi:x\";1;a;3"));
+    }
+
+    @Test
+    public void fileWithSmallBufferTest() throws Exception {
+        Path file = Files.createTempFile("tfidf", "");
+        StringBuilder sb = new StringBuilder();
+        for ( int i = 0; i < 1000; i++ ){
+            sb.append("\"mrow(mi:x,mo:+,mn:").append(i).append(")\";2;").append(i).append(";1\r\n");
+        }
+        sb.append("\"mi:ζ\";1;5;5"); // no line break at the end
+        Files.write(file, sb.toString().getBytes(StandardCharsets.UTF_8));
+
+        HashMap<String, Integer> map = new HashMap<>();
+        long counter = new TFIDFTableParser(16).parse(file, (expr, depth, tf, df, id, hash) -> map.put(expr, tf));
+        assertEquals(1001, counter);
+        assertEquals(1001, map.size());
+        assertEquals(Integer.valueOf(999), map.get("mrow(mi:x,mo:+,mn:999)"));
+        assertEquals(Integer.valueOf(5), map.get("mi:ζ"));
+    }
+
+    @Test
+    public void filterTest() throws Exception {
+        Path file = Files.createTempFile("tfidf", "");
+        Files.write(file, Arrays.asList(
+                "\"mi:x\";1;1000;500;0",
+                "\"mrow(mi:x,mo:+,mi:y)\";2;40;20;1",
+                "\"mrow(mi:x,mo:+,mi:y,mo:=,mi:z)\";2;40;2;2",
+                "\"msup(mrow(mi:x,mo:+,mi:y),mn:2)\";3;10;5;3"
+        ), StandardCharsets.UTF_8);
+
+        TFIDFTableParser parser = new TFIDFTableParser().setFilter(
+                new FrequencyFilter().depth(2, 10).documentFrequency(5, 100)
+        );
+        HashMap<String, Integer> map = new HashMap<>();
+        long counter = parser.parse(file, (expr, depth, tf, df, id, hash) -> map.put(expr, id));
+        assertEquals(2, counter);
+        assertEquals(2, parser.getFilteredLines());
+        assertEquals(Integer.valueOf(1), map.get("mrow(mi:x,mo:+,mi:y)"));
+        assertEquals(Integer.valueOf(3), map.get("msup(mrow(mi:x,mo:+,mi:y),mn:2)"));
+    }
+}
@@ -0,0 +1,101 @@
+package mir.formulacloud.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.regex.Matcher;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Andre Greiner-Petter
+ */
+public class XQueryLoaderTest {
+
+    @Test
+    public void batchScriptTest(){
+        String script = XQueryLoader.getBatchScript(Arrays.asList("1000474.xml", "a\"b&c.xml"), 1);
+        assertTrue(script.contains("declare variable $docids := (\"1000474.xml\", \"a\"\"b&amp;c.xml\");"), script);
+        assertTrue(script.contains("declare variable $minDocFreq := 1;"), script);
+        assertTrue(script.contains("local:extractTerms($doc[1], $minDocFreq)"));
+        assertFalse(script.contains("$$"));
+        assertEquals(script, XQueryLoader.getScript(1, "1000474.xml", "a\"b&c.xml"));
+    }
+
+    @Test
+    public void minTermFrequencyPerScriptTest(){
+        // scripts with different minimum term frequencies do not affect each other
+        String script5 = XQueryLoader.getScript("1000474.xml", 5);
+        String script1 = XQueryLoader.getScript("1000474.xml", 1);
+        assertTrue(script5.contains("declare variable $minDocFreq := 5;"), script5);
+        assertTrue(script1.contains("declare variable $minDocFreq := 1;"), script1);
+        assertEquals(script5, XQueryLoader.getScript("1000474.xml", 5));
+
+        String zb = XQueryLoader.getZBScriptForSingleDoc("eigenvalue", "1234", 3);
+        assertTrue(zb.contains("declare variable $minDocFreq := 3;"), zb);
+        assertTrue(zb.contains("declare variable $docID := \"1234\";"), zb);
+        assertFalse(zb.contains("$$"));
+    }
+
+    @Test
+    public void extractorTest(){
+        XQueryLoader.Extractor selected = XQueryLoader.getDefaultExtractor();
+        try {
+            String memo = XQueryLoader.getScript("1000474.xml", 1, XQueryLoader.Extractor.MEMOIZED);
+            assertTrue(memo.contains("local:subtree"), memo);
+            assertFalse(memo.contains("order by"), memo);
+            assertTrue(memo.endsWith("local:extractTerms($doc[1], $minDocFreq)"), memo);
+
+            XQueryLoader.setDefaultExtractor(XQueryLoader.Extractor.MEMOIZED);
+            assertEquals(memo, XQueryLoader.getScript("1000474.xml", 1));
+            assertTrue(XQueryLoader.getBatchScript(Arrays.asList("1.xml", "2.xml"), 1).contains("local:subtree"));
+
+            XQueryLoader.setDefaultExtractor(XQueryLoader.Extractor.DEFAULT);
+            assertFalse(XQueryLoader.getScript("1000474.xml", 1).contains("local:subtree"));
+        } finally {
+            XQueryLoader.setDefaultExtractor(selected);
+        }
+    }
+
+    @Test
+    public void zbScriptTest(){
+        // the scripts contain only the functions, the query body is added once by the loader
+        for ( XQueryLoader.Extractor extractor : XQueryLoader.Extractor.values() ){
+            String zb = XQueryLoader.getZBScript("eigenvalue", 2, extractor);
+            assertEquals(zb.indexOf("declare variable $docs"), zb.lastIndexOf("declare variable $docs"), zb);
+            assertTrue(zb.endsWith("local:extractTerms($docs, $minDocFreq)"), zb);
+        }
+    }
+
+    @Test
+    public void splitBatchResultTest(){
+        String results =
+                "<document xmlns=\"http://www.w3.org/1998/Math/MathML\" id=\"1.xml\">\n" +
+                "  <element freq=\"3\" depth=\"1\">mi:x</element>\n" +
+                "  <element freq=\"1\" depth=\"2\">mrow(mi:x,mo:=,mn:1)</element>\n" +
+                "</document>\n" +
+                "<document xmlns=\"http://www.w3.org/1998/Math/MathML\" id=\"2.xml\"/>\n" +
+                "<document xmlns=\"http://www.w3.org/1998/Math/MathML\" id=\"a&amp;b.xml\">\n" +
+                "  <element freq=\"2\" depth=\"1\">mi:y</element>\n" +
+                "</document>";
+
+        LinkedHashMap<String, String> docs = XQueryLoader.splitBatchResult(results);
+        assertEquals(Arrays.asList("1.xml", "2.xml", "a&b.xml"), Arrays.asList(docs.keySet().toArray()));
+
+        Matcher m = Constants.BASEX_ELEMENT_PATTERN.matcher(docs.get("1.xml"));
+        assertTrue(m.find());
+        assertEquals("mi:x", m.group(Constants.BX_IDX_EXPR));
+        assertTrue(m.find());
+        assertEquals("2", m.group(Constants.BX_IDX_DEPTH));
+        assertFalse(m.find());
+
+        assertFalse(Constants.BASEX_ELEMENT_PATTERN.matcher(docs.get("2.xml")).find());
+
+        m = Constants.BASEX_ELEMENT_PATTERN.matcher(docs.get("a&b.xml"));
+        assertTrue(m.find());
+        assertEquals("mi:y", m.group(Constants.BX_IDX_EXPR));
+
+        assertTrue(XQueryLoader.splitBatchResult("").isEmpty());
+    }
+}